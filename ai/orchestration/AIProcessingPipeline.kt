@@ -22,12 +22,19 @@ import com.sallie.ai.orchestration.AIContextManager
 import com.sallie.ai.orchestration.AIModuleRegistry
 import com.sallie.ai.orchestration.AIResourceManager
 import com.sallie.ai.orchestration.AITaskManager
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
@@ -41,14 +48,41 @@ import java.util.concurrent.ConcurrentHashMap
  * 3. Task Distribution - Routes tasks to appropriate AI modules
  * 4. Response Synthesis - Combines and formats responses
  * 5. Post-Processing - Handles persistence, learning, and follow-ups
+ *
+ * Requests enter through a bounded admission queue and run concurrently, so different
+ * requests overlap stages. Each stage has its own concurrency limit (see [PipelineConfig]).
+ * [processStreaming] emits partial responses while slow modules are still running.
  */
 class AIProcessingPipeline(
     private val contextManager: AIContextManager,
     private val moduleRegistry: AIModuleRegistry,
     private val taskManager: AITaskManager,
-    private val resourceManager: AIResourceManager
+    private val resourceManager: AIResourceManager,
+    private val config: PipelineConfig = PipelineConfig()
 ) {
-    private val coroutineScope = CoroutineScope(Dispatchers.Default)
+    private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    
+    // Admission queue; senders suspend while it is full
+    private val admissionQueue = Channel<PipelineJob>(config.queueCapacity)
+    private val inFlightRequests = Semaphore(config.maxConcurrentRequests)
+    private val stagePermits = PipelineStage.values().associateWith { stage ->
+        Semaphore(config.stageParallelism[stage] ?: config.defaultStageParallelism)
+    }
+    
+    // Completed requests are dropped from the state map after a retention period
+    private val cleanupWheel = TimerWheel(coroutineScope)
+    
+    // Coalesces state changes so bursts of stage updates publish one snapshot
+    private val stateChanges = Channel<Unit>(Channel.CONFLATED)
+    
+    // Deadline-bounded module fan-out with learned per-module timeouts
+    private val scatterGather = ScatterGatherExecutor(config.scatterGather)
+    
+    private class PipelineJob(
+        val request: UserRequest,
+        val onPartial: (suspend (PartialResponse) -> Unit)?,
+        val result: CompletableDeferred<ProcessingResult> = CompletableDeferred()
+    )
     
     // Pipeline stages
     private val inputProcessors = mutableListOf<InputProcessor>()
@@ -74,10 +108,80 @@ class AIProcessingPipeline(
         registerPostProcessor(DefaultPostProcessor())
     }
     
+    init {
+        // Admit queued requests while respecting the in-flight limit
+        coroutineScope.launch {
+            for (job in admissionQueue) {
+                // Skip requests whose caller stopped waiting while they were queued
+                if (job.result.isCancelled) continue
+                inFlightRequests.acquire()
+                val worker = launch {
+                    try {
+                        job.result.complete(runPipeline(job.request, job.onPartial))
+                    } catch (e: Throwable) {
+                        job.result.completeExceptionally(e)
+                    } finally {
+                        inFlightRequests.release()
+                    }
+                }
+                job.result.invokeOnCompletion { if (job.result.isCancelled) worker.cancel() }
+            }
+        }
+        
+        // Publish processing state snapshots
+        coroutineScope.launch {
+            for (change in stateChanges) {
+                _processingState.value = activeRequests.toMap()
+            }
+        }
+    }
+    
     /**
      * Process a user request through the entire pipeline
      */
     suspend fun process(request: UserRequest): ProcessingResult {
+        return submit(PipelineJob(request, onPartial = null))
+    }
+    
+    /**
+     * Process a user request, emitting partial responses as module tasks complete and a
+     * final response carrying the [ProcessingResult]. A collector that stops collecting
+     * cancels the request.
+     */
+    fun processStreaming(request: UserRequest): Flow<PartialResponse> = channelFlow {
+        val result = submit(PipelineJob(request, onPartial = { partial -> send(partial) }))
+        
+        send(PartialResponse(
+            requestId = result.requestId,
+            response = result.response,
+            completedModules = activeRequests[result.requestId]?.synthesizedResponse?.sourceModules ?: emptyList(),
+            pendingModules = emptyList(),
+            isFinal = true,
+            result = result
+        ))
+    }
+    
+    /**
+     * Queue a request and wait for its result, cancelling the request if the caller is
+     * cancelled first
+     */
+    private suspend fun submit(job: PipelineJob): ProcessingResult {
+        try {
+            admissionQueue.send(job)
+            return job.result.await()
+        } catch (e: CancellationException) {
+            job.result.cancel(e)
+            throw e
+        }
+    }
+    
+    /**
+     * Run one request through all stages
+     */
+    private suspend fun runPipeline(
+        request: UserRequest,
+        onPartial: (suspend (PartialResponse) -> Unit)?
+    ): ProcessingResult {
         // Generate a unique request ID
         val requestId = UUID.randomUUID().toString()
         
@@ -95,31 +199,36 @@ class AIProcessingPipeline(
         
         try {
             // Run through pipeline stages
-            val processedInput = processInput(request, requestId)
-            val enrichedContext = enrichContext(processedInput, requestId)
-            val distributedTasks = distributeTasks(enrichedContext, requestId)
-            val synthesizedResponse = synthesizeResponse(distributedTasks, requestId)
-            val finalResult = postProcess(synthesizedResponse, requestId)
+            val processedInput = stage(PipelineStage.INPUT) { processInput(request, requestId) }
+            val enrichedContext = stage(PipelineStage.CONTEXT) { enrichContext(processedInput, requestId) }
+            val distributedTasks = stage(PipelineStage.TASKS) { distributeTasks(enrichedContext, requestId, onPartial) }
+            val synthesizedResponse = stage(PipelineStage.SYNTHESIS) { synthesizeResponse(distributedTasks, requestId) }
+            val finalResult = stage(PipelineStage.POST_PROCESSING) { postProcess(synthesizedResponse, requestId) }
             
             // Update state with completion
-            val finalState = state.copy(
-                status = ProcessingStatus.COMPLETED,
-                result = finalResult,
-                endTime = System.currentTimeMillis()
-            )
-            activeRequests[requestId] = finalState
-            updateProcessingState()
+            updateRequest(requestId) {
+                it.copy(
+                    status = ProcessingStatus.COMPLETED,
+                    result = finalResult,
+                    endTime = System.currentTimeMillis()
+                )
+            }
             
             return finalResult
+        } catch (e: CancellationException) {
+            updateRequest(requestId) {
+                it.copy(status = ProcessingStatus.CANCELLED, endTime = System.currentTimeMillis())
+            }
+            throw e
         } catch (e: Exception) {
             // Handle errors
-            val errorState = state.copy(
-                status = ProcessingStatus.ERROR,
-                error = e.message ?: "Unknown error",
-                endTime = System.currentTimeMillis()
-            )
-            activeRequests[requestId] = errorState
-            updateProcessingState()
+            updateRequest(requestId) {
+                it.copy(
+                    status = ProcessingStatus.ERROR,
+                    error = e.message ?: "Unknown error",
+                    endTime = System.currentTimeMillis()
+                )
+            }
             
             return ProcessingResult(
                 requestId = requestId,
@@ -128,17 +237,21 @@ class AIProcessingPipeline(
                 response = "I'm sorry, but I encountered an issue while processing your request."
             )
         } finally {
-            // Clean up after a delay
-            coroutineScope.launch {
-                withContext(Dispatchers.IO) {
-                    Thread.sleep(5000)
-                    activeRequests.remove(requestId)
-                    updateProcessingState()
-                }
+            // Clean up after the retention period
+            cleanupWheel.schedule(config.completedRequestRetentionMs) {
+                activeRequests.remove(requestId)
+                updateProcessingState()
             }
         }
     }
     
+    /**
+     * Run [block] while holding one of the stage's concurrency permits
+     */
+    private suspend fun <T> stage(stage: PipelineStage, block: suspend () -> T): T {
+        return stagePermits.getValue(stage).withPermit { block() }
+    }
+    
     /**
      * Stage 1: Process and enhance the input
      */
@@ -166,13 +279,7 @@ class AIProcessingPipeline(
         )
         
         // Update processing state
-        val currentState = activeRequests[requestId]
-        if (currentState != null) {
-            activeRequests[requestId] = currentState.copy(
-                processedInput = processedInput
-            )
-            updateProcessingState()
-        }
+        updateRequest(requestId) { it.copy(processedInput = processedInput) }
         
         return processedInput
     }
@@ -206,13 +313,7 @@ class AIProcessingPipeline(
         )
         
         // Update processing state
-        val currentState = activeRequests[requestId]
-        if (currentState != null) {
-            activeRequests[requestId] = currentState.copy(
-                enrichedContext = enrichedContext
-            )
-            updateProcessingState()
-        }
+        updateRequest(requestId) { it.copy(enrichedContext = enrichedContext) }
         
         return enrichedContext
     }
@@ -220,7 +321,11 @@ class AIProcessingPipeline(
     /**
      * Stage 3: Distribute tasks to appropriate AI modules
      */
-    private suspend fun distributeTasks(context: EnrichedContext, requestId: String): List<TaskResult> {
+    private suspend fun distributeTasks(
+        context: EnrichedContext,
+        requestId: String,
+        onPartial: (suspend (PartialResponse) -> Unit)? = null
+    ): List<TaskResult> {
         updateStageStatus(requestId, ProcessingStatus.DISTRIBUTING_TASKS)
         
         // Find relevant modules
@@ -237,23 +342,20 @@ class AIProcessingPipeline(
             )
         }
         
-        // Submit tasks and wait for results
+        // Scatter tasks and gather results until the deadline, reporting progress in between
+        val completed = arrayOfNulls<TaskResult>(tasks.size)
+        var received = 0
         val taskResults = withContext(Dispatchers.Default) {
-            tasks.map { task ->
-                async {
-                    taskManager.executeTask(task)
+            scatterGather.gather(tasks, { task -> taskManager.executeTask(task) }) { index, result ->
+                completed[index] = result
+                if (onPartial != null && ++received < tasks.size) {
+                    onPartial(partialResponse(requestId, tasks, completed))
                 }
-            }.map { it.await() }
+            }
         }
         
         // Update processing state
-        val currentState = activeRequests[requestId]
-        if (currentState != null) {
-            activeRequests[requestId] = currentState.copy(
-                taskResults = taskResults
-            )
-            updateProcessingState()
-        }
+        updateRequest(requestId) { it.copy(taskResults = taskResults) }
         
         return taskResults
     }
@@ -292,13 +394,7 @@ class AIProcessingPipeline(
         )
         
         // Update processing state
-        val currentState = activeRequests[requestId]
-        if (currentState != null) {
-            activeRequests[requestId] = currentState.copy(
-                synthesizedResponse = synthesizedResponse
-            )
-            updateProcessingState()
-        }
+        updateRequest(requestId) { it.copy(synthesizedResponse = synthesizedResponse) }
         
         return synthesizedResponse
     }
@@ -345,35 +441,45 @@ class AIProcessingPipeline(
         return result
     }
     
+    /**
+     * Partial response built from the module results that have arrived so far
+     */
+    private fun partialResponse(requestId: String, tasks: List<AITask>, completed: Array<TaskResult?>): PartialResponse {
+        val done = completed.filterNotNull()
+        return PartialResponse(
+            requestId = requestId,
+            response = done.joinToString(" ") { it.output }.trim(),
+            completedModules = done.map { it.moduleId },
+            pendingModules = tasks.filterIndexed { index, _ -> completed[index] == null }.map { it.moduleId }
+        )
+    }
+    
     /**
      * Schedule a follow-up action to be executed later
      */
     private fun scheduleFollowUpAction(action: FollowUpAction) {
-        coroutineScope.launch {
-            // Wait until the scheduled time
-            val delay = action.scheduledTime - System.currentTimeMillis()
-            if (delay > 0) {
-                withContext(Dispatchers.IO) {
-                    Thread.sleep(delay)
-                }
+        // Wait on the timer wheel until the scheduled time
+        cleanupWheel.schedule(action.scheduledTime - System.currentTimeMillis()) {
+            coroutineScope.launch { executeFollowUpAction(action) }
+        }
+    }
+    
+    private suspend fun executeFollowUpAction(action: FollowUpAction) {
+        // Execute the action
+        when (action.type) {
+            FollowUpActionType.NOTIFICATION -> {
+                // Send notification
+                // Implementation depends on platform notification system
             }
-            
-            // Execute the action
-            when (action.type) {
-                FollowUpActionType.NOTIFICATION -> {
-                    // Send notification
-                    // Implementation depends on platform notification system
-                }
-                FollowUpActionType.TASK -> {
-                    // Create a new task
-                    val task = AITask(
-                        moduleId = action.moduleId ?: "default",
-                        input = action.input ?: "",
-                        context = action.context ?: emptyMap(),
-                        priority = action.priority ?: 1
-                    )
-                    taskManager.executeTask(task)
-                }
+            FollowUpActionType.TASK -> {
+                // Create a new task
+                val task = AITask(
+                    moduleId = action.moduleId ?: "default",
+                    input = action.input ?: "",
+                    context = action.context ?: emptyMap(),
+                    priority = action.priority ?: 1
+                )
+                taskManager.executeTask(task)
             }
         }
     }
@@ -401,27 +507,48 @@ class AIProcessingPipeline(
             priority += 2
         }
         
+        // Adjust based on observed latency, so fast modules are scheduled ahead of slow ones
+        val p95 = scatterGather.latencies.percentile(moduleId, 0.95, config.scatterGather.minSamples)
+        if (p95 != null) {
+            val deadline = config.scatterGather.requestDeadlineMs
+            if (p95 > deadline / 2) {
+                priority -= 1
+            } else if (p95 < deadline / 10) {
+                priority += 1
+            }
+        }
+        
         return priority
     }
     
+    /**
+     * Per-module p50/p95/p99 latencies observed by the scatter/gather stage
+     */
+    fun getModuleLatencyStats(): Map<String, ModuleLatencyStats> {
+        return scatterGather.latencies.getAllStats()
+    }
+    
     /**
      * Update the status for the current processing stage
      */
     private fun updateStageStatus(requestId: String, status: ProcessingStatus) {
-        val currentState = activeRequests[requestId]
-        if (currentState != null) {
-            activeRequests[requestId] = currentState.copy(
-                status = status
-            )
+        updateRequest(requestId) { it.copy(status = status) }
+    }
+    
+    /**
+     * Atomically replace a request's state and schedule a state publication
+     */
+    private inline fun updateRequest(requestId: String, crossinline update: (ProcessingState) -> ProcessingState) {
+        if (activeRequests.computeIfPresent(requestId) { _, current -> update(current) } != null) {
             updateProcessingState()
         }
     }
     
     /**
-     * Update the overall processing state
+     * Update the overall processing state; bursts of changes are published as one snapshot
      */
     private fun updateProcessingState() {
-        _processingState.value = activeRequests.toMap()
+        stateChanges.trySend(Unit)
     }
     
     /**
@@ -453,6 +580,41 @@ class AIProcessingPipeline(
     }
 }
 
+/**
+ * Pipeline stages with independent concurrency limits
+ */
+enum class PipelineStage {
+    INPUT,
+    CONTEXT,
+    TASKS,
+    SYNTHESIS,
+    POST_PROCESSING
+}
+
+/**
+ * Pipeline capacity settings
+ */
+data class PipelineConfig(
+    val queueCapacity: Int = 64,
+    val maxConcurrentRequests: Int = 16,
+    val defaultStageParallelism: Int = 8,
+    val stageParallelism: Map<PipelineStage, Int> = emptyMap(),
+    val completedRequestRetentionMs: Long = 5000,
+    val scatterGather: ScatterGatherPolicy = ScatterGatherPolicy()
+)
+
+/**
+ * Partial response emitted while a request is still running; the last one is final
+ */
+data class PartialResponse(
+    val requestId: String,
+    val response: String,
+    val completedModules: List<String>,
+    val pendingModules: List<String>,
+    val isFinal: Boolean = false,
+    val result: ProcessingResult? = null
+)
+
 /**
  * User request containing the raw input text and metadata
  */
@@ -619,6 +781,7 @@ enum class ProcessingStatus {
     SYNTHESIZING_RESPONSE,
     POST_PROCESSING,
     COMPLETED,
+    CANCELLED,
     ERROR
 }
 
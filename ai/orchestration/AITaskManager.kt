@@ -18,11 +18,25 @@ package com.sallie.ai.orchestration
  * ╰──────────────────────────────────────────────────────────────────────────────╯
  */
 
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.atomic.LongAdder
 
 /**
  * Sallie's AI Task Manager
@@ -30,18 +44,34 @@ import java.util.concurrent.PriorityBlockingQueue
  * This component manages AI tasks within the orchestration system.
  * It handles task creation, prioritization, scheduling, and tracking.
  * Tasks represent units of work that need to be processed by the AI system.
+ *
+ * Scheduling uses one lock-free FIFO queue per [TaskPriority] level. A waiting task is
+ * promoted one level for every [agingIntervalMs] it has waited, so background work cannot
+ * starve behind a steady stream of urgent tasks. Tasks that yield are demoted one level
+ * below the level they last ran at each time they are requeued.
  */
-class AITaskManager {
+class AITaskManager(
+    private val agingIntervalMs: Long = 2000,
+    completedTaskCapacity: Int = MAX_COMPLETED_TASKS
+) {
+    
+    private class QueuedTask(val task: AITask, val level: Int, val enqueuedAt: Long)
     
     // Task storage
     private val activeTasks = ConcurrentHashMap<String, AITask>()
-    private val taskQueue = PriorityBlockingQueue<AITask>(11, TaskPriorityComparator())
-    private val completedTasks = LinkedList<AITask>()
-    private val mutex = Mutex()
+    private val levels = Array(TaskPriority.values().size) { ConcurrentLinkedQueue<QueuedTask>() }
+    private val queuedCount = AtomicInteger()
+    private val completedTasks = CompletedTaskRing(completedTaskCapacity)
     
     // Task statistics
-    private var tasksCreated = 0
-    private var tasksCompleted = 0
+    private val tasksCreated = LongAdder()
+    private val tasksCompleted = LongAdder()
+    private val tasksFailed = LongAdder()
+    private val agedPromotions = LongAdder()
+    
+    // Workers
+    private val workerScope = AtomicReference<CoroutineScope?>()
+    private val taskAvailable = Channel<Unit>(Channel.CONFLATED)
     
     /**
      * Create a new task with the given parameters
@@ -60,17 +90,27 @@ class AITaskManager {
         )
         
         activeTasks[task.id] = task
-        taskQueue.offer(task)
-        tasksCreated++
+        enqueue(task, priority.ordinal)
+        tasksCreated.increment()
         
         return task
     }
     
     /**
-     * Get the next task to be processed, based on priority
+     * Get the next task to be processed, based on priority and time waited
+     */
+    suspend fun getNextTask(): AITask? {
+        return pollTask()
+    }
+    
+    /**
+     * Put a task that yielded back in the queue, one level lower than it last ran at.
+     * A task that is already queued is left where it is.
      */
-    suspend fun getNextTask(): AITask? = mutex.withLock {
-        return taskQueue.poll()
+    fun requeueTask(taskId: String, demote: Boolean = true) {
+        val task = activeTasks[taskId] ?: return
+        val level = if (demote) minOf(task.queueLevel + 1, levels.size - 1) else task.queueLevel
+        enqueue(task, level)
     }
     
     /**
@@ -83,36 +123,29 @@ class AITaskManager {
     /**
      * Mark a task as completed
      */
-    suspend fun completeTask(taskId: String, result: Any? = null) = mutex.withLock {
-        val task = activeTasks.remove(taskId) ?: return@withLock
+    suspend fun completeTask(taskId: String, result: Any? = null) {
+        val task = activeTasks.remove(taskId) ?: return
         
         task.completionTime = System.currentTimeMillis()
         task.result = result
         task.status = TaskStatus.COMPLETED
         
-        completedTasks.addFirst(task)
-        if (completedTasks.size > MAX_COMPLETED_TASKS) {
-            completedTasks.removeLast()
-        }
-        
-        tasksCompleted++
+        completedTasks.add(task)
+        tasksCompleted.increment()
     }
     
     /**
      * Mark a task as failed
      */
-    suspend fun failTask(taskId: String, error: String) = mutex.withLock {
-        val task = activeTasks[taskId] ?: return@withLock
+    suspend fun failTask(taskId: String, error: String) {
+        val task = activeTasks.remove(taskId) ?: return
         
         task.completionTime = System.currentTimeMillis()
         task.status = TaskStatus.FAILED
         task.error = error
         
-        activeTasks.remove(taskId)
-        completedTasks.addFirst(task)
-        if (completedTasks.size > MAX_COMPLETED_TASKS) {
-            completedTasks.removeLast()
-        }
+        completedTasks.add(task)
+        tasksFailed.increment()
     }
     
     /**
@@ -123,6 +156,51 @@ class AITaskManager {
         task.status = status
     }
     
+    /**
+     * Start [workerCount] workers that take tasks from the queues and run [handler] on at most
+     * [workerCount] threads. The handler's return value becomes the task result; an exception
+     * fails the task.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun startWorkers(workerCount: Int, handler: suspend (AITask) -> Any?): Job {
+        val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default.limitedParallelism(workerCount))
+        check(workerScope.compareAndSet(null, scope)) { "Workers already started" }
+        
+        repeat(workerCount) {
+            scope.launch {
+                while (isActive) {
+                    val task = pollTask()
+                    if (task == null) {
+                        taskAvailable.receive()
+                        continue
+                    }
+                    
+                    // Wake another idle worker if more work is waiting
+                    if (queuedCount.get() > 0) taskAvailable.trySend(Unit)
+                    
+                    try {
+                        task.status = TaskStatus.PROCESSING
+                        completeTask(task.id, handler(task))
+                    } catch (e: CancellationException) {
+                        // Stopped mid-task: hand it back to the queue at the level it ran at
+                        enqueue(task, task.queueLevel)
+                        throw e
+                    } catch (e: Exception) {
+                        failTask(task.id, e.message ?: "Unknown error")
+                    }
+                }
+            }
+        }
+        return scope.coroutineContext[Job]!!
+    }
+    
+    /**
+     * Stop the workers; queued tasks stay queued and tasks that were running are queued again
+     */
+    fun stopWorkers() {
+        workerScope.getAndSet(null)?.cancel()
+    }
+    
     /**
      * Get all active tasks
      */
@@ -134,7 +212,7 @@ class AITaskManager {
      * Get recently completed tasks
      */
     fun getCompletedTasks(limit: Int = 10): List<AITask> {
-        return completedTasks.take(limit)
+        return completedTasks.recent(limit)
     }
     
     /**
@@ -142,13 +220,56 @@ class AITaskManager {
      */
     fun getTaskStatistics(): TaskStatistics {
         return TaskStatistics(
-            tasksCreated = tasksCreated,
-            tasksCompleted = tasksCompleted,
+            tasksCreated = tasksCreated.sum().toInt(),
+            tasksCompleted = tasksCompleted.sum().toInt(),
             activeTasksCount = activeTasks.size,
-            queuedTasksCount = taskQueue.size
+            queuedTasksCount = queuedCount.get(),
+            tasksFailed = tasksFailed.sum().toInt(),
+            agedPromotions = agedPromotions.sum().toInt()
         )
     }
     
+    private fun enqueue(task: AITask, level: Int) {
+        if (!task.queued.compareAndSet(false, true)) return
+        task.queueLevel = level
+        task.status = TaskStatus.QUEUED
+        levels[level].offer(QueuedTask(task, level, System.currentTimeMillis()))
+        queuedCount.incrementAndGet()
+        taskAvailable.trySend(Unit)
+    }
+    
+    /**
+     * Take the queue head with the best aged level. Heads are the oldest entries of their level,
+     * so only one entry per level has to be examined; the chosen level is then polled, which
+     * yields its current oldest entry even if another worker took the one that was peeked.
+     */
+    private fun pollTask(): AITask? {
+        while (queuedCount.get() > 0) {
+            val now = System.currentTimeMillis()
+            var bestQueue: ConcurrentLinkedQueue<QueuedTask>? = null
+            var bestLevel = Long.MAX_VALUE
+            var firstWaitingLevel = -1
+            for (queue in levels) {
+                val head = queue.peek() ?: continue
+                if (firstWaitingLevel < 0) firstWaitingLevel = head.level
+                val agedLevel = head.level - (now - head.enqueuedAt) / agingIntervalMs
+                if (agedLevel < bestLevel) {
+                    bestQueue = queue
+                    bestLevel = agedLevel
+                }
+            }
+            
+            // Another worker may have emptied the level in the meantime; retry if so
+            val taken = (bestQueue ?: return null).poll() ?: continue
+            queuedCount.decrementAndGet()
+            taken.task.queued.set(false)
+            // Aging let it overtake a higher-priority task
+            if (taken.level > firstWaitingLevel) agedPromotions.increment()
+            return taken.task
+        }
+        return null
+    }
+    
     /**
      * Generate a unique task ID
      */
@@ -161,6 +282,33 @@ class AITaskManager {
     }
 }
 
+/**
+ * Fixed-size ring of recently finished tasks; writers never block and the oldest entry is
+ * overwritten
+ */
+class CompletedTaskRing(private val capacity: Int) {
+    private val slots = AtomicReferenceArray<AITask?>(capacity)
+    private val written = AtomicLong()
+    
+    fun add(task: AITask) {
+        val index = written.getAndIncrement()
+        slots.set((index % capacity).toInt(), task)
+    }
+    
+    /**
+     * Up to [limit] tasks, most recent first
+     */
+    fun recent(limit: Int): List<AITask> {
+        val end = written.get()
+        val count = minOf(limit.toLong(), end, capacity.toLong()).toInt()
+        val result = ArrayList<AITask>(count)
+        for (i in 1..count) {
+            slots.get(((end - i) % capacity).toInt())?.let { result.add(it) }
+        }
+        return result
+    }
+}
+
 /**
  * Represents an AI task to be processed
  */
@@ -174,7 +322,12 @@ data class AITask(
     var completionTime: Long? = null,
     var result: Any? = null,
     var error: String? = null
-)
+) {
+    // Scheduling state: the level the task was last queued at, and whether it is queued now
+    @Volatile
+    internal var queueLevel: Int = priority.ordinal
+    internal val queued = AtomicBoolean(false)
+}
 
 /**
  * Task priority levels
@@ -215,7 +368,9 @@ data class TaskStatistics(
     val tasksCreated: Int,
     val tasksCompleted: Int,
     val activeTasksCount: Int,
-    val queuedTasksCount: Int
+    val queuedTasksCount: Int,
+    val tasksFailed: Int = 0,
+    val agedPromotions: Int = 0
 )
 
 /**
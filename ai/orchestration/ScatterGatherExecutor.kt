@@ -0,0 +1,296 @@
+package com.sallie.ai.orchestration
+
+/**
+ * ╭──────────────────────────────────────────────────────────────────────────────╮
+ * │                                                                              │
+ * │   Sallie - The Personal AI Companion That Truly Gets You                     │
+ * │                                                                              │
+ * │   Sallie is gentle, creative, and deeply empathetic. She understands         │
+ * │   the human experience from literature and art, not just data.               │
+ * │   Her goal is to help you explore your world, care for yourself,             │
+ * │   and find your own answers through thoughtful conversation.                 │
+ * │                                                                              │
+ * │   - Genuine & Balanced: Honest but tactfully optimistic                      │
+ * │   - Warm & Personal: Remembers your details, references shared history       │
+ * │   - Contemplative: Considers questions deeply before responding              │
+ * │   - Encouraging: Helps you develop your thoughts rather than imposing hers   │
+ * │                                                                              │
+ * ╰──────────────────────────────────────────────────────────────────────────────╯
+ */
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
+import kotlin.math.ln
+import kotlin.math.pow
+
+/**
+ * Scatter/gather settings for distributing one request across modules
+ */
+data class ScatterGatherPolicy(
+    // Overall budget for all module tasks of one request
+    val requestDeadlineMs: Long = 3000,
+    // Modules whose results the response cannot do without; empty means every module
+    val requiredModules: Set<String> = emptySet(),
+    // Modules that are safe to run twice, so slow calls may be hedged
+    val idempotentModules: Set<String> = emptySet(),
+    // How long optional modules may keep running once all required results are in
+    val optionalGraceMs: Long = 50,
+    // Learned module timeout is p99 times this factor
+    val timeoutMultiplier: Double = 2.0,
+    val minModuleTimeoutMs: Long = 100,
+    // Samples needed before timeouts and hedging use the histogram
+    val minSamples: Int = 20
+)
+
+/**
+ * Latency percentiles for one module
+ */
+data class ModuleLatencyStats(
+    val moduleId: String,
+    val sampleCount: Long,
+    val p50Ms: Long,
+    val p95Ms: Long,
+    val p99Ms: Long,
+    val timeouts: Long,
+    val hedgedCalls: Long
+)
+
+/**
+ * Per-module latency histograms
+ *
+ * Buckets grow geometrically by [growth], so percentiles are accurate to within one bucket
+ * (about 20%) from 1 ms to roughly an hour using a fixed 64-slot array per module. Counts are
+ * halved once a module reaches [windowSize] samples so the percentiles follow recent behavior.
+ */
+class ModuleLatencyTracker(
+    private val windowSize: Long = 2048,
+    private val growth: Double = 1.2
+) {
+    private inner class Histogram {
+        val counts = LongArray(BUCKETS)
+        var total = 0L
+        var timeouts = 0L
+        var hedgedCalls = 0L
+
+        fun percentile(p: Double): Long {
+            val rank = ceil(total * p).toLong().coerceAtLeast(1)
+            var seen = 0L
+            for (i in counts.indices) {
+                seen += counts[i]
+                if (seen >= rank) return upperBound(i)
+            }
+            return upperBound(BUCKETS - 1)
+        }
+    }
+
+    private val histograms = ConcurrentHashMap<String, Histogram>()
+
+    fun record(moduleId: String, latencyMs: Long, timedOut: Boolean = false) {
+        val histogram = histograms.computeIfAbsent(moduleId) { Histogram() }
+        synchronized(histogram) {
+            if (histogram.total >= windowSize) {
+                histogram.total = 0
+                for (i in histogram.counts.indices) {
+                    histogram.counts[i] = histogram.counts[i] / 2
+                    histogram.total += histogram.counts[i]
+                }
+            }
+            histogram.counts[bucketOf(latencyMs)]++
+            histogram.total++
+            if (timedOut) histogram.timeouts++
+        }
+    }
+
+    fun recordHedge(moduleId: String) {
+        val histogram = histograms.computeIfAbsent(moduleId) { Histogram() }
+        synchronized(histogram) { histogram.hedgedCalls++ }
+    }
+
+    /**
+     * Latency at percentile [p] (0..1), or null with fewer than [minSamples] samples
+     */
+    fun percentile(moduleId: String, p: Double, minSamples: Int = 1): Long? {
+        val histogram = histograms[moduleId] ?: return null
+        return synchronized(histogram) {
+            if (histogram.total < minSamples) null else histogram.percentile(p)
+        }
+    }
+
+    fun getStats(moduleId: String): ModuleLatencyStats? {
+        val histogram = histograms[moduleId] ?: return null
+        return synchronized(histogram) {
+            ModuleLatencyStats(
+                moduleId = moduleId,
+                sampleCount = histogram.total,
+                p50Ms = histogram.percentile(0.50),
+                p95Ms = histogram.percentile(0.95),
+                p99Ms = histogram.percentile(0.99),
+                timeouts = histogram.timeouts,
+                hedgedCalls = histogram.hedgedCalls
+            )
+        }
+    }
+
+    fun getAllStats(): Map<String, ModuleLatencyStats> {
+        val stats = HashMap<String, ModuleLatencyStats>()
+        for (moduleId in histograms.keys) {
+            getStats(moduleId)?.let { stats[moduleId] = it }
+        }
+        return stats
+    }
+
+    private fun bucketOf(latencyMs: Long): Int {
+        if (latencyMs <= 1) return 0
+        return (ceil(ln(latencyMs.toDouble()) / ln(growth)).toInt()).coerceIn(0, BUCKETS - 1)
+    }
+
+    private fun upperBound(bucket: Int): Long = ceil(growth.pow(bucket)).toLong()
+
+    companion object {
+        private const val BUCKETS = 64
+    }
+}
+
+/**
+ * Deadline-aware scatter/gather over module tasks
+ *
+ * All tasks start at once. Each task is bounded by the request deadline and by a timeout learned
+ * from its module's latency histogram. Idempotent modules get a second, hedged call once the first
+ * has run longer than the module's p95, and whichever returns first wins. Gathering stops as soon
+ * as every required module has answered (plus a short grace period for optional ones); tasks
+ * still running are cancelled and reported as timed out.
+ */
+class ScatterGatherExecutor(
+    private val policy: ScatterGatherPolicy = ScatterGatherPolicy(),
+    val latencies: ModuleLatencyTracker = ModuleLatencyTracker()
+) {
+
+    /**
+     * Run [tasks] with [execute] and return one result per task, in task order. [onResult] is
+     * called as each result arrives.
+     */
+    suspend fun gather(
+        tasks: List<AITask>,
+        execute: suspend (AITask) -> TaskResult,
+        onResult: suspend (index: Int, result: TaskResult) -> Unit = { _, _ -> }
+    ): List<TaskResult> = coroutineScope {
+        val startTime = System.currentTimeMillis()
+        val deadline = startTime + policy.requestDeadlineMs
+        val completions = Channel<Pair<Int, TaskResult>>(Channel.UNLIMITED)
+
+        val workers = tasks.mapIndexed { index, task ->
+            launch { completions.send(Pair(index, attempt(task, deadline, execute))) }
+        }
+
+        val results = arrayOfNulls<TaskResult>(tasks.size)
+        var pendingRequired = tasks.count { isRequired(it) }
+        var received = 0
+        var gatherUntil = if (pendingRequired == 0) minOf(deadline, startTime + policy.optionalGraceMs) else deadline
+
+        while (received < tasks.size) {
+            val waitMs = gatherUntil - System.currentTimeMillis()
+            val next = if (waitMs > 0) withTimeoutOrNull(waitMs) { completions.receive() } else completions.tryReceive().getOrNull()
+            next ?: break
+
+            val (index, result) = next
+            results[index] = result
+            received++
+            if (isRequired(tasks[index]) && --pendingRequired == 0) {
+                gatherUntil = minOf(deadline, System.currentTimeMillis() + policy.optionalGraceMs)
+            }
+            onResult(index, result)
+        }
+
+        // Early return: anything still running is abandoned
+        workers.forEach { it.cancel() }
+        val elapsed = System.currentTimeMillis() - startTime
+        tasks.mapIndexed { index, task -> results[index] ?: timedOut(task, elapsed) }
+    }
+
+    private suspend fun attempt(task: AITask, deadline: Long, execute: suspend (AITask) -> TaskResult): TaskResult {
+        val startTime = System.currentTimeMillis()
+        val timeout = moduleTimeout(task.moduleId, deadline - startTime)
+
+        var result: TaskResult? = null
+        var elapsed = 0L
+        try {
+            result = withTimeoutOrNull(timeout) {
+                val hedgeAfter = policy.takeIf { task.moduleId in it.idempotentModules }
+                    ?.let { latencies.percentile(task.moduleId, 0.95, it.minSamples) }
+                if (hedgeAfter != null && hedgeAfter < timeout) hedged(task, hedgeAfter, execute) else safely(task, execute)
+            }
+        } finally {
+            // Also recorded when gather abandons this worker, so slow modules still shape their timeout
+            elapsed = System.currentTimeMillis() - startTime
+            latencies.record(task.moduleId, elapsed, timedOut = result == null)
+        }
+        return result ?: timedOut(task, elapsed)
+    }
+
+    /**
+     * First successful result of the primary call and its hedge; a failure only wins once both
+     * calls have failed. A primary that fails before [hedgeAfterMs] starts the hedge at once.
+     */
+    private suspend fun hedged(task: AITask, hedgeAfterMs: Long, execute: suspend (AITask) -> TaskResult): TaskResult = coroutineScope {
+        val primary = async { safely(task, execute) }
+        val hedge = async {
+            withTimeoutOrNull(hedgeAfterMs) { primary.join() }
+            if (primary.isCompleted && primary.await().success) return@async primary.await()
+            latencies.recordHedge(task.moduleId)
+            safely(task, execute)
+        }
+
+        val pending = mutableListOf(primary, hedge)
+        var winner: TaskResult
+        do {
+            winner = select {
+                pending.forEach { call -> call.onAwait { result -> pending.remove(call); result } }
+            }
+        } while (!winner.success && pending.isNotEmpty())
+        coroutineContext.cancelChildren()
+        winner
+    }
+
+    private suspend fun safely(task: AITask, execute: suspend (AITask) -> TaskResult): TaskResult {
+        return try {
+            execute(task)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            TaskResult(
+                taskId = task.id,
+                moduleId = task.moduleId,
+                success = false,
+                output = "",
+                error = e.message ?: "Unknown error"
+            )
+        }
+    }
+
+    private fun moduleTimeout(moduleId: String, remainingMs: Long): Long {
+        val learned = latencies.percentile(moduleId, 0.99, policy.minSamples)
+            ?.let { (it * policy.timeoutMultiplier).toLong().coerceAtLeast(policy.minModuleTimeoutMs) }
+        return minOf(remainingMs, learned ?: remainingMs).coerceAtLeast(1)
+    }
+
+    private fun isRequired(task: AITask): Boolean {
+        return policy.requiredModules.isEmpty() || task.moduleId in policy.requiredModules
+    }
+
+    private fun timedOut(task: AITask, elapsedMs: Long) = TaskResult(
+        taskId = task.id,
+        moduleId = task.moduleId,
+        success = false,
+        output = "",
+        error = "Timed out after ${elapsedMs}ms",
+        metadata = mapOf("timedOut" to true)
+    )
+}
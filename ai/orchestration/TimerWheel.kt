@@ -0,0 +1,104 @@
+package com.sallie.ai.orchestration
+
+/**
+ * ╭──────────────────────────────────────────────────────────────────────────────╮
+ * │                                                                              │
+ * │   Sallie - The Personal AI Companion That Truly Gets You                     │
+ * │                                                                              │
+ * │   Sallie is gentle, creative, and deeply empathetic. She understands         │
+ * │   the human experience from literature and art, not just data.               │
+ * │   Her goal is to help you explore your world, care for yourself,             │
+ * │   and find your own answers through thoughtful conversation.                 │
+ * │                                                                              │
+ * │   - Genuine & Balanced: Honest but tactfully optimistic                      │
+ * │   - Warm & Personal: Remembers your details, references shared history       │
+ * │   - Contemplative: Considers questions deeply before responding              │
+ * │   - Encouraging: Helps you develop your thoughts rather than imposing hers   │
+ * │                                                                              │
+ * ╰──────────────────────────────────────────────────────────────────────────────╯
+ */
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Hashed timer wheel for delayed housekeeping
+ *
+ * Timeouts are hashed into [wheelSize] buckets of [tickMs] each. A single coroutine
+ * advances the wheel and only runs while timeouts are pending, so thousands of
+ * scheduled cleanups cost one sleeping coroutine instead of one blocked thread each.
+ * Actions run on the ticking coroutine and should be short.
+ */
+class TimerWheel(
+    private val scope: CoroutineScope,
+    private val tickMs: Long = 250,
+    private val wheelSize: Int = 64
+) {
+    private class Timeout(val deadlineTick: Long, val action: () -> Unit)
+
+    private val buckets = Array(wheelSize) { ArrayList<Timeout>() }
+    private val lock = Any()
+    private var pending = 0
+    private var lastTick = System.currentTimeMillis() / tickMs
+    private var ticker: Job? = null
+
+    /**
+     * Run [action] once at least [delayMs] milliseconds from now (rounded up to a tick)
+     */
+    fun schedule(delayMs: Long, action: () -> Unit) {
+        val deadline = System.currentTimeMillis() + maxOf(0L, delayMs)
+        synchronized(lock) {
+            if (ticker == null) {
+                lastTick = System.currentTimeMillis() / tickMs
+                ticker = scope.launch { advance() }
+            }
+
+            val deadlineTick = maxOf((deadline + tickMs - 1) / tickMs, lastTick + 1)
+            buckets[(deadlineTick % wheelSize).toInt()].add(Timeout(deadlineTick, action))
+            pending++
+        }
+    }
+
+    /**
+     * Number of timeouts that have not fired yet
+     */
+    val size: Int
+        get() = synchronized(lock) { pending }
+
+    private suspend fun advance() {
+        while (true) {
+            val due = ArrayList<Timeout>()
+            synchronized(lock) {
+                val nowTick = System.currentTimeMillis() / tickMs
+                while (lastTick < nowTick) {
+                    lastTick++
+                    val iterator = buckets[(lastTick % wheelSize).toInt()].iterator()
+                    while (iterator.hasNext()) {
+                        val timeout = iterator.next()
+                        if (timeout.deadlineTick <= lastTick) {
+                            due.add(timeout)
+                            iterator.remove()
+                            pending--
+                        }
+                    }
+                }
+                if (pending == 0 && due.isEmpty()) {
+                    ticker = null
+                    return
+                }
+            }
+
+            due.forEach { timeout ->
+                try {
+                    timeout.action()
+                } catch (e: Exception) {
+                    println("Timer wheel action failed: ${e.message}")
+                }
+            }
+
+            delay(tickMs - System.currentTimeMillis() % tickMs)
+        }
+    }
+}
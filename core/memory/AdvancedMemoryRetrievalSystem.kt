@@ -27,6 +27,9 @@ class AdvancedMemoryRetrievalSystem {
     // Reference to reinforcement system to update access patterns
     private var reinforcementSystem: MemoryReinforcementSystem? = null
     
+    // Reference to decay system to read current, decayed strengths
+    private var decaySystem: MemoryDecaySystem? = null
+    
     /**
      * Initialize the retrieval system with necessary components
      */
@@ -37,7 +40,8 @@ class AdvancedMemoryRetrievalSystem {
         workingMemory: WorkingMemoryManager,
         indexer: MemoryIndexer,
         associationEngine: MemoryAssociationEngine,
-        reinforcement: MemoryReinforcementSystem
+        reinforcement: MemoryReinforcementSystem,
+        decay: MemoryDecaySystem? = null
     ) {
         episodicMemoryStore = episodicStore
         semanticMemoryStore = semanticStore
@@ -46,6 +50,7 @@ class AdvancedMemoryRetrievalSystem {
         memoryIndexer = indexer
         memoryAssociationEngine = associationEngine
         reinforcementSystem = reinforcement
+        decaySystem = decay
     }
     
     /**
@@ -83,7 +88,7 @@ class AdvancedMemoryRetrievalSystem {
                     var finalScore = score
                     
                     // Adjust score based on strength factor
-                    finalScore *= (0.5f + 0.5f * memory.strengthFactor)
+                    finalScore *= (0.5f + 0.5f * strengthOf(memory))
                     
                     // Adjust score based on emotional context if applicable
                     finalScore *= calculateEmotionalContextFactor(memory, emotionalContext)
@@ -179,7 +184,7 @@ class AdvancedMemoryRetrievalSystem {
             val assocMemory = getMemoryByTypeAndId(assocType, assocId) ?: return@mapNotNull null
             
             // Adjust association score by memory strength
-            val adjustedScore = score * (0.5f + 0.5f * assocMemory.strengthFactor)
+            val adjustedScore = score * (0.5f + 0.5f * strengthOf(assocMemory))
             
             ScoredMemory(assocType, assocMemory, adjustedScore)
         }
@@ -206,44 +211,26 @@ class AdvancedMemoryRetrievalSystem {
             return@coroutineScope emptyList()
         }
         
-        // For each working memory item, find associations
-        val retrievalTasks = workingMemoryItems.map { wmItem ->
-            async {
-                // Weight by recency in working memory
-                val recencyWeight = calculateWorkingMemoryRecencyWeight(wmItem)
-                
-                // Get associations
-                associationEngine.getAssociatedMemories(
-                    wmItem.memoryType, 
-                    wmItem.memoryId, 
-                    depth = 1, 
-                    limit = limit
-                ).mapNotNull { (assocType, assocId, assocScore) ->
-                    val assocMemory = getMemoryByTypeAndId(assocType, assocId) ?: return@mapNotNull null
-                    
-                    // Don't return memories already in working memory
-                    if (workingMemoryItems.any { it.memoryId == assocId && it.memoryType == assocType }) {
-                        return@mapNotNull null
-                    }
-                    
-                    // Adjust score by working memory recency and memory strength
-                    val finalScore = assocScore * recencyWeight * (0.5f + 0.5f * assocMemory.strengthFactor)
-                    
-                    ScoredMemory(assocType, assocMemory, finalScore)
-                }
-            }
+        // Seed one personalized PageRank with every working memory item, weighted by recency,
+        // so memories tied to several items rank above those tied to just one
+        val seeds = HashMap<String, Float>()
+        for (wmItem in workingMemoryItems) {
+            seeds.merge(wmItem.memoryId, calculateWorkingMemoryRecencyWeight(wmItem), ::maxOf)
         }
         
-        // Combine results, removing duplicates by keeping highest score
-        val results = retrievalTasks.awaitAll().flatten()
-        val dedupedResults = results
-            .groupBy { "${it.memoryType}:${it.memory.id}" }
-            .mapValues { (_, memories) -> memories.maxByOrNull { it.score }!! }
-            .values
+        val related = associationEngine.getContextAssociations(seeds, limit * 2)
+        
+        related.mapNotNull { (assocType, assocId, assocScore) ->
+            if (assocType !in includeTypes) return@mapNotNull null
+            val assocMemory = getMemoryByTypeAndId(assocType, assocId) ?: return@mapNotNull null
+            
+            // Adjust score by memory strength
+            val finalScore = assocScore * (0.5f + 0.5f * strengthOf(assocMemory))
+            
+            ScoredMemory(assocType, assocMemory, finalScore)
+        }
             .sortedByDescending { it.score }
             .take(limit)
-        
-        dedupedResults
     }
     
     /**
@@ -273,7 +260,7 @@ class AdvancedMemoryRetrievalSystem {
             episodicMemoryStore?.let { store ->
                 store.getAllMemories()
                     .filter { it.timestamp in startTime..endTime }
-                    .sortedByDescending { it.importance * it.strengthFactor }
+                    .sortedByDescending { it.importance * strengthOf(it) }
                     .take(limit)
                     .forEach { memory ->
                         results.add(ScoredMemory(
@@ -290,7 +277,7 @@ class AdvancedMemoryRetrievalSystem {
             emotionalMemoryStore?.let { store ->
                 store.getAllMemories()
                     .filter { it.timestamp in startTime..endTime }
-                    .sortedByDescending { it.intensity * it.strengthFactor }
+                    .sortedByDescending { it.intensity * strengthOf(it) }
                     .take(limit)
                     .forEach { memory ->
                         results.add(ScoredMemory(
@@ -340,7 +327,7 @@ class AdvancedMemoryRetrievalSystem {
                         else -> it.emotionalValence == emotionalValence
                     } && it.intensity >= intensityThreshold
                 }
-                .sortedByDescending { it.intensity * it.strengthFactor }
+                .sortedByDescending { it.intensity * strengthOf(it) }
                 .take(limit)
                 .forEach { memory ->
                     val emotionalMatchScore = calculateEmotionalMatchScore(
@@ -366,7 +353,7 @@ class AdvancedMemoryRetrievalSystem {
                         else -> it.emotionalValence == emotionalValence
                     } && it.importance >= intensityThreshold
                 }
-                .sortedByDescending { it.importance * it.strengthFactor }
+                .sortedByDescending { it.importance * strengthOf(it) }
                 .take(limit)
                 .forEach { memory ->
                     val emotionalMatchScore = calculateEmotionalMatchScore(
@@ -415,6 +402,13 @@ class AdvancedMemoryRetrievalSystem {
         }
     }
     
+    /**
+     * Current strength of a memory, including decay since it was last touched
+     */
+    private fun strengthOf(memory: BaseMemory): Float {
+        return decaySystem?.getEffectiveStrength(memory) ?: memory.strengthFactor
+    }
+    
     /**
      * Check if a memory matches the specified filters
      */
@@ -427,7 +421,7 @@ class AdvancedMemoryRetrievalSystem {
         }
         
         // Strength threshold filter
-        if (this.strengthFactor < filters.strengthThreshold) {
+        if (strengthOf(this) < filters.strengthThreshold) {
             return false
         }
         
@@ -0,0 +1,590 @@
+package com.sallie.core.memory
+
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Association Graph
+ *
+ * Weighted directed graph over int-indexed nodes. Edges live in compressed sparse row
+ * (CSR) arrays - one offsets array and parallel target, weight and label arrays - so a
+ * node's neighbours are a contiguous slice. New edges go to a per-node delta log that is
+ * merged into the CSR arrays once it grows past a fraction of the graph.
+ *
+ * Each edge carries an int label for the caller (for example an index into its own
+ * records). Traversals use per-thread scratch arrays and never allocate per hop.
+ *
+ * Removing a node frees its index for the next new node, so node-indexed arrays and
+ * scratch space stay proportional to the live nodes rather than every node ever seen.
+ */
+class AssociationGraph<K : Any>(
+    private val compactionRatio: Float = 0.25f,
+    private val minCompactionEdges: Int = 1024
+) {
+    private val lock = ReentrantReadWriteLock()
+
+    // Node interning; indices of removed nodes are kept for reuse
+    private val nodeIds = HashMap<K, Int>()
+    private val nodeKeys = ArrayList<K?>()
+    private val freeNodes = ArrayList<Int>()
+
+    // Compacted edges, rows sorted by target
+    private var offsets = IntArray(1)
+    private var targets = IntArray(0)
+    private var weights = FloatArray(0)
+    private var labels = IntArray(0)
+
+    // Delta log: one singly linked chain per node, newest first
+    private var deltaHead = IntArray(16) { NONE }
+    private var deltaTarget = IntArray(64)
+    private var deltaWeight = FloatArray(64)
+    private var deltaLabel = IntArray(64)
+    private var deltaNext = IntArray(64)
+    private var deltaCount = 0
+
+    private var removedEdges = 0
+
+    // Sum of live outgoing edge weights, and number of live incoming edges, per node
+    private var outWeights = FloatArray(16)
+    private var inDegrees = IntArray(16)
+
+    private val scratch = ThreadLocal.withInitial { Scratch() }
+
+    val nodeCount: Int
+        get() = lock.read { nodeIds.size }
+
+    val edgeCount: Int
+        get() = lock.read { targets.size + deltaCount - removedEdges }
+
+    /**
+     * Add an edge, or replace the weight and label of an existing one
+     */
+    fun putEdge(from: K, to: K, weight: Float, label: Int = 0) {
+        require(weight > 0f) { "Edge weight must be positive" }
+
+        lock.write {
+            val source = internNode(from)
+            val target = internNode(to)
+
+            val slot = findEdge(source, target)
+            val previous = when {
+                slot >= 0 -> weights[slot].also {
+                    weights[slot] = weight
+                    labels[slot] = label
+                }
+                slot != NONE -> {
+                    val delta = -slot - 2
+                    deltaWeight[delta].also {
+                        deltaWeight[delta] = weight
+                        deltaLabel[delta] = label
+                    }
+                }
+                else -> {
+                    appendDelta(source, target, weight, label)
+                    Float.NaN
+                }
+            }
+
+            // A NaN previous weight means the edge was absent or removed
+            if (previous.isNaN()) {
+                if (slot != NONE) removedEdges--
+                outWeights[source] += weight
+                inDegrees[target]++
+            } else {
+                outWeights[source] += weight - previous
+            }
+
+            if (deltaCount > maxOf(minCompactionEdges, (targets.size * compactionRatio).toInt())) {
+                compact()
+            }
+        }
+    }
+
+    /**
+     * Remove an edge; returns false if there was none
+     */
+    fun removeEdge(from: K, to: K): Boolean = lock.write {
+        val source = nodeIds[from] ?: return false
+        val target = nodeIds[to] ?: return false
+        removeEdgeOf(source, target)
+    }
+
+    /**
+     * Remove a node with every edge from and to it, and free its index for reuse
+     */
+    fun removeNode(key: K) = lock.write {
+        val node = nodeIds[key] ?: return@write
+
+        // Edges to the node are usually the reverse of its own edges, so those go first
+        val neighbours = ArrayList<Int>()
+        forEachEdgeOf(node) { target, _, _ -> neighbours.add(target) }
+        for (neighbour in neighbours) {
+            removeEdgeOf(node, neighbour)
+            removeEdgeOf(neighbour, node)
+        }
+
+        // Only one-way edges into the node need a scan of every row
+        var source = 0
+        while (inDegrees[node] > 0 && source < nodeKeys.size) {
+            if (nodeKeys[source] != null) removeEdgeOf(source, node)
+            source++
+        }
+
+        // Removed edges left in rows stay marked, so a node reusing the index starts empty
+        nodeIds.remove(key)
+        nodeKeys[node] = null
+        outWeights[node] = 0f
+        freeNodes.add(node)
+    }
+
+    /**
+     * Label of the edge from [from] to [to], or null if there is none
+     */
+    fun edgeLabel(from: K, to: K): Int? = lock.read {
+        val source = nodeIds[from] ?: return null
+        val target = nodeIds[to] ?: return null
+        val slot = findEdge(source, target)
+        when {
+            slot >= 0 -> if (weights[slot].isNaN()) null else labels[slot]
+            slot < NONE -> if (deltaWeight[-slot - 2].isNaN()) null else deltaLabel[-slot - 2]
+            else -> null
+        }
+    }
+
+    /**
+     * Visit a node's edges as (target, weight, label)
+     */
+    fun forEachEdge(key: K, action: (K, Float, Int) -> Unit) = lock.read {
+        val node = nodeIds[key] ?: return@read
+        forEachEdgeOf(node) { target, weight, label -> action(nodeKeys[target]!!, weight, label) }
+    }
+
+    /**
+     * Spreading activation from weighted seeds
+     *
+     * Each hop passes a node's activation to its neighbours scaled by edge weight and
+     * [decay]; activations below [threshold] stop spreading. Seeds are not returned.
+     *
+     * @return up to [limit] nodes by descending activation
+     */
+    fun spreadingActivation(
+        seeds: Map<K, Float>,
+        maxDepth: Int = 2,
+        decay: Float = 0.5f,
+        threshold: Float = 0.01f,
+        minWeight: Float = 0f,
+        limit: Int = 10
+    ): List<ScoredNode<K>> = lock.read {
+        val work = scratch.get().prepare(nodeKeys.size)
+        val seedMark = work.epoch
+
+        var frontierSize = 0
+        for ((key, activation) in seeds) {
+            val node = nodeIds[key] ?: continue
+            work.touch(node)
+            work.primary[node] += activation
+            work.isSeed[node] = seedMark
+            if (work.queued[node] != seedMark) {
+                work.queued[node] = seedMark
+                work.frontier[frontierSize++] = node
+            }
+        }
+
+        // Each hop reads the activation arriving from the previous one
+        for (hop in 0 until maxDepth) {
+            if (frontierSize == 0) break
+            val hopMark = seedMark + hop + 1
+            var nextSize = 0
+
+            for (i in 0 until frontierSize) {
+                val node = work.frontier[i]
+                val outgoing = (if (hop == 0) work.primary[node] else work.incoming[node]) * decay
+                if (outgoing < threshold) continue
+
+                forEachEdgeOf(node) { target, weight, _ ->
+                    if (weight < minWeight) return@forEachEdgeOf
+                    val spread = outgoing * weight
+                    if (spread < threshold) return@forEachEdgeOf
+
+                    work.touch(target)
+                    if (work.queued[target] != hopMark) {
+                        work.queued[target] = hopMark
+                        work.pending[target] = 0f
+                        work.next[nextSize++] = target
+                    }
+                    work.pending[target] += spread
+                }
+            }
+
+            for (i in 0 until nextSize) {
+                val node = work.next[i]
+                work.incoming[node] = work.pending[node]
+                work.primary[node] += work.pending[node]
+            }
+
+            val swap = work.frontier
+            work.frontier = work.next
+            work.next = swap
+            frontierSize = nextSize
+        }
+
+        // Marks from this call must not match the next one
+        work.epoch = seedMark + maxDepth + 1
+        topK(work, limit) { node -> work.isSeed[node] != seedMark }
+    }
+
+    /**
+     * Personalized PageRank around weighted seeds, by local push
+     *
+     * Scores approximate the probability that a random walk restarting at the seeds with
+     * probability [alpha] is at each node. Work is bounded by roughly 1 / ([epsilon] * [alpha])
+     * pushes regardless of graph size. Seeds are not returned.
+     */
+    fun personalizedPageRank(
+        seeds: Map<K, Float>,
+        alpha: Float = 0.15f,
+        epsilon: Float = 1e-4f,
+        maxPushes: Int = 100_000,
+        limit: Int = 10
+    ): List<ScoredNode<K>> = lock.read {
+        val total = seeds.values.sum()
+        if (total <= 0f) return@read emptyList()
+        val work = scratch.get().prepare(nodeKeys.size)
+        val seedMark = work.epoch
+
+        // primary holds the estimate, pending the residual
+        val queue = work.frontier
+        var head = 0
+        var queued = 0
+        for ((key, mass) in seeds) {
+            val node = nodeIds[key] ?: continue
+            work.touch(node)
+            work.pending[node] += mass / total
+            work.isSeed[node] = seedMark
+            if (work.queued[node] != seedMark) {
+                work.queued[node] = seedMark
+                queue[(head + queued++) % queue.size] = node
+            }
+        }
+
+        var pushes = 0
+        while (queued > 0 && pushes < maxPushes) {
+            val node = queue[head]
+            head = (head + 1) % queue.size
+            queued--
+            work.queued[node] = 0
+
+            val outWeight = outWeights[node]
+            val residual = work.pending[node]
+            if (outWeight == 0f) {
+                work.primary[node] += residual
+                work.pending[node] = 0f
+                continue
+            }
+            if (residual < epsilon * outWeight) continue
+
+            pushes++
+            work.primary[node] += alpha * residual
+            work.pending[node] = 0f
+            val share = (1f - alpha) * residual / outWeight
+
+            forEachEdgeOf(node) { target, weight, _ ->
+                work.touch(target)
+                work.pending[target] += share * weight
+                if (work.queued[target] != seedMark && work.pending[target] >= epsilon * outWeights[target]) {
+                    work.queued[target] = seedMark
+                    queue[(head + queued++) % queue.size] = target
+                }
+            }
+        }
+
+        work.epoch = seedMark + 1
+        topK(work, limit) { node -> work.isSeed[node] != seedMark }
+    }
+
+    /**
+     * Merge the delta log into the CSR arrays and drop removed edges
+     */
+    fun compact() = lock.write {
+        val nodes = nodeKeys.size
+        val newOffsets = IntArray(nodes + 1)
+
+        for (node in 0 until nodes) {
+            var degree = 0
+            forEachEdgeOf(node) { _, _, _ -> degree++ }
+            newOffsets[node + 1] = newOffsets[node] + degree
+        }
+
+        val edges = newOffsets[nodes]
+        val newTargets = IntArray(edges)
+        val newWeights = FloatArray(edges)
+        val newLabels = IntArray(edges)
+
+        for (node in 0 until nodes) {
+            var position = newOffsets[node]
+            forEachEdgeOf(node) { target, weight, label ->
+                newTargets[position] = target
+                newWeights[position] = weight
+                newLabels[position] = label
+                position++
+            }
+            sortRow(newTargets, newWeights, newLabels, newOffsets[node], position)
+        }
+
+        offsets = newOffsets
+        targets = newTargets
+        weights = newWeights
+        labels = newLabels
+        deltaHead.fill(NONE)
+        deltaCount = 0
+        removedEdges = 0
+    }
+
+    private fun internNode(key: K): Int {
+        nodeIds[key]?.let { return it }
+
+        if (freeNodes.isNotEmpty()) {
+            val node = freeNodes.removeAt(freeNodes.size - 1)
+            nodeIds[key] = node
+            nodeKeys[node] = key
+            return node
+        }
+
+        val node = nodeKeys.size
+        nodeIds[key] = node
+        nodeKeys.add(key)
+
+        if (node >= deltaHead.size) {
+            val grown = deltaHead.copyOf(deltaHead.size * 2)
+            grown.fill(NONE, deltaHead.size, grown.size)
+            deltaHead = grown
+            outWeights = outWeights.copyOf(grown.size)
+            inDegrees = inDegrees.copyOf(grown.size)
+        }
+        // Keep offsets covering every node so new nodes have an empty CSR row
+        offsets = offsets.copyOf(node + 2).also { it[node + 1] = it[node] }
+        return node
+    }
+
+    private fun removeEdgeOf(source: Int, target: Int): Boolean {
+        val slot = findEdge(source, target)
+        val weight = when {
+            slot >= 0 -> weights[slot].also { weights[slot] = Float.NaN }
+            slot < NONE -> deltaWeight[-slot - 2].also { deltaWeight[-slot - 2] = Float.NaN }
+            else -> return false
+        }
+        if (weight.isNaN()) return false
+
+        outWeights[source] = maxOf(0f, outWeights[source] - weight)
+        inDegrees[target]--
+        removedEdges++
+        return true
+    }
+
+    /**
+     * Slot of an edge: >= 0 for a CSR index, < -1 for delta index (-slot - 2), NONE if absent.
+     * Removed edges are found too, so they can be revived.
+     */
+    private fun findEdge(source: Int, target: Int): Int {
+        var low = offsets[source]
+        var high = offsets[source + 1] - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            when {
+                targets[mid] < target -> low = mid + 1
+                targets[mid] > target -> high = mid - 1
+                else -> return mid
+            }
+        }
+
+        var delta = deltaHead[source]
+        while (delta != NONE) {
+            if (deltaTarget[delta] == target) return -delta - 2
+            delta = deltaNext[delta]
+        }
+        return NONE
+    }
+
+    private fun appendDelta(source: Int, target: Int, weight: Float, label: Int) {
+        if (deltaCount == deltaTarget.size) {
+            val size = deltaCount * 2
+            deltaTarget = deltaTarget.copyOf(size)
+            deltaWeight = deltaWeight.copyOf(size)
+            deltaLabel = deltaLabel.copyOf(size)
+            deltaNext = deltaNext.copyOf(size)
+        }
+
+        deltaTarget[deltaCount] = target
+        deltaWeight[deltaCount] = weight
+        deltaLabel[deltaCount] = label
+        deltaNext[deltaCount] = deltaHead[source]
+        deltaHead[source] = deltaCount
+        deltaCount++
+    }
+
+    private inline fun forEachEdgeOf(node: Int, action: (Int, Float, Int) -> Unit) {
+        for (i in offsets[node] until offsets[node + 1]) {
+            val weight = weights[i]
+            if (!weight.isNaN()) action(targets[i], weight, labels[i])
+        }
+
+        var delta = deltaHead[node]
+        while (delta != NONE) {
+            val weight = deltaWeight[delta]
+            if (!weight.isNaN()) action(deltaTarget[delta], weight, deltaLabel[delta])
+            delta = deltaNext[delta]
+        }
+    }
+
+    /**
+     * Select the highest scores in [Scratch.primary] among touched nodes with a bounded min-heap
+     */
+    private inline fun topK(work: Scratch, limit: Int, include: (Int) -> Boolean): List<ScoredNode<K>> {
+        val capacity = minOf(limit, work.touchedCount)
+        if (capacity <= 0) return emptyList()
+
+        val heapNodes = IntArray(capacity)
+        val heapScores = FloatArray(capacity)
+        var size = 0
+
+        for (i in 0 until work.touchedCount) {
+            val node = work.touched[i]
+            val score = work.primary[node]
+            if (score <= 0f || !include(node)) continue
+
+            if (size < capacity) {
+                heapNodes[size] = node
+                heapScores[size] = score
+                siftUp(heapNodes, heapScores, size++)
+            } else if (score > heapScores[0]) {
+                heapNodes[0] = node
+                heapScores[0] = score
+                siftDown(heapNodes, heapScores, size)
+            }
+        }
+
+        val result = ArrayList<ScoredNode<K>>(size)
+        while (size > 0) {
+            result.add(ScoredNode(nodeKeys[heapNodes[0]]!!, heapScores[0]))
+            size--
+            heapNodes[0] = heapNodes[size]
+            heapScores[0] = heapScores[size]
+            siftDown(heapNodes, heapScores, size)
+        }
+        result.reverse()
+        return result
+    }
+
+    private fun siftUp(nodes: IntArray, scores: FloatArray, index: Int) {
+        var child = index
+        while (child > 0) {
+            val parent = (child - 1) / 2
+            if (scores[parent] <= scores[child]) return
+            swap(nodes, scores, parent, child)
+            child = parent
+        }
+    }
+
+    private fun siftDown(nodes: IntArray, scores: FloatArray, size: Int) {
+        var parent = 0
+        while (true) {
+            val left = parent * 2 + 1
+            if (left >= size) return
+            val right = left + 1
+            val smallest = if (right < size && scores[right] < scores[left]) right else left
+            if (scores[parent] <= scores[smallest]) return
+            swap(nodes, scores, parent, smallest)
+            parent = smallest
+        }
+    }
+
+    private fun swap(nodes: IntArray, scores: FloatArray, a: Int, b: Int) {
+        val node = nodes[a]
+        nodes[a] = nodes[b]
+        nodes[b] = node
+        val score = scores[a]
+        scores[a] = scores[b]
+        scores[b] = score
+    }
+
+    // Rows are short, so insertion sort keeps the three arrays in step without boxing
+    private fun sortRow(rowTargets: IntArray, rowWeights: FloatArray, rowLabels: IntArray, from: Int, to: Int) {
+        for (i in from + 1 until to) {
+            val target = rowTargets[i]
+            val weight = rowWeights[i]
+            val label = rowLabels[i]
+            var j = i - 1
+            while (j >= from && rowTargets[j] > target) {
+                rowTargets[j + 1] = rowTargets[j]
+                rowWeights[j + 1] = rowWeights[j]
+                rowLabels[j + 1] = rowLabels[j]
+                j--
+            }
+            rowTargets[j + 1] = target
+            rowWeights[j + 1] = weight
+            rowLabels[j + 1] = label
+        }
+    }
+
+    /**
+     * Per-thread traversal state, sized to the graph and reset only where it was touched
+     */
+    private class Scratch {
+        var primary = FloatArray(0)
+        var incoming = FloatArray(0)
+        var pending = FloatArray(0)
+        var queued = IntArray(0)
+        var isSeed = IntArray(0)
+        var frontier = IntArray(0)
+        var next = IntArray(0)
+        var touched = IntArray(0)
+        var touchedCount = 0
+        var seen = IntArray(0)
+        var epoch = 1
+
+        fun prepare(nodes: Int): Scratch {
+            for (i in 0 until touchedCount) {
+                val node = touched[i]
+                primary[node] = 0f
+                incoming[node] = 0f
+                pending[node] = 0f
+            }
+            touchedCount = 0
+
+            if (primary.size < nodes) {
+                val size = maxOf(nodes, primary.size * 2, 16)
+                primary = FloatArray(size)
+                incoming = FloatArray(size)
+                pending = FloatArray(size)
+                queued = IntArray(size)
+                isSeed = IntArray(size)
+                frontier = IntArray(size)
+                next = IntArray(size)
+                touched = IntArray(size)
+                seen = IntArray(size)
+                epoch = 1
+            }
+            return this
+        }
+
+        fun touch(node: Int) {
+            if (seen[node] != epoch) {
+                seen[node] = epoch
+                touched[touchedCount++] = node
+            }
+        }
+    }
+
+    companion object {
+        private const val NONE = -1
+    }
+}
+
+/**
+ * A graph node with its traversal score
+ */
+data class ScoredNode<K>(
+    val key: K,
+    val score: Float
+)
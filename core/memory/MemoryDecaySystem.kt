@@ -5,26 +5,46 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.exp
+import kotlin.math.ln
 
 /**
  * Memory Decay System
- * 
+ *
  * Implements the forgetting curve algorithm to simulate natural memory decay.
  * Memories decay over time unless they are reinforced through access or
  * significance. Higher strength and emotional significance slow decay.
+ *
+ * Decay is evaluated lazily: each memory keeps the strength it had when last
+ * touched, and its current strength follows analytically from the time since.
+ * Because the decay curve is known, the moment a memory will fall below the
+ * pruning threshold is known too, so pruning only visits memories that are due
+ * instead of walking every stored memory.
  */
 class MemoryDecaySystem {
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
-    
+
     // Flag for maintenance process
     @Volatile
     private var isMaintenanceRunning = false
-    
+
     // Stores and managers
     private var episodicMemoryStore: EpisodicMemoryStore? = null
     private var semanticMemoryStore: SemanticMemoryStore? = null
     private var emotionalMemoryStore: EmotionalMemoryStore? = null
-    
+
+    // Owner's delete path for pruned memories; without one they only leave their store
+    private var memoryRemover: ((BaseMemory) -> Unit)? = null
+
+    // Decay state of every tracked memory, by memory ID
+    private val decayRecords = ConcurrentHashMap<String, DecayRecord>()
+
+    // Records ordered by when they fall below the pruning threshold; replaced
+    // records are left in place and skipped when they reach the head
+    private val expiryQueue = PriorityQueue<DecayRecord>(compareBy { it.expiresAt })
+
     /**
      * Set memory stores for decay processing
      */
@@ -36,8 +56,18 @@ class MemoryDecaySystem {
         episodicMemoryStore = episodicStore
         semanticMemoryStore = semanticStore
         emotionalMemoryStore = emotionalStore
+        
+        episodicStore.setDecaySystem(this)
+    }
+
+    /**
+     * Delete pruned memories through [remover] so their associations, indexes and
+     * other references go with them
+     */
+    fun setMemoryRemover(remover: (BaseMemory) -> Unit) {
+        memoryRemover = remover
     }
-    
+
     /**
      * Start the memory maintenance process
      */
@@ -45,149 +75,346 @@ class MemoryDecaySystem {
         if (!isMaintenanceRunning) {
             isMaintenanceRunning = true
             coroutineScope.launch {
+                // Index everything already in the stores once, then only handle expiries
+                applyMemoryDecay()
+
                 while (isMaintenanceRunning) {
-                    applyMemoryDecay()
-                    pruneWeakMemories()
-                    delay(86400_000) // Run once per day
+                    val currentTime = System.currentTimeMillis()
+                    pruneWeakMemories(currentTime)
+
+                    val nextExpiry = nextExpiryTime() ?: Long.MAX_VALUE
+                    delay((nextExpiry - currentTime).coerceIn(MIN_MAINTENANCE_DELAY, MAX_MAINTENANCE_DELAY))
                 }
             }
         }
     }
-    
+
     /**
      * Stop the memory maintenance process
      */
     fun stopMaintenanceProcess() {
         isMaintenanceRunning = false
     }
-    
+
+    /**
+     * Start tracking a memory, or pick up a change to its strength or access count
+     *
+     * Call this after creating a memory and after reinforcing it. The memory's
+     * current strength factor becomes the base its decay is measured from.
+     */
+    fun trackMemory(memory: BaseMemory) {
+        val previous = decayRecords[memory.id]
+        val touchedAt = if (previous == null) memory.lastAccessTimestamp else System.currentTimeMillis()
+        schedule(createRecord(memory, memory.strengthFactor, touchedAt))
+    }
+
+    /**
+     * Fold the decay since a memory was last touched into its strength factor
+     *
+     * Call this before reinforcing a memory so reinforcement builds on its
+     * decayed strength rather than the strength it had when last touched.
+     *
+     * @return the memory's current strength, or null if it isn't tracked
+     */
+    fun refreshStrength(memoryId: String, currentTime: Long = System.currentTimeMillis()): Float? {
+        val record = decayRecords[memoryId] ?: return null
+        val memory = findMemory(record) ?: return null
+        return rebase(record, memory, currentTime)
+    }
+
+    /**
+     * Stop tracking a memory that has been deleted
+     */
+    fun forgetMemory(memoryId: String) {
+        if (decayRecords.remove(memoryId) != null) {
+            synchronized(expiryQueue) { compactExpiryQueue() }
+        }
+    }
+
+    /**
+     * Current strength of a tracked memory, evaluated without modifying it
+     */
+    fun getEffectiveStrength(memoryId: String, currentTime: Long = System.currentTimeMillis()): Float? {
+        return decayRecords[memoryId]?.strengthAt(currentTime)
+    }
+
+    /**
+     * Current strength of a memory, evaluated without modifying it
+     *
+     * Readers that rank or filter by strength should use this rather than the stored
+     * strength factor, which only holds the strength as of the memory's last touch.
+     * A memory that isn't tracked yet, or was touched without being re-tracked,
+     * is (re)tracked from its stored strength and last access time.
+     */
+    fun getEffectiveStrength(memory: BaseMemory, currentTime: Long = System.currentTimeMillis()): Float {
+        val record = decayRecords[memory.id]
+            ?.takeIf { it.lastAccessTimestamp == memory.lastAccessTimestamp && it.accessCount == memory.accessCount }
+            ?: createRecord(memory, memory.strengthFactor, memory.lastAccessTimestamp).also { schedule(it) }
+        return record.strengthAt(currentTime)
+    }
+
+    /**
+     * Time at which the next tracked memory becomes weak enough to prune
+     */
+    fun nextExpiryTime(): Long? {
+        synchronized(expiryQueue) {
+            while (true) {
+                val head = expiryQueue.peek() ?: return null
+                if (decayRecords[head.memoryId] === head) return head.expiresAt
+                expiryQueue.poll()
+            }
+        }
+    }
+
     /**
      * Apply memory decay to all memories
+     *
+     * Starts tracking any memory not yet tracked and folds elapsed decay into
+     * every stored strength factor. This walks every memory, so it runs once
+     * when maintenance starts; afterwards decay is evaluated on demand.
      */
     private fun applyMemoryDecay() {
         val currentTime = System.currentTimeMillis()
-        
-        // Apply decay to episodic memories
-        episodicMemoryStore?.getAllMemories()?.forEach { memory ->
-            val decayFactor = calculateDecayFactor(
-                lastAccessTimestamp = memory.lastAccessTimestamp,
-                currentTime = currentTime,
-                strengthFactor = memory.strengthFactor,
-                emotionalValence = memory.emotionalValence,
-                accessCount = memory.accessCount
-            )
-            
-            memory.strengthFactor = (memory.strengthFactor * decayFactor).coerceAtLeast(0.1f)
+        val memories = (episodicMemoryStore?.getAllMemories() ?: emptyList()) +
+            (semanticMemoryStore?.getAllMemories() ?: emptyList()) +
+            (emotionalMemoryStore?.getAllMemories() ?: emptyList())
+
+        memories.forEach { memory ->
+            val record = decayRecords[memory.id]
+                ?: createRecord(memory, memory.strengthFactor, memory.lastAccessTimestamp).also { schedule(it) }
+            rebase(record, memory, currentTime)
         }
-        
-        // Apply decay to semantic memories
-        semanticMemoryStore?.getAllMemories()?.forEach { memory ->
-            val decayFactor = calculateDecayFactor(
-                lastAccessTimestamp = memory.lastAccessTimestamp,
-                currentTime = currentTime,
-                strengthFactor = memory.strengthFactor,
-                emotionalValence = EmotionalValence.NEUTRAL, // Semantic memories are neutral
-                accessCount = memory.accessCount
-            )
-            
-            memory.strengthFactor = (memory.strengthFactor * decayFactor).coerceAtLeast(0.1f)
+    }
+
+    /**
+     * Rewrite a memory's strength as of [currentTime]
+     *
+     * Exponential decay has no memory of its own, so restarting the curve from
+     * the current strength with the same rate leaves the expiry time unchanged.
+     */
+    private fun rebase(record: DecayRecord, memory: BaseMemory, currentTime: Long): Float {
+        val strength = record.rebase(currentTime)
+        memory.strengthFactor = strength
+        return strength
+    }
+
+    /**
+     * Build the decay record for a memory starting from [baseStrength] at [touchedAt]
+     */
+    private fun createRecord(memory: BaseMemory, baseStrength: Float, touchedAt: Long): DecayRecord {
+        val emotionalValence = when (memory) {
+            is EpisodicMemory -> memory.emotionalValence
+            is EmotionalMemory -> memory.emotionalValence
+            else -> EmotionalValence.NEUTRAL // Semantic memories are neutral
         }
-        
-        // Apply decay to emotional memories
-        emotionalMemoryStore?.getAllMemories()?.forEach { memory ->
-            val decayFactor = calculateDecayFactor(
-                lastAccessTimestamp = memory.lastAccessTimestamp,
-                currentTime = currentTime,
-                strengthFactor = memory.strengthFactor,
-                emotionalValence = memory.emotionalValence,
-                accessCount = memory.accessCount
-            )
-            
-            memory.strengthFactor = (memory.strengthFactor * decayFactor).coerceAtLeast(0.1f)
-        }
-    }
-    
-    /**
-     * Calculate memory decay factor based on time elapsed and memory properties
-     * Uses a modified Ebbinghaus forgetting curve formula
-     */
-    private fun calculateDecayFactor(
-        lastAccessTimestamp: Long,
-        currentTime: Long,
+        val decayRate = calculateDecayRate(baseStrength, emotionalValence, memory.accessCount)
+        val pruneThreshold = pruneThresholdFor(memory)
+
+        val expiresAt = when {
+            pruneThreshold == null -> Long.MAX_VALUE
+            baseStrength < pruneThreshold -> touchedAt
+            else -> {
+                val daysUntilExpiry = ln(baseStrength / pruneThreshold.toDouble()) / decayRate
+                val expiryOffset = daysUntilExpiry * MILLIS_PER_DAY
+                if (expiryOffset >= Long.MAX_VALUE - touchedAt) Long.MAX_VALUE else touchedAt + expiryOffset.toLong()
+            }
+        }
+
+        return DecayRecord(
+            memoryId = memory.id,
+            baseStrength = baseStrength,
+            touchedAt = touchedAt,
+            decayRate = decayRate,
+            minimumStrength = if (pruneThreshold == null) MINIMUM_STRENGTH else 0f,
+            lastAccessTimestamp = memory.lastAccessTimestamp,
+            accessCount = memory.accessCount,
+            expiresAt = expiresAt
+        )
+    }
+
+    /**
+     * Calculate the daily memory decay rate based on memory properties
+     * Uses a modified Ebbinghaus forgetting curve formula: strength * e^(-decayRate * t)
+     */
+    private fun calculateDecayRate(
         strengthFactor: Float,
         emotionalValence: EmotionalValence,
         accessCount: Int
-    ): Float {
-        // Calculate time elapsed in days
-        val daysElapsed = (currentTime - lastAccessTimestamp) / (1000.0 * 60 * 60 * 24)
-        
+    ): Double {
         // Base decay rate (lower is slower decay)
         var decayRate = 0.05f
-        
+
         // Adjust decay rate based on memory strength
-        decayRate *= (1.0f - (strengthFactor * 0.5f))
-        
+        decayRate *= (1.0f - (strengthFactor.coerceIn(0f, 1f) * 0.5f))
+
         // Adjust decay rate based on emotional significance
         decayRate *= when (emotionalValence) {
-            EmotionalValence.STRONGLY_NEGATIVE, 
+            EmotionalValence.STRONGLY_NEGATIVE,
             EmotionalValence.STRONGLY_POSITIVE -> 0.6f
             EmotionalValence.NEGATIVE,
             EmotionalValence.POSITIVE -> 0.8f
             EmotionalValence.NEUTRAL -> 1.0f
         }
-        
+
         // Adjust decay rate based on access count (more accesses = slower decay)
-        decayRate *= (1.0f - (accessCount.coerceAtMost(20) / 40f))
-        
-        // Calculate decay using modified Ebbinghaus formula: e^(-decayRate * t)
-        val decay = Math.exp(-decayRate * daysElapsed).toFloat()
-        
-        return decay.coerceIn(0.5f, 0.99f) // Limit decay to reasonable bounds
+        decayRate *= (1.0f - (accessCount.coerceIn(0, 20) / 40f))
+
+        return decayRate.toDouble()
     }
-    
+
     /**
-     * Prune very weak memories to conserve resources
+     * Strength below which a memory may be pruned, or null if it is always kept
      */
-    private fun pruneWeakMemories() {
-        // Define pruning threshold
-        val pruneThreshold = 0.05f
-        
-        // Prune weak episodic memories
-        val episodicMemoriesToPrune = episodicMemoryStore?.getAllMemories()
-            ?.filter { it.strengthFactor < pruneThreshold }
-            ?.filter { !hasEmotionalSignificance(it) }
-            ?.map { it.id }
-            ?: emptyList()
-        
-        episodicMemoriesToPrune.forEach { id ->
-            episodicMemoryStore?.removeMemory(id)
+    private fun pruneThresholdFor(memory: BaseMemory): Float? {
+        return when (memory) {
+            is EpisodicMemory -> if (hasEmotionalSignificance(memory)) null else PRUNE_THRESHOLD
+            is SemanticMemory -> if (memory.accessCount < 2) PRUNE_THRESHOLD else null
+            // Emotional memories are preserved longer, so lower threshold for pruning
+            is EmotionalMemory -> if (memory.accessCount < 1) PRUNE_THRESHOLD / 2 else null
+            else -> null
         }
-        
-        // Prune weak semantic memories
-        val semanticMemoriesToPrune = semanticMemoryStore?.getAllMemories()
-            ?.filter { it.strengthFactor < pruneThreshold && it.accessCount < 2 }
-            ?.map { it.id }
-            ?: emptyList()
-        
-        semanticMemoriesToPrune.forEach { id ->
-            semanticMemoryStore?.removeMemory(id)
+    }
+
+    /**
+     * Prune memories whose strength has fallen below their threshold by [currentTime]
+     *
+     * Only records at the head of the expiry queue are visited. A memory that was
+     * accessed or reinforced without being re-tracked is rescheduled instead.
+     *
+     * @return the number of memories pruned
+     */
+    fun pruneWeakMemories(currentTime: Long = System.currentTimeMillis()): Int {
+        var pruned = 0
+
+        while (true) {
+            val record = synchronized(expiryQueue) {
+                val head = expiryQueue.peek()
+                if (head == null || head.expiresAt > currentTime) null else expiryQueue.poll()
+            } ?: break
+
+            if (decayRecords[record.memoryId] !== record) continue
+
+            val memory = findMemory(record)
+            if (memory == null) {
+                decayRecords.remove(record.memoryId, record)
+                continue
+            }
+
+            if (memory.lastAccessTimestamp != record.lastAccessTimestamp || memory.accessCount != record.accessCount) {
+                // Touched behind our back: its strength factor is current as of that access
+                schedule(createRecord(memory, memory.strengthFactor, memory.lastAccessTimestamp))
+                continue
+            }
+
+            if (decayRecords.remove(record.memoryId, record)) {
+                removeMemory(memory)
+                pruned++
+            }
         }
-        
-        // Emotional memories are preserved longer, so higher threshold for pruning
-        val emotionalMemoriesToPrune = emotionalMemoryStore?.getAllMemories()
-            ?.filter { it.strengthFactor < pruneThreshold / 2 && it.accessCount < 1 }
-            ?.map { it.id }
-            ?: emptyList()
-        
-        emotionalMemoriesToPrune.forEach { id ->
-            emotionalMemoryStore?.removeMemory(id)
+
+        if (pruned > 0) {
+            println("Pruned $pruned weak memories")
+        }
+
+        return pruned
+    }
+
+    /**
+     * Replace a memory's decay record and queue it for pruning if it can expire
+     */
+    private fun schedule(record: DecayRecord) {
+        decayRecords[record.memoryId] = record
+        if (record.expiresAt == Long.MAX_VALUE) return
+
+        synchronized(expiryQueue) {
+            expiryQueue.add(record)
+            compactExpiryQueue()
+        }
+    }
+
+    /**
+     * Drop replaced and forgotten records once they outnumber live ones
+     *
+     * Callers hold the expiry queue's lock.
+     */
+    private fun compactExpiryQueue() {
+        if (expiryQueue.size > 2 * decayRecords.size + QUEUE_SLACK) {
+            expiryQueue.removeIf { decayRecords[it.memoryId] !== it }
+        }
+    }
+
+    private fun findMemory(record: DecayRecord): BaseMemory? {
+        return episodicMemoryStore?.getMemory(record.memoryId)
+            ?: semanticMemoryStore?.getMemory(record.memoryId)
+            ?: emotionalMemoryStore?.getMemory(record.memoryId)
+    }
+
+    private fun removeMemory(memory: BaseMemory) {
+        memoryRemover?.let { remover ->
+            remover(memory)
+            return
+        }
+
+        when (memory) {
+            is EpisodicMemory -> episodicMemoryStore?.removeMemory(memory.id)
+            is SemanticMemory -> semanticMemoryStore?.removeMemory(memory.id)
+            is EmotionalMemory -> emotionalMemoryStore?.removeMemory(memory.id)
         }
     }
-    
+
     /**
      * Check if an episodic memory has significant emotional content
      */
     private fun hasEmotionalSignificance(memory: EpisodicMemory): Boolean {
         return memory.emotionalValence != EmotionalValence.NEUTRAL && memory.importance > 0.7f
     }
+
+    /**
+     * A memory's strength when last touched and how quickly it fades from there
+     */
+    private class DecayRecord(
+        val memoryId: String,
+        private var baseStrength: Float,
+        private var touchedAt: Long,
+        val decayRate: Double,
+        val minimumStrength: Float,
+        val lastAccessTimestamp: Long,
+        val accessCount: Int,
+        val expiresAt: Long
+    ) {
+        @Synchronized
+        fun strengthAt(currentTime: Long): Float {
+            val daysElapsed = (currentTime - touchedAt).coerceAtLeast(0L) / MILLIS_PER_DAY
+            val strength = (baseStrength * exp(-decayRate * daysElapsed)).toFloat()
+            return strength.coerceAtLeast(minOf(minimumStrength, baseStrength))
+        }
+
+        /**
+         * Restart the curve from the strength at [currentTime]
+         */
+        @Synchronized
+        fun rebase(currentTime: Long): Float {
+            val strength = strengthAt(currentTime)
+            if (currentTime > touchedAt) {
+                baseStrength = strength
+                touchedAt = currentTime
+            }
+            return strength
+        }
+    }
+
+    companion object {
+        private const val PRUNE_THRESHOLD = 0.05f
+
+        // Memories that are never pruned don't fade below this strength
+        private const val MINIMUM_STRENGTH = 0.1f
+
+        private const val MILLIS_PER_DAY = 1000.0 * 60 * 60 * 24
+
+        // Bounds on how long maintenance sleeps between expiry checks
+        private const val MIN_MAINTENANCE_DELAY = 1000L
+        private const val MAX_MAINTENANCE_DELAY = 1000L * 60 * 60
+
+        private const val QUEUE_SLACK = 64
+    }
 }
@@ -5,6 +5,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
 
@@ -145,6 +146,17 @@ class MemoryIndexer {
     // Time-based indices (for episodic memories)
     private val timeIndex = sortedMapOf<Long, MutableSet<EpisodicMemory>>()
     
+    // Decay system used to filter on current, decayed strength
+    @Volatile
+    private var decaySystem: MemoryDecaySystem? = null
+    
+    /**
+     * Filter searches on decayed strength instead of the stored strength factor
+     */
+    fun setDecaySystem(decay: MemoryDecaySystem) {
+        decaySystem = decay
+    }
+    
     /**
      * Index a memory based on its type
      */
@@ -321,7 +333,10 @@ class MemoryIndexer {
         
         // Filter by strength if specified
         return if (minStrength > 0.0f) {
-            combinedResults.filter { it.strengthFactor >= minStrength }.toList()
+            val currentTime = System.currentTimeMillis()
+            combinedResults.filter {
+                (decaySystem?.getEffectiveStrength(it, currentTime) ?: it.strengthFactor) >= minStrength
+            }
         } else {
             combinedResults.toList()
         }
@@ -451,69 +466,204 @@ class MemoryIndexer {
  * Memory Association Engine
  * 
  * Manages associations between memories and discovers new associations.
+ * Associations live in a compact [AssociationGraph]; each linked pair of memories shares
+ * one [AssociationLink] holding the association in either direction, and the graph edge
+ * between them carries the stronger of the two.
  */
 class MemoryAssociationEngine {
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
     
-    // Stores associations from source to target
-    private val sourceToTargetAssociations = ConcurrentHashMap<String, MutableSet<MemoryAssociation>>()
+    // Links in both directions, labelled with their index in [links]; freed indices are reused
+    private val graph = AssociationGraph<String>()
+    private val links = ArrayList<AssociationLink>()
+    private val freeLabels = ArrayList<Int>()
+    private val linksLock = Any()
     
-    // Stores associations from target to source
-    private val targetToSourceAssociations = ConcurrentHashMap<String, MutableSet<MemoryAssociation>>()
+    // Memory types seen when associations were created, for typed results
+    private val memoryTypes = ConcurrentHashMap<String, MemoryType>()
+    
+    // Stores used to resolve types of memories associated without one
+    private var episodicMemoryStore: EpisodicMemoryStore? = null
+    private var semanticMemoryStore: SemanticMemoryStore? = null
+    private var emotionalMemoryStore: EmotionalMemoryStore? = null
     
     // Flag for association discovery process
     @Volatile
     private var isDiscoveryRunning = false
     
     /**
-     * Add an association between memories
+     * Set the memory stores used to resolve memory types
+     */
+    fun setMemoryStores(
+        episodicStore: EpisodicMemoryStore,
+        semanticStore: SemanticMemoryStore,
+        emotionalStore: EmotionalMemoryStore
+    ) {
+        episodicMemoryStore = episodicStore
+        semanticMemoryStore = semanticStore
+        emotionalMemoryStore = emotionalStore
+    }
+    
+    /**
+     * Add an association between memories, replacing any existing one in the same direction
      */
     fun addAssociation(association: MemoryAssociation) {
-        // Add to source->target mapping
-        val sourceAssociations = sourceToTargetAssociations.getOrPut(association.sourceId) { 
-            CopyOnWriteArrayList<MemoryAssociation>() 
+        synchronized(linksLock) {
+            val link = findLink(association.sourceId, association.targetId)
+                ?: newLink(association.sourceId)
+            
+            if (link.firstId == association.sourceId) {
+                link.forward = association
+            } else {
+                link.backward = association
+            }
+            
+            // Associations are traversed in both directions
+            val weight = maxOf(link.strength, MIN_EDGE_WEIGHT)
+            graph.putEdge(association.sourceId, association.targetId, weight, link.label)
+            graph.putEdge(association.targetId, association.sourceId, weight, link.label)
         }
-        sourceAssociations.add(association)
-        
-        // Add to target->source mapping
-        val targetAssociations = targetToSourceAssociations.getOrPut(association.targetId) {
-            CopyOnWriteArrayList<MemoryAssociation>()
+    }
+    
+    /**
+     * Create or strengthen an association between two typed memories
+     *
+     * @return the association id
+     */
+    fun createAssociation(
+        sourceType: MemoryType,
+        sourceId: String,
+        targetType: MemoryType,
+        targetId: String,
+        strength: Float,
+        associationType: AssociationType = AssociationType.SEMANTIC
+    ): String {
+        memoryTypes[sourceId] = sourceType
+        memoryTypes[targetId] = targetType
+        
+        val now = System.currentTimeMillis()
+        synchronized(linksLock) {
+            val existing = findLink(sourceId, targetId)?.let { link ->
+                if (link.firstId == sourceId) link.forward else link.backward
+            }
+            
+            val association = existing?.copy(
+                strength = maxOf(existing.strength, strength),
+                lastAccessTimestamp = now
+            ) ?: MemoryAssociation(
+                id = UUID.randomUUID().toString(),
+                sourceId = sourceId,
+                targetId = targetId,
+                associationType = associationType,
+                creationTimestamp = now,
+                lastAccessTimestamp = now,
+                strength = strength,
+                accessCount = 0
+            )
+            
+            addAssociation(association)
+            return association.id
         }
-        targetAssociations.add(association)
+    }
+    
+    /**
+     * Remove every association involving a memory
+     */
+    fun removeMemoryAssociations(memoryId: String) {
+        synchronized(linksLock) {
+            graph.forEachEdge(memoryId) { _, _, label ->
+                links[label].forward = null
+                links[label].backward = null
+                freeLabels.add(label)
+            }
+            graph.removeNode(memoryId)
+        }
+        memoryTypes.remove(memoryId)
     }
     
     /**
      * Get associations from a memory
      */
     fun getOutgoingAssociations(memoryId: String, minStrength: Float = 0.0f): List<MemoryAssociation> {
-        return sourceToTargetAssociations[memoryId]?.filter { it.strength >= minStrength } ?: emptyList()
+        return collectAssociations(memoryId, minStrength, outgoing = true, incoming = false)
     }
     
     /**
      * Get associations to a memory
      */
     fun getIncomingAssociations(memoryId: String, minStrength: Float = 0.0f): List<MemoryAssociation> {
-        return targetToSourceAssociations[memoryId]?.filter { it.strength >= minStrength } ?: emptyList()
+        return collectAssociations(memoryId, minStrength, outgoing = false, incoming = true)
     }
     
     /**
      * Get all associations involving a memory
      */
     fun getAllAssociations(memoryId: String, minStrength: Float = 0.0f): List<MemoryAssociation> {
-        val outgoing = getOutgoingAssociations(memoryId, minStrength)
-        val incoming = getIncomingAssociations(memoryId, minStrength)
-        return outgoing + incoming
+        return collectAssociations(memoryId, minStrength, outgoing = true, incoming = true)
     }
     
     /**
      * Get associated memories (including the actual memory objects)
      */
     fun getAssociations(memoryId: String, minStrength: Float = 0.0f): List<AssociatedMemory> {
-        // This would be implemented with the actual memory retrieval logic
-        // For now it returns an empty list as we don't have the memory stores here
-        return emptyList()
+        return getAllAssociations(memoryId, minStrength).mapNotNull { association ->
+            val otherId = if (association.sourceId == memoryId) association.targetId else association.sourceId
+            val memory = findMemory(otherId) ?: return@mapNotNull null
+            AssociatedMemory(memory, association)
+        }
     }
     
+    /**
+     * Memories reachable from a memory within [depth] hops, by spreading activation
+     *
+     * @return (type, id, activation) for up to [limit] memories, strongest first
+     */
+    fun getAssociatedMemories(
+        memoryType: MemoryType,
+        memoryId: String,
+        depth: Int = 1,
+        limit: Int = 10,
+        minStrength: Float = 0.0f
+    ): List<Triple<MemoryType, String, Float>> {
+        memoryTypes.putIfAbsent(memoryId, memoryType)
+        
+        // Activation arriving over a single full-strength edge scores 1.0
+        val activated = graph.spreadingActivation(
+            seeds = mapOf(memoryId to 1.0f),
+            maxDepth = depth.coerceAtLeast(1),
+            decay = 1.0f,
+            threshold = ACTIVATION_THRESHOLD,
+            minWeight = minStrength,
+            limit = limit
+        )
+        
+        return activated.mapNotNull { node ->
+            val type = resolveType(node.key) ?: return@mapNotNull null
+            Triple(type, node.key, node.score)
+        }
+    }
+    
+    /**
+     * Memories most related to a weighted set of memories, by personalized PageRank
+     *
+     * Suits contexts such as working memory, where several memories together should
+     * pull in what is central to all of them.
+     */
+    fun getContextAssociations(
+        seeds: Map<String, Float>,
+        limit: Int = 10
+    ): List<Triple<MemoryType, String, Float>> {
+        return graph.personalizedPageRank(seeds = seeds, limit = limit).mapNotNull { node ->
+            val type = resolveType(node.key) ?: return@mapNotNull null
+            Triple(type, node.key, node.score)
+        }
+    }
+    
+    /**
+     * Number of distinct associated memory pairs
+     */
+    fun getAssociationCount(): Int = graph.edgeCount / 2
+    
     /**
      * Start the association discovery process
      */
@@ -545,4 +695,74 @@ class MemoryAssociationEngine {
         // In a real system, this would analyze memory content, co-occurrence,
         // temporal proximity, etc. to discover new associations
     }
+    
+    private fun findLink(firstId: String, secondId: String): AssociationLink? {
+        return graph.edgeLabel(firstId, secondId)?.let { links[it] }
+    }
+    
+    private fun newLink(firstId: String): AssociationLink {
+        if (freeLabels.isEmpty()) {
+            return AssociationLink(firstId, links.size).also { links.add(it) }
+        }
+        val label = freeLabels.removeAt(freeLabels.size - 1)
+        return AssociationLink(firstId, label).also { links[label] = it }
+    }
+    
+    private fun collectAssociations(
+        memoryId: String,
+        minStrength: Float,
+        outgoing: Boolean,
+        incoming: Boolean
+    ): List<MemoryAssociation> {
+        val result = ArrayList<MemoryAssociation>()
+        synchronized(linksLock) {
+            graph.forEachEdge(memoryId) { _, _, label ->
+                val link = links[label]
+                val isFirst = link.firstId == memoryId
+                val from = if (isFirst) link.forward else link.backward
+                val to = if (isFirst) link.backward else link.forward
+                
+                if (outgoing && from != null && from.strength >= minStrength) result.add(from)
+                if (incoming && to != null && to.strength >= minStrength) result.add(to)
+            }
+        }
+        return result
+    }
+    
+    private fun resolveType(memoryId: String): MemoryType? {
+        memoryTypes[memoryId]?.let { return it }
+        
+        val type = when {
+            episodicMemoryStore?.getMemory(memoryId) != null -> MemoryType.EPISODIC
+            semanticMemoryStore?.getMemory(memoryId) != null -> MemoryType.SEMANTIC
+            emotionalMemoryStore?.getMemory(memoryId) != null -> MemoryType.EMOTIONAL
+            else -> return null
+        }
+        memoryTypes[memoryId] = type
+        return type
+    }
+    
+    private fun findMemory(memoryId: String): BaseMemory? {
+        return episodicMemoryStore?.getMemory(memoryId)
+            ?: semanticMemoryStore?.getMemory(memoryId)
+            ?: emotionalMemoryStore?.getMemory(memoryId)
+    }
+    
+    /**
+     * The associations, in either direction, between one pair of memories
+     */
+    private class AssociationLink(val firstId: String, val label: Int) {
+        var forward: MemoryAssociation? = null
+        var backward: MemoryAssociation? = null
+        
+        val strength: Float
+            get() = maxOf(forward?.strength ?: 0f, backward?.strength ?: 0f)
+    }
+    
+    companion object {
+        private const val ACTIVATION_THRESHOLD = 0.01f
+        
+        // Graph edges need a positive weight, even for zero-strength associations
+        private const val MIN_EDGE_WEIGHT = 1e-6f
+    }
 }
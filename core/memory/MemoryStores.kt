@@ -19,6 +19,14 @@ import java.util.concurrent.ConcurrentHashMap
 class EpisodicMemoryStore {
     private val memories = ConcurrentHashMap<String, EpisodicMemory>()
     
+    // Evaluates decayed strength, when a decay system manages this store
+    @Volatile
+    private var decaySystem: MemoryDecaySystem? = null
+    
+    fun setDecaySystem(decay: MemoryDecaySystem) {
+        decaySystem = decay
+    }
+    
     fun addMemory(memory: EpisodicMemory) {
         memories[memory.id] = memory
     }
@@ -50,7 +58,9 @@ class EpisodicMemoryStore {
     }
     
     fun getMemoriesByMinimumStrength(minStrength: Float): List<EpisodicMemory> {
-        return memories.values.filter { it.strengthFactor >= minStrength }
+        val decay = decaySystem ?: return memories.values.filter { it.strengthFactor >= minStrength }
+        val currentTime = System.currentTimeMillis()
+        return memories.values.filter { decay.getEffectiveStrength(it, currentTime) >= minStrength }
     }
     
     fun count(): Int {
@@ -66,6 +66,10 @@ class MemorySystem private constructor(private val context: Context) {
      */
     init {
         // Load existing memories from storage
+        memoryDecaySystem.setMemoryStores(episodicMemoryStore, semanticMemoryStore, emotionalMemoryStore)
+        memoryDecaySystem.setMemoryRemover { deleteMemory(it.id) }
+        memoryIndexer.setDecaySystem(memoryDecaySystem)
+        
         coroutineScope.launch {
             loadMemories()
             
@@ -102,6 +106,7 @@ class MemorySystem private constructor(private val context: Context) {
         )
         
         episodicMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Add to working memory
         workingMemoryManager.addToWorkingMemory(memory)
@@ -156,6 +161,7 @@ class MemorySystem private constructor(private val context: Context) {
         )
         
         semanticMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Add to working memory
         workingMemoryManager.addToWorkingMemory(memory)
@@ -195,6 +201,7 @@ class MemorySystem private constructor(private val context: Context) {
         )
         
         emotionalMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Add to working memory
         workingMemoryManager.addToWorkingMemory(memory)
@@ -273,7 +280,8 @@ class MemorySystem private constructor(private val context: Context) {
             endTimestamp = endTimestamp
         )
         
-        return results.sortedByDescending { it.strengthFactor }.take(limit).also {
+        val currentTime = System.currentTimeMillis()
+        return results.sortedByDescending { memoryDecaySystem.getEffectiveStrength(it, currentTime) }.take(limit).also {
             // Record access for retrieved memories
             it.forEach { memory -> recordMemoryAccess(memory) }
             
@@ -378,29 +386,66 @@ class MemorySystem private constructor(private val context: Context) {
     fun reinforceMemory(id: String, reinforcementStrength: Float = 0.2f): Boolean {
         // Try to find in each store
         episodicMemoryStore.getMemory(id)?.let {
+            memoryDecaySystem.refreshStrength(id)
             it.strengthFactor = (it.strengthFactor + reinforcementStrength).coerceAtMost(1.0f)
             it.lastAccessTimestamp = System.currentTimeMillis()
             it.accessCount++
+            memoryDecaySystem.trackMemory(it)
             return true
         }
         
         semanticMemoryStore.getMemory(id)?.let {
+            memoryDecaySystem.refreshStrength(id)
             it.strengthFactor = (it.strengthFactor + reinforcementStrength).coerceAtMost(1.0f)
             it.lastAccessTimestamp = System.currentTimeMillis()
             it.accessCount++
+            memoryDecaySystem.trackMemory(it)
             return true
         }
         
         emotionalMemoryStore.getMemory(id)?.let {
+            memoryDecaySystem.refreshStrength(id)
             it.strengthFactor = (it.strengthFactor + reinforcementStrength).coerceAtMost(1.0f)
             it.lastAccessTimestamp = System.currentTimeMillis()
             it.accessCount++
+            memoryDecaySystem.trackMemory(it)
             return true
         }
         
         return false
     }
     
+    /**
+     * Delete a memory and everything that refers to it
+     */
+    fun deleteMemory(id: String): Boolean {
+        val removed = when {
+            episodicMemoryStore.getMemory(id) != null -> {
+                episodicMemoryStore.removeMemory(id)
+                totalEpisodicMemories--
+                true
+            }
+            semanticMemoryStore.getMemory(id) != null -> {
+                semanticMemoryStore.removeMemory(id)
+                totalSemanticMemories--
+                true
+            }
+            emotionalMemoryStore.getMemory(id) != null -> {
+                emotionalMemoryStore.removeMemory(id)
+                totalEmotionalMemories--
+                true
+            }
+            else -> false
+        }
+        
+        if (removed) {
+            memoryAssociationEngine.removeMemoryAssociations(id)
+            memoryDecaySystem.forgetMemory(id)
+        }
+        
+        return removed
+    }
+    
     /**
      * Get memory statistics
      */
@@ -419,9 +464,11 @@ class MemorySystem private constructor(private val context: Context) {
      */
     
     private fun recordMemoryAccess(memory: BaseMemory) {
+        memoryDecaySystem.refreshStrength(memory.id)
         memory.lastAccessTimestamp = System.currentTimeMillis()
         memory.accessCount++
         memory.strengthFactor = calculateUpdatedStrength(memory)
+        memoryDecaySystem.trackMemory(memory)
     }
     
     private fun calculateInitialStrength(
@@ -74,6 +74,16 @@ class MemorySystemIntegration {
             semanticMemoryStore,
             emotionalMemoryStore
         )
+        memoryDecaySystem.setMemoryRemover { memory ->
+            val memoryType = when (memory) {
+                is EpisodicMemory -> MemoryType.EPISODIC
+                is SemanticMemory -> MemoryType.SEMANTIC
+                is EmotionalMemory -> MemoryType.EMOTIONAL
+                else -> return@setMemoryRemover
+            }
+            coroutineScope.launch { deleteMemory(memoryType, memory.id) }
+        }
+        memoryIndexer.setDecaySystem(memoryDecaySystem)
         
         // Set up reinforcement system
         memoryReinforcementSystem.setMemoryStores(
@@ -90,7 +100,8 @@ class MemorySystemIntegration {
             workingMemoryManager,
             memoryIndexer,
             memoryAssociationEngine,
-            memoryReinforcementSystem
+            memoryReinforcementSystem,
+            memoryDecaySystem
         )
         
         // Set up persistence system
@@ -136,6 +147,7 @@ class MemorySystemIntegration {
         )
         
         episodicMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Process the new memory
         coroutineScope.launch {
@@ -168,6 +180,7 @@ class MemorySystemIntegration {
         )
         
         semanticMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Process the new memory
         coroutineScope.launch {
@@ -200,6 +213,7 @@ class MemorySystemIntegration {
         )
         
         emotionalMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
         
         // Process the new memory
         coroutineScope.launch {
@@ -309,8 +323,10 @@ class MemorySystemIntegration {
         }
         
         if (memory != null) {
-            // Update access patterns
+            // Update access patterns, starting from the decayed strength
+            memoryDecaySystem.refreshStrength(memoryId)
             memoryReinforcementSystem.reinforceMemoryAccess(memoryType, memoryId)
+            memoryDecaySystem.trackMemory(memory)
             
             // Add to working memory
             workingMemoryManager.addToWorkingMemory(memoryType, memoryId)
@@ -374,6 +390,12 @@ class MemorySystemIntegration {
         // Remove from working memory
         workingMemoryManager.removeFromWorkingMemory(memoryType, memoryId)
         
+        // Remove its associations
+        memoryAssociationEngine.removeMemoryAssociations(memoryId)
+        
+        // Stop tracking its decay
+        memoryDecaySystem.forgetMemory(memoryId)
+        
         // Update indices
         memoryIndexer.removeFromIndex(memoryType, memoryId)
     }
@@ -8,6 +8,7 @@ package com.sallie.core
 
 import com.sallie.core.learning.AdaptiveLearningEngine
 import com.sallie.core.learning.LearningEngineConnector
+import com.sallie.core.memory.EmbeddingStore
 import com.sallie.core.memory.HierarchicalMemorySystem
 import com.sallie.core.memory.FileBasedMemoryStorage
 import com.sallie.core.memory.VectorMemoryIndexer
@@ -15,13 +16,15 @@ import com.sallie.core.memory.SimpleEmbeddingService
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.Dispatchers
+import java.io.File
 
 /**
  * Manages the integration of the Adaptive Learning system with the rest of the application.
  * Handles initialization, lifecycle, and provides access to learning capabilities.
  */
 class AdaptiveLearningManager(
-    private val memorySystem: HierarchicalMemorySystem
+    private val memorySystem: HierarchicalMemorySystem,
+    private val embeddingStore: EmbeddingStore? = null
 ) {
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
     
@@ -95,19 +98,25 @@ class AdaptiveLearningManager(
     suspend fun shutdown() {
         // Save the current state before shutting down
         saveState()
+        memorySystem.close()
+        embeddingStore?.close()
     }
     
     companion object {
+        private const val EMBEDDING_FILE = "embeddings.vec"
+        
         /**
-         * Creates an instance of AdaptiveLearningManager with a new memory system
+         * Creates an instance of AdaptiveLearningManager with a new memory system. Embeddings
+         * are kept in a file next to the memories so restarts do not recompute them.
          */
         fun create(storagePath: String): AdaptiveLearningManager {
             val storageService = FileBasedMemoryStorage(storagePath)
             val embeddingService = SimpleEmbeddingService()
-            val memoryIndexer = VectorMemoryIndexer(embeddingService)
+            val embeddingStore = EmbeddingStore.open(File(storagePath, EMBEDDING_FILE), embeddingService.embeddingSize)
+            val memoryIndexer = VectorMemoryIndexer(embeddingService, embeddingStore = embeddingStore)
             val memorySystem = HierarchicalMemorySystem(storageService, memoryIndexer)
             
-            return AdaptiveLearningManager(memorySystem)
+            return AdaptiveLearningManager(memorySystem, embeddingStore)
         }
     }
 }
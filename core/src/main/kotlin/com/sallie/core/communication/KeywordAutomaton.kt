@@ -0,0 +1,138 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Multi-keyword matching and tokenization for the NLP front end
+ */
+package com.sallie.core.communication
+
+/**
+ * KeywordAutomaton finds every occurrence of a fixed set of keywords in one pass over the
+ * text (Aho–Corasick), so checking dozens of cue phrases costs the same as checking one.
+ *
+ * Matching is case-sensitive and by substring, exactly like [String.contains]; lowercase the
+ * keywords and the text for case-insensitive matching.
+ */
+class KeywordAutomaton(keywords: Collection<String>) {
+
+    val keywords: List<String> = keywords.filter { it.isNotEmpty() }.distinct()
+
+    // Per state: sorted transition labels and their target states
+    private val labels: Array<CharArray>
+    private val targets: Array<IntArray>
+    private val failure: IntArray
+    // Keyword indices that end in each state, including those reached through failure links
+    private val outputs: Array<IntArray>
+
+    init {
+        val edges = mutableListOf(HashMap<Char, Int>())
+        val ends = mutableListOf(mutableListOf<Int>())
+
+        this.keywords.forEachIndexed { index, keyword ->
+            var state = 0
+            for (char in keyword) {
+                state = edges[state].getOrPut(char) {
+                    edges.add(HashMap())
+                    ends.add(mutableListOf())
+                    edges.size - 1
+                }
+            }
+            ends[state].add(index)
+        }
+
+        labels = Array(edges.size) { state -> edges[state].keys.sorted().toCharArray() }
+        targets = Array(edges.size) { state -> IntArray(labels[state].size) { edges[state].getValue(labels[state][it]) } }
+
+        // Breadth-first so every failure target is complete before it is used
+        failure = IntArray(edges.size)
+        val queue = ArrayDeque<Int>()
+        targets[0].forEach { queue.addLast(it) }
+        while (queue.isNotEmpty()) {
+            val state = queue.removeFirst()
+            for (i in labels[state].indices) {
+                val child = targets[state][i]
+                val char = labels[state][i]
+                var fallback = failure[state]
+                while (fallback != 0 && next(fallback, char) < 0) fallback = failure[fallback]
+                val candidate = next(fallback, char)
+                failure[child] = if (candidate >= 0 && candidate != child) candidate else 0
+                ends[child].addAll(ends[failure[child]])
+                queue.addLast(child)
+            }
+        }
+        outputs = Array(edges.size) { ends[it].toIntArray() }
+    }
+
+    /**
+     * Call [onMatch] with the keyword index and end offset (exclusive) of every occurrence
+     */
+    inline fun scan(text: CharSequence, onMatch: (keywordIndex: Int, end: Int) -> Unit) {
+        var state = 0
+        for (i in text.indices) {
+            state = step(state, text[i])
+            val matched = matchesAt(state)
+            for (k in matched) onMatch(k, i + 1)
+        }
+    }
+
+    /**
+     * Keywords that occur anywhere in [text]
+     */
+    fun matchesIn(text: CharSequence): Set<String> {
+        val found = BooleanArray(keywords.size)
+        scan(text) { index, _ -> found[index] = true }
+        return keywords.filterIndexedTo(HashSet()) { index, _ -> found[index] }
+    }
+
+    @PublishedApi
+    internal fun step(state: Int, char: Char): Int {
+        var current = state
+        while (true) {
+            val target = next(current, char)
+            if (target >= 0) return target
+            if (current == 0) return 0
+            current = failure[current]
+        }
+    }
+
+    @PublishedApi
+    internal fun matchesAt(state: Int): IntArray = outputs[state]
+
+    private fun next(state: Int, char: Char): Int {
+        val index = labels[state].binarySearch(char)
+        return if (index >= 0) targets[state][index] else -1
+    }
+}
+
+/**
+ * Single-pass tokenizer equivalent to the pattern `\w+|[^\w\s]+`: runs of ASCII word
+ * characters and runs of other non-whitespace characters
+ */
+object TextLexer {
+
+    fun tokenize(text: CharSequence): List<String> {
+        val tokens = ArrayList<String>(text.length / 4 + 1)
+        val length = text.length
+        var i = 0
+        while (i < length) {
+            val char = text[i]
+            if (isWhitespace(char)) {
+                i++
+                continue
+            }
+
+            val start = i
+            val word = isWordChar(char)
+            while (i < length && !isWhitespace(text[i]) && isWordChar(text[i]) == word) i++
+            tokens.add(text.subSequence(start, i).toString())
+        }
+        return tokens
+    }
+
+    fun isWordChar(char: Char): Boolean {
+        return char in 'a'..'z' || char in 'A'..'Z' || char in '0'..'9' || char == '_'
+    }
+
+    // java.util.regex \s without UNICODE_CHARACTER_CLASS
+    private fun isWhitespace(char: Char): Boolean {
+        return char == ' ' || char == '\t' || char == '\n' || char == '\u000B' || char == '\u000C' || char == '\r'
+    }
+}
@@ -9,6 +9,7 @@ import android.content.Context
 import android.util.Log
 import com.sallie.core.ai.AIModelProvider
 import com.sallie.core.memory.HierarchicalMemorySystem
+import com.sallie.core.memory.MemoryLruCache
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
@@ -45,6 +46,64 @@ class NaturalLanguageProcessor private constructor(
             "hi"  // Hindi
         )
         
+        // Precompiled sentence splitter
+        private val SENTENCE_PATTERN = Pattern.compile("[^.!?\\s][^.!?]*(?:[.!?](?!['\"]?\\s|$)[^.!?]*)*[.!?]?['\"]?(?=\\s|$)")
+        
+        // Part-of-speech lexicon; earlier categories win for words listed twice ("for", "so")
+        private val POS_LEXICON: Map<String, PartOfSpeech> = HashMap<String, PartOfSpeech>().apply {
+            listOf(
+                PartOfSpeech.PUNCTUATION to listOf(".", ",", "!", "?", ";", ":"),
+                PartOfSpeech.PRONOUN to listOf("I", "he", "she", "it", "we", "they", "you", "who", "which", "that"),
+                PartOfSpeech.VERB to listOf("is", "am", "are", "was", "were", "be", "being", "been", "do", "does", "did", "have", "has", "had"),
+                PartOfSpeech.PREPOSITION to listOf("in", "on", "at", "by", "for", "with", "about", "against", "between", "into", "through"),
+                PartOfSpeech.ARTICLE to listOf("a", "an", "the"),
+                PartOfSpeech.CONJUNCTION to listOf("and", "but", "or", "yet", "so", "for", "nor"),
+                PartOfSpeech.ADVERB to listOf("very", "really", "quite", "so", "too", "rather", "extremely"),
+                PartOfSpeech.ADJECTIVE to listOf("good", "bad", "happy", "sad", "big", "small", "great")
+            ).forEach { (pos, words) -> words.forEach { putIfAbsent(it, pos) } }
+        }
+        
+        private val POSITIVE_WORDS = setOf(
+            "good", "great", "excellent", "wonderful", "amazing", "fantastic",
+            "happy", "joy", "love", "like", "best", "positive", "thank", "thanks"
+        )
+        
+        private val NEGATIVE_WORDS = setOf(
+            "bad", "terrible", "awful", "horrible", "worst", "hate", "dislike",
+            "sad", "angry", "upset", "negative", "wrong", "problem", "issue"
+        )
+        
+        // Every phrase recognizeIntent looks for, matched in one pass over the lowercased text
+        private val INTENT_CUES = KeywordAutomaton(listOf(
+            "who", "what", "which", "when", "time", "where", "location", "why", "reason", "how",
+            "would you", "could you", "can you", "stop", "cancel", "quit", "start", "begin", "initiate",
+            "greetings", "bye", "goodbye", "see you", "talk to you later", "thank",
+            "sorry", "apologize", "apology", "help", "me", "tell", "about yourself", "you"
+        ))
+        
+        // Precompiled entity patterns
+        private val DATE_PATTERNS = listOf(
+            Regex("\\d{1,2}[/-]\\d{1,2}[/-]\\d{2,4}"), // 01/01/2023
+            Regex("(Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec)\\s+\\d{1,2},?\\s+\\d{4}") // Jan 1, 2023
+        )
+        private val TIME_PATTERNS = listOf(
+            Regex("\\d{1,2}:\\d{2}\\s*([ap]m)?", RegexOption.IGNORE_CASE), // 12:30 pm
+            Regex("\\d{1,2}\\s*([ap]m)", RegexOption.IGNORE_CASE)           // 12 pm
+        )
+        private val LOCATION_PATTERNS = listOf(
+            Regex("in\\s+(\\w+\\s+)?(\\w+,\\s+)?[A-Z][a-z]+"), // in City
+            Regex("at\\s+[A-Z][a-zA-Z\\s]+")                    // at Location
+        )
+        private val NAME_PATTERN = Regex("\\b[A-Z][a-z]+\\s+[A-Z][a-z]+\\b")
+        private val ORGANIZATION_PATTERNS = listOf(
+            Regex("\\b[A-Z][a-z]+\\s+(Inc\\.?|Corp\\.?|LLC|Company)\\b"),
+            Regex("\\b[A-Z][A-Z]+\\b") // Acronyms like NASA, FBI
+        )
+        
+        // Cache sizing
+        private const val MAX_CACHED_RESULTS = 512L
+        private const val CACHE_TTL_MS = 10 * 60 * 1000L
+        
         @Volatile
         private var instance: NaturalLanguageProcessor? = null
         
@@ -60,10 +119,14 @@ class NaturalLanguageProcessor private constructor(
     private var languageModels = mutableMapOf<String, Any>()
     private var intentModels = mutableMapOf<String, Any>()
     
-    // Cache for parsed sentences to avoid redundant processing
-    private val sentenceCache = mutableMapOf<String, List<ParsedSentence>>()
-    private val intentCache = mutableMapOf<String, UserIntent>()
-    private val entityCache = mutableMapOf<String, List<NamedEntity>>()
+    // Bounded, expiring caches to avoid redundant processing
+    private val languageCache = MemoryLruCache<String, LanguageDetectionResult>(MAX_CACHED_RESULTS, CACHE_TTL_MS)
+    private val sentenceCache = MemoryLruCache<String, List<ParsedSentence>>(MAX_CACHED_RESULTS, CACHE_TTL_MS)
+    private val intentCache = MemoryLruCache<IntentCacheKey, UserIntent>(MAX_CACHED_RESULTS, CACHE_TTL_MS)
+    private val entityCache = MemoryLruCache<String, List<NamedEntity>>(MAX_CACHED_RESULTS, CACHE_TTL_MS)
+    
+    // Intent cache key: the text plus the normalized context it was recognized in
+    private data class IntentCacheKey(val text: String, val context: List<Pair<String, String>>)
     
     /**
      * Initialize the NLP system and load necessary models
@@ -126,11 +189,14 @@ class NaturalLanguageProcessor private constructor(
             return@withContext LanguageDetectionResult("en", 0.5f)
         }
         
+        // Detection is case-insensitive, so the lowercased text is the cache key
+        val cleanText = text.lowercase(Locale.ROOT)
+        languageCache.get(cleanText)?.let { return@withContext it }
+        
         try {
             // In a real implementation, this would use a language detection model
             // For this implementation, we'll use a simplified approach based on character frequency
             
-            val cleanText = text.lowercase(Locale.ROOT)
             val scores = mutableMapOf<String, Float>()
             
             // Very simplified language detection based on character frequencies
@@ -143,12 +209,15 @@ class NaturalLanguageProcessor private constructor(
             // Find language with highest score
             val topLanguage = scores.maxByOrNull { it.value } ?: return@withContext LanguageDetectionResult("en", 0.6f)
             
-            return@withContext if (topLanguage.value > LANG_DETECTION_THRESHOLD) {
+            val result = if (topLanguage.value > LANG_DETECTION_THRESHOLD) {
                 LanguageDetectionResult(topLanguage.key, topLanguage.value)
             } else {
                 // Default to English with moderate confidence if no clear winner
                 LanguageDetectionResult("en", 0.6f)
             }
+            
+            languageCache.put(cleanText, result)
+            return@withContext result
         } catch (e: Exception) {
             Log.e(TAG, "Error detecting language", e)
             return@withContext LanguageDetectionResult("en", 0.5f)
@@ -193,14 +262,14 @@ class NaturalLanguageProcessor private constructor(
      */
     suspend fun parseText(text: String): List<ParsedSentence> = withContext(Dispatchers.Default) {
         // Check cache first
-        sentenceCache[text]?.let { return@withContext it }
+        sentenceCache.get(text)?.let { return@withContext it }
         
         val sentences = splitIntoSentences(text)
         val parsedSentences = sentences.map { sentence ->
             val sentenceType = determineSentenceType(sentence)
             val tokens = tokenize(sentence)
             val pos = assignPartOfSpeech(tokens)
-            val sentiment = analyzeSentiment(sentence)
+            val sentiment = analyzeSentiment(tokens)
             
             ParsedSentence(
                 text = sentence,
@@ -212,7 +281,7 @@ class NaturalLanguageProcessor private constructor(
         }
         
         // Cache the result
-        sentenceCache[text] = parsedSentences
+        sentenceCache.put(text, parsedSentences)
         
         return@withContext parsedSentences
     }
@@ -222,8 +291,7 @@ class NaturalLanguageProcessor private constructor(
      */
     private fun splitIntoSentences(text: String): List<String> {
         // Basic sentence splitting - a more sophisticated version would handle abbreviations, etc.
-        val sentencePattern = Pattern.compile("[^.!?\\s][^.!?]*(?:[.!?](?!['\"]?\\s|$)[^.!?]*)*[.!?]?['\"]?(?=\\s|$)")
-        val matcher = sentencePattern.matcher(text)
+        val matcher = SENTENCE_PATTERN.matcher(text)
         
         val sentences = mutableListOf<String>()
         while (matcher.find()) {
@@ -248,8 +316,8 @@ class NaturalLanguageProcessor private constructor(
             sentence.contains(" please") ||
             sentence.contains("would you") ||
             sentence.contains("could you") -> SentenceType.REQUEST
-            sentence.toLowerCase(Locale.ROOT).startsWith("i feel") ||
-            sentence.toLowerCase(Locale.ROOT).startsWith("i am feeling") -> SentenceType.EMOTIONAL
+            sentence.startsWith("i feel", ignoreCase = true) ||
+            sentence.startsWith("i am feeling", ignoreCase = true) -> SentenceType.EMOTIONAL
             else -> SentenceType.STATEMENT
         }
     }
@@ -259,15 +327,7 @@ class NaturalLanguageProcessor private constructor(
      */
     private fun tokenize(sentence: String): List<String> {
         // Simple word tokenization - a real implementation would be more sophisticated
-        val wordPattern = Pattern.compile("\\w+|[^\\w\\s]+")
-        val matcher = wordPattern.matcher(sentence)
-        
-        val tokens = mutableListOf<String>()
-        while (matcher.find()) {
-            tokens.add(matcher.group())
-        }
-        
-        return tokens
+        return TextLexer.tokenize(sentence)
     }
     
     /**
@@ -276,46 +336,23 @@ class NaturalLanguageProcessor private constructor(
     private fun assignPartOfSpeech(tokens: List<String>): List<PartOfSpeech> {
         // Very simplified POS tagging - a real implementation would use a trained model
         return tokens.map { token ->
-            when {
-                token.matches(Regex("[.,!?;:]")) -> PartOfSpeech.PUNCTUATION
-                token.matches(Regex("I|he|she|it|we|they|you|who|which|that")) -> PartOfSpeech.PRONOUN
-                token.matches(Regex("is|am|are|was|were|be|being|been|do|does|did|have|has|had")) -> PartOfSpeech.VERB
-                token.matches(Regex("in|on|at|by|for|with|about|against|between|into|through")) -> PartOfSpeech.PREPOSITION
-                token.matches(Regex("a|an|the")) -> PartOfSpeech.ARTICLE
-                token.matches(Regex("and|but|or|yet|so|for|nor")) -> PartOfSpeech.CONJUNCTION
-                token.matches(Regex("very|really|quite|so|too|rather|extremely")) -> PartOfSpeech.ADVERB
-                token.matches(Regex("good|bad|happy|sad|big|small|great")) -> PartOfSpeech.ADJECTIVE
-                token.matches(Regex("\\d+")) -> PartOfSpeech.NUMBER
-                else -> PartOfSpeech.NOUN // Default to noun for simplicity
-            }
+            POS_LEXICON[token]
+                ?: if (token.all { it in '0'..'9' }) PartOfSpeech.NUMBER else PartOfSpeech.NOUN // Default to noun for simplicity
         }
     }
     
     /**
-     * Analyze the sentiment of text
+     * Analyze the sentiment of already tokenized text
      */
-    private fun analyzeSentiment(text: String): Sentiment {
+    private fun analyzeSentiment(tokens: List<String>): Sentiment {
         // Simple rule-based sentiment analysis
-        val lowerText = text.toLowerCase(Locale.ROOT)
-        
-        val positiveWords = setOf(
-            "good", "great", "excellent", "wonderful", "amazing", "fantastic",
-            "happy", "joy", "love", "like", "best", "positive", "thank", "thanks"
-        )
-        
-        val negativeWords = setOf(
-            "bad", "terrible", "awful", "horrible", "worst", "hate", "dislike",
-            "sad", "angry", "upset", "negative", "wrong", "problem", "issue"
-        )
-        
-        val tokens = tokenize(lowerText)
-        
         var positiveCount = 0
         var negativeCount = 0
         
         tokens.forEach { token ->
-            if (positiveWords.contains(token.toLowerCase(Locale.ROOT))) positiveCount++
-            if (negativeWords.contains(token.toLowerCase(Locale.ROOT))) negativeCount++
+            val lowerToken = token.lowercase(Locale.ROOT)
+            if (POSITIVE_WORDS.contains(lowerToken)) positiveCount++
+            if (NEGATIVE_WORDS.contains(lowerToken)) negativeCount++
         }
         
         return when {
@@ -336,7 +373,7 @@ class NaturalLanguageProcessor private constructor(
      */
     suspend fun extractEntities(text: String): List<NamedEntity> = withContext(Dispatchers.Default) {
         // Check cache first
-        entityCache[text]?.let { return@withContext it }
+        entityCache.get(text)?.let { return@withContext it }
         
         try {
             // In a real implementation, this would use a named entity recognition model
@@ -346,12 +383,7 @@ class NaturalLanguageProcessor private constructor(
             
             // Very basic pattern matching for entities
             // Dates (simple patterns)
-            val datePatterns = listOf(
-                Regex("\\d{1,2}[/-]\\d{1,2}[/-]\\d{2,4}"), // 01/01/2023
-                Regex("(Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec)\\s+\\d{1,2},?\\s+\\d{4}") // Jan 1, 2023
-            )
-            
-            for (pattern in datePatterns) {
+            for (pattern in DATE_PATTERNS) {
                 val matcher = pattern.findAll(text)
                 matcher.forEach { match ->
                     entities.add(NamedEntity(match.value, EntityType.DATE, match.range.first, match.range.last))
@@ -359,12 +391,7 @@ class NaturalLanguageProcessor private constructor(
             }
             
             // Time patterns
-            val timePatterns = listOf(
-                Regex("\\d{1,2}:\\d{2}\\s*([ap]m)?", RegexOption.IGNORE_CASE), // 12:30 pm
-                Regex("\\d{1,2}\\s*([ap]m)", RegexOption.IGNORE_CASE)           // 12 pm
-            )
-            
-            for (pattern in timePatterns) {
+            for (pattern in TIME_PATTERNS) {
                 val matcher = pattern.findAll(text)
                 matcher.forEach { match ->
                     entities.add(NamedEntity(match.value, EntityType.TIME, match.range.first, match.range.last))
@@ -372,12 +399,7 @@ class NaturalLanguageProcessor private constructor(
             }
             
             // Locations (common indicators)
-            val locationPatterns = listOf(
-                Regex("in\\s+(\\w+\\s+)?(\\w+,\\s+)?[A-Z][a-z]+"), // in City
-                Regex("at\\s+[A-Z][a-zA-Z\\s]+")                    // at Location
-            )
-            
-            for (pattern in locationPatterns) {
+            for (pattern in LOCATION_PATTERNS) {
                 val matcher = pattern.findAll(text)
                 matcher.forEach { match ->
                     val location = match.value.substring(match.value.indexOf(" ") + 1)
@@ -386,19 +408,13 @@ class NaturalLanguageProcessor private constructor(
             }
             
             // Person names (very simplified - looks for capitalized words)
-            val namePattern = Regex("\\b[A-Z][a-z]+\\s+[A-Z][a-z]+\\b")
-            val nameMatcher = namePattern.findAll(text)
+            val nameMatcher = NAME_PATTERN.findAll(text)
             nameMatcher.forEach { match ->
                 entities.add(NamedEntity(match.value, EntityType.PERSON, match.range.first, match.range.last))
             }
             
             // Organizations (very simplified)
-            val orgPatterns = listOf(
-                Regex("\\b[A-Z][a-z]+\\s+(Inc\\.?|Corp\\.?|LLC|Company)\\b"),
-                Regex("\\b[A-Z][A-Z]+\\b") // Acronyms like NASA, FBI
-            )
-            
-            for (pattern in orgPatterns) {
+            for (pattern in ORGANIZATION_PATTERNS) {
                 val matcher = pattern.findAll(text)
                 matcher.forEach { match ->
                     entities.add(NamedEntity(match.value, EntityType.ORGANIZATION, match.range.first, match.range.last))
@@ -406,7 +422,7 @@ class NaturalLanguageProcessor private constructor(
             }
             
             // Cache the result
-            entityCache[text] = entities
+            entityCache.put(text, entities)
             
             return@withContext entities
         } catch (e: Exception) {
@@ -426,59 +442,63 @@ class NaturalLanguageProcessor private constructor(
         text: String, 
         context: Map<String, Any>? = null
     ): UserIntent = withContext(Dispatchers.Default) {
-        // Check cache first (if no context provided)
-        if (context == null) {
-            intentCache[text]?.let { return@withContext it }
-        }
+        // Check cache first
+        val cacheKey = IntentCacheKey(text, normalizeContext(context))
+        intentCache.get(cacheKey)?.let { return@withContext it }
         
         try {
             // In a real implementation, this would use an intent classification model
             // For this implementation, we'll use rules and patterns
             
-            val lowerText = text.toLowerCase(Locale.ROOT)
-            val sentiment = analyzeSentiment(text)
+            val lowerText = text.lowercase(Locale.ROOT)
             val parsedSentences = parseText(text)
+            // Reuse the sentence tokens rather than tokenizing the whole text again
+            val sentiment = analyzeSentiment(parsedSentences.flatMap { it.tokens })
             val firstSentence = parsedSentences.firstOrNull()
+            val isQuestion = firstSentence?.type == SentenceType.QUESTION
+            
+            // All cue phrases found in one scan of the text
+            val cues = INTENT_CUES.matchesIn(lowerText)
             
             // Basic intent recognition
             val intent = when {
                 // Question intents
-                firstSentence?.type == SentenceType.QUESTION && lowerText.contains("who") -> 
+                isQuestion && "who" in cues -> 
                     UserIntent(IntentType.QUERY_PERSON, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION && (lowerText.contains("what") || lowerText.contains("which")) -> 
+                isQuestion && ("what" in cues || "which" in cues) -> 
                     UserIntent(IntentType.QUERY_FACT, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION && (lowerText.contains("when") || lowerText.contains("time")) -> 
+                isQuestion && ("when" in cues || "time" in cues) -> 
                     UserIntent(IntentType.QUERY_TIME, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION && (lowerText.contains("where") || lowerText.contains("location")) -> 
+                isQuestion && ("where" in cues || "location" in cues) -> 
                     UserIntent(IntentType.QUERY_LOCATION, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION && (lowerText.contains("why") || lowerText.contains("reason")) -> 
+                isQuestion && ("why" in cues || "reason" in cues) -> 
                     UserIntent(IntentType.QUERY_REASON, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION && lowerText.contains("how") -> 
+                isQuestion && "how" in cues -> 
                     UserIntent(IntentType.QUERY_METHOD, confidence = 0.8f)
                 
-                firstSentence?.type == SentenceType.QUESTION -> 
+                isQuestion -> 
                     UserIntent(IntentType.QUERY_GENERAL, confidence = 0.7f)
                 
                 // Command intents
                 lowerText.startsWith("please ") || 
-                lowerText.contains("would you") || 
-                lowerText.contains("could you") || 
-                lowerText.contains("can you") -> 
+                "would you" in cues || 
+                "could you" in cues || 
+                "can you" in cues -> 
                     UserIntent(IntentType.COMMAND_REQUEST, confidence = 0.8f)
                 
-                lowerText.contains("stop") || 
-                lowerText.contains("cancel") || 
-                lowerText.contains("quit") -> 
+                "stop" in cues || 
+                "cancel" in cues || 
+                "quit" in cues -> 
                     UserIntent(IntentType.COMMAND_STOP, confidence = 0.9f)
                 
-                lowerText.contains("start") || 
-                lowerText.contains("begin") || 
-                lowerText.contains("initiate") -> 
+                "start" in cues || 
+                "begin" in cues || 
+                "initiate" in cues -> 
                     UserIntent(IntentType.COMMAND_START, confidence = 0.9f)
                 
                 // Social intents
@@ -486,21 +506,21 @@ class NaturalLanguageProcessor private constructor(
                 lowerText.startsWith("hi ") || 
                 lowerText == "hi" || 
                 lowerText.startsWith("hey") || 
-                lowerText.contains("greetings") -> 
+                "greetings" in cues -> 
                     UserIntent(IntentType.SOCIAL_GREETING, confidence = 0.9f)
                 
-                lowerText.contains("bye") || 
-                lowerText.contains("goodbye") || 
-                lowerText.contains("see you") || 
-                lowerText.contains("talk to you later") -> 
+                "bye" in cues || 
+                "goodbye" in cues || 
+                "see you" in cues || 
+                "talk to you later" in cues -> 
                     UserIntent(IntentType.SOCIAL_FAREWELL, confidence = 0.9f)
                 
-                lowerText.contains("thank") -> 
+                "thank" in cues -> 
                     UserIntent(IntentType.SOCIAL_GRATITUDE, confidence = 0.9f)
                 
-                lowerText.contains("sorry") || 
-                lowerText.contains("apologize") || 
-                lowerText.contains("apology") -> 
+                "sorry" in cues || 
+                "apologize" in cues || 
+                "apology" in cues -> 
                     UserIntent(IntentType.SOCIAL_APOLOGY, confidence = 0.9f)
                 
                 // Emotional intents
@@ -516,20 +536,19 @@ class NaturalLanguageProcessor private constructor(
                 (sentiment == Sentiment.POSITIVE || sentiment == Sentiment.VERY_POSITIVE) -> 
                     UserIntent(IntentType.EMOTIONAL_POSITIVE, confidence = 0.8f)
                 
-                lowerText.contains("help") && 
-                (lowerText.contains("me") || lowerText.contains("I")) -> 
+                "help" in cues && "me" in cues -> 
                     UserIntent(IntentType.SUPPORT_REQUEST, confidence = 0.7f)
                 
-                lowerText.contains("tell") && lowerText.contains("about yourself") -> 
+                "tell" in cues && "about yourself" in cues -> 
                     UserIntent(IntentType.QUERY_SYSTEM, confidence = 0.9f)
                 
                 // Feedback intents
                 (sentiment == Sentiment.VERY_POSITIVE) && 
-                lowerText.contains("you") -> 
+                "you" in cues -> 
                     UserIntent(IntentType.FEEDBACK_POSITIVE, confidence = 0.7f)
                 
                 (sentiment == Sentiment.VERY_NEGATIVE) && 
-                lowerText.contains("you") -> 
+                "you" in cues -> 
                     UserIntent(IntentType.FEEDBACK_NEGATIVE, confidence = 0.7f)
                 
                 // Default intent
@@ -554,10 +573,8 @@ class NaturalLanguageProcessor private constructor(
             // Create final intent with slots
             val finalIntent = intent.copy(slots = slots)
             
-            // Cache the result if no context was provided
-            if (context == null) {
-                intentCache[text] = finalIntent
-            }
+            // Cache the result
+            intentCache.put(cacheKey, finalIntent)
             
             return@withContext finalIntent
         } catch (e: Exception) {
@@ -964,11 +981,35 @@ class NaturalLanguageProcessor private constructor(
      * Reset the internal caches
      */
     fun resetCaches() {
+        languageCache.clear()
         sentenceCache.clear()
         intentCache.clear()
         entityCache.clear()
     }
     
+    /**
+     * Hit, miss, eviction and expiration counts for each cache
+     */
+    fun getCacheStats(): Map<String, Map<String, Any>> {
+        return mapOf(
+            "language" to languageCache.getStats(),
+            "sentences" to sentenceCache.getStats(),
+            "intents" to intentCache.getStats(),
+            "entities" to entityCache.getStats()
+        )
+    }
+    
+    /**
+     * Context map as key/value strings sorted by key, so equal contexts compare equal
+     */
+    private fun normalizeContext(context: Map<String, Any>?): List<Pair<String, String>> {
+        if (context.isNullOrEmpty()) return emptyList()
+        
+        return context.entries
+            .map { (key, value) -> key to value.toString() }
+            .sortedBy { it.first }
+    }
+    
     /**
      * Generate AI-powered text completions
      * 
@@ -0,0 +1,98 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Cached, parallel batch embedding in front of any embedding service
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+
+/**
+ * CachingEmbeddingService wraps an [VectorMemoryIndexer.EmbeddingService] with a bounded,
+ * thread-safe cache keyed by a 64-bit hash of the text, and splits batch requests into at
+ * most [parallelism] concurrent chunks on [Dispatchers.Default].
+ *
+ * Duplicate texts within a batch are embedded once. Cached arrays are shared, so callers
+ * must not modify returned embeddings.
+ */
+class CachingEmbeddingService(
+    private val delegate: VectorMemoryIndexer.EmbeddingService,
+    maxCachedEmbeddings: Int = 10_000,
+    private val parallelism: Int = Runtime.getRuntime().availableProcessors()
+) : VectorMemoryIndexer.EmbeddingService {
+
+    private val cache = MemoryLruCache<Long, FloatArray>(maxCachedEmbeddings.toLong())
+
+    override suspend fun generateEmbedding(text: String): FloatArray? {
+        val key = contentHash(text)
+        cache.get(key)?.let { return it }
+
+        val embedding = delegate.generateEmbedding(text) ?: return null
+        cache.put(key, embedding)
+        return embedding
+    }
+
+    override suspend fun generateEmbeddings(texts: List<String>): List<FloatArray?> {
+        val keys = LongArray(texts.size) { contentHash(texts[it]) }
+        val results = arrayOfNulls<FloatArray>(texts.size)
+
+        // Resolve cache hits and collect each distinct missing text once
+        val missing = LinkedHashMap<Long, String>()
+        for (i in texts.indices) {
+            val cached = cache.get(keys[i])
+            if (cached != null) {
+                results[i] = cached
+            } else {
+                missing.putIfAbsent(keys[i], texts[i])
+            }
+        }
+
+        if (missing.isNotEmpty()) {
+            val computed = embedInParallel(missing.values.toList())
+            val byKey = HashMap<Long, FloatArray>(missing.size)
+            missing.keys.forEachIndexed { index, key ->
+                computed[index]?.let {
+                    byKey[key] = it
+                    cache.put(key, it)
+                }
+            }
+            for (i in texts.indices) {
+                if (results[i] == null) results[i] = byKey[keys[i]]
+            }
+        }
+
+        return results.toList()
+    }
+
+    fun getCacheStats(): Map<String, Any> = cache.getStats()
+
+    fun clearCache() = cache.clear()
+
+    private suspend fun embedInParallel(texts: List<String>): List<FloatArray?> {
+        if (texts.size == 1 || parallelism <= 1) {
+            return withContext(Dispatchers.Default) { delegate.generateEmbeddings(texts) }
+        }
+
+        val chunkSize = (texts.size + parallelism - 1) / parallelism
+        return coroutineScope {
+            texts.chunked(chunkSize)
+                .map { chunk -> async(Dispatchers.Default) { delegate.generateEmbeddings(chunk) } }
+                .awaitAll()
+                .flatten()
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of [text]
+     */
+    private fun contentHash(text: String): Long {
+        var hash = -0x340d631b7bdddcdbL
+        for (char in text) {
+            hash = (hash xor char.code.toLong()) * 0x100000001b3L
+        }
+        return hash
+    }
+}
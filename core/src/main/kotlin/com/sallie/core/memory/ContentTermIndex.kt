@@ -0,0 +1,123 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Content term index used by the memory query planner
+ */
+package com.sallie.core.memory
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * ContentTermIndex maps the lowercased, whitespace-separated terms of each memory's content
+ * to the IDs of the memories containing them.
+ *
+ * - A forward index (memory -> terms) makes re-indexing and removal proportional to the
+ *   memory's own terms; terms that no longer occur anywhere leave the vocabulary.
+ * - Every vocabulary term is indexed by its 1-, 2- and 3-grams, so the terms containing a
+ *   fragment are found by a gram lookup (verified against the terms sharing its rarest
+ *   trigram for longer fragments) instead of a scan of the vocabulary.
+ *
+ * Posting sets are concurrent, so readers may iterate them while writers update the index.
+ */
+internal class ContentTermIndex {
+
+    private val postings = ConcurrentHashMap<String, MutableSet<String>>()
+
+    // Gram -> vocabulary terms containing it
+    private val grams = HashMap<String, MutableSet<String>>()
+
+    // Forward index: memory ID -> its distinct terms
+    private val termsById = HashMap<String, Set<String>>()
+
+    private val lock = ReentrantReadWriteLock()
+
+    /**
+     * Number of distinct terms that still occur in at least one memory
+     */
+    val vocabularySize: Int
+        get() = postings.size
+
+    /**
+     * Index a memory's content, replacing whatever was indexed for it before
+     */
+    fun add(id: String, content: String) {
+        lock.write {
+            val terms = termsOf(content)
+            termsById.put(id, terms)?.forEach { term ->
+                if (term !in terms) removePosting(term, id)
+            }
+            for (term in terms) {
+                val ids = postings[term] ?: ConcurrentHashMap.newKeySet<String>().also {
+                    postings[term] = it
+                    gramsOf(term).forEach { gram -> grams.getOrPut(gram) { HashSet() }.add(term) }
+                }
+                ids.add(id)
+            }
+        }
+    }
+
+    fun remove(id: String) {
+        lock.write {
+            termsById.remove(id)?.forEach { removePosting(it, id) }
+        }
+    }
+
+    /**
+     * Posting sets of the terms containing any of [fragments], one per matching term. The
+     * sets are live views and are not merged.
+     */
+    fun postingsContaining(fragments: Collection<String>): List<Set<String>> {
+        val terms = lock.read { fragments.flatMapTo(HashSet()) { termsContaining(it) } }
+        return terms.mapNotNull { postings[it] }
+    }
+
+    /**
+     * IDs of the memories with a term containing [fragment]
+     */
+    fun idsContaining(fragment: String): Set<String> =
+        postingsContaining(listOf(fragment)).flatMapTo(HashSet()) { it }
+
+    private fun termsContaining(fragment: String): Collection<String> {
+        if (fragment.isEmpty()) return postings.keys
+        if (fragment.length <= GRAM_LENGTH) return grams[fragment] ?: emptySet()
+
+        val rarest = (0..fragment.length - GRAM_LENGTH)
+            .map { grams[fragment.substring(it, it + GRAM_LENGTH)] ?: return emptySet() }
+            .minByOrNull { it.size }
+            ?: return emptySet()
+        return rarest.filter { it.contains(fragment) }
+    }
+
+    private fun removePosting(term: String, id: String) {
+        val ids = postings[term] ?: return
+        ids.remove(id)
+        if (ids.isNotEmpty()) return
+
+        postings.remove(term)
+        for (gram in gramsOf(term)) {
+            val termsWithGram = grams[gram] ?: continue
+            termsWithGram.remove(term)
+            if (termsWithGram.isEmpty()) grams.remove(gram)
+        }
+    }
+
+    private fun termsOf(content: String): Set<String> =
+        content.lowercase().split(WHITESPACE).filterTo(HashSet()) { it.isNotEmpty() }
+
+    private fun gramsOf(term: String): Set<String> {
+        val result = HashSet<String>()
+        for (length in 1..minOf(GRAM_LENGTH, term.length)) {
+            for (start in 0..term.length - length) {
+                result.add(term.substring(start, start + length))
+            }
+        }
+        return result
+    }
+
+    companion object {
+        private const val GRAM_LENGTH = 3
+        private val WHITESPACE = Regex("\\s+")
+    }
+}
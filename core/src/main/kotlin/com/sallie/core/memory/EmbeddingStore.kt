@@ -0,0 +1,418 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Contiguous columnar storage for memory embeddings
+ */
+package com.sallie.core.memory
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.math.sqrt
+
+/**
+ * EmbeddingStore keeps every embedding of a fixed dimension in one contiguous float
+ * buffer addressed by int row IDs, with a dense row <-> memory ID mapping on the side.
+ *
+ * Rows are scanned sequentially without chasing per-memory heap objects. When a backing
+ * file is given, the buffer is memory-mapped and [flush] persists the ID mapping next to
+ * it, so a restarted indexer can reuse embeddings instead of recomputing them. Each row
+ * keeps a SHA-256 digest of the content it was embedded from, so a changed memory is never
+ * mistaken for an unchanged one.
+ */
+class EmbeddingStore private constructor(
+    val dimensions: Int,
+    private val vectorFile: File?,
+    initialCapacity: Int
+) {
+
+    private val lock = ReentrantReadWriteLock()
+
+    private var capacity = 0
+    private var buffer: ByteBuffer = ByteBuffer.allocate(0)
+    private var vectors: FloatBuffer = buffer.asFloatBuffer()
+    private var channel: FileChannel? = null
+
+    // Number of rows ever allocated; rows below this are either live or on the free list
+    private var rowCount = 0
+    private val freeRows = ArrayDeque<Int>()
+
+    private val idToRow = HashMap<String, Int>()
+    private var rowIds = arrayOfNulls<String>(0)
+    private var contentDigests = ByteArray(0)
+    private var norms = FloatArray(0)
+
+    init {
+        require(dimensions > 0) { "Embedding dimensions must be positive" }
+        if (vectorFile != null) {
+            vectorFile.parentFile?.mkdirs()
+            channel = RandomAccessFile(vectorFile, "rw").channel
+        }
+        ensureCapacity(initialCapacity.coerceAtLeast(16))
+    }
+
+    /**
+     * Number of live embeddings
+     */
+    val size: Int
+        get() = lock.read { idToRow.size }
+
+    /**
+     * Store an embedding for a memory, overwriting its previous row in place.
+     *
+     * @param contentDigest [contentDigest] of the text the embedding was generated from, used
+     * to detect stale embeddings after a reload; null when the content is not known
+     * @return The row ID holding the embedding
+     */
+    fun put(id: String, embedding: FloatArray, contentDigest: ByteArray? = null): Int = lock.write {
+        require(embedding.size == dimensions) {
+            "Expected $dimensions-dimensional embedding, got ${embedding.size}"
+        }
+        require(contentDigest == null || contentDigest.size == DIGEST_LENGTH) { "Invalid content digest" }
+
+        val row = idToRow[id] ?: allocateRow().also {
+            idToRow[id] = it
+            rowIds[it] = id
+        }
+
+        val offset = row * dimensions
+        var sumOfSquares = 0.0
+        for (i in 0 until dimensions) {
+            vectors.put(offset + i, embedding[i])
+            sumOfSquares += embedding[i] * embedding[i]
+        }
+        norms[row] = sqrt(sumOfSquares).toFloat()
+        if (contentDigest != null) {
+            contentDigest.copyInto(contentDigests, row * DIGEST_LENGTH)
+        } else {
+            contentDigests.fill(0, row * DIGEST_LENGTH, (row + 1) * DIGEST_LENGTH)
+        }
+        row
+    }
+
+    /**
+     * Copy an embedding out of the store
+     */
+    fun get(id: String): FloatArray? = lock.read {
+        val row = idToRow[id] ?: return@read null
+        readRow(row)
+    }
+
+    /**
+     * Return the stored embedding only if it was generated from content with the given digest
+     */
+    fun getIfCurrent(id: String, contentDigest: ByteArray): FloatArray? = lock.read {
+        val row = idToRow[id] ?: return@read null
+        val offset = row * DIGEST_LENGTH
+        for (i in 0 until DIGEST_LENGTH) {
+            if (contentDigests[offset + i] != contentDigest.getOrNull(i)) return@read null
+        }
+        readRow(row)
+    }
+
+    fun contains(id: String): Boolean = lock.read { idToRow.containsKey(id) }
+
+    fun rowOf(id: String): Int? = lock.read { idToRow[id] }
+
+    fun idOf(row: Int): String? = lock.read { if (row in 0 until rowCount) rowIds[row] else null }
+
+    fun ids(): List<String> = lock.read { idToRow.keys.toList() }
+
+    fun remove(id: String): Boolean = lock.write {
+        val row = idToRow.remove(id) ?: return@write false
+        rowIds[row] = null
+        norms[row] = 0f
+        freeRows.addLast(row)
+        true
+    }
+
+    /**
+     * Drop every embedding whose memory ID is not in [liveIds]
+     */
+    fun retainAll(liveIds: Set<String>): Int = lock.write {
+        val stale = idToRow.keys.filter { it !in liveIds }
+        stale.forEach { id ->
+            val row = idToRow.remove(id) ?: return@forEach
+            rowIds[row] = null
+            norms[row] = 0f
+            freeRows.addLast(row)
+        }
+        stale.size
+    }
+
+    /**
+     * Cosine similarity between an arbitrary query vector and a stored row
+     */
+    fun cosineSimilarity(query: FloatArray, queryNorm: Double, row: Int): Double = lock.read {
+        val rowNorm = norms[row]
+        if (queryNorm <= 0.0 || rowNorm <= 0f) return@read 0.0
+        EmbeddingKernels.dot(query, vectors, row * dimensions) / (queryNorm * rowNorm)
+    }
+
+    /**
+     * Cosine similarity between two stored rows
+     */
+    fun cosineSimilarity(row1: Int, row2: Int): Double = lock.read {
+        val norm1 = norms[row1]
+        val norm2 = norms[row2]
+        if (norm1 <= 0f || norm2 <= 0f) return@read 0.0
+        EmbeddingKernels.dot(vectors, row1 * dimensions, row2 * dimensions, dimensions) / (norm1.toDouble() * norm2)
+    }
+
+    /**
+     * Visit every live row in storage order
+     */
+    fun forEachRow(action: (row: Int, id: String) -> Unit) {
+        lock.read {
+            for (row in 0 until rowCount) {
+                val id = rowIds[row] ?: continue
+                action(row, id)
+            }
+        }
+    }
+
+    fun clear() {
+        lock.write {
+            idToRow.clear()
+            freeRows.clear()
+            rowIds.fill(null)
+            norms.fill(0f)
+            rowCount = 0
+        }
+    }
+
+    /**
+     * Persist the row mapping next to the mapped vector file. The mapping is written to a
+     * temporary file and atomically renamed so a crash never leaves a torn index.
+     */
+    fun flush() {
+        val file = vectorFile ?: return
+        lock.read {
+            (buffer as? MappedByteBuffer)?.force()
+
+            val indexFile = indexFileFor(file)
+            val tempFile = File(indexFile.path + ".tmp")
+            DataOutputStream(tempFile.outputStream().buffered()).use { out ->
+                out.writeInt(INDEX_MAGIC)
+                out.writeInt(dimensions)
+                out.writeInt(rowCount)
+                out.writeInt(idToRow.size)
+                for ((id, row) in idToRow) {
+                    out.writeInt(row)
+                    out.write(contentDigests, row * DIGEST_LENGTH, DIGEST_LENGTH)
+                    out.writeUTF(id)
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        }
+    }
+
+    fun close() {
+        flush()
+        lock.write {
+            channel?.close()
+            channel = null
+        }
+    }
+
+    fun getStats(): Map<String, Any> = lock.read {
+        mapOf(
+            "dimensions" to dimensions,
+            "embeddings" to idToRow.size,
+            "allocatedRows" to rowCount,
+            "freeRows" to freeRows.size,
+            "capacityRows" to capacity,
+            "memoryMapped" to (vectorFile != null)
+        )
+    }
+
+    private fun readRow(row: Int): FloatArray {
+        val offset = row * dimensions
+        return FloatArray(dimensions) { vectors.get(offset + it) }
+    }
+
+    private fun allocateRow(): Int {
+        freeRows.removeFirstOrNull()?.let { return it }
+        ensureCapacity(rowCount + 1)
+        return rowCount++
+    }
+
+    private fun ensureCapacity(rows: Int) {
+        if (rows <= capacity) return
+
+        val newCapacity = maxOf(rows, capacity * 2)
+        val byteSize = newCapacity.toLong() * dimensions * Float.SIZE_BYTES
+
+        val newBuffer = channel?.map(FileChannel.MapMode.READ_WRITE, 0, byteSize)
+            ?: ByteBuffer.allocateDirect(byteSize.toInt()).also { direct ->
+                direct.order(ByteOrder.nativeOrder())
+                direct.put(buffer.duplicate().apply { clear() })
+                direct.clear()
+            }
+        newBuffer.order(ByteOrder.nativeOrder())
+
+        buffer = newBuffer
+        vectors = newBuffer.asFloatBuffer()
+        capacity = newCapacity
+        rowIds = rowIds.copyOf(newCapacity)
+        contentDigests = contentDigests.copyOf(newCapacity * DIGEST_LENGTH)
+        norms = norms.copyOf(newCapacity)
+    }
+
+    private fun restoreIndex(file: File) {
+        val indexFile = indexFileFor(file)
+        if (!indexFile.exists()) return
+
+        DataInputStream(indexFile.inputStream().buffered()).use { input ->
+            if (input.readInt() != INDEX_MAGIC || input.readInt() != dimensions) {
+                throw IOException("Embedding index ${indexFile.name} does not match store layout")
+            }
+            val storedRows = input.readInt()
+            val liveCount = input.readInt()
+            ensureCapacity(storedRows)
+            rowCount = storedRows
+
+            repeat(liveCount) {
+                val row = input.readInt()
+                input.readFully(contentDigests, row * DIGEST_LENGTH, DIGEST_LENGTH)
+                val id = input.readUTF()
+                idToRow[id] = row
+                rowIds[row] = id
+                val offset = row * dimensions
+                var sumOfSquares = 0.0
+                for (i in 0 until dimensions) {
+                    val value = vectors.get(offset + i)
+                    sumOfSquares += value * value
+                }
+                norms[row] = sqrt(sumOfSquares).toFloat()
+            }
+            for (row in 0 until rowCount) {
+                if (rowIds[row] == null) freeRows.addLast(row)
+            }
+        }
+    }
+
+    companion object {
+        // "SEM2": rows carry SHA-256 content digests; older indexes are discarded on open
+        private const val INDEX_MAGIC = 0x53454D32
+        private const val DIGEST_LENGTH = 32
+
+        private fun indexFileFor(vectorFile: File) = File(vectorFile.path + ".idx")
+
+        /**
+         * SHA-256 of the text an embedding is generated from
+         */
+        fun contentDigest(content: String): ByteArray =
+            MessageDigest.getInstance("SHA-256").digest(content.toByteArray(Charsets.UTF_8))
+
+        /**
+         * Create a store backed by direct (off-heap) memory only
+         */
+        fun inMemory(dimensions: Int, initialCapacity: Int = 1024): EmbeddingStore =
+            EmbeddingStore(dimensions, null, initialCapacity)
+
+        /**
+         * Open or create a store memory-mapped onto [vectorFile]. Previously flushed
+         * embeddings are available immediately without re-embedding; an unreadable
+         * index is discarded and the store starts empty.
+         */
+        fun open(vectorFile: File, dimensions: Int, initialCapacity: Int = 1024): EmbeddingStore {
+            val store = EmbeddingStore(dimensions, vectorFile, initialCapacity)
+            try {
+                store.restoreIndex(vectorFile)
+            } catch (e: IOException) {
+                println("Failed to restore embedding index for ${vectorFile.name}: ${e.message}")
+                store.clear()
+            }
+            return store
+        }
+    }
+}
+
+/**
+ * Dot-product kernels over contiguous float storage. Loops are unrolled four ways with
+ * independent accumulators so the JIT can keep them in vector registers.
+ */
+object EmbeddingKernels {
+
+    fun dot(a: FloatArray, b: FloatArray): Double {
+        if (a.size != b.size) return 0.0
+
+        val length = a.size
+        var sum0 = 0f
+        var sum1 = 0f
+        var sum2 = 0f
+        var sum3 = 0f
+        var i = 0
+        val unrolledEnd = length - (length % 4)
+        while (i < unrolledEnd) {
+            sum0 += a[i] * b[i]
+            sum1 += a[i + 1] * b[i + 1]
+            sum2 += a[i + 2] * b[i + 2]
+            sum3 += a[i + 3] * b[i + 3]
+            i += 4
+        }
+        while (i < length) {
+            sum0 += a[i] * b[i]
+            i++
+        }
+        return (sum0 + sum1 + sum2 + sum3).toDouble()
+    }
+
+    fun dot(query: FloatArray, data: FloatBuffer, offset: Int): Double {
+        val length = query.size
+        var sum0 = 0f
+        var sum1 = 0f
+        var sum2 = 0f
+        var sum3 = 0f
+        var i = 0
+        val unrolledEnd = length - (length % 4)
+        while (i < unrolledEnd) {
+            sum0 += query[i] * data.get(offset + i)
+            sum1 += query[i + 1] * data.get(offset + i + 1)
+            sum2 += query[i + 2] * data.get(offset + i + 2)
+            sum3 += query[i + 3] * data.get(offset + i + 3)
+            i += 4
+        }
+        while (i < length) {
+            sum0 += query[i] * data.get(offset + i)
+            i++
+        }
+        return (sum0 + sum1 + sum2 + sum3).toDouble()
+    }
+
+    fun dot(data: FloatBuffer, offset1: Int, offset2: Int, length: Int): Double {
+        var sum0 = 0f
+        var sum1 = 0f
+        var sum2 = 0f
+        var sum3 = 0f
+        var i = 0
+        val unrolledEnd = length - (length % 4)
+        while (i < unrolledEnd) {
+            sum0 += data.get(offset1 + i) * data.get(offset2 + i)
+            sum1 += data.get(offset1 + i + 1) * data.get(offset2 + i + 1)
+            sum2 += data.get(offset1 + i + 2) * data.get(offset2 + i + 2)
+            sum3 += data.get(offset1 + i + 3) * data.get(offset2 + i + 3)
+            i += 4
+        }
+        while (i < length) {
+            sum0 += data.get(offset1 + i) * data.get(offset2 + i)
+            i++
+        }
+        return (sum0 + sum1 + sum2 + sum3).toDouble()
+    }
+
+    fun norm(vector: FloatArray): Double = sqrt(dot(vector, vector))
+}
@@ -6,14 +6,10 @@ package com.sallie.core.memory
 
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.withContext
 import kotlinx.serialization.encodeToString
 import kotlinx.serialization.json.Json
 import java.io.File
-import java.nio.file.Files
-import java.nio.file.Paths
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
@@ -22,9 +18,15 @@ import kotlin.concurrent.write
 /**
  * FileBasedMemoryStorage provides a simple file-based implementation of MemoryStorageService
  * that stores memories as JSON files in a directory structure.
+ *
+ * Storage is tiered: startup only lists file names to build a compact id -> type index,
+ * recently used memories are kept in a bounded LRU cache, and everything else is read from
+ * disk on demand. Observers get change notifications and reload what they watch, so a
+ * long-lived process runs in memory bounded by [maxCachedMemories].
  */
 class FileBasedMemoryStorage(
-    private val baseStoragePath: String
+    private val baseStoragePath: String,
+    maxCachedMemories: Int = DEFAULT_MAX_CACHED_MEMORIES
 ) : MemoryStorageService {
 
     private val json = Json { 
@@ -32,9 +34,14 @@ class FileBasedMemoryStorage(
         ignoreUnknownKeys = true
     }
     
-    private val memoryCache = ConcurrentHashMap<String, HierarchicalMemorySystem.MemoryItem>()
-    private val memoryFlows = ConcurrentHashMap<String, MutableStateFlow<HierarchicalMemorySystem.MemoryItem?>>()
-    private val typeFlows = mutableMapOf<HierarchicalMemorySystem.MemoryType, MutableStateFlow<List<HierarchicalMemorySystem.MemoryItem>>>()
+    // Location index: memory ID -> type directory holding its file
+    private val memoryIndex = ConcurrentHashMap<String, HierarchicalMemorySystem.MemoryType>()
+    
+    // Hot tier: recently read or written memories
+    private val memoryCache = MemoryLruCache<String, HierarchicalMemorySystem.MemoryItem>(maxCachedMemories.toLong())
+    
+    private val memoryFlows = MemoryItemFlows()
+    private val typeFlows = MemoryTypeFlows()
     
     private val lock = ReentrantReadWriteLock()
     
@@ -45,60 +52,87 @@ class FileBasedMemoryStorage(
             if (!dir.exists()) {
                 dir.mkdirs()
             }
-            typeFlows[type] = MutableStateFlow(emptyList())
         }
         
-        // Load all memories into cache on initialization
-        loadAllMemories()
+        // Index memory files by name only; contents are loaded on first access
+        indexMemoryFiles()
     }
     
-    private fun loadAllMemories() {
+    private fun indexMemoryFiles() {
         lock.write {
             HierarchicalMemorySystem.MemoryType.values().forEach { type ->
                 val typeDir = File("$baseStoragePath/${type.name.lowercase()}")
-                if (typeDir.exists()) {
-                    typeDir.listFiles()?.filter { it.extension == "json" }?.forEach { file ->
-                        try {
-                            val content = file.readText()
-                            val memory = json.decodeFromString<HierarchicalMemorySystem.MemoryItem>(content)
-                            memoryCache[memory.id] = memory
-                            memoryFlows.getOrPut(memory.id) { MutableStateFlow(null) }.value = memory
-                        } catch (e: Exception) {
-                            println("Failed to load memory from ${file.name}: ${e.message}")
-                        }
-                    }
+                typeDir.listFiles()?.filter { it.extension == "json" }?.forEach { file ->
+                    memoryIndex[file.nameWithoutExtension] = type
                 }
-                updateTypeFlow(type)
             }
         }
     }
     
+    private fun getPathForMemory(id: String, type: HierarchicalMemorySystem.MemoryType): String {
+        return "$baseStoragePath/${type.name.lowercase()}/$id.json"
+    }
+    
     private fun getPathForMemory(item: HierarchicalMemorySystem.MemoryItem): String {
-        return "$baseStoragePath/${item.type.name.lowercase()}/${item.id}.json"
+        return getPathForMemory(item.id, item.type)
+    }
+    
+    /**
+     * Resolve a memory from the hot tier, falling back to its file. Bulk scans pass
+     * [promote] = false so they do not flush the cache.
+     */
+    private fun loadMemory(id: String, promote: Boolean = true): HierarchicalMemorySystem.MemoryItem? {
+        memoryCache.get(id)?.let { return it }
+        
+        val type = memoryIndex[id] ?: return null
+        val file = File(getPathForMemory(id, type))
+        if (!file.exists()) return null
+        
+        return try {
+            val memory = json.decodeFromString<HierarchicalMemorySystem.MemoryItem>(file.readText())
+            if (promote) {
+                memoryCache.put(id, memory)
+            }
+            memory
+        } catch (e: Exception) {
+            println("Failed to load memory from ${file.name}: ${e.message}")
+            null
+        }
+    }
+    
+    private fun loadMemoriesOfType(type: HierarchicalMemorySystem.MemoryType): List<HierarchicalMemorySystem.MemoryItem> {
+        return memoryIndex.entries
+            .filter { it.value == type }
+            .mapNotNull { loadMemory(it.key, promote = false) }
     }
     
-    private fun updateTypeFlow(type: HierarchicalMemorySystem.MemoryType) {
-        val memories = memoryCache.values.filter { it.type == type }
-        typeFlows[type]?.value = memories
+    private fun writeMemory(item: HierarchicalMemorySystem.MemoryItem) {
+        val file = File(getPathForMemory(item))
+        
+        // Ensure directory exists
+        file.parentFile.mkdirs()
+        
+        // Write memory to file
+        val content = json.encodeToString(item)
+        file.writeText(content)
+        
+        // A memory whose type changed leaves its old file behind
+        val previousType = memoryIndex.put(item.id, item.type)
+        if (previousType != null && previousType != item.type) {
+            File(getPathForMemory(item.id, previousType)).delete()
+            typeFlows.changed(previousType)
+        }
+        
+        // Update cache and flows
+        memoryCache.put(item.id, item)
+        memoryFlows.update(item.id, item)
+        typeFlows.changed(item.type)
     }
     
     override suspend fun saveMemory(item: HierarchicalMemorySystem.MemoryItem): Boolean = withContext(Dispatchers.IO) {
         try {
             lock.write {
-                val path = getPathForMemory(item)
-                val file = File(path)
-                
-                // Ensure directory exists
-                file.parentFile.mkdirs()
-                
-                // Write memory to file
-                val content = json.encodeToString(item)
-                file.writeText(content)
-                
-                // Update cache and flows
-                memoryCache[item.id] = item
-                memoryFlows.getOrPut(item.id) { MutableStateFlow(null) }.value = item
-                updateTypeFlow(item.type)
+                writeMemory(item)
             }
             true
         } catch (e: Exception) {
@@ -122,126 +156,41 @@ class FileBasedMemoryStorage(
     
     override suspend fun getMemory(id: String): HierarchicalMemorySystem.MemoryItem? = withContext(Dispatchers.IO) {
         lock.read {
-            memoryCache[id]
+            loadMemory(id)
         }
     }
     
     override suspend fun getMemoriesByType(type: HierarchicalMemorySystem.MemoryType): List<HierarchicalMemorySystem.MemoryItem> = withContext(Dispatchers.IO) {
         lock.read {
-            memoryCache.values.filter { it.type == type }
+            loadMemoriesOfType(type)
         }
     }
     
     override suspend fun searchMemories(query: HierarchicalMemorySystem.MemoryQuery): List<HierarchicalMemorySystem.MemoryItem> = withContext(Dispatchers.IO) {
         lock.read {
-            var candidates = if (query.types.isEmpty()) {
-                memoryCache.values
+            val candidates = if (query.types.isEmpty()) {
+                memoryIndex.keys.mapNotNull { loadMemory(it, promote = false) }
             } else {
-                memoryCache.values.filter { it.type in query.types }
-            }
-            
-            // Apply text search filter
-            if (query.searchText.isNotEmpty()) {
-                val searchTerms = query.searchText.lowercase().split(" ")
-                candidates = candidates.filter { memory ->
-                    searchTerms.any { term ->
-                        memory.content.lowercase().contains(term)
-                    }
-                }
+                query.types.flatMap { loadMemoriesOfType(it) }
             }
-            
-            // Apply certainty filter
-            if (query.minCertainty > 0) {
-                candidates = candidates.filter { it.certainty >= query.minCertainty }
-            }
-            
-            // Apply emotional filter
-            if (query.emotionalFilter != null) {
-                candidates = candidates.filter {
-                    it.emotionalValence >= query.emotionalFilter.first &&
-                    it.emotionalValence <= query.emotionalFilter.second
-                }
-            }
-            
-            // Apply temporal filter
-            if (query.temporalFilter != null) {
-                candidates = candidates.filter {
-                    it.created >= query.temporalFilter.first &&
-                    it.created <= query.temporalFilter.second
-                }
-            }
-            
-            // Apply context tags filter
-            if (query.contextTags.isNotEmpty()) {
-                candidates = candidates.filter { memory ->
-                    val memoryTags = memory.metadata["tags"]?.split(",") ?: emptyList()
-                    query.contextTags.any { tag -> memoryTags.contains(tag) }
-                }
-            }
-            
-            // Apply entity filter
-            if (query.associatedEntityFilter.isNotEmpty()) {
-                candidates = candidates.filter { memory ->
-                    query.associatedEntityFilter.any { entity ->
-                        memory.context.associatedEntities.contains(entity)
-                    }
-                }
-            }
-            
-            // Apply reinforcement filter
-            if (query.reinforcementFilter != null) {
-                candidates = candidates.filter { it.reinforcementScore >= query.reinforcementFilter }
-            }
-            
-            // Sort the results
-            candidates = when (query.sortBy) {
-                HierarchicalMemorySystem.SortCriteria.SALIENCE -> 
-                    candidates.sortedByDescending { it.calculateSalience() }
-                HierarchicalMemorySystem.SortCriteria.RECENCY ->
-                    candidates.sortedByDescending { it.lastAccessed }
-                HierarchicalMemorySystem.SortCriteria.PRIORITY ->
-                    candidates.sortedByDescending { it.priority }
-                HierarchicalMemorySystem.SortCriteria.EMOTIONAL ->
-                    candidates.sortedByDescending { Math.abs(it.emotionalValence) * it.emotionalIntensity }
-                HierarchicalMemorySystem.SortCriteria.RELEVANCE -> {
-                    if (query.searchText.isEmpty()) {
-                        candidates.sortedByDescending { it.calculateSalience() }
-                    } else {
-                        // Simple relevance scoring based on term frequency
-                        val searchTerms = query.searchText.lowercase().split(" ")
-                        candidates.sortedByDescending { memory ->
-                            var score = 0.0
-                            searchTerms.forEach { term ->
-                                // Count occurrences of term in content
-                                val regex = "\\b$term\\b".toRegex(RegexOption.IGNORE_CASE)
-                                val occurrences = regex.findAll(memory.content).count()
-                                score += occurrences
-                            }
-                            score
-                        }
-                    }
-                }
-            }
-            
-            // Apply limit
-            candidates.take(query.limit)
+            MemoryQueryEvaluator.evaluate(candidates, query)
         }
     }
     
     override suspend fun deleteMemory(id: String): Boolean = withContext(Dispatchers.IO) {
         try {
             lock.write {
-                val memory = memoryCache[id] ?: return@withContext false
-                val file = File(getPathForMemory(memory))
+                val type = memoryIndex[id] ?: return@withContext false
+                val file = File(getPathForMemory(id, type))
                 
                 if (file.exists()) {
                     file.delete()
                 }
                 
+                memoryIndex.remove(id)
                 memoryCache.remove(id)
-                memoryFlows[id]?.value = null
-                memoryFlows.remove(id)
-                updateTypeFlow(memory.type)
+                memoryFlows.update(id, null)
+                typeFlows.changed(type)
             }
             true
         } catch (e: Exception) {
@@ -265,7 +214,7 @@ class FileBasedMemoryStorage(
     
     override suspend fun exportMemories(): String = withContext(Dispatchers.IO) {
         lock.read {
-            val memories = memoryCache.values.toList()
+            val memories = memoryIndex.keys.mapNotNull { loadMemory(it, promote = false) }
             json.encodeToString(memories)
         }
     }
@@ -277,25 +226,9 @@ class FileBasedMemoryStorage(
             
             lock.write {
                 for (memory in memories) {
-                    val path = getPathForMemory(memory)
-                    val file = File(path)
-                    
-                    // Ensure directory exists
-                    file.parentFile.mkdirs()
-                    
-                    // Write memory to file
-                    val content = json.encodeToString(memory)
-                    file.writeText(content)
-                    
-                    // Update cache and flows
-                    memoryCache[memory.id] = memory
-                    memoryFlows.getOrPut(memory.id) { MutableStateFlow(null) }.value = memory
-                    
+                    writeMemory(memory)
                     importedCount++
                 }
-                
-                // Update all type flows
-                HierarchicalMemorySystem.MemoryType.values().forEach { updateTypeFlow(it) }
             }
             
             importedCount
@@ -306,16 +239,16 @@ class FileBasedMemoryStorage(
     }
     
     override fun observeMemory(id: String): Flow<HierarchicalMemorySystem.MemoryItem?> {
-        return memoryFlows.getOrPut(id) { MutableStateFlow(memoryCache[id]) }
+        return memoryFlows.observe(id) { lock.read { loadMemory(id) } }
     }
     
     override fun observeMemoriesByType(type: HierarchicalMemorySystem.MemoryType): Flow<List<HierarchicalMemorySystem.MemoryItem>> {
-        return typeFlows[type] ?: MutableStateFlow(emptyList())
+        return typeFlows.observe(type) { lock.read { loadMemoriesOfType(type) } }
     }
     
     override suspend fun getMemoryCount(): Int = withContext(Dispatchers.IO) {
         lock.read {
-            memoryCache.size
+            memoryIndex.size
         }
     }
     
@@ -330,10 +263,11 @@ class FileBasedMemoryStorage(
                     }
                 }
                 
-                // Clear cache and flows
+                // Clear index, cache and flows
+                memoryIndex.clear()
                 memoryCache.clear()
-                memoryFlows.forEach { (_, flow) -> flow.value = null }
-                typeFlows.forEach { (type, flow) -> flow.value = emptyList() }
+                memoryFlows.clear()
+                typeFlows.clear()
             }
             true
         } catch (e: Exception) {
@@ -341,4 +275,13 @@ class FileBasedMemoryStorage(
             false
         }
     }
+    
+    /**
+     * Hot-tier cache statistics (hits, misses, evictions)
+     */
+    fun getCacheStats(): Map<String, Any> = memoryCache.getStats() + ("indexedMemories" to memoryIndex.size)
+    
+    companion object {
+        const val DEFAULT_MAX_CACHED_MEMORIES = 2_000
+    }
 }
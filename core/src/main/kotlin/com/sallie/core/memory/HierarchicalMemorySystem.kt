@@ -16,6 +16,7 @@ import kotlinx.serialization.Serializable
 import kotlinx.serialization.encodeToString
 import kotlinx.serialization.json.Json
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListMap
 import java.time.Instant
 import java.time.temporal.ChronoUnit
 import java.util.UUID
@@ -90,12 +91,18 @@ class HierarchicalMemorySystem(
          * Calculate memory salience (likelihood of recall) based on multiple factors
          */
         fun calculateSalience(now: Long = System.currentTimeMillis()): Double {
-            val recencyFactor = calculateRecencyFactor(now)
+            return calculateBaseSalience() * calculateRecencyFactor(now)
+        }
+        
+        /**
+         * Salience without the time-dependent recency factor (see [SalienceIndex])
+         */
+        fun calculateBaseSalience(): Double {
             val emotionalFactor = calculateEmotionalFactor()
             val frequencyFactor = calculateFrequencyFactor()
             val connectionFactor = 1.0 + (connections.size * 0.05) // More connections = more likely to recall
             
-            return (priority / 100.0) * recencyFactor * emotionalFactor * frequencyFactor * connectionFactor * certainty
+            return (priority / 100.0) * emotionalFactor * frequencyFactor * connectionFactor * certainty
         }
         
         private fun calculateRecencyFactor(now: Long): Double {
@@ -105,7 +112,7 @@ class HierarchicalMemorySystem(
             )
             
             // Exponential decay with half-life of ~1 week
-            return Math.exp(-0.004 * hoursSinceLastAccess)
+            return Math.exp(-RECENCY_DECAY_PER_HOUR * hoursSinceLastAccess)
         }
         
         private fun calculateEmotionalFactor(): Double {
@@ -118,6 +125,10 @@ class HierarchicalMemorySystem(
             // Log scale to prevent excessive weight for very frequent items
             return 1.0 + (Math.log10(1.0 + accessCount) * 0.2)
         }
+        
+        companion object {
+            const val RECENCY_DECAY_PER_HOUR = 0.004
+        }
     }
     
     /**
@@ -169,7 +180,20 @@ class HierarchicalMemorySystem(
     data class MemoryQueryResult(
         val items: List<MemoryItem>,
         val totalMatches: Int,
-        val retrievalLatency: Long
+        val retrievalLatency: Long,
+        val planStats: QueryPlanStats? = null
+    )
+    
+    /**
+     * How a query was answered: access path ("semantic", "storage", "index" or "scan"),
+     * the indexes used in order (driver first), their estimated posting sizes and the candidates verified
+     */
+    data class QueryPlanStats(
+        val accessPath: String,
+        val indexesUsed: List<String> = emptyList(),
+        val postingSizes: Map<String, Int> = emptyMap(),
+        val candidatesExamined: Int = 0,
+        val planningTimeNanos: Long = 0
     )
     
     // Memory stores for different types with thread safety
@@ -179,12 +203,17 @@ class HierarchicalMemorySystem(
     private val proceduralMemories = ConcurrentHashMap<String, MemoryItem>()
     
     // Memory indices for faster retrieval
-    private val contentIndex = ConcurrentHashMap<String, MutableSet<String>>()
+    private val contentIndex = ContentTermIndex()
     private val tagIndex = ConcurrentHashMap<String, MutableSet<String>>()
-    private val timeIndex = sortedMapOf<Long, MutableSet<String>>()
+    private val timeIndex = ConcurrentSkipListMap<Long, MutableSet<String>>() // Day bucket -> memory IDs
     private val emotionIndex = ConcurrentHashMap<String, MutableSet<String>>() // Emotion categories -> memory IDs
     private val entityIndex = ConcurrentHashMap<String, MutableSet<String>>() // Entity -> memory IDs
     
+    private val queryPlanner = MemoryQueryPlanner(contentIndex, tagIndex, timeIndex, emotionIndex, entityIndex)
+    
+    // Time-decayed salience ordering for top-k recall, consolidation and cleanup
+    private val salienceIndex = SalienceIndex()
+    
     /**
      * Store a new memory item in the appropriate memory store
      */
@@ -197,11 +226,8 @@ class HierarchicalMemorySystem(
         store[item.id] = item
         
         // Update indices
-        updateContentIndex(item)
-        updateTagIndex(item)
-        updateTimeIndex(item)
-        updateEmotionIndex(item)
-        updateEntityIndex(item)
+        updateIndices(item)
+        salienceIndex.update(item)
         
         // Update state flows for reactive updates
         updateMemoryFlows(item)
@@ -245,7 +271,7 @@ class HierarchicalMemorySystem(
         // First check in-memory stores
         for (store in listOf(episodicMemories, semanticMemories, emotionalMemories, proceduralMemories)) {
             store[id]?.let { 
-                it.updateLastAccessed()
+                touch(it)
                 return it
             }
         }
@@ -256,7 +282,8 @@ class HierarchicalMemorySystem(
             // Add to in-memory store if found in storage
             val store = getStoreForType(fromStorage.type)
             store[fromStorage.id] = fromStorage
-            fromStorage.updateLastAccessed()
+            updateIndices(fromStorage)
+            touch(fromStorage)
             updateMemoryFlows(fromStorage)
             return fromStorage
         }
@@ -294,12 +321,13 @@ class HierarchicalMemorySystem(
                         .map { it.first }
                     
                     // Update access timestamps
-                    memories.forEach { it.updateLastAccessed() }
+                    memories.forEach { touch(it) }
                     
                     return MemoryQueryResult(
                         items = memories,
                         totalMatches = semanticResults.size,
-                        retrievalLatency = System.currentTimeMillis() - startTime
+                        retrievalLatency = System.currentTimeMillis() - startTime,
+                        planStats = QueryPlanStats(accessPath = "semantic", candidatesExamined = semanticResults.size)
                     )
                 }
             } catch (e: Exception) {
@@ -317,15 +345,17 @@ class HierarchicalMemorySystem(
                     storageResults.forEach { memory ->
                         val store = getStoreForType(memory.type)
                         store[memory.id] = memory
+                        updateIndices(memory)
                     }
                     
                     // Update access timestamps
-                    storageResults.forEach { it.updateLastAccessed() }
+                    storageResults.forEach { touch(it) }
                     
                     return MemoryQueryResult(
                         items = storageResults,
                         totalMatches = storageResults.size,
-                        retrievalLatency = System.currentTimeMillis() - startTime
+                        retrievalLatency = System.currentTimeMillis() - startTime,
+                        planStats = QueryPlanStats(accessPath = "storage", candidatesExamined = storageResults.size)
                     )
                 }
             } catch (e: Exception) {
@@ -358,15 +388,17 @@ class HierarchicalMemorySystem(
                     additionalMemories.forEach { memory ->
                         val store = getStoreForType(memory.type)
                         store[memory.id] = memory
+                        updateIndices(memory)
                     }
                     
                     // Update access timestamps
-                    combinedResults.forEach { it.updateLastAccessed() }
+                    combinedResults.forEach { touch(it) }
                     
                     return MemoryQueryResult(
                         items = combinedResults,
                         totalMatches = result.totalMatches + additionalMemories.size,
-                        retrievalLatency = System.currentTimeMillis() - startTime
+                        retrievalLatency = System.currentTimeMillis() - startTime,
+                        planStats = result.planStats
                     )
                 }
             } catch (e: Exception) {
@@ -379,7 +411,11 @@ class HierarchicalMemorySystem(
     }
     
     /**
-     * Search for memories in the in-memory stores
+     * Search for memories in the in-memory stores.
+     *
+     * The query planner intersects the secondary indexes to narrow the candidates (or
+     * falls back to scanning the requested type stores); candidates are then verified
+     * against the full filter set and only the top [MemoryQuery.limit] are ranked.
      */
     private suspend fun searchInMemory(query: MemoryQuery, startTime: Long): MemoryQueryResult {
         // Determine which stores to search based on query
@@ -389,43 +425,28 @@ class HierarchicalMemorySystem(
             query.types.map { getStoreForType(it) }
         }
         
-        // Collect candidate memories
-        val candidates = mutableListOf<MemoryItem>()
+        val plan = queryPlanner.plan(query, scanSize = storesToSearch.sumOf { it.size })
         
-        // First try indexed search if we have search text
-        if (query.searchText.isNotEmpty()) {
-            val keywords = query.searchText.lowercase().split(Regex("\\s+"))
-            val matchingIds = mutableSetOf<String>()
-            
-            for (keyword in keywords) {
-                contentIndex.keys
-                    .filter { it.contains(keyword) }
-                    .forEach { key -> 
-                        contentIndex[key]?.let { matchingIds.addAll(it) }
-                    }
-            }
-            
-            for (id in matchingIds) {
-                getMemory(id)?.let { candidates.add(it) }
-            }
-        } else {
-            // If no search text, collect all memories from relevant stores
-            for (store in storesToSearch) {
-                candidates.addAll(store.values)
-            }
-        }
-        
-        // Apply filters
-        val filtered = candidates.filter { matchesFilters(it, query) }
+        val candidates: Sequence<MemoryItem> = plan.candidateIds
+            ?.asSequence()
+            ?.mapNotNull { id -> storesToSearch.firstNotNullOfOrNull { it[id] } }
+            ?: storesToSearch.asSequence().flatMap { it.values.asSequence() }
         
-        // Sort results according to query parameters
-        val sorted = filtered.sortedAccordingTo(query)
-        
-        // Take top results
-        val results = sorted.take(query.limit)
+        // Verify filters and keep only the top results
+        val collector = TopKCollector(query.limit)
+        val matched = HashMap<String, MemoryItem>()
+        var totalMatches = 0
+        val searchTerms = relevanceTerms(query)
+        for (item in candidates) {
+            if (!matchesFilters(item, query)) continue
+            totalMatches++
+            collector.offer(item.id, sortScore(item, query, searchTerms))
+            matched[item.id] = item
+        }
+        val results = collector.toSortedList().mapNotNull { (id, _) -> matched[id] }
         
         // Update last accessed for returned items
-        results.forEach { it.updateLastAccessed() }
+        results.forEach { touch(it) }
         
         // If we need to include connected memories
         val finalResults = if (query.includeConnected && results.isNotEmpty()) {
@@ -448,8 +469,9 @@ class HierarchicalMemorySystem(
         
         return MemoryQueryResult(
             items = finalResults,
-            totalMatches = filtered.size,
-            retrievalLatency = System.currentTimeMillis() - startTime
+            totalMatches = totalMatches,
+            retrievalLatency = System.currentTimeMillis() - startTime,
+            planStats = plan.stats
         )
     }
     
@@ -478,31 +500,31 @@ class HierarchicalMemorySystem(
      * Sort memories according to the query's sort criteria
      */
     private fun List<MemoryItem>.sortedAccordingTo(query: MemoryQuery): List<MemoryItem> {
+        val searchTerms = relevanceTerms(query)
+        return sortedByDescending { sortScore(it, query, searchTerms) }
+    }
+    
+    private fun relevanceTerms(query: MemoryQuery): List<Regex> {
+        if (query.sortBy != SortCriteria.RELEVANCE || query.searchText.isEmpty()) return emptyList()
+        return query.searchText.lowercase().split(" ")
+            .map { term -> "\\b$term\\b".toRegex(RegexOption.IGNORE_CASE) }
+    }
+    
+    /**
+     * Ranking key for a memory under the query's sort criteria (higher ranks first)
+     */
+    private fun sortScore(item: MemoryItem, query: MemoryQuery, searchTerms: List<Regex>): Double {
         return when (query.sortBy) {
-            SortCriteria.SALIENCE -> 
-                sortedByDescending { it.calculateSalience() }
-            SortCriteria.RECENCY ->
-                sortedByDescending { it.created }
-            SortCriteria.PRIORITY ->
-                sortedByDescending { it.priority }
-            SortCriteria.EMOTIONAL ->
-                sortedByDescending { Math.abs(it.emotionalValence) * it.emotionalIntensity }
+            SortCriteria.SALIENCE -> item.calculateSalience()
+            SortCriteria.RECENCY -> item.created.toDouble()
+            SortCriteria.PRIORITY -> item.priority.toDouble()
+            SortCriteria.EMOTIONAL -> Math.abs(item.emotionalValence) * item.emotionalIntensity
             SortCriteria.RELEVANCE -> {
                 if (query.searchText.isEmpty()) {
-                    sortedByDescending { it.calculateSalience() }
+                    item.calculateSalience()
                 } else {
                     // Simple relevance scoring based on term frequency
-                    val searchTerms = query.searchText.lowercase().split(" ")
-                    sortedByDescending { memory ->
-                        var score = 0.0
-                        searchTerms.forEach { term ->
-                            // Count occurrences of term in content
-                            val regex = "\\b$term\\b".toRegex(RegexOption.IGNORE_CASE)
-                            val occurrences = regex.findAll(memory.content).count()
-                            score += occurrences
-                        }
-                        score
-                    }
+                    searchTerms.sumOf { regex -> regex.findAll(item.content).count() }.toDouble()
                 }
             }
         }
@@ -554,44 +576,35 @@ class HierarchicalMemorySystem(
      */
     suspend fun consolidateMemories() {
         val now = System.currentTimeMillis()
-        val toUpdate = mutableListOf<MemoryItem>()
+        val toUpdate = LinkedHashMap<String, MemoryItem>()
         
-        // Process each memory store
-        for (store in listOf(episodicMemories, semanticMemories, emotionalMemories, proceduralMemories)) {
-            for (item in store.values) {
-                val salience = item.calculateSalience(now)
-                var wasUpdated = false
-                
-                // Reinforce important and recent memories
-                if (salience > 0.7) {
-                    item.priority = Math.min(100, (item.priority * 1.05).toInt())
-                    item.certainty = Math.min(1.0, item.certainty * 1.02)
-                    item.reinforcementScore = Math.min(1.5f, item.reinforcementScore * 1.05f)
-                    wasUpdated = true
-                }
-                
-                // Weaken old, rarely accessed memories
-                val daysSinceAccess = ChronoUnit.DAYS.between(
-                    Instant.ofEpochMilli(item.lastAccessed),
-                    Instant.ofEpochMilli(now)
-                )
-                
-                if (daysSinceAccess > 30 && item.accessCount < 3 && salience < 0.3) {
-                    item.priority = Math.max(1, (item.priority * 0.95).toInt())
-                    item.certainty = Math.max(0.1, item.certainty * 0.98)
-                    item.reinforcementScore = Math.max(0.2f, item.reinforcementScore * 0.95f)
-                    wasUpdated = true
-                }
-                
-                // Cluster semantically similar memories
-                if (wasUpdated) {
-                    toUpdate.add(item)
-                }
+        // Reinforce important and recent memories
+        for (id in salienceIndex.above(0.7, now)) {
+            val item = findLoadedMemory(id) ?: continue
+            item.priority = Math.min(100, (item.priority * 1.05).toInt())
+            item.certainty = Math.min(1.0, item.certainty * 1.02)
+            item.reinforcementScore = Math.min(1.5f, item.reinforcementScore * 1.05f)
+            toUpdate[id] = item
+        }
+        
+        // Weaken old, rarely accessed memories
+        for (id in salienceIndex.below(0.3, now)) {
+            val item = findLoadedMemory(id) ?: continue
+            val daysSinceAccess = ChronoUnit.DAYS.between(
+                Instant.ofEpochMilli(item.lastAccessed),
+                Instant.ofEpochMilli(now)
+            )
+            
+            if (daysSinceAccess > 30 && item.accessCount < 3) {
+                item.priority = Math.max(1, (item.priority * 0.95).toInt())
+                item.certainty = Math.max(0.1, item.certainty * 0.98)
+                item.reinforcementScore = Math.max(0.2f, item.reinforcementScore * 0.95f)
+                toUpdate[id] = item
             }
         }
         
         // Update all modified memories
-        for (item in toUpdate) {
+        for (item in toUpdate.values) {
             storeMemory(item)
         }
         
@@ -657,11 +670,7 @@ class HierarchicalMemorySystem(
             .take(5)
         
         val contentSimilar = keywords
-            .flatMap { keyword -> 
-                contentIndex.keys
-                    .filter { it.contains(keyword) }
-                    .flatMap { key -> contentIndex[key] ?: emptySet() }
-            }
+            .flatMap { keyword -> contentIndex.idsContaining(keyword) }
             .distinct()
             .mapNotNull { getMemory(it) }
             .filter { it.id != memoryId && 
@@ -701,25 +710,30 @@ class HierarchicalMemorySystem(
     }
     
     /**
-     * Clean up old, low-salience memories to prevent unlimited growth
+     * Clean up old, low-salience memories to prevent unlimited growth.
+     * Only the excess least-salient memories are read from the salience index.
      */
     suspend fun cleanupMemories(maxMemories: Int = 10000, minSalience: Double = 0.1) {
-        val allMemories = (episodicMemories.values + semanticMemories.values + 
-                         emotionalMemories.values + proceduralMemories.values)
-                        .sortedBy { it.calculateSalience() }
+        val totalMemories = episodicMemories.size + semanticMemories.size +
+                          emotionalMemories.size + proceduralMemories.size
         
         // If we're over the limit, remove low salience memories
-        if (allMemories.size > maxMemories) {
-            val toRemove = allMemories
-                .filter { it.calculateSalience() < minSalience }
-                .take(allMemories.size - maxMemories)
+        if (totalMemories > maxMemories) {
+            val toRemove = salienceIndex.below(minSalience, limit = totalMemories - maxMemories)
             
-            for (item in toRemove) {
-                removeMemory(item.id)
+            for (id in toRemove) {
+                removeMemory(id)
             }
         }
     }
     
+    /**
+     * The most salient memories across all types, highest first
+     */
+    fun getMostSalientMemories(limit: Int = 10): List<MemoryItem> {
+        return salienceIndex.mostSalient(limit).mapNotNull { (id, _) -> findLoadedMemory(id) }
+    }
+    
     /**
      * Remove a memory from the system
      */
@@ -733,11 +747,10 @@ class HierarchicalMemorySystem(
             semanticMemories.remove(id)
             emotionalMemories.remove(id)
             proceduralMemories.remove(id)
+            salienceIndex.remove(id)
             
             // Remove from indices
-            for (index in contentIndex.values) {
-                index.remove(id)
-            }
+            contentIndex.remove(id)
             
             for (index in tagIndex.values) {
                 index.remove(id)
@@ -755,10 +768,11 @@ class HierarchicalMemorySystem(
                 index.remove(id)
             }
             
-            // Remove connections in other memories
-            for (store in listOf(episodicMemories, semanticMemories, emotionalMemories, proceduralMemories)) {
-                for (memory in store.values) {
-                    memory.connections.remove(id)
+            // Connections are bidirectional, so only the removed memory's neighbours link back;
+            // losing a connection lowers their salience
+            memory?.connections?.forEach { neighbourId ->
+                findLoadedMemory(neighbourId)?.let { neighbour ->
+                    if (neighbour.connections.remove(id)) salienceIndex.update(neighbour)
                 }
             }
             
@@ -825,6 +839,21 @@ class HierarchicalMemorySystem(
         }
     }
     
+    /**
+     * Find a memory in the in-memory stores without marking it as accessed
+     */
+    private fun findLoadedMemory(id: String): MemoryItem? {
+        return episodicMemories[id] ?: semanticMemories[id] ?: emotionalMemories[id] ?: proceduralMemories[id]
+    }
+    
+    /**
+     * Mark a memory as accessed and re-key it in the salience index
+     */
+    private fun touch(item: MemoryItem) {
+        item.updateLastAccessed()
+        salienceIndex.update(item)
+    }
+    
     /**
      * Get the appropriate store for a given memory type
      */
@@ -837,16 +866,22 @@ class HierarchicalMemorySystem(
         }
     }
     
+    /**
+     * Add a memory to all secondary indices
+     */
+    private fun updateIndices(item: MemoryItem) {
+        updateContentIndex(item)
+        updateTagIndex(item)
+        updateTimeIndex(item)
+        updateEmotionIndex(item)
+        updateEntityIndex(item)
+    }
+    
     /**
      * Update the content index with keywords from the memory
      */
     private fun updateContentIndex(item: MemoryItem) {
-        val keywords = item.content.lowercase().split(Regex("\\s+"))
-            .filter { it.length > 3 }
-        
-        for (keyword in keywords) {
-            contentIndex.computeIfAbsent(keyword) { mutableSetOf() }.add(item.id)
-        }
+        contentIndex.add(item.id, item.content)
     }
     
     /**
@@ -865,7 +900,7 @@ class HierarchicalMemorySystem(
      * Update the time index for chronological retrieval
      */
     private fun updateTimeIndex(item: MemoryItem) {
-        val timeKey = item.created / (24 * 60 * 60 * 1000) * (24 * 60 * 60 * 1000) // Round to day
+        val timeKey = MemoryQueryPlanner.dayOf(item.created) // Round to day
         timeIndex.computeIfAbsent(timeKey) { mutableSetOf() }.add(item.id)
     }
     
@@ -1063,14 +1098,22 @@ class HierarchicalMemorySystem(
             "proceduralCount" to proceduralMemories.size,
             "totalMemories" to (episodicMemories.size + semanticMemories.size + 
                               emotionalMemories.size + proceduralMemories.size),
-            "contentIndexSize" to contentIndex.size,
+            "contentIndexSize" to contentIndex.vocabularySize,
             "tagIndexSize" to tagIndex.size,
             "emotionIndexSize" to emotionIndex.size,
             "entityIndexSize" to entityIndex.size,
-            "timeIndexSize" to timeIndex.size
+            "timeIndexSize" to timeIndex.size,
+            "salienceIndexSize" to salienceIndex.size
         )
     }
     
+    /**
+     * Stop the indexer's background work when the memory system is no longer needed
+     */
+    fun close() {
+        memoryIndexer?.close()
+    }
+    
     /**
      * Create a memory factory that automatically determines the best memory type
      * based on the content and characteristics
@@ -0,0 +1,345 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Hierarchical navigable small world (HNSW) index for approximate semantic search
+ */
+package com.sallie.core.memory
+
+import java.util.BitSet
+import java.util.PriorityQueue
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.math.ln
+import kotlin.random.Random
+
+/**
+ * HnswVectorIndex answers nearest-neighbour queries in roughly logarithmic time by
+ * walking a layered proximity graph instead of scoring every stored embedding.
+ *
+ * Graph nodes hold only a row of an [EmbeddingStore] and score against it in place, so
+ * vectors are never copied into the graph. Given a shared store, a memory's embedding must
+ * be stored before it is added and removed from the store only after it is removed here;
+ * without one the index keeps its own in-memory store.
+ *
+ * @param embeddings Store the indexed vectors live in, shared with the caller
+ * @param m Number of neighbours kept per node on upper layers (layer 0 keeps 2 * m)
+ * @param efConstruction Candidate list size used while inserting
+ * @param efSearch Candidate list size used while querying; raise for recall, lower for latency
+ * @param compactionRatio Fraction of deleted nodes that triggers a graph rebuild
+ */
+class HnswVectorIndex(
+    embeddings: EmbeddingStore? = null,
+    private val m: Int = 16,
+    private val efConstruction: Int = 200,
+    var efSearch: Int = 64,
+    private val compactionRatio: Double = 0.3,
+    seed: Int = 42
+) : VectorIndex {
+
+    private class Node(
+        val id: String,
+        val row: Int,
+        val level: Int
+    ) {
+        val neighbors = Array(level + 1) { IntArray(0) }
+        var deleted = false
+    }
+
+    private class Candidate(val node: Int, val score: Double)
+
+    // Created on the first add when no store is shared
+    private var store: EmbeddingStore? = embeddings
+    private val ownsStore = embeddings == null
+
+    private val nodes = ArrayList<Node>()
+    private val idToNode = HashMap<String, Int>()
+    private var entryPoint = -1
+    private var maxLevel = -1
+    private var deletedCount = 0
+
+    private val levelMultiplier = 1.0 / ln(m.coerceAtLeast(2).toDouble())
+    private val random = Random(seed)
+    private val lock = ReentrantReadWriteLock()
+
+    override val size: Int
+        get() = lock.read { idToNode.size }
+
+    override fun add(id: String, vector: FloatArray) {
+        lock.write {
+            val row = if (ownsStore) {
+                storeFor(vector).put(id, vector)
+            } else {
+                requireNotNull(store?.rowOf(id)) { "Embedding for $id must be stored before it is indexed" }
+            }
+            idToNode[id]?.let { markDeleted(it) }
+            insert(id, row)
+            compactIfNeeded()
+        }
+    }
+
+    override fun remove(id: String): Boolean = lock.write {
+        val node = idToNode[id] ?: return@write false
+        markDeleted(node)
+        if (ownsStore) store?.remove(id)
+        compactIfNeeded()
+        true
+    }
+
+    override fun contains(id: String): Boolean = lock.read { idToNode.containsKey(id) }
+
+    override fun search(
+        query: FloatArray,
+        k: Int,
+        minScore: Double,
+        excludeId: String?
+    ): List<Pair<String, Double>> = lock.read {
+        val embeddings = store
+        if (entryPoint < 0 || k <= 0 || embeddings == null || query.size != embeddings.dimensions) {
+            return@read emptyList()
+        }
+
+        val queryNorm = EmbeddingKernels.norm(query)
+        val score = { node: Int -> embeddings.cosineSimilarity(query, queryNorm, nodes[node].row) }
+        var current = Candidate(entryPoint, score(entryPoint))
+        for (level in maxLevel downTo 1) {
+            current = greedyClosest(score, current, level)
+        }
+
+        // Tombstoned and excluded nodes still route the search, so widen the beam to cover them
+        val ef = maxOf(efSearch, k + if (excludeId != null) 1 else 0)
+        val candidates = searchLayer(score, listOf(current), ef, 0)
+
+        val collector = TopKCollector(k)
+        for (candidate in candidates) {
+            val node = nodes[candidate.node]
+            if (node.deleted || node.id == excludeId || candidate.score < minScore) continue
+            collector.offer(node.id, candidate.score)
+        }
+        collector.toSortedList()
+    }
+
+    override fun clear() {
+        lock.write {
+            nodes.clear()
+            idToNode.clear()
+            entryPoint = -1
+            maxLevel = -1
+            deletedCount = 0
+            if (ownsStore) store?.clear()
+        }
+    }
+
+    override fun getStats(): Map<String, Any> = lock.read {
+        mapOf(
+            "type" to "hnsw",
+            "vectors" to idToNode.size,
+            "graphNodes" to nodes.size,
+            "deletedNodes" to deletedCount,
+            "maxLevel" to maxLevel,
+            "m" to m,
+            "efConstruction" to efConstruction,
+            "efSearch" to efSearch,
+            "sharedEmbeddingStore" to !ownsStore
+        )
+    }
+
+    private fun insert(id: String, row: Int) {
+        val level = randomLevel()
+        val nodeIndex = nodes.size
+        val node = Node(id, row, level)
+        nodes.add(node)
+        idToNode[id] = nodeIndex
+
+        if (entryPoint < 0) {
+            entryPoint = nodeIndex
+            maxLevel = level
+            return
+        }
+
+        val score = { other: Int -> similarity(nodeIndex, other) }
+        var current = Candidate(entryPoint, score(entryPoint))
+        for (layer in maxLevel downTo level + 1) {
+            current = greedyClosest(score, current, layer)
+        }
+
+        var entryPoints = listOf(current)
+        for (layer in minOf(level, maxLevel) downTo 0) {
+            val candidates = searchLayer(score, entryPoints, efConstruction, layer)
+            val selected = selectNeighbors(candidates, m)
+            node.neighbors[layer] = IntArray(selected.size) { selected[it].node }
+
+            for (neighbor in selected) {
+                connect(neighbor.node, nodeIndex, layer)
+            }
+            entryPoints = candidates
+        }
+
+        if (level > maxLevel) {
+            entryPoint = nodeIndex
+            maxLevel = level
+        }
+    }
+
+    /**
+     * Add a back-link from [from] to [to], pruning [from]'s neighbour list if it overflows
+     */
+    private fun connect(from: Int, to: Int, layer: Int) {
+        val node = nodes[from]
+        val existing = node.neighbors[layer]
+        val maxConnections = maxConnections(layer)
+
+        if (existing.size < maxConnections) {
+            node.neighbors[layer] = existing + to
+            return
+        }
+
+        val candidates = ArrayList<Candidate>(existing.size + 1)
+        for (neighbor in existing) {
+            candidates.add(Candidate(neighbor, similarity(from, neighbor)))
+        }
+        candidates.add(Candidate(to, similarity(from, to)))
+        candidates.sortByDescending { it.score }
+
+        val selected = selectNeighbors(candidates, maxConnections)
+        node.neighbors[layer] = IntArray(selected.size) { selected[it].node }
+    }
+
+    /**
+     * Neighbour selection heuristic: prefer candidates that are closer to the base node
+     * than to any already selected neighbour, keeping the graph navigable across clusters.
+     * Candidates must be sorted by descending score.
+     */
+    private fun selectNeighbors(candidates: List<Candidate>, limit: Int): List<Candidate> {
+        if (candidates.size <= limit) return candidates
+
+        val selected = ArrayList<Candidate>(limit)
+        val discarded = ArrayList<Candidate>()
+
+        for (candidate in candidates) {
+            if (selected.size >= limit) break
+            val diverse = selected.none { similarity(candidate.node, it.node) > candidate.score }
+            if (diverse) selected.add(candidate) else discarded.add(candidate)
+        }
+
+        for (candidate in discarded) {
+            if (selected.size >= limit) break
+            selected.add(candidate)
+        }
+
+        return selected
+    }
+
+    private fun greedyClosest(score: (Int) -> Double, start: Candidate, layer: Int): Candidate {
+        var best = start
+        var improved = true
+
+        while (improved) {
+            improved = false
+            val neighbors = nodes[best.node].neighbors
+            if (layer >= neighbors.size) break
+
+            for (neighbor in neighbors[layer]) {
+                val neighborScore = score(neighbor)
+                if (neighborScore > best.score) {
+                    best = Candidate(neighbor, neighborScore)
+                    improved = true
+                }
+            }
+        }
+
+        return best
+    }
+
+    /**
+     * Beam search on a single layer; returns up to [ef] candidates sorted by descending score
+     */
+    private fun searchLayer(
+        score: (Int) -> Double,
+        entryPoints: List<Candidate>,
+        ef: Int,
+        layer: Int
+    ): List<Candidate> {
+        val visited = BitSet(nodes.size)
+        val frontier = PriorityQueue<Candidate>(compareByDescending { it.score })
+        val results = PriorityQueue<Candidate>(compareBy { it.score })
+
+        for (entry in entryPoints) {
+            if (visited[entry.node]) continue
+            visited.set(entry.node)
+            frontier.add(entry)
+            results.add(entry)
+            if (results.size > ef) results.poll()
+        }
+
+        while (frontier.isNotEmpty()) {
+            val current = frontier.poll()
+            if (results.size >= ef && current.score < results.peek().score) break
+
+            val neighbors = nodes[current.node].neighbors
+            if (layer >= neighbors.size) continue
+
+            for (neighbor in neighbors[layer]) {
+                if (visited[neighbor]) continue
+                visited.set(neighbor)
+
+                val neighborScore = score(neighbor)
+                if (results.size < ef || neighborScore > results.peek().score) {
+                    val candidate = Candidate(neighbor, neighborScore)
+                    frontier.add(candidate)
+                    results.add(candidate)
+                    if (results.size > ef) results.poll()
+                }
+            }
+        }
+
+        val sorted = ArrayList<Candidate>(results.size)
+        while (results.isNotEmpty()) {
+            sorted.add(results.poll())
+        }
+        sorted.reverse()
+        return sorted
+    }
+
+    private fun markDeleted(nodeIndex: Int) {
+        val node = nodes[nodeIndex]
+        if (node.deleted) return
+        node.deleted = true
+        idToNode.remove(node.id)
+        deletedCount++
+    }
+
+    /**
+     * Tombstoned nodes keep routing searches; once they dominate the graph, rebuild it
+     * from the live rows so memory and search cost track the live set.
+     */
+    private fun compactIfNeeded() {
+        if (nodes.isEmpty() || deletedCount < nodes.size * compactionRatio) return
+
+        val live = nodes.filter { !it.deleted }
+        nodes.clear()
+        idToNode.clear()
+        entryPoint = -1
+        maxLevel = -1
+        deletedCount = 0
+
+        for (node in live) {
+            insert(node.id, node.row)
+        }
+    }
+
+    /**
+     * Cosine similarity between two graph nodes, read from their store rows
+     */
+    private fun similarity(a: Int, b: Int): Double = store?.cosineSimilarity(nodes[a].row, nodes[b].row) ?: 0.0
+
+    private fun storeFor(vector: FloatArray): EmbeddingStore {
+        return store ?: EmbeddingStore.inMemory(vector.size).also { store = it }
+    }
+
+    private fun randomLevel(): Int {
+        val uniform = 1.0 - random.nextDouble() // (0, 1]
+        return (-ln(uniform) * levelMultiplier).toInt()
+    }
+
+    private fun maxConnections(layer: Int): Int = if (layer == 0) m * 2 else m
+}
@@ -0,0 +1,253 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Incremental streaming clustering of memory embeddings
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.random.Random
+
+/**
+ * IncrementalClusterIndex maintains memory clusters as embeddings arrive instead of
+ * recomputing them pairwise. Each new memory joins its nearest centroid (or seeds a new
+ * cluster when nothing is similar enough), and a background coroutine periodically runs
+ * mini-batch k-means passes that reassign sampled members and refine centroids.
+ *
+ * Assignment costs O(clusters) similarity checks, readers only ever take a read lock,
+ * and refinement holds the write lock for one member move at a time. Each member's
+ * normalized vector is kept so it can be subtracted exactly when the member moves, is
+ * re-assigned, or is removed. Call [close] to stop the background refinement.
+ *
+ * @param vectorLookup Resolves a memory's current embedding during refinement
+ */
+class IncrementalClusterIndex(
+    private val similarityThreshold: Double = 0.85,
+    private val maxClusters: Int = 512,
+    private val refineBatchSize: Int = 64,
+    private val refineEvery: Int = 32,
+    private val vectorLookup: (String) -> FloatArray?,
+    private val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+) {
+
+    private class Cluster(val id: String, dimensions: Int) {
+        val sum = FloatArray(dimensions)
+        var centroid = FloatArray(dimensions)
+        val members = LinkedHashSet<String>()
+
+        fun add(vector: FloatArray) {
+            for (i in sum.indices) sum[i] += vector[i]
+            centroid = normalizedCopy(sum)
+        }
+
+        fun subtract(vector: FloatArray) {
+            for (i in sum.indices) sum[i] -= vector[i]
+            centroid = normalizedCopy(sum)
+        }
+    }
+
+    private val lock = ReentrantReadWriteLock()
+    private val clusters = LinkedHashMap<String, Cluster>()
+    private val assignments = HashMap<String, String>()
+
+    // The normalized vector each member contributed to its cluster's sum
+    private val memberVectors = HashMap<String, FloatArray>()
+
+    // Dense list of assigned memory IDs for O(1) random sampling during refinement
+    private val assignedIds = ArrayList<String>()
+    private val assignedPositions = HashMap<String, Int>()
+
+    private var nextClusterId = 0
+
+    // Bumped under the write lock whenever clusters or centroids change
+    private var clusterVersion = 0L
+    private val random = Random(7)
+    private val assignmentsSinceRefine = AtomicInteger()
+    private val refinementPasses = AtomicLong()
+    private val reassignments = AtomicLong()
+
+    private val refineSignal = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        scope.launch {
+            for (signal in refineSignal) {
+                refine()
+            }
+        }
+    }
+
+    val size: Int
+        get() = lock.read { clusters.size }
+
+    /**
+     * Assign a memory to its nearest cluster, creating a new cluster if none is close enough
+     */
+    fun assign(memoryId: String, embedding: FloatArray) {
+        val vector = normalizedCopy(embedding)
+        val (seenVersion, seenNearest) = lock.read { clusterVersion to nearest(vector) }
+
+        lock.write {
+            removeAssignment(memoryId)
+
+            // Search again if clusters changed since the read, so two close memories
+            // cannot each seed a cluster and a removed cluster is never chosen
+            val (nearestId, similarity) = if (clusterVersion == seenVersion) seenNearest else nearest(vector)
+
+            val target = nearestId?.let { clusters[it] }
+            val cluster = if (target != null && (similarity >= similarityThreshold || clusters.size >= maxClusters)) {
+                target
+            } else {
+                Cluster("cluster_${nextClusterId++}", vector.size).also { clusters[it.id] = it }
+            }
+
+            cluster.add(vector)
+            cluster.members.add(memoryId)
+            clusterVersion++
+            assignments[memoryId] = cluster.id
+            memberVectors[memoryId] = vector
+            assignedPositions[memoryId] = assignedIds.size
+            assignedIds.add(memoryId)
+        }
+
+        if (assignmentsSinceRefine.incrementAndGet() >= refineEvery) {
+            assignmentsSinceRefine.set(0)
+            refineSignal.trySend(Unit)
+        }
+    }
+
+    /**
+     * Remove a memory from its cluster, subtracting its contribution from the centroid
+     */
+    fun remove(memoryId: String) {
+        lock.write {
+            removeAssignment(memoryId)
+        }
+    }
+
+    /**
+     * Get clusters with at least [minSize] members, largest first
+     */
+    fun getClusters(maxClusters: Int, minSize: Int = 2): Map<String, List<String>> = lock.read {
+        clusters.values
+            .filter { it.members.size >= minSize }
+            .sortedByDescending { it.members.size }
+            .take(maxClusters)
+            .associate { it.id to it.members.toList() }
+    }
+
+    fun clusterOf(memoryId: String): String? = lock.read { assignments[memoryId] }
+
+    internal fun centroidOf(clusterId: String): FloatArray? = lock.read { clusters[clusterId]?.centroid?.copyOf() }
+
+    fun clear() {
+        lock.write {
+            clusters.clear()
+            assignments.clear()
+            memberVectors.clear()
+            assignedIds.clear()
+            assignedPositions.clear()
+            nextClusterId = 0
+            clusterVersion++
+        }
+    }
+
+    fun close() {
+        refineSignal.close()
+        scope.cancel()
+    }
+
+    /**
+     * Run one mini-batch refinement pass: sample assigned memories, move each to its
+     * nearest centroid, and drop clusters that end up empty.
+     */
+    fun refine() {
+        val batch = lock.read {
+            if (assignedIds.isEmpty()) return
+            List(minOf(refineBatchSize, assignedIds.size)) { assignedIds[random.nextInt(assignedIds.size)] }.distinct()
+        }
+
+        for (memoryId in batch) {
+            val embedding = vectorLookup(memoryId) ?: continue
+            val vector = normalizedCopy(embedding)
+            val (nearestId, _) = lock.read { nearest(vector) }
+            if (nearestId == null) continue
+
+            lock.write {
+                val currentId = assignments[memoryId] ?: return@write
+                if (currentId == nearestId) return@write
+                val target = clusters[nearestId] ?: return@write
+
+                clusters[currentId]?.let { source ->
+                    memberVectors[memoryId]?.let { source.subtract(it) }
+                    source.members.remove(memoryId)
+                    if (source.members.isEmpty()) clusters.remove(currentId)
+                }
+                target.add(vector)
+                target.members.add(memoryId)
+                clusterVersion++
+                assignments[memoryId] = nearestId
+                memberVectors[memoryId] = vector
+                reassignments.incrementAndGet()
+            }
+        }
+
+        refinementPasses.incrementAndGet()
+    }
+
+    fun getStats(): Map<String, Any> = lock.read {
+        mapOf(
+            "clusters" to clusters.size,
+            "assignedMemories" to assignments.size,
+            "averageMemoriesPerCluster" to if (clusters.isEmpty()) 0.0 else assignments.size / clusters.size.toDouble(),
+            "refinementPasses" to refinementPasses.get(),
+            "reassignments" to reassignments.get()
+        )
+    }
+
+    private fun nearest(vector: FloatArray): Pair<String?, Double> {
+        var bestId: String? = null
+        var bestSimilarity = -1.0
+
+        for (cluster in clusters.values) {
+            val similarity = EmbeddingKernels.dot(vector, cluster.centroid)
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity
+                bestId = cluster.id
+            }
+        }
+
+        return Pair(bestId, bestSimilarity)
+    }
+
+    private fun removeAssignment(memoryId: String) {
+        val clusterId = assignments.remove(memoryId) ?: return
+        val vector = memberVectors.remove(memoryId)
+
+        val position = assignedPositions.remove(memoryId)
+        if (position != null) {
+            val last = assignedIds.removeAt(assignedIds.size - 1)
+            if (position < assignedIds.size) {
+                assignedIds[position] = last
+                assignedPositions[last] = position
+            }
+        }
+
+        val cluster = clusters[clusterId] ?: return
+        cluster.members.remove(memoryId)
+        clusterVersion++
+        if (cluster.members.isEmpty()) {
+            clusters.remove(clusterId)
+        } else if (vector != null) {
+            cluster.subtract(vector)
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Inverted keyword index with compressed postings and BM25 ranking
+ */
+package com.sallie.core.memory
+
+import kotlin.math.ln
+
+/**
+ * InvertedIndex maps interned terms to compressed postings lists of int document IDs.
+ *
+ * - A forward index (document -> term IDs) makes removal O(terms in the document):
+ *   postings entries are tombstoned and purged lazily when a list is mostly dead.
+ *   Terms that no longer occur anywhere leave the vocabulary and trigram index, and
+ *   document IDs are renumbered once removed documents outnumber live ones.
+ * - A trigram index over the vocabulary answers substring matches without scanning
+ *   every term.
+ * - Results are ranked with Okapi BM25.
+ *
+ * Not thread-safe; callers are expected to guard access (see [VectorMemoryIndexer]).
+ */
+class InvertedIndex(
+    private val k1: Double = 1.2,
+    private val b: Double = 0.75
+) {
+
+    /**
+     * Postings for one term: (docId delta, term frequency) pairs encoded as varints.
+     * Document IDs are allocated monotonically, so appends keep the list sorted.
+     */
+    private class PostingsList {
+        var bytes = ByteArray(16)
+        var length = 0
+        var lastDocId = 0
+        var liveCount = 0
+        var deadCount = 0
+
+        fun append(docId: Int, frequency: Int) {
+            writeVarint(docId - lastDocId)
+            writeVarint(frequency)
+            lastDocId = docId
+            liveCount++
+        }
+
+        inline fun forEach(action: (docId: Int, frequency: Int) -> Unit) {
+            var position = 0
+            var docId = 0
+            while (position < length) {
+                var delta = 0
+                var shift = 0
+                while (true) {
+                    val byte = bytes[position++].toInt()
+                    delta = delta or ((byte and 0x7F) shl shift)
+                    if (byte and 0x80 == 0) break
+                    shift += 7
+                }
+                var frequency = 0
+                shift = 0
+                while (true) {
+                    val byte = bytes[position++].toInt()
+                    frequency = frequency or ((byte and 0x7F) shl shift)
+                    if (byte and 0x80 == 0) break
+                    shift += 7
+                }
+                docId += delta
+                action(docId, frequency)
+            }
+        }
+
+        private fun writeVarint(value: Int) {
+            if (length + 5 > bytes.size) {
+                bytes = bytes.copyOf(maxOf(bytes.size * 2, length + 5))
+            }
+            var remaining = value
+            while (remaining and 0x7F.inv() != 0) {
+                bytes[length++] = ((remaining and 0x7F) or 0x80).toByte()
+                remaining = remaining ushr 7
+            }
+            bytes[length++] = remaining.toByte()
+        }
+    }
+
+    private val termIds = HashMap<String, Int>()
+    private val terms = ArrayList<String>()
+    private val postings = ArrayList<PostingsList>()
+
+    // IDs of terms that left the vocabulary, reused by new terms
+    private val freeTermIds = ArrayList<Int>()
+
+    // Trigram -> IDs of vocabulary terms containing it
+    private val trigramIndex = HashMap<String, MutableSet<Int>>()
+
+    private val docIds = HashMap<String, Int>()
+    private val docKeys = ArrayList<String?>()
+    private val docLengths = ArrayList<Int>()
+
+    // Forward index: docId -> term IDs in that document
+    private val forwardIndex = HashMap<Int, IntArray>()
+
+    // Slots in docKeys freed by removals since the last renumbering
+    private var removedDocuments = 0
+
+    private var totalLength = 0L
+
+    val documentCount: Int
+        get() = docIds.size
+
+    /**
+     * Number of distinct terms that still occur in at least one document
+     */
+    val vocabularySize: Int
+        get() = termIds.size
+
+    /**
+     * Index a document's tokens, replacing any previous version of the document
+     */
+    fun add(key: String, tokens: List<String>) {
+        remove(key)
+        if (tokens.isEmpty()) return
+
+        val docId = docKeys.size
+        docKeys.add(key)
+        docLengths.add(tokens.size)
+        docIds[key] = docId
+        totalLength += tokens.size
+
+        val frequencies = tokens.groupingBy { it }.eachCount()
+        val documentTerms = IntArray(frequencies.size)
+        var i = 0
+        for ((term, frequency) in frequencies) {
+            val termId = internTerm(term)
+            postings[termId].append(docId, frequency)
+            documentTerms[i++] = termId
+        }
+        forwardIndex[docId] = documentTerms
+    }
+
+    /**
+     * Remove a document in time proportional to its number of distinct terms
+     */
+    fun remove(key: String): Boolean {
+        val docId = docIds.remove(key) ?: return false
+        docKeys[docId] = null
+        totalLength -= docLengths[docId]
+        removedDocuments++
+
+        forwardIndex.remove(docId)?.forEach { termId ->
+            val list = postings[termId]
+            list.liveCount--
+            list.deadCount++
+            if (list.liveCount == 0) {
+                releaseTerm(termId)
+            } else if (list.deadCount > list.liveCount) {
+                compact(list)
+            }
+        }
+
+        if (removedDocuments > docIds.size && removedDocuments >= MIN_RENUMBER_DOCUMENTS) {
+            renumberDocuments()
+        }
+        return true
+    }
+
+    /**
+     * Rank documents against query terms with BM25. Terms that only match as a substring
+     * of a vocabulary term contribute proportionally to how much of that term they cover.
+     */
+    fun search(queryTerms: List<String>, limit: Int): List<Pair<String, Double>> {
+        if (queryTerms.isEmpty() || docIds.isEmpty()) return emptyList()
+
+        val documentTotal = docIds.size
+        val averageLength = totalLength.toDouble() / documentTotal
+        val scores = HashMap<Int, Double>()
+
+        for (queryTerm in queryTerms) {
+            for (termId in matchingTerms(queryTerm)) {
+                val list = postings[termId]
+                if (list.liveCount == 0) continue
+
+                val coverage = queryTerm.length.toDouble() / terms[termId].length
+                val idf = ln(1.0 + (documentTotal - list.liveCount + 0.5) / (list.liveCount + 0.5))
+
+                list.forEach { docId, frequency ->
+                    if (docKeys[docId] == null) return@forEach
+                    val lengthNorm = 1.0 - b + b * docLengths[docId] / averageLength
+                    val termScore = idf * frequency * (k1 + 1) / (frequency + k1 * lengthNorm)
+                    scores[docId] = (scores[docId] ?: 0.0) + coverage * termScore
+                }
+            }
+        }
+
+        val collector = TopKCollector(limit)
+        for ((docId, score) in scores) {
+            collector.offer(docKeys[docId] ?: continue, score)
+        }
+        return collector.toSortedList()
+    }
+
+    /**
+     * Count, per document, how many vocabulary terms containing [keyword] it has
+     */
+    fun occurrences(keyword: String): Map<String, Int> {
+        // Trigrams cannot narrow down shorter keywords, so those scan the vocabulary
+        val matches = if (keyword.length < 3) {
+            termIds.entries.filter { it.key.contains(keyword) }.map { it.value }
+        } else {
+            matchingTerms(keyword)
+        }
+
+        val result = HashMap<String, Int>()
+        for (termId in matches) {
+            postings[termId].forEach { docId, _ ->
+                val key = docKeys[docId] ?: return@forEach
+                result[key] = (result[key] ?: 0) + 1
+            }
+        }
+        return result
+    }
+
+    fun clear() {
+        termIds.clear()
+        terms.clear()
+        postings.clear()
+        freeTermIds.clear()
+        trigramIndex.clear()
+        docIds.clear()
+        docKeys.clear()
+        docLengths.clear()
+        forwardIndex.clear()
+        removedDocuments = 0
+        totalLength = 0
+    }
+
+    fun getStats(): Map<String, Any> = mapOf(
+        "documents" to docIds.size,
+        "documentSlots" to docKeys.size,
+        "vocabulary" to vocabularySize,
+        "internedTerms" to terms.size,
+        "postingsBytes" to postings.sumOf { it.length },
+        "trigrams" to trigramIndex.size
+    )
+
+    /**
+     * Vocabulary terms containing [fragment], found by intersecting trigram sets
+     * smallest-first and verifying the candidates
+     */
+    private fun matchingTerms(fragment: String): Collection<Int> {
+        if (fragment.length < 3) {
+            return termIds[fragment]?.let { listOf(it) } ?: emptyList()
+        }
+
+        val candidateSets = trigramsOf(fragment)
+            .map { trigramIndex[it] ?: return emptyList() }
+            .sortedBy { it.size }
+
+        return candidateSets.first()
+            .filter { termId -> candidateSets.all { termId in it } && terms[termId].contains(fragment) }
+    }
+
+    private fun internTerm(term: String): Int {
+        termIds[term]?.let { return it }
+
+        val termId = if (freeTermIds.isNotEmpty()) {
+            freeTermIds.removeAt(freeTermIds.size - 1).also { terms[it] = term }
+        } else {
+            terms.size.also {
+                terms.add(term)
+                postings.add(PostingsList())
+            }
+        }
+        termIds[term] = termId
+        for (trigram in trigramsOf(term)) {
+            trigramIndex.getOrPut(trigram) { HashSet() }.add(termId)
+        }
+        return termId
+    }
+
+    /**
+     * Drop a term whose postings have no live documents left
+     */
+    private fun releaseTerm(termId: Int) {
+        val term = terms[termId]
+        termIds.remove(term)
+        for (trigram in trigramsOf(term)) {
+            val termsWithTrigram = trigramIndex[trigram] ?: continue
+            termsWithTrigram.remove(termId)
+            if (termsWithTrigram.isEmpty()) trigramIndex.remove(trigram)
+        }
+
+        postings[termId].apply {
+            length = 0
+            lastDocId = 0
+            liveCount = 0
+            deadCount = 0
+        }
+        freeTermIds.add(termId)
+    }
+
+    /**
+     * Rewrite a postings list keeping only live documents, mapping their IDs through
+     * [newDocIds] when renumbering
+     */
+    private fun compact(list: PostingsList, newDocIds: IntArray? = null) {
+        val live = ArrayList<Pair<Int, Int>>(list.liveCount)
+        list.forEach { docId, frequency ->
+            if (docKeys[docId] != null) live.add(Pair(newDocIds?.get(docId) ?: docId, frequency))
+        }
+
+        list.length = 0
+        list.lastDocId = 0
+        list.liveCount = 0
+        list.deadCount = 0
+        for ((docId, frequency) in live) {
+            list.append(docId, frequency)
+        }
+    }
+
+    /**
+     * Give live documents consecutive IDs, in their existing order so every postings list
+     * stays sorted, and release the slots of removed documents
+     */
+    private fun renumberDocuments() {
+        val newDocIds = IntArray(docKeys.size) { -1 }
+        var nextId = 0
+        for (docId in docKeys.indices) {
+            if (docKeys[docId] != null) newDocIds[docId] = nextId++
+        }
+
+        for (list in postings) {
+            if (list.length > 0) compact(list, newDocIds)
+        }
+
+        val renumberedForward = HashMap<Int, IntArray>(forwardIndex.size)
+        for ((docId, documentTerms) in forwardIndex) {
+            renumberedForward[newDocIds[docId]] = documentTerms
+        }
+        forwardIndex.clear()
+        forwardIndex.putAll(renumberedForward)
+
+        var target = 0
+        for (docId in docKeys.indices) {
+            val key = docKeys[docId] ?: continue
+            docKeys[target] = key
+            docLengths[target] = docLengths[docId]
+            docIds[key] = target
+            target++
+        }
+        docKeys.subList(target, docKeys.size).clear()
+        docLengths.subList(target, docLengths.size).clear()
+        removedDocuments = 0
+    }
+
+    private fun trigramsOf(term: String): Set<String> {
+        if (term.length < 3) return emptySet()
+        return (0..term.length - 3).mapTo(HashSet()) { term.substring(it, it + 3) }
+    }
+
+    companion object {
+        // Removed documents tolerated before their slots are worth reclaiming
+        private const val MIN_RENUMBER_DOCUMENTS = 64
+    }
+}
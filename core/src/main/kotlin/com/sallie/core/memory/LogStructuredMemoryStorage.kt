@@ -0,0 +1,155 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Segment-log implementation of the Memory Storage Service
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+
+/**
+ * LogStructuredMemoryStorage persists memories in a [MemorySegmentLog] instead of one JSON
+ * file per memory. Saves are group-committed with a single fsync per batch, startup only
+ * rebuilds the key directory, and memories are decoded from disk when they are read.
+ *
+ * Observers get change notifications and reload what they watch; nothing is retained for
+ * memories or types that are not being collected.
+ */
+class LogStructuredMemoryStorage(
+    baseStoragePath: String,
+    maxSegmentBytes: Long = 8L * 1024 * 1024
+) : MemoryStorageService {
+
+    private val json = Json {
+        ignoreUnknownKeys = true
+    }
+
+    private val log = MemorySegmentLog(File(baseStoragePath, "segments"), maxSegmentBytes)
+
+    private val memoryFlows = MemoryItemFlows()
+    private val typeFlows = MemoryTypeFlows()
+
+    override suspend fun saveMemory(item: HierarchicalMemorySystem.MemoryItem): Boolean =
+        saveMemories(listOf(item))
+
+    override suspend fun saveMemories(items: Collection<HierarchicalMemorySystem.MemoryItem>): Boolean = withContext(Dispatchers.IO) {
+        try {
+            val previousTypes = items.associate { it.id to log.tagOf(it.id) }
+            log.write(items.map { MemorySegmentLog.Entry(it.id, it.type.ordinal, encode(it)) })
+
+            for (item in items) {
+                memoryFlows.update(item.id, item)
+                previousTypes[item.id]
+                    ?.takeIf { it != item.type.ordinal }
+                    ?.let { typeFlows.changed(HierarchicalMemorySystem.MemoryType.values()[it]) }
+                typeFlows.changed(item.type)
+            }
+            true
+        } catch (e: Exception) {
+            println("Failed to save ${items.size} memories: ${e.message}")
+            false
+        }
+    }
+
+    override suspend fun getMemory(id: String): HierarchicalMemorySystem.MemoryItem? = withContext(Dispatchers.IO) {
+        load(id)
+    }
+
+    override suspend fun getMemoriesByType(type: HierarchicalMemorySystem.MemoryType): List<HierarchicalMemorySystem.MemoryItem> = withContext(Dispatchers.IO) {
+        loadType(type)
+    }
+
+    override suspend fun searchMemories(query: HierarchicalMemorySystem.MemoryQuery): List<HierarchicalMemorySystem.MemoryItem> = withContext(Dispatchers.IO) {
+        val ids = if (query.types.isEmpty()) {
+            log.keys()
+        } else {
+            query.types.flatMap { log.keys(it.ordinal) }
+        }
+        MemoryQueryEvaluator.evaluate(ids.mapNotNull { load(it) }, query)
+    }
+
+    override suspend fun deleteMemory(id: String): Boolean = deleteMemories(listOf(id))
+
+    override suspend fun deleteMemories(ids: Collection<String>): Boolean = withContext(Dispatchers.IO) {
+        try {
+            val existing = ids.mapNotNull { id -> log.tagOf(id)?.let { id to it } }
+            if (existing.isEmpty()) return@withContext false
+
+            log.write(existing.map { (id, tag) -> MemorySegmentLog.Entry(id, tag, null) })
+
+            for ((id, tag) in existing) {
+                memoryFlows.update(id, null)
+                typeFlows.changed(HierarchicalMemorySystem.MemoryType.values()[tag])
+            }
+            existing.size == ids.size
+        } catch (e: Exception) {
+            println("Failed to delete ${ids.size} memories: ${e.message}")
+            false
+        }
+    }
+
+    override suspend fun exportMemories(): String = withContext(Dispatchers.IO) {
+        json.encodeToString(log.keys().mapNotNull { load(it) })
+    }
+
+    override suspend fun importMemories(data: String): Int = withContext(Dispatchers.IO) {
+        try {
+            val memories = json.decodeFromString<List<HierarchicalMemorySystem.MemoryItem>>(data)
+            if (saveMemories(memories)) memories.size else 0
+        } catch (e: Exception) {
+            println("Failed to import memories: ${e.message}")
+            0
+        }
+    }
+
+    override fun observeMemory(id: String): Flow<HierarchicalMemorySystem.MemoryItem?> {
+        return memoryFlows.observe(id) { load(id) }
+    }
+
+    override fun observeMemoriesByType(type: HierarchicalMemorySystem.MemoryType): Flow<List<HierarchicalMemorySystem.MemoryItem>> {
+        return typeFlows.observe(type) { loadType(type) }
+    }
+
+    override suspend fun getMemoryCount(): Int = log.size
+
+    override suspend fun clearAllMemories(): Boolean = withContext(Dispatchers.IO) {
+        try {
+            log.clear()
+            memoryFlows.clear()
+            typeFlows.clear()
+            true
+        } catch (e: Exception) {
+            println("Failed to clear memories: ${e.message}")
+            false
+        }
+    }
+
+    /**
+     * Rewrite sealed log segments so only live memories remain on disk
+     */
+    suspend fun compact() = log.compact()
+
+    fun getStorageStats(): Map<String, Any> = log.getStats()
+
+    fun close() = log.close()
+
+    private fun encode(item: HierarchicalMemorySystem.MemoryItem): ByteArray =
+        json.encodeToString(item).toByteArray(Charsets.UTF_8)
+
+    private fun load(id: String): HierarchicalMemorySystem.MemoryItem? {
+        val bytes = log.read(id) ?: return null
+        return try {
+            json.decodeFromString<HierarchicalMemorySystem.MemoryItem>(bytes.toString(Charsets.UTF_8))
+        } catch (e: Exception) {
+            println("Failed to decode memory $id: ${e.message}")
+            null
+        }
+    }
+
+    private fun loadType(type: HierarchicalMemorySystem.MemoryType): List<HierarchicalMemorySystem.MemoryItem> =
+        log.keys(type.ordinal).mapNotNull { load(it) }
+}
@@ -14,6 +14,13 @@ interface MemoryIndexer {
      */
     suspend fun indexMemory(item: HierarchicalMemorySystem.MemoryItem)
     
+    /**
+     * Index a batch of memory items
+     */
+    suspend fun indexMemories(items: Collection<HierarchicalMemorySystem.MemoryItem>) {
+        items.forEach { indexMemory(it) }
+    }
+    
     /**
      * Update index for an existing memory item
      */
@@ -72,4 +79,9 @@ interface MemoryIndexer {
      * Get memory index statistics
      */
     suspend fun getIndexStats(): Map<String, Any>
+    
+    /**
+     * Stop any background work the indexer runs; it must not be used afterwards
+     */
+    fun close() {}
 }
@@ -0,0 +1,89 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Per-memory flows shared by the memory storage services
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+
+/**
+ * MemoryItemFlows holds a state flow per observed memory ID. Entries are reference counted by
+ * their collectors and dropped when the last one stops, so the map only grows with the number
+ * of memories being watched rather than every memory ever observed.
+ */
+internal class MemoryItemFlows {
+
+    private class Entry {
+        val state = MutableStateFlow<HierarchicalMemorySystem.MemoryItem?>(null)
+        var loaded = false
+        var collectors = 0
+    }
+
+    private val entries = HashMap<String, Entry>()
+
+    /**
+     * Number of memories that currently have at least one collector
+     */
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    fun observe(
+        id: String,
+        load: () -> HierarchicalMemorySystem.MemoryItem?
+    ): Flow<HierarchicalMemorySystem.MemoryItem?> = flow {
+        val entry = acquire(id)
+        try {
+            if (synchronized(entries) { !entry.loaded }) {
+                val item = load()
+                // A write that landed while loading has already set the newer value
+                synchronized(entries) {
+                    if (!entry.loaded) {
+                        entry.state.value = item
+                        entry.loaded = true
+                    }
+                }
+            }
+            emitAll(entry.state)
+        } finally {
+            release(id, entry)
+        }
+    }.flowOn(Dispatchers.IO)
+
+    /**
+     * Publish the new state of a memory; null when it was deleted
+     */
+    fun update(id: String, item: HierarchicalMemorySystem.MemoryItem?) {
+        synchronized(entries) {
+            entries[id]?.let {
+                it.state.value = item
+                it.loaded = true
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(entries) {
+            entries.values.forEach {
+                it.state.value = null
+                it.loaded = true
+            }
+        }
+    }
+
+    private fun acquire(id: String): Entry = synchronized(entries) {
+        entries.getOrPut(id) { Entry() }.also { it.collectors++ }
+    }
+
+    private fun release(id: String, entry: Entry) {
+        synchronized(entries) {
+            if (--entry.collectors == 0 && entries[id] === entry) {
+                entries.remove(id)
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Weight-bounded LRU cache for hot memories
+ */
+package com.sallie.core.memory
+
+/**
+ * Thread-safe LRU cache bounded by total weight. Each entry's weight comes from [weigher]
+ * (1 per entry by default, which makes [maxWeight] an entry count). Least recently used
+ * entries are evicted until the cache fits again.
+ *
+ * With a positive [expireAfterWriteMs], entries older than that are treated as missing and
+ * dropped when they are next read or reach the eldest end of the cache.
+ */
+class MemoryLruCache<K, V>(
+    private val maxWeight: Long,
+    private val expireAfterWriteMs: Long = 0,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val weigher: (K, V) -> Int = { _, _ -> 1 }
+) {
+
+    private class Entry<V>(val value: V, val writtenAt: Long)
+
+    private val entries = LinkedHashMap<K, Entry<V>>(16, 0.75f, true)
+    private var currentWeight = 0L
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    private var expirations = 0L
+
+    @Synchronized
+    fun get(key: K): V? {
+        val entry = entries[key]
+        if (entry != null && isExpired(entry, clock())) {
+            removeEntry(key, entry)
+            expirations++
+            misses++
+            return null
+        }
+        if (entry != null) hits++ else misses++
+        return entry?.value
+    }
+
+    @Synchronized
+    fun put(key: K, value: V) {
+        val now = clock()
+        entries.put(key, Entry(value, now))?.let { currentWeight -= weigher(key, it.value) }
+        currentWeight += weigher(key, value)
+        evictToFit(now)
+    }
+
+    @Synchronized
+    fun remove(key: K): V? {
+        val entry = entries[key] ?: return null
+        removeEntry(key, entry)
+        return entry.value
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        currentWeight = 0
+    }
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    @Synchronized
+    fun getStats(): Map<String, Any> = mapOf(
+        "entries" to entries.size,
+        "weight" to currentWeight,
+        "maxWeight" to maxWeight,
+        "hits" to hits,
+        "misses" to misses,
+        "hitRate" to if (hits + misses == 0L) 0.0 else hits / (hits + misses).toDouble(),
+        "evictions" to evictions,
+        "expirations" to expirations
+    )
+
+    private fun evictToFit(now: Long) {
+        val iterator = entries.entries.iterator()
+        while (iterator.hasNext()) {
+            val eldest = iterator.next()
+            val expired = isExpired(eldest.value, now)
+            if (!expired && currentWeight <= maxWeight) break
+
+            currentWeight -= weigher(eldest.key, eldest.value.value)
+            iterator.remove()
+            if (expired) expirations++ else evictions++
+        }
+    }
+
+    private fun removeEntry(key: K, entry: Entry<V>) {
+        entries.remove(key)
+        currentWeight -= weigher(key, entry.value)
+    }
+
+    private fun isExpired(entry: Entry<V>, now: Long): Boolean {
+        return expireAfterWriteMs > 0 && now - entry.writtenAt >= expireAfterWriteMs
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Shared filtering and ordering of memory queries for storage implementations
+ */
+package com.sallie.core.memory
+
+/**
+ * Applies the filters and sort order of a [HierarchicalMemorySystem.MemoryQuery] to a set of
+ * candidate memories. Storage implementations decide which candidates to load; this object
+ * keeps the query semantics identical across them.
+ */
+internal object MemoryQueryEvaluator {
+
+    fun evaluate(
+        memories: Collection<HierarchicalMemorySystem.MemoryItem>,
+        query: HierarchicalMemorySystem.MemoryQuery
+    ): List<HierarchicalMemorySystem.MemoryItem> {
+        var candidates = if (query.types.isEmpty()) {
+            memories
+        } else {
+            memories.filter { it.type in query.types }
+        }
+
+        // Apply text search filter
+        if (query.searchText.isNotEmpty()) {
+            val searchTerms = query.searchText.lowercase().split(" ")
+            candidates = candidates.filter { memory ->
+                searchTerms.any { term ->
+                    memory.content.lowercase().contains(term)
+                }
+            }
+        }
+
+        // Apply certainty filter
+        if (query.minCertainty > 0) {
+            candidates = candidates.filter { it.certainty >= query.minCertainty }
+        }
+
+        // Apply emotional filter
+        if (query.emotionalFilter != null) {
+            candidates = candidates.filter {
+                it.emotionalValence >= query.emotionalFilter.first &&
+                it.emotionalValence <= query.emotionalFilter.second
+            }
+        }
+
+        // Apply temporal filter
+        if (query.temporalFilter != null) {
+            candidates = candidates.filter {
+                it.created >= query.temporalFilter.first &&
+                it.created <= query.temporalFilter.second
+            }
+        }
+
+        // Apply context tags filter
+        if (query.contextTags.isNotEmpty()) {
+            candidates = candidates.filter { memory ->
+                val memoryTags = memory.metadata["tags"]?.split(",") ?: emptyList()
+                query.contextTags.any { tag -> memoryTags.contains(tag) }
+            }
+        }
+
+        // Apply entity filter
+        if (query.associatedEntityFilter.isNotEmpty()) {
+            candidates = candidates.filter { memory ->
+                query.associatedEntityFilter.any { entity ->
+                    memory.context.associatedEntities.contains(entity)
+                }
+            }
+        }
+
+        // Apply reinforcement filter
+        if (query.reinforcementFilter != null) {
+            candidates = candidates.filter { it.reinforcementScore >= query.reinforcementFilter }
+        }
+
+        // Sort the results
+        val sorted = when (query.sortBy) {
+            HierarchicalMemorySystem.SortCriteria.SALIENCE ->
+                candidates.sortedByDescending { it.calculateSalience() }
+            HierarchicalMemorySystem.SortCriteria.RECENCY ->
+                candidates.sortedByDescending { it.lastAccessed }
+            HierarchicalMemorySystem.SortCriteria.PRIORITY ->
+                candidates.sortedByDescending { it.priority }
+            HierarchicalMemorySystem.SortCriteria.EMOTIONAL ->
+                candidates.sortedByDescending { Math.abs(it.emotionalValence) * it.emotionalIntensity }
+            HierarchicalMemorySystem.SortCriteria.RELEVANCE -> {
+                if (query.searchText.isEmpty()) {
+                    candidates.sortedByDescending { it.calculateSalience() }
+                } else {
+                    // Simple relevance scoring based on term frequency
+                    val searchTerms = query.searchText.lowercase().split(" ")
+                    candidates.sortedByDescending { memory ->
+                        var score = 0.0
+                        searchTerms.forEach { term ->
+                            // Count occurrences of term in content
+                            val regex = "\\b$term\\b".toRegex(RegexOption.IGNORE_CASE)
+                            val occurrences = regex.findAll(memory.content).count()
+                            score += occurrences
+                        }
+                        score
+                    }
+                }
+            }
+        }
+
+        // Apply limit
+        return sorted.take(query.limit)
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Index-driven query planning for the hierarchical memory system
+ */
+package com.sallie.core.memory
+
+import java.util.NavigableMap
+
+/**
+ * MemoryQueryPlanner turns a [HierarchicalMemorySystem.MemoryQuery] into a candidate ID set
+ * using the secondary indexes kept by [HierarchicalMemorySystem].
+ *
+ * Every predicate that an index can answer contributes the posting sets that match it.
+ * Their cardinality is estimated from the posting sizes alone; the cheapest predicate
+ * drives the plan and is the only one enumerated, while the others are probed per
+ * candidate, most selective first. Predicates without a usable index fall back to a scan
+ * of the requested type stores. Index results are a superset of the true matches, so
+ * callers still verify each candidate.
+ */
+internal class MemoryQueryPlanner(
+    private val contentIndex: ContentTermIndex,
+    private val tagIndex: Map<String, Set<String>>,
+    private val timeIndex: NavigableMap<Long, out Set<String>>,
+    private val emotionIndex: Map<String, Set<String>>,
+    private val entityIndex: Map<String, Set<String>>
+) {
+
+    /**
+     * Candidate IDs for a query, or null when no index applies and the type stores
+     * must be scanned
+     */
+    data class Plan(
+        val candidateIds: Set<String>?,
+        val stats: HierarchicalMemorySystem.QueryPlanStats
+    )
+
+    /**
+     * The posting sets matching one predicate, left unmerged until they are needed
+     */
+    private class IndexAccess(val name: String, private val postings: List<Set<String>>) {
+        // Upper bound on the matching IDs; exact when a single posting set matched
+        val estimate = postings.sumOf { it.size }
+
+        // Many-way membership probes are cheaper against a merged set
+        private val merged by lazy(LazyThreadSafetyMode.NONE) { postings.flatMapTo(HashSet()) { it } }
+
+        fun ids(): Sequence<String> =
+            if (postings.size == 1) postings[0].asSequence() else postings.asSequence().flatten().distinct()
+
+        fun contains(id: String): Boolean =
+            if (postings.size <= MAX_PROBED_POSTINGS) postings.any { id in it } else id in merged
+    }
+
+    fun plan(query: HierarchicalMemorySystem.MemoryQuery, scanSize: Int): Plan {
+        val startTime = System.nanoTime()
+        val accesses = mutableListOf<IndexAccess>()
+
+        if (query.searchText.isNotEmpty()) {
+            contentFragments(query.searchText)?.let { fragments ->
+                accesses.add(IndexAccess("content", contentIndex.postingsContaining(fragments)))
+            }
+        }
+
+        if (query.associatedEntityFilter.isNotEmpty()) {
+            accesses.add(IndexAccess("entity", postingsFor(entityIndex, query.associatedEntityFilter)))
+        }
+
+        // Tags are matched as substrings of the raw tag string, so only plain tags can be
+        // answered by the split tag index
+        if (query.contextTags.isNotEmpty() && query.contextTags.all { it.isNotEmpty() && ',' !in it && it == it.trim() }) {
+            accesses.add(IndexAccess("tag", postingsContaining(tagIndex, query.contextTags)))
+        }
+
+        query.temporalFilter?.let { (from, to) ->
+            val buckets = if (from <= to) {
+                timeIndex.subMap(dayOf(from), true, dayOf(to), true).values.toList()
+            } else {
+                emptyList()
+            }
+            accesses.add(IndexAccess("time", buckets))
+        }
+
+        query.emotionalFilter?.let { (low, high) ->
+            val categories = VALENCE_CATEGORIES
+                .filter { (_, range) -> low <= range.endInclusive && high >= range.start }
+                .map { it.first }
+            accesses.add(IndexAccess("emotion", postingsFor(emotionIndex, categories)))
+        }
+
+        // Cheapest predicate drives; the rest are probed in order of selectivity
+        accesses.sortBy { it.estimate }
+        val driver = accesses.firstOrNull()
+
+        var candidates: Set<String>? = null
+        val indexesUsed = mutableListOf<String>()
+        if (driver != null) {
+            val probes = accesses.drop(1)
+            indexesUsed.add(driver.name)
+            if (driver.estimate > 0) probes.mapTo(indexesUsed) { it.name }
+            candidates = driver.ids().filterTo(HashSet()) { id -> probes.all { it.contains(id) } }
+        }
+
+        val stats = HierarchicalMemorySystem.QueryPlanStats(
+            accessPath = if (candidates == null) "scan" else "index",
+            indexesUsed = indexesUsed,
+            postingSizes = accesses.associate { it.name to it.estimate },
+            candidatesExamined = candidates?.size ?: scanSize,
+            planningTimeNanos = System.nanoTime() - startTime
+        )
+        return Plan(candidates, stats)
+    }
+
+    /**
+     * Whitespace-free fragments that every content match must contain within one of its
+     * terms, or null when a search term has none and the text cannot narrow the candidates.
+     * Search terms are split on single spaces, as in [MemoryQueryEvaluator].
+     */
+    private fun contentFragments(searchText: String): List<String>? {
+        val fragments = mutableListOf<String>()
+        for (term in searchText.lowercase().split(" ")) {
+            val pieces = term.split(WHITESPACE).filter { it.isNotEmpty() }
+            if (pieces.isEmpty()) return null
+            fragments.addAll(pieces)
+        }
+        return fragments
+    }
+
+    private fun postingsFor(index: Map<String, Set<String>>, keys: Collection<String>): List<Set<String>> =
+        keys.distinct().mapNotNull { index[it] }
+
+    private fun postingsContaining(index: Map<String, Set<String>>, fragments: Collection<String>): List<Set<String>> =
+        index.entries.filter { (key, _) -> fragments.any { key.contains(it) } }.map { it.value }
+
+    companion object {
+        private const val DAY_MILLIS = 24 * 60 * 60 * 1000L
+
+        // Above this many posting sets a predicate is merged once rather than probed set by set
+        private const val MAX_PROBED_POSTINGS = 8
+
+        private val WHITESPACE = Regex("\\s+")
+
+        // Valence ranges of the emotion index categories (see HierarchicalMemorySystem.updateEmotionIndex);
+        // the outer categories are open-ended like the thresholds that assign them
+        private val VALENCE_CATEGORIES = listOf(
+            "very_positive" to 0.7..Double.POSITIVE_INFINITY,
+            "positive" to 0.3..0.7,
+            "neutral" to -0.3..0.3,
+            "negative" to -0.7..-0.3,
+            "very_negative" to Double.NEGATIVE_INFINITY..-0.7
+        )
+
+        fun dayOf(timestamp: Long): Long = timestamp / DAY_MILLIS * DAY_MILLIS
+    }
+}
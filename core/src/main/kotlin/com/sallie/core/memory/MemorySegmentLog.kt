@@ -0,0 +1,581 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Append-only segment log with group commit and compaction for memory persistence
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.CRC32
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * MemorySegmentLog is a Bitcask-style key/value engine: every write is appended to the
+ * active segment file and an in-memory key directory maps each key to the offset of its
+ * latest record. Values are never loaded until they are read.
+ *
+ * - Writes are queued and group-committed: the writer drains every pending batch,
+ *   appends them, and issues a single fsync before acknowledging all of them.
+ * - Full segments are sealed with a hint file (keys and offsets only), so opening the log
+ *   reads hints instead of scanning record payloads.
+ * - Once dead records dominate the sealed segments, live records are copied into fresh
+ *   segments and the old files are removed.
+ *
+ * Record layout: [length:int][crc32:int][sequence:long][op:byte][tag:byte][keyLength:short][key][payload]
+ * where length and crc cover everything after the crc.
+ */
+class MemorySegmentLog(
+    private val directory: File,
+    private val maxSegmentBytes: Long = 8L * 1024 * 1024,
+    private val compactionThreshold: Double = 0.5,
+    private val maxBatchEntries: Int = 1024
+) : Closeable {
+
+    /**
+     * A write to apply: a value for [key], or a tombstone when [payload] is null.
+     * [tag] is an application-defined byte (e.g. memory type) kept in the key directory.
+     */
+    class Entry(val key: String, val tag: Int, val payload: ByteArray?)
+
+    private class Location(
+        val segmentId: Int,
+        val offset: Long,
+        val length: Int,
+        val tag: Int,
+        val sequence: Long
+    )
+
+    private class Segment(val id: Int, val file: File) {
+        val channel: FileChannel = RandomAccessFile(file, "rw").channel
+        var size: Long = channel.size()
+        var liveBytes: Long = 0
+    }
+
+    private class PendingWrite(
+        val entries: List<Entry>,
+        val compact: Boolean,
+        val clear: Boolean = false,
+        val done: CompletableDeferred<Unit> = CompletableDeferred()
+    )
+
+    private val lock = ReentrantReadWriteLock()
+    private val keyDirectory = HashMap<String, Location>()
+    private val segments = sortedMapOf<Int, Segment>()
+    private lateinit var activeSegment: Segment
+    private var nextSequence = 0L
+
+    private val writeQueue = Channel<PendingWrite>(Channel.UNLIMITED)
+    private val writerScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val writerJob: Job
+
+    private var committedBatches = 0L
+    private var committedEntries = 0L
+    private var compactions = 0L
+
+    init {
+        directory.mkdirs()
+        openSegments()
+        writerJob = writerScope.launch { runWriter() }
+    }
+
+    /**
+     * Number of live keys
+     */
+    val size: Int
+        get() = lock.read { keyDirectory.size }
+
+    /**
+     * Append a batch of entries; returns once they are durable on disk
+     */
+    suspend fun write(entries: List<Entry>) {
+        if (entries.isEmpty()) return
+        submit(PendingWrite(entries, compact = false))
+    }
+
+    /**
+     * Rewrite sealed segments so only live records remain
+     */
+    suspend fun compact() {
+        submit(PendingWrite(emptyList(), compact = true))
+    }
+
+    /**
+     * Read the latest value stored under [key]
+     */
+    fun read(key: String): ByteArray? {
+        while (true) {
+            val (location, segment) = lock.read {
+                val location = keyDirectory[key] ?: return null
+                Pair(location, segments[location.segmentId] ?: return null)
+            }
+            try {
+                return readPayload(segment, location)
+            } catch (e: ClosedChannelException) {
+                // Compaction retires a segment only after moving its keys, so retry at the new
+                // location; an unchanged location means the log itself was closed
+                if (lock.read { keyDirectory[key] } === location) return null
+            }
+        }
+    }
+
+    fun contains(key: String): Boolean = lock.read { keyDirectory.containsKey(key) }
+
+    fun tagOf(key: String): Int? = lock.read { keyDirectory[key]?.tag }
+
+    /**
+     * Keys currently live, optionally restricted to one tag
+     */
+    fun keys(tag: Int? = null): List<String> = lock.read {
+        if (tag == null) {
+            keyDirectory.keys.toList()
+        } else {
+            keyDirectory.entries.filter { it.value.tag == tag }.map { it.key }
+        }
+    }
+
+    /**
+     * Remove every segment and start an empty log. Runs on the writer like any write, so
+     * writes queued before it are discarded and writes queued after it survive.
+     */
+    suspend fun clear() {
+        submit(PendingWrite(emptyList(), compact = false, clear = true))
+    }
+
+    private fun clearSegments() {
+        lock.write {
+            segments.values.forEach { segment ->
+                segment.channel.close()
+                segment.file.delete()
+                hintFileFor(segment.id).delete()
+            }
+            segments.clear()
+            keyDirectory.clear()
+            activeSegment = createSegment(1)
+        }
+    }
+
+    fun getStats(): Map<String, Any> = lock.read {
+        val totalBytes = segments.values.sumOf { it.size }
+        val liveBytes = segments.values.sumOf { it.liveBytes }
+        mapOf(
+            "keys" to keyDirectory.size,
+            "segments" to segments.size,
+            "totalBytes" to totalBytes,
+            "liveBytes" to liveBytes,
+            "committedBatches" to committedBatches,
+            "committedEntries" to committedEntries,
+            "averageBatchSize" to if (committedBatches == 0L) 0.0 else committedEntries / committedBatches.toDouble(),
+            "compactions" to compactions
+        )
+    }
+
+    /**
+     * Stop accepting writes, let the writer commit everything already queued so no caller
+     * is left waiting, then release the segment files
+     */
+    override fun close() {
+        writeQueue.close()
+        runBlocking { writerJob.join() }
+        writerScope.cancel()
+        lock.write {
+            segments.values.forEach { it.channel.close() }
+        }
+    }
+
+    private suspend fun submit(pending: PendingWrite) {
+        writeQueue.send(pending)
+        pending.done.await()
+    }
+
+    private suspend fun runWriter() {
+        for (first in writeQueue) {
+            val batch = mutableListOf(first)
+            var entryCount = first.entries.size
+            while (entryCount < maxBatchEntries) {
+                val next = writeQueue.tryReceive().getOrNull() ?: break
+                batch.add(next)
+                entryCount += next.entries.size
+            }
+            runWriterBatch(batch)
+        }
+    }
+
+    private fun runWriterBatch(batch: List<PendingWrite>) {
+        try {
+            // Everything queued before the last clear in the batch would be wiped by it anyway
+            val lastClear = batch.indexOfLast { it.clear }
+            if (lastClear >= 0) {
+                clearSegments()
+            }
+            val entries = batch.subList(lastClear + 1, batch.size).flatMap { it.entries }
+            if (entries.isNotEmpty()) {
+                append(entries)
+                activeSegment.channel.force(false)
+                committedBatches++
+                committedEntries += entries.size
+            }
+            if (batch.any { it.compact } || shouldCompact()) {
+                compactSealedSegments()
+            }
+            batch.forEach { it.done.complete(Unit) }
+        } catch (e: Exception) {
+            batch.forEach { it.done.completeExceptionally(e) }
+        }
+    }
+
+    private fun append(entries: List<Entry>) {
+        lock.write {
+            for (entry in entries) {
+                val record = encodeRecord(entry, nextSequence++)
+                if (activeSegment.size > 0 && activeSegment.size + record.size > maxSegmentBytes) {
+                    sealActiveSegment()
+                }
+
+                val offset = activeSegment.size
+                writeFully(activeSegment.channel, ByteBuffer.wrap(record), offset)
+                activeSegment.size += record.size
+
+                keyDirectory.remove(entry.key)?.let { previous ->
+                    segments[previous.segmentId]?.let { it.liveBytes -= previous.length }
+                }
+                if (entry.payload != null) {
+                    keyDirectory[entry.key] = Location(activeSegment.id, offset, record.size, entry.tag, nextSequence - 1)
+                    activeSegment.liveBytes += record.size
+                }
+            }
+        }
+    }
+
+    private fun sealActiveSegment() {
+        activeSegment.channel.force(false)
+        writeHintFile(activeSegment)
+        activeSegment = createSegment(activeSegment.id + 1)
+    }
+
+    private fun shouldCompact(): Boolean = lock.read {
+        val sealed = segments.values.filter { it.id != activeSegment.id }
+        if (sealed.isEmpty()) return@read false
+        val totalBytes = sealed.sumOf { it.size }
+        val liveBytes = sealed.sumOf { it.liveBytes }
+        totalBytes > 0 && (totalBytes - liveBytes) >= totalBytes * compactionThreshold
+    }
+
+    /**
+     * Copy live records of every sealed segment into new segments numbered after the active
+     * one. Runs on the writer coroutine, so the key directory only changes under our feet
+     * through reads; readers keep using the old files until the swap.
+     */
+    private fun compactSealedSegments() {
+        val sealedIds: List<Int>
+        val liveRecords: List<Pair<String, Location>>
+        lock.read {
+            sealedIds = segments.keys.filter { it != activeSegment.id }
+            val sealedSet = sealedIds.toSet()
+            liveRecords = keyDirectory.entries
+                .filter { it.value.segmentId in sealedSet }
+                .map { Pair(it.key, it.value) }
+                .sortedBy { it.second.sequence }
+        }
+        if (sealedIds.isEmpty()) return
+
+        // Compacted segments take IDs after the active segment; sequence numbers, not segment
+        // order, decide which record wins when the log is reopened.
+        var nextId = activeSegment.id + 1
+        var output = createDetachedSegment(nextId++)
+        val outputs = mutableListOf(output)
+        val relocated = HashMap<String, Location>()
+
+        for ((key, location) in liveRecords) {
+            val source = lock.read { segments[location.segmentId] } ?: continue
+            val buffer = ByteBuffer.allocate(location.length)
+            readFully(source.channel, buffer, location.offset)
+            buffer.flip()
+
+            if (output.size > 0 && output.size + location.length > maxSegmentBytes) {
+                output = createDetachedSegment(nextId++)
+                outputs.add(output)
+            }
+            val offset = output.size
+            writeFully(output.channel, buffer, offset)
+            output.size += location.length
+            output.liveBytes += location.length
+            relocated[key] = Location(output.id, offset, location.length, location.tag, location.sequence)
+        }
+
+        outputs.forEach { segment ->
+            segment.channel.force(false)
+            writeHintFile(segment)
+        }
+
+        lock.write {
+            for (segment in outputs) {
+                segments[segment.id] = segment
+            }
+            for ((key, location) in relocated) {
+                keyDirectory[key] = location
+            }
+            for (id in sealedIds) {
+                val segment = segments.remove(id) ?: continue
+                segment.channel.close()
+                segment.file.delete()
+                hintFileFor(id).delete()
+            }
+
+            // Keep the active segment last so future rolls never collide with compacted IDs
+            val active = activeSegment
+            activeSegment = createSegment(nextId)
+            if (active.size == 0L) {
+                segments.remove(active.id)
+                active.channel.close()
+                active.file.delete()
+            } else {
+                writeHintFile(active)
+            }
+            compactions++
+        }
+    }
+
+    private fun openSegments() {
+        val files = directory.listFiles { file -> file.name.endsWith(SEGMENT_SUFFIX) }
+            ?.sortedBy { segmentIdOf(it) }
+            ?: emptyList()
+
+        for (file in files) {
+            val segment = Segment(segmentIdOf(file), file)
+            segments[segment.id] = segment
+            val hintFile = hintFileFor(segment.id)
+            if (hintFile.exists() && loadHintFile(segment, hintFile)) continue
+            scanSegment(segment)
+        }
+
+        // Keep appending to an unsealed last segment; otherwise start a new one
+        val last = if (segments.isEmpty()) null else segments[segments.lastKey()]
+        activeSegment = if (last != null && !hintFileFor(last.id).exists() && last.size < maxSegmentBytes) {
+            last
+        } else {
+            createSegment((last?.id ?: 0) + 1)
+        }
+    }
+
+    /**
+     * Rebuild key directory entries by walking a segment's records. A torn or corrupt tail
+     * (e.g. from a crash mid-append) is truncated.
+     */
+    private fun scanSegment(segment: Segment) {
+        var offset = 0L
+        val header = ByteBuffer.allocate(RECORD_HEADER_BYTES)
+
+        while (offset + RECORD_HEADER_BYTES <= segment.size) {
+            header.clear()
+            readFully(segment.channel, header, offset)
+            header.flip()
+            val length = header.int
+            val checksum = header.int
+            if (length <= 0 || offset + 8 + length > segment.size) break
+
+            val body = ByteBuffer.allocate(length)
+            readFully(segment.channel, body, offset + 8)
+            val crc = CRC32().apply { update(body.array(), 0, length) }
+            if (crc.value.toInt() != checksum) break
+
+            body.flip()
+            val sequence = body.long
+            val op = body.get().toInt()
+            val tag = body.get().toInt()
+            val key = ByteArray(body.short.toInt()).also { body.get(it) }.toString(Charsets.UTF_8)
+            applyLoadedRecord(segment, key, Location(segment.id, offset, 8 + length, tag, sequence), op == OP_DELETE)
+            offset += 8 + length
+        }
+
+        if (offset < segment.size) {
+            println("Truncating corrupt tail of ${segment.file.name} at offset $offset")
+            segment.channel.truncate(offset)
+            segment.size = offset
+        }
+    }
+
+    private fun loadHintFile(segment: Segment, hintFile: File): Boolean {
+        return try {
+            DataInputStream(hintFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != HINT_MAGIC) return false
+                val count = input.readInt()
+                repeat(count) {
+                    val op = input.readByte().toInt()
+                    val tag = input.readByte().toInt()
+                    val sequence = input.readLong()
+                    val offset = input.readLong()
+                    val length = input.readInt()
+                    val key = input.readUTF()
+                    applyLoadedRecord(segment, key, Location(segment.id, offset, length, tag, sequence), op == OP_DELETE)
+                }
+            }
+            true
+        } catch (e: IOException) {
+            println("Ignoring unreadable hint file ${hintFile.name}: ${e.message}")
+            false
+        }
+    }
+
+    private fun applyLoadedRecord(segment: Segment, key: String, location: Location, isDelete: Boolean) {
+        nextSequence = maxOf(nextSequence, location.sequence + 1)
+
+        val current = keyDirectory[key]
+        if (current != null && current.sequence > location.sequence) return
+        if (current != null) {
+            segments[current.segmentId]?.let { it.liveBytes -= current.length }
+        }
+
+        if (isDelete) {
+            keyDirectory.remove(key)
+        } else {
+            keyDirectory[key] = location
+            segment.liveBytes += location.length
+        }
+    }
+
+    /**
+     * Hint files list every record of a sealed segment, tombstones included, so the
+     * key directory can be rebuilt without reading payloads.
+     */
+    private fun writeHintFile(segment: Segment) {
+        val records = mutableListOf<Triple<String, Location, Int>>()
+        var offset = 0L
+        val header = ByteBuffer.allocate(RECORD_HEADER_BYTES)
+        while (offset + RECORD_HEADER_BYTES <= segment.size) {
+            header.clear()
+            readFully(segment.channel, header, offset)
+            header.flip()
+            val length = header.int
+            header.int // checksum
+            val sequence = header.long
+            val op = header.get().toInt()
+            val tag = header.get().toInt()
+            val keyBytes = ByteArray(header.short.toInt())
+            readFully(segment.channel, ByteBuffer.wrap(keyBytes), offset + RECORD_HEADER_BYTES)
+            records.add(Triple(keyBytes.toString(Charsets.UTF_8), Location(segment.id, offset, 8 + length, tag, sequence), op))
+            offset += 8 + length
+        }
+
+        val hintFile = hintFileFor(segment.id)
+        val tempFile = File(hintFile.path + ".tmp")
+        DataOutputStream(tempFile.outputStream().buffered()).use { out ->
+            out.writeInt(HINT_MAGIC)
+            out.writeInt(records.size)
+            for ((key, location, op) in records) {
+                out.writeByte(op)
+                out.writeByte(location.tag)
+                out.writeLong(location.sequence)
+                out.writeLong(location.offset)
+                out.writeInt(location.length)
+                out.writeUTF(key)
+            }
+        }
+        Files.move(tempFile.toPath(), hintFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun readPayload(segment: Segment, location: Location): ByteArray? {
+        val buffer = ByteBuffer.allocate(location.length)
+        return try {
+            readFully(segment.channel, buffer, location.offset)
+            buffer.flip()
+            buffer.int // length
+            val checksum = buffer.int
+            val crc = CRC32().apply { update(buffer.array(), 8, location.length - 8) }
+            if (crc.value.toInt() != checksum) {
+                throw IOException("Checksum mismatch in ${segment.file.name} at ${location.offset}")
+            }
+            buffer.position(RECORD_HEADER_BYTES - 2)
+            val keyLength = buffer.short.toInt()
+            buffer.position(buffer.position() + keyLength)
+            ByteArray(buffer.remaining()).also { buffer.get(it) }
+        } catch (e: ClosedChannelException) {
+            throw e
+        } catch (e: IOException) {
+            println("Failed to read record from ${segment.file.name}: ${e.message}")
+            null
+        }
+    }
+
+    private fun encodeRecord(entry: Entry, sequence: Long): ByteArray {
+        val keyBytes = entry.key.toByteArray(Charsets.UTF_8)
+        require(keyBytes.size <= Short.MAX_VALUE) { "Key too long: ${entry.key.take(32)}..." }
+        val payload = entry.payload ?: ByteArray(0)
+        val bodyLength = 8 + 1 + 1 + 2 + keyBytes.size + payload.size
+
+        val buffer = ByteBuffer.allocate(8 + bodyLength)
+        buffer.putInt(bodyLength)
+        buffer.putInt(0) // checksum placeholder
+        buffer.putLong(sequence)
+        buffer.put((if (entry.payload == null) OP_DELETE else OP_PUT).toByte())
+        buffer.put(entry.tag.toByte())
+        buffer.putShort(keyBytes.size.toShort())
+        buffer.put(keyBytes)
+        buffer.put(payload)
+
+        val crc = CRC32().apply { update(buffer.array(), 8, bodyLength) }
+        buffer.putInt(4, crc.value.toInt())
+        return buffer.array()
+    }
+
+    private fun createSegment(id: Int): Segment {
+        val segment = createDetachedSegment(id)
+        segments[id] = segment
+        return segment
+    }
+
+    private fun createDetachedSegment(id: Int): Segment =
+        Segment(id, File(directory, "segment-%06d$SEGMENT_SUFFIX".format(id)))
+
+    private fun hintFileFor(segmentId: Int) = File(directory, "segment-%06d$HINT_SUFFIX".format(segmentId))
+
+    private fun segmentIdOf(file: File): Int =
+        file.name.removePrefix("segment-").removeSuffix(SEGMENT_SUFFIX).toIntOrNull() ?: 0
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var written = 0L
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written)
+        }
+    }
+
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var read = 0L
+        while (buffer.hasRemaining()) {
+            val count = channel.read(buffer, position + read)
+            if (count < 0) throw EOFException("Unexpected end of segment at ${position + read}")
+            read += count
+        }
+    }
+
+    companion object {
+        private const val SEGMENT_SUFFIX = ".log"
+        private const val HINT_SUFFIX = ".hint"
+        private const val HINT_MAGIC = 0x53484e54 // "SHNT"
+        private const val OP_PUT = 1
+        private const val OP_DELETE = 2
+
+        // length + crc + sequence + op + tag + keyLength
+        private const val RECORD_HEADER_BYTES = 4 + 4 + 8 + 1 + 1 + 2
+    }
+}
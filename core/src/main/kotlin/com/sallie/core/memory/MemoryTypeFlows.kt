@@ -0,0 +1,42 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Per-type memory flows shared by the memory storage services
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.update
+
+/**
+ * MemoryTypeFlows turns writes into per-type change notifications. The storage keeps only a
+ * version counter per memory type; a type's list is reloaded when a collector is active and
+ * the type changes, so no list is retained between collections. Bursts of writes are
+ * conflated into a single reload.
+ */
+internal class MemoryTypeFlows {
+
+    private val versions = HierarchicalMemorySystem.MemoryType.values().associateWith { MutableStateFlow(0L) }
+
+    fun observe(
+        type: HierarchicalMemorySystem.MemoryType,
+        load: () -> List<HierarchicalMemorySystem.MemoryItem>
+    ): Flow<List<HierarchicalMemorySystem.MemoryItem>> =
+        versions.getValue(type)
+            .map { load() }
+            .flowOn(Dispatchers.IO)
+
+    /**
+     * Signal that memories of [type] were written or deleted
+     */
+    fun changed(type: HierarchicalMemorySystem.MemoryType) {
+        versions.getValue(type).update { it + 1 }
+    }
+
+    fun clear() {
+        HierarchicalMemorySystem.MemoryType.values().forEach { changed(it) }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Time-decayed salience ordering for memory pruning and top-k recall
+ */
+package com.sallie.core.memory
+
+import java.util.TreeSet
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.math.exp
+import kotlin.math.ln
+
+/**
+ * SalienceIndex keeps every memory ordered by its current salience without recomputing it.
+ *
+ * Salience is `base * exp(-decay * (now - lastAccessed))`, where only the exponential
+ * recency factor depends on time. In log space that is `ln(base) + decay * lastAccessed -
+ * decay * now`, so the first two terms form a key that never changes while a memory is
+ * untouched and the ordering holds for every `now`. Updates, removals, top-k and
+ * prune-below-threshold queries are O(log N) plus the number of results.
+ *
+ * Salience is decayed continuously here rather than in the whole hours used by
+ * [HierarchicalMemorySystem.MemoryItem.calculateSalience].
+ */
+class SalienceIndex(decayPerHour: Double = HierarchicalMemorySystem.MemoryItem.RECENCY_DECAY_PER_HOUR) {
+
+    private class Entry(val id: String, val key: Double)
+
+    private val decayPerMilli = decayPerHour / HOUR_MILLIS
+
+    private val ordered = TreeSet<Entry>(compareBy<Entry> { it.key }.thenBy { it.id })
+    private val entries = HashMap<String, Entry>()
+
+    private val lock = ReentrantReadWriteLock()
+
+    val size: Int
+        get() = lock.read { entries.size }
+
+    /**
+     * Insert or re-key a memory after it was stored, accessed or modified
+     */
+    fun update(item: HierarchicalMemorySystem.MemoryItem) {
+        val entry = Entry(item.id, ln(item.calculateBaseSalience()) + decayPerMilli * item.lastAccessed)
+        lock.write {
+            entries.put(item.id, entry)?.let { ordered.remove(it) }
+            ordered.add(entry)
+        }
+    }
+
+    fun remove(id: String): Boolean = lock.write {
+        val entry = entries.remove(id) ?: return@write false
+        ordered.remove(entry)
+        true
+    }
+
+    fun salienceOf(id: String, now: Long = System.currentTimeMillis()): Double? = lock.read {
+        entries[id]?.let { salienceAt(it, now) }
+    }
+
+    /**
+     * The [k] most salient memories, highest first
+     */
+    fun mostSalient(k: Int, now: Long = System.currentTimeMillis()): List<Pair<String, Double>> = lock.read {
+        ordered.descendingIterator().asSequence()
+            .take(k)
+            .map { Pair(it.id, salienceAt(it, now)) }
+            .toList()
+    }
+
+    /**
+     * Memories whose salience is below [threshold], least salient first
+     */
+    fun below(threshold: Double, now: Long = System.currentTimeMillis(), limit: Int = Int.MAX_VALUE): List<String> = lock.read {
+        ordered.headSet(Entry("", keyFor(threshold, now)), false).asSequence()
+            .take(limit)
+            .map { it.id }
+            .toList()
+    }
+
+    /**
+     * Memories whose salience is above [threshold], most salient first
+     */
+    fun above(threshold: Double, now: Long = System.currentTimeMillis()): List<String> = lock.read {
+        // Entries with exactly the threshold key sort after the empty-ID probe; skip them
+        val boundary = keyFor(threshold, now)
+        ordered.tailSet(Entry("", boundary), true).descendingIterator().asSequence()
+            .filter { it.key > boundary }
+            .map { it.id }
+            .toList()
+    }
+
+    fun clear() = lock.write {
+        entries.clear()
+        ordered.clear()
+    }
+
+    fun getStats(now: Long = System.currentTimeMillis()): Map<String, Any> = lock.read {
+        mapOf(
+            "entries" to entries.size,
+            "maxSalience" to (ordered.lastOrNull()?.let { salienceAt(it, now) } ?: 0.0),
+            "minSalience" to (ordered.firstOrNull()?.let { salienceAt(it, now) } ?: 0.0)
+        )
+    }
+
+    private fun keyFor(salience: Double, now: Long): Double = ln(salience) + decayPerMilli * now
+
+    private fun salienceAt(entry: Entry, now: Long): Double = exp(entry.key - decayPerMilli * now)
+
+    companion object {
+        private const val HOUR_MILLIS = 60 * 60 * 1000.0
+    }
+}
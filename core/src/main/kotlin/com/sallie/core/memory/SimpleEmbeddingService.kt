@@ -17,15 +17,17 @@ import kotlin.random.Random
  * service using NLP models (like BERT, GPT, etc.). This implementation provides a simplified
  * approach that generates embeddings based on simple text characteristics.
  */
-class SimpleEmbeddingService : VectorMemoryIndexer.EmbeddingService {
+class SimpleEmbeddingService(
+    maxCachedWords: Int = 50_000
+) : VectorMemoryIndexer.EmbeddingService {
     
-    private val embeddingSize = 128
+    val embeddingSize = 128
     private val stopWords = setOf("the", "and", "a", "an", "in", "on", "at", "to", "for", "with", "by")
     private val seed = 42
     private val random = Random(seed)
     
-    // Cache of word -> embedding vector
-    private val wordEmbeddingCache = mutableMapOf<String, FloatArray>()
+    // Cache of word -> embedding vector, shared by concurrent embedding calls
+    private val wordEmbeddingCache = MemoryLruCache<String, FloatArray>(maxCachedWords.toLong())
     
     override suspend fun generateEmbedding(text: String): FloatArray? = withContext(Dispatchers.Default) {
         if (text.isBlank()) return@withContext null
@@ -54,7 +56,7 @@ class SimpleEmbeddingService : VectorMemoryIndexer.EmbeddingService {
      */
     private fun getWordEmbedding(word: String): FloatArray {
         // Return from cache if available
-        wordEmbeddingCache[word]?.let { return it }
+        wordEmbeddingCache.get(word)?.let { return it }
         
         // Generate a deterministic embedding based on the word
         val embedding = FloatArray(embeddingSize)
@@ -70,7 +72,7 @@ class SimpleEmbeddingService : VectorMemoryIndexer.EmbeddingService {
         normalize(embedding)
         
         // Cache the result
-        wordEmbeddingCache[word] = embedding
+        wordEmbeddingCache.put(word, embedding)
         
         return embedding
     }
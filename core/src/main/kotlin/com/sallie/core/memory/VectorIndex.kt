@@ -0,0 +1,152 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Pluggable vector index contract for nearest-neighbour memory retrieval
+ */
+package com.sallie.core.memory
+
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.sqrt
+
+/**
+ * Interface for vector indices used by [VectorMemoryIndexer] to answer
+ * nearest-neighbour queries over memory embeddings.
+ *
+ * Scores are cosine similarities in the range [-1, 1], highest first.
+ */
+interface VectorIndex {
+    /**
+     * Number of live vectors in the index
+     */
+    val size: Int
+
+    /**
+     * Insert a vector, replacing any existing vector stored under the same ID
+     */
+    fun add(id: String, vector: FloatArray)
+
+    /**
+     * Remove a vector from the index
+     */
+    fun remove(id: String): Boolean
+
+    /**
+     * Check whether a vector is stored under the given ID
+     */
+    fun contains(id: String): Boolean
+
+    /**
+     * Find the [k] vectors most similar to [query]
+     */
+    fun search(
+        query: FloatArray,
+        k: Int,
+        minScore: Double = -1.0,
+        excludeId: String? = null
+    ): List<Pair<String, Double>> // List of (memoryId, similarity)
+
+    /**
+     * Remove all vectors from the index
+     */
+    fun clear()
+
+    /**
+     * Get index statistics
+     */
+    fun getStats(): Map<String, Any>
+}
+
+/**
+ * Bounded top-k collector backed by a min-heap, so only the best [k] results
+ * are ever retained instead of sorting every scored candidate.
+ */
+internal class TopKCollector(private val k: Int) {
+
+    private val heap = PriorityQueue<Pair<String, Double>>(maxOf(k, 1), compareBy { it.second })
+
+    fun offer(id: String, score: Double) {
+        if (k <= 0) return
+        if (heap.size < k) {
+            heap.add(Pair(id, score))
+        } else if (score > heap.peek().second) {
+            heap.poll()
+            heap.add(Pair(id, score))
+        }
+    }
+
+    /**
+     * Drain the collector, highest score first
+     */
+    fun toSortedList(): List<Pair<String, Double>> {
+        val results = ArrayList<Pair<String, Double>>(heap.size)
+        while (heap.isNotEmpty()) {
+            results.add(heap.poll())
+        }
+        results.reverse()
+        return results
+    }
+}
+
+/**
+ * Exact vector index that scores every stored vector. Used as the recall baseline
+ * for approximate indices and for small memory stores where a scan is cheap.
+ */
+class BruteForceVectorIndex : VectorIndex {
+
+    private val vectors = ConcurrentHashMap<String, FloatArray>()
+
+    override val size: Int
+        get() = vectors.size
+
+    override fun add(id: String, vector: FloatArray) {
+        vectors[id] = normalizedCopy(vector)
+    }
+
+    override fun remove(id: String): Boolean = vectors.remove(id) != null
+
+    override fun contains(id: String): Boolean = vectors.containsKey(id)
+
+    override fun search(
+        query: FloatArray,
+        k: Int,
+        minScore: Double,
+        excludeId: String?
+    ): List<Pair<String, Double>> {
+        val normalizedQuery = normalizedCopy(query)
+        val collector = TopKCollector(k)
+
+        for ((id, vector) in vectors) {
+            if (id == excludeId) continue
+            val score = EmbeddingKernels.dot(normalizedQuery, vector)
+            if (score >= minScore) {
+                collector.offer(id, score)
+            }
+        }
+
+        return collector.toSortedList()
+    }
+
+    override fun clear() {
+        vectors.clear()
+    }
+
+    override fun getStats(): Map<String, Any> = mapOf(
+        "type" to "brute_force",
+        "vectors" to vectors.size
+    )
+}
+
+/**
+ * Copy a vector scaled to unit length so cosine similarity reduces to a dot product
+ */
+internal fun normalizedCopy(vector: FloatArray): FloatArray {
+    var sumOfSquares = 0.0
+    for (value in vector) {
+        sumOfSquares += value * value
+    }
+
+    val magnitude = sqrt(sumOfSquares)
+    if (magnitude <= 0.0) return vector.copyOf()
+
+    return FloatArray(vector.size) { (vector[it] / magnitude).toFloat() }
+}
@@ -10,21 +10,36 @@ import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
-import kotlin.math.sqrt
 
 /**
  * VectorMemoryIndexer provides an implementation of MemoryIndexer that uses
  * vector embeddings for semantic search and similarity detection.
+ *
+ * Nearest-neighbour queries are answered by a pluggable [VectorIndex]; the default
+ * [HnswVectorIndex] keeps retrieval sub-linear as the memory store grows and reads its
+ * vectors straight from the [EmbeddingStore]. Pass a file-backed store to keep embeddings
+ * across restarts so [rebuildIndices] only embeds memories whose content digest changed.
+ *
+ * Embeddings are computed through a [CachingEmbeddingService] before the index lock is
+ * taken; the lock only guards publishing the finished vectors into the indices.
  */
 class VectorMemoryIndexer(
-    private val embeddingService: EmbeddingService? = null
+    embeddingService: EmbeddingService? = null,
+    vectorIndex: VectorIndex? = null,
+    embeddingStore: EmbeddingStore? = null
 ) : MemoryIndexer {
 
-    // Memory embeddings: memory ID -> vector embedding
-    private val memoryEmbeddings = ConcurrentHashMap<String, FloatArray>()
+    private val embeddingService: EmbeddingService? =
+        embeddingService?.let { it as? CachingEmbeddingService ?: CachingEmbeddingService(it) }
+
+    // Memory embeddings, created on first use when no store is supplied
+    private var memoryEmbeddings: EmbeddingStore? = embeddingStore
+    
+    // Nearest-neighbour index; the default HNSW graph is built over the embedding store
+    private var vectorIndex: VectorIndex? = vectorIndex ?: embeddingStore?.let { HnswVectorIndex(it) }
     
-    // Keyword index: word -> memory IDs
-    private val keywordIndex = ConcurrentHashMap<String, MutableSet<String>>()
+    // Keyword index: interned word -> compressed postings of memory IDs
+    private val keywordIndex = InvertedIndex()
     
     // Entity index: entity name -> memory IDs
     private val entityIndex = ConcurrentHashMap<String, MutableSet<String>>()
@@ -32,29 +47,71 @@ class VectorMemoryIndexer(
     // Time index: timestamp bucket -> memory IDs
     private val timeIndex = sortedMapOf<Long, MutableSet<String>>()
     
-    // Cluster index: cluster ID -> memory IDs
-    private val clusterIndex = ConcurrentHashMap<String, MutableSet<String>>()
+    // Forward indices used to strip a memory from the entity and time indices directly
+    private val memoryEntities = HashMap<String, List<String>>()
+    private val memoryTimeBuckets = HashMap<String, Long>()
+    
+    // Cluster index: cluster ID -> memory IDs, maintained incrementally as memories are indexed
+    private val clusterIndex = IncrementalClusterIndex(vectorLookup = { id -> memoryEmbeddings?.get(id) })
     
     private val lock = ReentrantReadWriteLock()
     
     override suspend fun indexMemory(item: HierarchicalMemorySystem.MemoryItem) {
+        indexMemories(listOf(item))
+    }
+    
+    override suspend fun indexMemories(items: Collection<HierarchicalMemorySystem.MemoryItem>) {
+        // Embed outside the lock, then publish everything in one short critical section
+        val digests = items.map { EmbeddingStore.contentDigest(it.content) }
+        val embeddings = embedAll(items, digests)
+        
         lock.write {
-            // Index by keywords from content
-            indexKeywords(item)
-            
-            // Index by entities
-            indexEntities(item)
-            
-            // Index by time bucket (day resolution)
-            indexByTime(item)
-            
-            // Generate and store embedding if embedding service available
-            if (embeddingService != null) {
-                val embedding = embeddingService.generateEmbedding(item.content)
-                if (embedding != null) {
-                    memoryEmbeddings[item.id] = embedding
-                }
-            }
+            items.forEachIndexed { i, item -> publish(item, embeddings[i], digests[i]) }
+        }
+    }
+    
+    /**
+     * Embeddings for [items], reusing stored vectors whose content digest is unchanged and
+     * batch-generating the rest
+     */
+    private suspend fun embedAll(
+        items: Collection<HierarchicalMemorySystem.MemoryItem>,
+        digests: List<ByteArray>
+    ): List<FloatArray?> {
+        val service = embeddingService ?: return List(items.size) { null }
+        
+        val embeddings = lock.read {
+            items.mapIndexed { i, item -> memoryEmbeddings?.getIfCurrent(item.id, digests[i]) }.toMutableList()
+        }
+        
+        val missing = embeddings.indices.filter { embeddings[it] == null }
+        if (missing.isNotEmpty()) {
+            val itemList = items.toList()
+            val generated = service.generateEmbeddings(missing.map { itemList[it].content })
+            missing.forEachIndexed { i, index -> embeddings[index] = generated[i] }
+        }
+        
+        return embeddings
+    }
+    
+    /**
+     * Add a memory and its precomputed embedding to all indices; caller holds the write lock
+     */
+    private fun publish(item: HierarchicalMemorySystem.MemoryItem, embedding: FloatArray?, digest: ByteArray) {
+        // Index by keywords from content
+        indexKeywords(item)
+        
+        // Index by entities
+        indexEntities(item)
+        
+        // Index by time bucket (day resolution)
+        indexByTime(item)
+        
+        // Store the embedding if one was generated
+        if (embedding != null) {
+            embeddingStoreFor(embedding).put(item.id, embedding, digest)
+            vectorIndex?.add(item.id, embedding)
+            clusterIndex.assign(item.id, embedding)
         }
     }
     
@@ -68,20 +125,25 @@ class VectorMemoryIndexer(
     
     override suspend fun removeFromIndex(id: String) {
         lock.write {
-            // Remove from embeddings
-            memoryEmbeddings.remove(id)
+            // Remove from cluster index while the embedding is still available
+            clusterIndex.remove(id)
+            
+            // Remove from the vector index before its embedding row is released
+            vectorIndex?.remove(id)
+            memoryEmbeddings?.remove(id)
             
             // Remove from keyword index
-            keywordIndex.values.forEach { it.remove(id) }
+            keywordIndex.remove(id)
             
             // Remove from entity index
-            entityIndex.values.forEach { it.remove(id) }
+            unindexEntities(id)
             
             // Remove from time index
-            timeIndex.values.forEach { it.remove(id) }
-            
-            // Remove from cluster index
-            clusterIndex.values.forEach { it.remove(id) }
+            memoryTimeBuckets.remove(id)?.let { bucket ->
+                val memoryIds = timeIndex[bucket] ?: return@let
+                memoryIds.remove(id)
+                if (memoryIds.isEmpty()) timeIndex.remove(bucket)
+            }
         }
     }
     
@@ -94,18 +156,10 @@ class VectorMemoryIndexer(
             // Fall back to keyword-based search if no embedding service
             keywordSearch(query, limit)
         } else {
+            val queryEmbedding = embeddingService.generateEmbedding(query) ?: return@withContext emptyList()
+            
             lock.read {
-                val queryEmbedding = embeddingService.generateEmbedding(query) ?: return@withContext emptyList()
-                
-                val results = memoryEmbeddings.entries
-                    .map { (memoryId, embedding) -> 
-                        Pair(memoryId, cosineSimilarity(queryEmbedding, embedding))
-                    }
-                    .filter { it.second >= minScore }
-                    .sortedByDescending { it.second }
-                    .take(limit)
-                
-                results
+                vectorIndex?.search(queryEmbedding, limit, minScore) ?: emptyList()
             }
         }
     }
@@ -113,26 +167,10 @@ class VectorMemoryIndexer(
     private fun keywordSearch(query: String, limit: Int): List<Pair<String, Double>> {
         val terms = query.lowercase().split(Regex("\\s+"))
             .filter { it.length > 2 }
+        if (terms.isEmpty()) return emptyList()
         
-        val scores = mutableMapOf<String, Double>()
-        
-        lock.read {
-            for (term in terms) {
-                keywordIndex.keys
-                    .filter { it.contains(term) }
-                    .forEach { keyword ->
-                        val matchScore = term.length.toDouble() / keyword.length.toDouble()
-                        keywordIndex[keyword]?.forEach { memoryId ->
-                            scores[memoryId] = scores.getOrDefault(memoryId, 0.0) + matchScore
-                        }
-                    }
-            }
-        }
-        
-        return scores.entries
-            .sortedByDescending { it.value }
-            .take(limit)
-            .map { Pair(it.key, it.value / terms.size) } // Normalize score
+        return lock.read { keywordIndex.search(terms, limit) }
+            .map { Pair(it.first, it.second / terms.size) } // Normalize score
     }
     
     override suspend fun findSimilarMemories(
@@ -140,58 +178,46 @@ class VectorMemoryIndexer(
         limit: Int,
         minSimilarity: Double
     ): List<Pair<String, Double>> = withContext(Dispatchers.Default) {
-        if (embeddingService == null || !memoryEmbeddings.containsKey(memoryId)) {
+        if (embeddingService == null || memoryEmbeddings?.contains(memoryId) != true) {
             return@withContext emptyList()
         }
         
         lock.read {
-            val sourceEmbedding = memoryEmbeddings[memoryId] ?: return@withContext emptyList()
+            val sourceEmbedding = memoryEmbeddings?.get(memoryId) ?: return@withContext emptyList()
             
-            val results = memoryEmbeddings.entries
-                .filter { it.key != memoryId }
-                .map { (id, embedding) -> 
-                    Pair(id, cosineSimilarity(sourceEmbedding, embedding))
-                }
-                .filter { it.second >= minSimilarity }
-                .sortedByDescending { it.second }
-                .take(limit)
-            
-            results
+            vectorIndex?.search(sourceEmbedding, limit, minSimilarity, excludeId = memoryId) ?: emptyList()
         }
     }
     
     override suspend fun getKeywordOccurrences(keyword: String): Map<String, Int> = withContext(Dispatchers.Default) {
         lock.read {
-            val matchingKeywords = keywordIndex.keys.filter { it.contains(keyword) }
-            val result = mutableMapOf<String, Int>()
-            
-            for (matchingKeyword in matchingKeywords) {
-                keywordIndex[matchingKeyword]?.forEach { memoryId ->
-                    result[memoryId] = result.getOrDefault(memoryId, 0) + 1
-                }
-            }
-            
-            result
+            keywordIndex.occurrences(keyword.lowercase())
         }
     }
     
     override suspend fun rebuildIndices(memories: Collection<HierarchicalMemorySystem.MemoryItem>) = withContext(Dispatchers.Default) {
+        // Stored embeddings are reused when content is unchanged; the rest are generated before locking
+        val digests = memories.map { EmbeddingStore.contentDigest(it.content) }
+        val embeddings = embedAll(memories, digests)
+        
         lock.write {
             // Clear all indices
-            memoryEmbeddings.clear()
+            vectorIndex?.clear()
             keywordIndex.clear()
             entityIndex.clear()
             timeIndex.clear()
+            memoryEntities.clear()
+            memoryTimeBuckets.clear()
             clusterIndex.clear()
             
             // Re-index all memories
-            for (memory in memories) {
-                indexMemory(memory)
-            }
+            memories.forEachIndexed { i, memory -> publish(memory, embeddings[i], digests[i]) }
             
-            // Recalculate clusters if we have embeddings
-            if (embeddingService != null && memoryEmbeddings.isNotEmpty()) {
-                calculateClusters()
+            // Drop embeddings of memories that no longer exist and persist the rest
+            val store = memoryEmbeddings
+            if (store != null) {
+                store.retainAll(memories.mapTo(HashSet()) { it.id })
+                store.flush()
             }
         }
     }
@@ -200,13 +226,7 @@ class VectorMemoryIndexer(
         threshold: Double,
         maxClusters: Int
     ): Map<String, List<String>> = withContext(Dispatchers.Default) {
-        lock.read {
-            clusterIndex.entries
-                .take(maxClusters)
-                .associate { (clusterId, memoryIds) ->
-                    clusterId to memoryIds.toList()
-                }
-        }
+        clusterIndex.getClusters(maxClusters)
     }
     
     override suspend fun findMemoryChains(
@@ -252,14 +272,18 @@ class VectorMemoryIndexer(
     
     override suspend fun getIndexStats(): Map<String, Any> = withContext(Dispatchers.Default) {
         lock.read {
+            val clusterStats = clusterIndex.getStats()
             mapOf(
-                "totalEmbeddings" to memoryEmbeddings.size,
-                "totalKeywords" to keywordIndex.size,
+                "totalEmbeddings" to (memoryEmbeddings?.size ?: 0),
+                "embeddingCache" to ((embeddingService as? CachingEmbeddingService)?.getCacheStats() ?: emptyMap<String, Any>()),
+                "vectorIndex" to (vectorIndex?.getStats() ?: emptyMap<String, Any>()),
+                "totalKeywords" to keywordIndex.vocabularySize,
+                "keywordIndex" to keywordIndex.getStats(),
                 "totalEntities" to entityIndex.size,
                 "totalTimeBuckets" to timeIndex.size,
                 "totalClusters" to clusterIndex.size,
-                "averageMemoriesPerCluster" to if (clusterIndex.isEmpty()) 0 else
-                    clusterIndex.values.sumOf { it.size } / clusterIndex.size.toDouble()
+                "averageMemoriesPerCluster" to (clusterStats["averageMemoriesPerCluster"] ?: 0.0),
+                "clusterIndex" to clusterStats
             )
         }
     }
@@ -268,75 +292,39 @@ class VectorMemoryIndexer(
         val words = item.content.lowercase()
             .split(Regex("[\\s.,;:!?()\\[\\]{}\"']+"))
             .filter { it.length > 2 }
-            .distinct()
         
-        for (word in words) {
-            keywordIndex.computeIfAbsent(word) { mutableSetOf() }.add(item.id)
-        }
+        keywordIndex.add(item.id, words)
     }
     
     private fun indexEntities(item: HierarchicalMemorySystem.MemoryItem) {
+        // Re-indexing a memory replaces the entities it had before
+        unindexEntities(item.id)
         item.context.associatedEntities.forEach { entity ->
             entityIndex.computeIfAbsent(entity) { mutableSetOf() }.add(item.id)
         }
+        memoryEntities[item.id] = item.context.associatedEntities.toList()
+    }
+    
+    private fun unindexEntities(id: String) {
+        memoryEntities.remove(id)?.forEach { entity ->
+            val memoryIds = entityIndex[entity] ?: return@forEach
+            memoryIds.remove(id)
+            if (memoryIds.isEmpty()) entityIndex.remove(entity)
+        }
     }
     
     private fun indexByTime(item: HierarchicalMemorySystem.MemoryItem) {
         // Create a daily bucket (divide by milliseconds in a day)
         val dayBucket = item.created / (24 * 60 * 60 * 1000) * (24 * 60 * 60 * 1000)
         timeIndex.computeIfAbsent(dayBucket) { mutableSetOf() }.add(item.id)
+        memoryTimeBuckets[item.id] = dayBucket
     }
     
-    private fun calculateClusters() {
-        // Simple clustering based on similarity threshold
-        // In a real implementation, this would use K-means or DBSCAN
-        val threshold = 0.85
-        val processedMemories = mutableSetOf<String>()
-        var clusterCount = 0
-        
-        for (sourceId in memoryEmbeddings.keys) {
-            if (sourceId in processedMemories) continue
-            
-            val clusterName = "cluster_${clusterCount++}"
-            val cluster = mutableSetOf(sourceId)
-            processedMemories.add(sourceId)
-            
-            val sourceEmbedding = memoryEmbeddings[sourceId] ?: continue
-            
-            for (targetId in memoryEmbeddings.keys) {
-                if (targetId == sourceId || targetId in processedMemories) continue
-                
-                val targetEmbedding = memoryEmbeddings[targetId] ?: continue
-                val similarity = cosineSimilarity(sourceEmbedding, targetEmbedding)
-                
-                if (similarity >= threshold) {
-                    cluster.add(targetId)
-                    processedMemories.add(targetId)
-                }
-            }
-            
-            if (cluster.size > 1) {
-                clusterIndex[clusterName] = cluster
-            }
-        }
-    }
-    
-    private fun cosineSimilarity(vec1: FloatArray, vec2: FloatArray): Double {
-        if (vec1.size != vec2.size) return 0.0
-        
-        var dotProduct = 0.0
-        var norm1 = 0.0
-        var norm2 = 0.0
-        
-        for (i in vec1.indices) {
-            dotProduct += vec1[i] * vec2[i]
-            norm1 += vec1[i] * vec1[i]
-            norm2 += vec2[i] * vec2[i]
+    private fun embeddingStoreFor(embedding: FloatArray): EmbeddingStore {
+        return memoryEmbeddings ?: EmbeddingStore.inMemory(embedding.size).also { store ->
+            memoryEmbeddings = store
+            if (vectorIndex == null) vectorIndex = HnswVectorIndex(store)
         }
-        
-        if (norm1 <= 0 || norm2 <= 0) return 0.0
-        
-        return dotProduct / (sqrt(norm1) * sqrt(norm2))
     }
     
     /**
@@ -347,5 +335,20 @@ class VectorMemoryIndexer(
          * Generate a vector embedding for the given text
          */
         suspend fun generateEmbedding(text: String): FloatArray?
+        
+        /**
+         * Generate embeddings for a batch of texts, in the same order
+         */
+        suspend fun generateEmbeddings(texts: List<String>): List<FloatArray?> {
+            return texts.map { generateEmbedding(it) }
+        }
+    }
+    
+    /**
+     * Stop background cluster refinement. The embedding store belongs to the caller and
+     * stays open.
+     */
+    override fun close() {
+        clusterIndex.close()
     }
 }
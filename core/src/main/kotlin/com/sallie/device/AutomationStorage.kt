@@ -0,0 +1,238 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * Storage for automation rules, scenes and execution history
+ */
+
+package com.sallie.device
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStreamWriter
+
+/**
+ * Keyed collection with O(1) insert, update and removal that hands out immutable snapshots
+ *
+ * Items keep insertion order; replacing an item keeps its position. The snapshot list is
+ * built lazily and reused until the next change, so readers never copy on each access.
+ */
+class SnapshotStore<T : Any>(private val keyOf: (T) -> String) {
+    private val lock = Any()
+    private val items = LinkedHashMap<String, T>()
+    private var snapshot: List<T>? = emptyList()
+
+    val size: Int
+        get() = synchronized(lock) { items.size }
+
+    operator fun get(key: String): T? = synchronized(lock) { items[key] }
+
+    /**
+     * Insert or replace an item, returning the one it replaced
+     */
+    fun put(item: T): T? = synchronized(lock) {
+        snapshot = null
+        items.put(keyOf(item), item)
+    }
+
+    fun remove(key: String): T? = synchronized(lock) {
+        items.remove(key)?.also { snapshot = null }
+    }
+
+    /**
+     * Replace an existing item with [transform] of its current value
+     *
+     * @return the new value, or null if there is no item with this key
+     */
+    fun update(key: String, transform: (T) -> T): T? = synchronized(lock) {
+        val current = items[key] ?: return null
+        val updated = transform(current)
+        items[key] = updated
+        snapshot = null
+        updated
+    }
+
+    fun snapshot(): List<T> = synchronized(lock) {
+        snapshot ?: items.values.toList().also { snapshot = it }
+    }
+
+    /**
+     * Set [flow] to the current snapshot while holding the store's lock, so a publisher that
+     * took its snapshot earlier can never overwrite a newer one
+     */
+    fun publishTo(flow: MutableStateFlow<List<T>>) = synchronized(lock) {
+        flow.value = snapshot()
+    }
+}
+
+/**
+ * Fixed-capacity buffer that keeps the most recent items, overwriting the oldest
+ */
+class RingBuffer<T : Any>(val capacity: Int) {
+    private val lock = Any()
+    private val slots = arrayOfNulls<Any>(capacity)
+    private var head = 0
+    private var count = 0
+
+    init {
+        require(capacity > 0) { "Capacity must be positive" }
+    }
+
+    val size: Int
+        get() = synchronized(lock) { count }
+
+    fun add(item: T) = synchronized(lock) {
+        slots[head] = item
+        head = (head + 1) % capacity
+        if (count < capacity) count++
+    }
+
+    /**
+     * The retained items, newest first
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun snapshot(): List<T> = synchronized(lock) {
+        List(count) { i -> slots[(head - 1 - i + capacity) % capacity] as T }
+    }
+}
+
+/**
+ * Append-only, line-per-event log of rule executions for later analysis
+ *
+ * When the log grows past [maxBytes] it is rotated to a single `.1` backup, so disk use
+ * stays bounded at roughly twice that size.
+ */
+class ExecutionHistoryLog(
+    private val file: File,
+    private val maxBytes: Long = 4L * 1024 * 1024
+) {
+    private val lock = Any()
+    private var writer: BufferedWriter? = null
+    private var bytesWritten = 0L
+
+    /**
+     * Append events and flush them to disk
+     */
+    fun append(events: List<RuleExecutionEvent>) = synchronized(lock) {
+        if (events.isEmpty()) return@synchronized
+
+        try {
+            val out = writer ?: openWriter()
+            for (event in events) {
+                val line = encode(event)
+                out.write(line)
+                out.newLine()
+                bytesWritten += line.toByteArray(Charsets.UTF_8).size + 1
+            }
+            out.flush()
+
+            if (bytesWritten >= maxBytes) rotate()
+        } catch (e: Exception) {
+            println("Error writing execution history log: ${e.message}")
+            closeWriter()
+        }
+    }
+
+    /**
+     * Read back every logged event, oldest first, including the rotated backup
+     */
+    fun readAll(): List<RuleExecutionEvent> = synchronized(lock) {
+        writer?.flush()
+        listOf(backupFile(), file)
+            .filter { it.exists() }
+            .flatMap { logFile -> logFile.readLines().mapNotNull { decode(it) } }
+    }
+
+    fun close() = synchronized(lock) {
+        closeWriter()
+    }
+
+    private fun openWriter(): BufferedWriter {
+        file.parentFile?.mkdirs()
+        bytesWritten = if (file.exists()) file.length() else 0L
+        return BufferedWriter(OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8)).also { writer = it }
+    }
+
+    private fun rotate() {
+        closeWriter()
+        val backup = backupFile()
+        backup.delete()
+        if (!file.renameTo(backup)) {
+            println("Could not rotate execution history log ${file.path}")
+        }
+        bytesWritten = 0L
+    }
+
+    private fun closeWriter() {
+        try {
+            writer?.close()
+        } catch (e: Exception) {
+            println("Error closing execution history log: ${e.message}")
+        }
+        writer = null
+    }
+
+    private fun backupFile() = File(file.path + ".1")
+
+    private fun encode(event: RuleExecutionEvent): String {
+        return listOf(
+            event.id,
+            event.ruleId,
+            event.ruleName,
+            event.triggerType.name,
+            event.timestamp.toString(),
+            event.successful.toString()
+        ).plus(listOfNotNull(event.message)).joinToString("\t") { escape(it) }
+    }
+
+    private fun decode(line: String): RuleExecutionEvent? {
+        val fields = line.split('\t').map { unescape(it) }
+        if (fields.size < 6) return null
+
+        return try {
+            RuleExecutionEvent(
+                id = fields[0],
+                ruleId = fields[1],
+                ruleName = fields[2],
+                triggerType = TriggerType.valueOf(fields[3]),
+                timestamp = fields[4].toLong(),
+                successful = fields[5].toBoolean(),
+                message = fields.getOrNull(6)
+            )
+        } catch (e: IllegalArgumentException) {
+            println("Skipping malformed execution history line")
+            null
+        }
+    }
+
+    private fun escape(value: String): String {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r")
+    }
+
+    private fun unescape(value: String): String {
+        if (!value.contains('\\')) return value
+
+        val result = StringBuilder(value.length)
+        var i = 0
+        while (i < value.length) {
+            val c = value[i]
+            if (c == '\\' && i + 1 < value.length) {
+                result.append(
+                    when (value[i + 1]) {
+                        't' -> '\t'
+                        'n' -> '\n'
+                        'r' -> '\r'
+                        else -> value[i + 1]
+                    }
+                )
+                i += 2
+            } else {
+                result.append(c)
+                i++
+            }
+        }
+        return result.toString()
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * Cron expressions for scheduled automation triggers
+ */
+
+package com.sallie.device
+
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZonedDateTime
+import java.time.temporal.ChronoUnit
+import java.util.BitSet
+
+/**
+ * Standard five-field cron expression: `minute hour day-of-month month day-of-week`
+ *
+ * Fields accept `*`, numbers, ranges (`1-5`), lists (`1,15`) and steps (`0-59/10`, `8-18/2`);
+ * months and weekdays also accept names (`JAN`, `MON`). Sunday is 0 or 7, and `?` means the
+ * same as `*`. As in cron, when both day-of-month and day-of-week are restricted (do not
+ * cover every day), a day matching either one qualifies.
+ * The macros `@yearly`, `@monthly`, `@weekly`, `@daily` and `@hourly` are supported.
+ */
+class CronExpression private constructor(
+    val expression: String,
+    private val minutes: BitSet,
+    private val hours: BitSet,
+    private val daysOfMonth: BitSet,
+    private val months: BitSet,
+    private val daysOfWeek: BitSet,
+    private val dayOfMonthRestricted: Boolean,
+    private val dayOfWeekRestricted: Boolean
+) {
+
+    companion object {
+        private val MONTH_NAMES = listOf("JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC")
+        private val DAY_NAMES = listOf("SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT")
+        private val MACROS = mapOf(
+            "@yearly" to "0 0 1 1 *",
+            "@annually" to "0 0 1 1 *",
+            "@monthly" to "0 0 1 * *",
+            "@weekly" to "0 0 * * 0",
+            "@daily" to "0 0 * * *",
+            "@midnight" to "0 0 * * *",
+            "@hourly" to "0 * * * *"
+        )
+
+        // Longest gap cron can produce is under a year except for Feb 29 schedules
+        private const val SEARCH_YEARS = 5L
+
+        /**
+         * Parse an expression
+         *
+         * @throws IllegalArgumentException if the expression is malformed
+         */
+        fun parse(expression: String): CronExpression {
+            val normalized = MACROS[expression.trim().lowercase()] ?: expression.trim()
+            val fields = normalized.split(Regex("\\s+"))
+            require(fields.size == 5) { "Cron expression needs 5 fields: $expression" }
+
+            val daysOfWeek = parseField(fields[4], 0, 7, DAY_NAMES, 0)
+            // Both 0 and 7 mean Sunday
+            if (daysOfWeek[7]) {
+                daysOfWeek.clear(7)
+                daysOfWeek.set(0)
+            }
+
+            val daysOfMonth = parseField(fields[2], 1, 31)
+
+            return CronExpression(
+                expression = expression,
+                minutes = parseField(fields[0], 0, 59),
+                hours = parseField(fields[1], 0, 23),
+                daysOfMonth = daysOfMonth,
+                months = parseField(fields[3], 1, 12, MONTH_NAMES, 1),
+                daysOfWeek = daysOfWeek,
+                // Judged by the parsed values, so "*/1", "1-31" and "?" are unrestricted too
+                dayOfMonthRestricted = daysOfMonth.cardinality() < 31,
+                dayOfWeekRestricted = daysOfWeek.cardinality() < 7
+            )
+        }
+
+        /**
+         * A daily schedule at the given time
+         */
+        fun daily(hour: Int, minute: Int): CronExpression = parse("$minute $hour * * *")
+
+        private fun parseField(
+            field: String,
+            min: Int,
+            max: Int,
+            names: List<String> = emptyList(),
+            nameOffset: Int = 0
+        ): BitSet {
+            val bits = BitSet(max + 1)
+
+            for (part in field.split(',')) {
+                val stepIndex = part.indexOf('/')
+                val range = if (stepIndex >= 0) part.substring(0, stepIndex) else part
+                val step = if (stepIndex >= 0) parseNumber(part.substring(stepIndex + 1), names, nameOffset) else 1
+                require(step > 0) { "Invalid step in cron field: $field" }
+
+                val (start, end) = when {
+                    range == "*" || range == "?" -> Pair(min, max)
+                    range.contains('-') -> {
+                        val bounds = range.split('-', limit = 2)
+                        Pair(parseNumber(bounds[0], names, nameOffset), parseNumber(bounds[1], names, nameOffset))
+                    }
+                    // "5/15" means every 15 starting at 5
+                    stepIndex >= 0 -> Pair(parseNumber(range, names, nameOffset), max)
+                    else -> parseNumber(range, names, nameOffset).let { Pair(it, it) }
+                }
+                require(start in min..max && end in min..max && start <= end) { "Cron field out of range: $field" }
+
+                for (value in start..end step step) bits.set(value)
+            }
+
+            return bits
+        }
+
+        private fun parseNumber(text: String, names: List<String>, nameOffset: Int): Int {
+            val nameIndex = names.indexOf(text.uppercase())
+            if (nameIndex >= 0) return nameIndex + nameOffset
+            return text.toIntOrNull() ?: throw IllegalArgumentException("Invalid cron value: $text")
+        }
+    }
+
+    /**
+     * Whether the schedule fires in the minute containing [dateTime]
+     */
+    fun matches(dateTime: LocalDateTime): Boolean {
+        return minutes[dateTime.minute] && hours[dateTime.hour] && months[dateTime.monthValue] && dayMatches(dateTime)
+    }
+
+    /**
+     * The first time strictly after [time] at which the schedule fires, or null if it never does
+     */
+    fun nextAfter(time: ZonedDateTime): ZonedDateTime? {
+        val zone: ZoneId = time.zone
+        var candidate = time.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1)
+        val limit = candidate.plusYears(SEARCH_YEARS)
+
+        // Skip whole months, days and hours that cannot match before looking at minutes
+        while (candidate.isBefore(limit)) {
+            if (!months[candidate.monthValue]) {
+                candidate = candidate.withDayOfMonth(1).toLocalDate().atStartOfDay().plusMonths(1)
+                continue
+            }
+            if (!dayMatches(candidate)) {
+                candidate = candidate.toLocalDate().plusDays(1).atStartOfDay()
+                continue
+            }
+            if (!hours[candidate.hour]) {
+                val nextHour = hours.nextSetBit(candidate.hour)
+                candidate = if (nextHour < 0) {
+                    candidate.toLocalDate().plusDays(1).atStartOfDay()
+                } else {
+                    candidate.withHour(nextHour).withMinute(0)
+                }
+                continue
+            }
+
+            val nextMinute = minutes.nextSetBit(candidate.minute)
+            if (nextMinute < 0) {
+                candidate = candidate.withMinute(0).plusHours(1)
+                continue
+            }
+
+            return candidate.withMinute(nextMinute).atZone(zone)
+        }
+
+        return null
+    }
+
+    private fun dayMatches(dateTime: LocalDateTime): Boolean {
+        val dayOfMonthMatches = daysOfMonth[dateTime.dayOfMonth]
+        val dayOfWeekMatches = daysOfWeek[dateTime.dayOfWeek.value % 7]
+
+        return when {
+            dayOfMonthRestricted && dayOfWeekRestricted -> dayOfMonthMatches || dayOfWeekMatches
+            dayOfMonthRestricted -> dayOfMonthMatches
+            dayOfWeekRestricted -> dayOfWeekMatches
+            else -> true
+        }
+    }
+
+    override fun toString(): String = expression
+}
@@ -9,18 +9,22 @@ package com.sallie.device
 
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
-import kotlinx.datetime.Clock
+import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.datetime.LocalDateTime
-import kotlinx.datetime.TimeZone
-import kotlinx.datetime.toLocalDateTime
+import java.io.File
+import java.time.Duration
+import java.time.ZonedDateTime
+import java.util.PriorityQueue
 import java.util.UUID
-import kotlin.time.Duration.Companion.minutes
 
 /**
  * Rule condition operators
@@ -136,8 +140,15 @@ class ConditionEvaluator {
         if (device == null || condition.property == null) {
             return false
         }
-        
-        val deviceValue = device.state[condition.property] ?: return false
+
+        return evaluateValue(condition, device.state[condition.property])
+    }
+
+    /**
+     * Evaluate a condition against a single property value, as reported by a state update
+     */
+    fun evaluateValue(condition: RuleCondition, value: Any?): Boolean {
+        val deviceValue = value ?: return false
         val result = when (condition.operator) {
             ConditionOperator.EQUALS -> areEqual(deviceValue, condition.value)
             ConditionOperator.NOT_EQUALS -> !areEqual(deviceValue, condition.value)
@@ -206,12 +217,32 @@ class ConditionEvaluator {
 
 /**
  * Device Automation Engine that manages and executes automation rules
+ *
+ * @param historyLogFile optional append-only log that receives every execution event,
+ * beyond the [historyCapacity] most recent ones kept in memory
  */
 class DeviceAutomationEngine(
-    private val deviceControlSystem: DeviceControlSystem
+    private val deviceControlSystem: DeviceControlSystem,
+    historyLogFile: File? = null,
+    historyCapacity: Int = 100
 ) {
+    companion object {
+        // Minimum gap between snapshots published for execution-driven changes
+        private const val PUBLISH_INTERVAL_MS = 250L
+    }
+
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
     private val conditionEvaluator = ConditionEvaluator()
+
+    // Source of truth; the StateFlows below publish snapshots of these
+    private val ruleStore = SnapshotStore<AutomationRule> { it.id }
+    private val sceneStore = SnapshotStore<Scene> { it.id }
+    private val historyBuffer = RingBuffer<RuleExecutionEvent>(historyCapacity)
+    private val historyLog = historyLogFile?.let { ExecutionHistoryLog(it) }
+    // Unbounded so no event is lost; the writer drains everything queued in one append
+    private val pendingLogEvents = Channel<RuleExecutionEvent>(Channel.UNLIMITED)
+    private var historyLogWriter: Job? = null
+    private val publishRequests = Channel<Unit>(Channel.CONFLATED)
     
     private val _rules = MutableStateFlow<List<AutomationRule>>(emptyList())
     val rules: StateFlow<List<AutomationRule>> = _rules.asStateFlow()
@@ -221,10 +252,23 @@ class DeviceAutomationEngine(
     
     private val _executionHistory = MutableStateFlow<List<RuleExecutionEvent>>(emptyList())
     val executionHistory: StateFlow<List<RuleExecutionEvent>> = _executionHistory.asStateFlow()
+
+    // Compiled triggers and shared conditions, rebuilt when the rule set changes
+    @Volatile
+    private var ruleNetwork = compileRules(emptyList(), null)
+    private val compileLock = Any()
+
+    // Upcoming time trigger firings, earliest first; guarded by itself
+    private val timerQueue = PriorityQueue<ScheduledFiring>(compareBy { it.fireAt })
+    private val timerChanged = Channel<Unit>(Channel.CONFLATED)
     
     init {
         // Start monitoring device state changes
         monitorDeviceStates()
+
+        // Publish snapshots and spill history to disk in the background
+        startSnapshotPublisher()
+        historyLogWriter = historyLog?.let { startHistoryLogWriter(it) }
         
         // Start schedule-based rule checking
         startScheduleChecker()
@@ -234,27 +278,25 @@ class DeviceAutomationEngine(
      * Add or update an automation rule
      */
     fun saveRule(rule: AutomationRule) {
-        val currentRules = _rules.value.toMutableList()
-        val existingIndex = currentRules.indexOfFirst { it.id == rule.id }
-        
-        if (existingIndex >= 0) {
-            currentRules[existingIndex] = rule.copy(modifiedAt = System.currentTimeMillis())
+        if (ruleStore[rule.id] != null) {
+            ruleStore.put(rule.copy(modifiedAt = System.currentTimeMillis()))
         } else {
-            currentRules.add(rule)
+            ruleStore.put(rule)
         }
         
-        _rules.value = currentRules
+        ruleStore.publishTo(_rules)
+        recompileRules()
     }
     
     /**
      * Delete an automation rule
      */
     fun deleteRule(ruleId: String): Boolean {
-        val currentRules = _rules.value.toMutableList()
-        val removed = currentRules.removeIf { it.id == ruleId }
+        val removed = ruleStore.remove(ruleId) != null
         
         if (removed) {
-            _rules.value = currentRules
+            ruleStore.publishTo(_rules)
+            recompileRules()
         }
         
         return removed
@@ -264,16 +306,16 @@ class DeviceAutomationEngine(
      * Enable or disable a rule
      */
     fun setRuleEnabled(ruleId: String, enabled: Boolean): Boolean {
-        val currentRules = _rules.value.toMutableList()
-        val index = currentRules.indexOfFirst { it.id == ruleId }
-        
-        if (index >= 0) {
-            val rule = currentRules[index]
-            currentRules[index] = rule.copy(
+        val updated = ruleStore.update(ruleId) { rule ->
+            rule.copy(
                 enabled = enabled,
                 modifiedAt = System.currentTimeMillis()
             )
-            _rules.value = currentRules
+        }
+        
+        if (updated != null) {
+            ruleStore.publishTo(_rules)
+            recompileRules()
             return true
         }
         
@@ -284,27 +326,23 @@ class DeviceAutomationEngine(
      * Add or update a scene
      */
     fun saveScene(scene: Scene) {
-        val currentScenes = _scenes.value.toMutableList()
-        val existingIndex = currentScenes.indexOfFirst { it.id == scene.id }
-        
-        if (existingIndex >= 0) {
-            currentScenes[existingIndex] = scene.copy(modifiedAt = System.currentTimeMillis())
+        if (sceneStore[scene.id] != null) {
+            sceneStore.put(scene.copy(modifiedAt = System.currentTimeMillis()))
         } else {
-            currentScenes.add(scene)
+            sceneStore.put(scene)
         }
         
-        _scenes.value = currentScenes
+        sceneStore.publishTo(_scenes)
     }
     
     /**
      * Delete a scene
      */
     fun deleteScene(sceneId: String): Boolean {
-        val currentScenes = _scenes.value.toMutableList()
-        val removed = currentScenes.removeIf { it.id == sceneId }
+        val removed = sceneStore.remove(sceneId) != null
         
         if (removed) {
-            _scenes.value = currentScenes
+            sceneStore.publishTo(_scenes)
         }
         
         return removed
@@ -314,7 +352,7 @@ class DeviceAutomationEngine(
      * Manually trigger a rule
      */
     fun triggerRule(ruleId: String) {
-        val rule = _rules.value.find { it.id == ruleId } ?: return
+        val rule = ruleStore[ruleId] ?: return
         
         if (rule.enabled) {
             scope.launch {
@@ -327,7 +365,7 @@ class DeviceAutomationEngine(
      * Execute a scene
      */
     suspend fun executeScene(sceneId: String): Boolean {
-        val scene = _scenes.value.find { it.id == sceneId } ?: return false
+        val scene = sceneStore[sceneId] ?: return false
         
         // For each device in the scene, set its state
         scene.deviceStates.forEach { (deviceId, propertyValues) ->
@@ -349,12 +387,48 @@ class DeviceAutomationEngine(
             return true
         }
         
-        return rule.conditions.all { condition ->
-            val deviceId = condition.deviceId ?: return@all false
-            val device = deviceControlSystem.getDevice(deviceId)
-            conditionEvaluator.evaluate(condition, device)
+        return ruleNetwork.conditionsMet(rule)
+    }
+
+    /**
+     * Size of the compiled rule network
+     */
+    fun getRuleNetworkStats(): RuleNetworkStats = ruleNetwork.getStats()
+
+    private fun compileRules(rules: List<AutomationRule>, previous: RuleNetwork?): RuleNetwork {
+        return RuleNetwork(rules, conditionEvaluator, { deviceControlSystem.getDevice(it) }, previous)
+    }
+
+    /**
+     * Rebuild the rule network and timer queue after the rule set changed
+     */
+    private fun recompileRules() {
+        synchronized(compileLock) {
+            val network = compileRules(ruleStore.snapshot(), ruleNetwork)
+            ruleNetwork = network
+            rescheduleTimers(network)
         }
     }
+
+    /**
+     * Fill the timer queue from the network's time triggers, keeping the pending firing time
+     * of triggers that did not change
+     */
+    private fun rescheduleTimers(network: RuleNetwork) {
+        val now = ZonedDateTime.now()
+
+        synchronized(timerQueue) {
+            val pending = timerQueue.associate { Pair(it.timed.rule.id, it.timed.trigger) to it.fireAt }
+            timerQueue.clear()
+
+            for (timed in network.timedTriggers) {
+                val fireAt = pending[Pair(timed.rule.id, timed.trigger)] ?: timed.schedule.nextAfter(now) ?: continue
+                timerQueue.add(ScheduledFiring(timed, fireAt))
+            }
+        }
+
+        timerChanged.trySend(Unit)
+    }
     
     /**
      * Execute the actions for a rule
@@ -409,15 +483,11 @@ class DeviceAutomationEngine(
             // Execute actions
             executeActions(rule)
             
-            // Update rule's lastTriggeredAt
-            val currentRules = _rules.value.toMutableList()
-            val index = currentRules.indexOfFirst { it.id == rule.id }
+            // Update rule's lastTriggeredAt; observers see it with the next published snapshot
+            val now = System.currentTimeMillis()
+            val updated = ruleStore.update(rule.id) { it.copy(lastTriggeredAt = now) }
             
-            if (index >= 0) {
-                val now = System.currentTimeMillis()
-                currentRules[index] = rule.copy(lastTriggeredAt = now)
-                _rules.value = currentRules
-                
+            if (updated != null) {
                 // Record the execution in history
                 val executionEvent = RuleExecutionEvent(
                     ruleId = rule.id,
@@ -438,16 +508,8 @@ class DeviceAutomationEngine(
     private fun monitorDeviceStates() {
         scope.launch {
             deviceControlSystem.deviceUpdates.collect { deviceUpdate ->
-                // Find all rules that should be triggered by this device state change
-                val triggeredRules = _rules.value.filter { rule ->
-                    rule.enabled && rule.triggers.any { trigger ->
-                        trigger.type == TriggerType.DEVICE_STATE_CHANGE &&
-                        trigger.deviceId == deviceUpdate.deviceId &&
-                        (trigger.property == null || 
-                         (trigger.property == deviceUpdate.property && 
-                          (trigger.value == null || trigger.value == deviceUpdate.value)))
-                    }
-                }
+                // Look up the rules whose triggers match this device state change
+                val triggeredRules = ruleNetwork.dispatch(deviceUpdate)
                 
                 // Execute each triggered rule
                 triggeredRules.forEach { rule ->
@@ -458,54 +520,96 @@ class DeviceAutomationEngine(
     }
     
     /**
-     * Check for schedule-based and time-of-day rules
+     * Fire schedule-based and time-of-day rules, sleeping until the earliest pending firing
      */
     private fun startScheduleChecker() {
         scope.launch {
             while (true) {
-                val now = Clock.System.now()
-                val localNow = now.toLocalDateTime(TimeZone.currentSystemDefault())
-                
-                // Find rules with time-of-day triggers that should be executed now
-                val timeRules = _rules.value.filter { rule ->
-                    rule.enabled && rule.triggers.any { trigger ->
-                        trigger.type == TriggerType.TIME_OF_DAY && 
-                        trigger.timeOfDay?.let { triggerTime ->
-                            triggerTime.hour == localNow.hour && 
-                            triggerTime.minute == localNow.minute
-                        } ?: false
+                val now = ZonedDateTime.now()
+                val due = mutableListOf<ScheduledFiring>()
+
+                val waitMs = synchronized(timerQueue) {
+                    while (timerQueue.peek()?.fireAt?.isAfter(now) == false) {
+                        val firing = timerQueue.poll()
+                        due.add(firing)
+
+                        // Rescheduled from now, so a late wake-up fires once rather than once per missed slot
+                        firing.timed.schedule.nextAfter(now)?.let { next ->
+                            timerQueue.add(firing.copy(fireAt = next))
+                        }
                     }
+                    timerQueue.peek()?.let { Duration.between(now, it.fireAt).toMillis() }
                 }
-                
-                // Execute time-based rules
-                timeRules.forEach { rule ->
-                    executeRule(rule, TriggerType.TIME_OF_DAY)
+
+                // Launched so slow actions do not hold up later firings
+                due.forEach { firing ->
+                    scope.launch {
+                        executeRule(firing.timed.rule, firing.timed.trigger.type)
+                    }
+                }
+
+                if (waitMs == null) {
+                    timerChanged.receive()
+                } else {
+                    withTimeoutOrNull(waitMs) { timerChanged.receive() }
                 }
-                
-                // In a real implementation, we would parse and evaluate cron expressions
-                // for schedule-based triggers. For simplicity, we're skipping that.
-                
-                // Check every minute
-                delay(1.minutes)
             }
         }
     }
     
+    /**
+     * Stop automation, write any queued execution events to the history log and close it
+     */
+    suspend fun shutdown() {
+        pendingLogEvents.close()
+        historyLogWriter?.join()
+        scope.cancel()
+        historyLog?.close()
+    }
+    
     /**
      * Record a rule execution event in history
      */
     private fun recordExecutionEvent(event: RuleExecutionEvent) {
-        val history = _executionHistory.value.toMutableList()
-        
-        // Add the new event at the beginning
-        history.add(0, event)
-        
-        // Keep only the latest 100 events
-        if (history.size > 100) {
-            history.removeAt(history.size - 1)
+        historyBuffer.add(event)
+        pendingLogEvents.trySend(event)
+        publishRequests.trySend(Unit)
+    }
+
+    /**
+     * Every execution event in the on-disk history log, oldest first
+     */
+    fun getLoggedExecutions(): List<RuleExecutionEvent> {
+        return historyLog?.readAll() ?: emptyList()
+    }
+
+    /**
+     * Publish rule and history snapshots for execution-driven changes, at most once per
+     * [PUBLISH_INTERVAL_MS] so busy rules do not rebuild a snapshot on every firing
+     */
+    private fun startSnapshotPublisher() {
+        scope.launch {
+            for (request in publishRequests) {
+                ruleStore.publishTo(_rules)
+                _executionHistory.value = historyBuffer.snapshot()
+                delay(PUBLISH_INTERVAL_MS)
+            }
+        }
+    }
+
+    /**
+     * Append execution events to the history log in batches
+     */
+    private fun startHistoryLogWriter(log: ExecutionHistoryLog): Job {
+        return scope.launch(Dispatchers.IO) {
+            for (event in pendingLogEvents) {
+                val batch = mutableListOf(event)
+                while (true) {
+                    batch.add(pendingLogEvents.tryReceive().getOrNull() ?: break)
+                }
+                log.append(batch)
+            }
         }
-        
-        _executionHistory.value = history
     }
     
     /**
@@ -600,6 +704,14 @@ class DeviceAutomationEngine(
     }
 }
 
+/**
+ * A pending firing of a time trigger
+ */
+private data class ScheduledFiring(
+    val timed: RuleNetwork.TimedTrigger,
+    val fireAt: ZonedDateTime
+)
+
 /**
  * Data class to track rule execution events
  */
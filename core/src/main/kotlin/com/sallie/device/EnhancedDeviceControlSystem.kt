@@ -220,6 +220,11 @@ class EnhancedDeviceControlSystem(
             // Clear device registry
             deviceRegistry.clear()
             
+            // Stop automation and flush its execution history
+            if (::automationEngine.isInitialized) {
+                automationEngine.shutdown()
+            }
+            
             _systemState.value = DeviceControlState.DISABLED
             
             // Emit shutdown event
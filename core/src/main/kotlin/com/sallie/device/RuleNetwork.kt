@@ -0,0 +1,217 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * Compiled rule network for the automation engine
+ */
+
+package com.sallie.device
+
+/**
+ * Compiled, indexed form of the enabled automation rules
+ *
+ * State-change triggers are indexed by device, property and value, so dispatching an update
+ * costs a few hash lookups instead of a scan over every rule. Identical conditions share one
+ * node (the alpha memory of a Rete network) that caches its result from the latest update
+ * for its device property, so a condition used by many rules is evaluated once per update.
+ * Time-of-day and schedule triggers are compiled to cron expressions for the engine's timer.
+ *
+ * Apart from condition results a network is immutable; the engine compiles a new one when
+ * rules are added, removed, enabled or disabled, passing the old one to keep those results.
+ */
+class RuleNetwork(
+    rules: List<AutomationRule>,
+    private val evaluator: ConditionEvaluator,
+    private val deviceLookup: (String) -> SmartDevice?,
+    previous: RuleNetwork? = null
+) {
+
+    /**
+     * A time trigger compiled to its schedule
+     */
+    data class TimedTrigger(
+        val rule: AutomationRule,
+        val trigger: RuleTrigger,
+        val schedule: CronExpression
+    )
+
+    private class ConditionNode(val condition: RuleCondition) {
+        // Null until an update for the condition's device property has been seen
+        @Volatile
+        var satisfied: Boolean? = null
+    }
+
+    // Trigger buckets hold rule positions in ascending order
+    private class PropertyTriggers {
+        val anyValue = ArrayList<Int>()
+        val byValue = HashMap<Any, MutableList<Int>>()
+    }
+
+    private class DeviceTriggers {
+        val anyProperty = ArrayList<Int>()
+        val byProperty = HashMap<String, PropertyTriggers>()
+    }
+
+    private val compiledRules: List<AutomationRule> = rules.filter { it.enabled }
+    private val triggerIndex = HashMap<String, DeviceTriggers>()
+    private val conditionNodes = HashMap<RuleCondition, ConditionNode>()
+    private val nodesByProperty = HashMap<String, HashMap<String, MutableList<ConditionNode>>>()
+    private val ruleConditions = HashMap<String, Array<ConditionNode>>()
+    private var stateTriggerCount = 0
+
+    val timedTriggers: List<TimedTrigger>
+
+    init {
+        val timed = ArrayList<TimedTrigger>()
+
+        compiledRules.forEachIndexed { position, rule ->
+            ruleConditions[rule.id] = Array(rule.conditions.size) { i ->
+                conditionNode(rule.conditions[i], previous)
+            }
+
+            for (trigger in rule.triggers) {
+                when (trigger.type) {
+                    TriggerType.DEVICE_STATE_CHANGE -> indexTrigger(trigger, position)
+                    TriggerType.SCHEDULE, TriggerType.TIME_OF_DAY -> {
+                        compileSchedule(rule, trigger)?.let { timed.add(TimedTrigger(rule, trigger, it)) }
+                    }
+                    else -> Unit
+                }
+            }
+        }
+
+        timedTriggers = timed
+    }
+
+    /**
+     * Apply a device state update and return the rules it triggers, in rule order
+     *
+     * Condition nodes watching the updated property are refreshed first, so
+     * [conditionsMet] reflects the update for the returned rules.
+     */
+    fun dispatch(update: DeviceStateUpdate): List<AutomationRule> {
+        nodesByProperty[update.deviceId]?.get(update.property)?.forEach { node ->
+            node.satisfied = safeEvaluate(node.condition) { evaluator.evaluateValue(node.condition, update.value) }
+        }
+
+        val deviceTriggers = triggerIndex[update.deviceId] ?: return emptyList()
+        val propertyTriggers = deviceTriggers.byProperty[update.property]
+
+        val buckets = listOfNotNull(
+            deviceTriggers.anyProperty,
+            propertyTriggers?.anyValue,
+            propertyTriggers?.byValue?.get(valueKey(update.value))
+        ).filter { it.isNotEmpty() }
+
+        val positions = when (buckets.size) {
+            0 -> return emptyList()
+            1 -> buckets[0]
+            else -> buckets.flatten().distinct().sorted()
+        }
+
+        return positions.map { compiledRules[it] }
+    }
+
+    /**
+     * Whether all of a rule's conditions hold
+     *
+     * Conditions whose property has not been updated since compilation are evaluated
+     * against the device's current state.
+     */
+    fun conditionsMet(rule: AutomationRule): Boolean {
+        val nodes = ruleConditions[rule.id] ?: return rule.conditions.all { evaluateCurrent(it) }
+        return nodes.all { node -> node.satisfied ?: evaluateCurrent(node.condition) }
+    }
+
+    /**
+     * Size of the compiled network
+     */
+    fun getStats(): RuleNetworkStats {
+        return RuleNetworkStats(
+            rules = compiledRules.size,
+            stateTriggers = stateTriggerCount,
+            timedTriggers = timedTriggers.size,
+            conditionNodes = conditionNodes.size,
+            conditionReferences = ruleConditions.values.sumOf { it.size }
+        )
+    }
+
+    private fun indexTrigger(trigger: RuleTrigger, position: Int) {
+        val deviceId = trigger.deviceId ?: return
+        val deviceTriggers = triggerIndex.getOrPut(deviceId) { DeviceTriggers() }
+        val property = trigger.property
+        val value = trigger.value
+
+        val bucket = when {
+            property == null -> deviceTriggers.anyProperty
+            value == null -> deviceTriggers.byProperty.getOrPut(property) { PropertyTriggers() }.anyValue
+            else -> deviceTriggers.byProperty.getOrPut(property) { PropertyTriggers() }
+                .byValue.getOrPut(valueKey(value)) { ArrayList() }
+        }
+
+        // A rule with several identical triggers is listed once
+        if (bucket.lastOrNull() != position) {
+            bucket.add(position)
+        }
+        stateTriggerCount++
+    }
+
+    private fun conditionNode(condition: RuleCondition, previous: RuleNetwork?): ConditionNode {
+        return conditionNodes.getOrPut(condition) {
+            val node = ConditionNode(condition)
+            val deviceId = condition.deviceId
+            val property = condition.property
+
+            if (deviceId == null || property == null) {
+                // Can never be evaluated against a device
+                node.satisfied = false
+            } else {
+                node.satisfied = previous?.conditionNodes?.get(condition)?.satisfied
+                nodesByProperty.getOrPut(deviceId) { HashMap() }.getOrPut(property) { ArrayList() }.add(node)
+            }
+
+            node
+        }
+    }
+
+    private fun compileSchedule(rule: AutomationRule, trigger: RuleTrigger): CronExpression? {
+        return try {
+            if (trigger.type == TriggerType.SCHEDULE) {
+                trigger.schedule?.let { CronExpression.parse(it) }
+            } else {
+                trigger.timeOfDay?.let { CronExpression.daily(it.hour, it.minute) }
+            }
+        } catch (e: IllegalArgumentException) {
+            println("Ignoring invalid schedule for rule ${rule.name}: ${e.message}")
+            null
+        }
+    }
+
+    private fun evaluateCurrent(condition: RuleCondition): Boolean {
+        val deviceId = condition.deviceId ?: return false
+        return safeEvaluate(condition) { evaluator.evaluate(condition, deviceLookup(deviceId)) }
+    }
+
+    private inline fun safeEvaluate(condition: RuleCondition, evaluation: () -> Boolean): Boolean {
+        return try {
+            evaluation()
+        } catch (e: IllegalArgumentException) {
+            println("Cannot evaluate condition on ${condition.deviceId}.${condition.property}: ${e.message}")
+            false
+        }
+    }
+
+    // Numbers match by value regardless of type, as they do in conditions
+    private fun valueKey(value: Any): Any = if (value is Number) value.toDouble() else value
+}
+
+/**
+ * Size of a compiled rule network; fewer condition nodes than references means conditions are shared
+ */
+data class RuleNetworkStats(
+    val rules: Int,
+    val stateTriggers: Int,
+    val timedTriggers: Int,
+    val conditionNodes: Int,
+    val conditionReferences: Int
+)
@@ -8,6 +8,9 @@
 package com.sallie.multimodal
 
 import com.sallie.core.values.ValuesSystem
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.takeWhile
 import java.util.UUID
 
 /**
@@ -21,8 +24,28 @@ class AudioInputProcessor(
      * Process audio input and extract structured insights
      */
     suspend fun processAudio(audioData: ByteArray, metadata: Map<String, String>?): InputUnderstanding {
-        // First, perform safety checks on the audio
-        val safetyCheck = performSafetyCheck(audioData)
+        return processAudioStream(flowOf(audioData), metadata)
+    }
+    
+    /**
+     * Process audio as it arrives in chunks and extract structured insights
+     *
+     * Each chunk is safety checked and analyzed as soon as it is received, so the
+     * whole recording never has to be held in memory, and a failed safety check
+     * stops reading the stream.
+     */
+    suspend fun processAudioStream(audioChunks: Flow<ByteArray>, metadata: Map<String, String>?): InputUnderstanding {
+        val analysis = AudioStreamAnalysis()
+        var safetyCheck = ValuesSystem.ContentCheck(true, null)
+        
+        audioChunks
+            .takeWhile { chunk ->
+                // First, perform safety checks on the audio
+                safetyCheck = performSafetyCheck(chunk)
+                safetyCheck.isApproved
+            }
+            .collect { chunk -> analysis.add(chunk) }
+        
         if (!safetyCheck.isApproved) {
             return InputUnderstanding(
                 id = UUID.randomUUID().toString(),
@@ -41,7 +64,7 @@ class AudioInputProcessor(
         val insights = mutableListOf<InputInsight>()
         
         // Transcribe speech (simplified example)
-        val transcription = transcribeSpeech(audioData)
+        val transcription = analysis.transcription
         if (transcription.isNotEmpty()) {
             insights.add(
                 InputInsight(
@@ -64,7 +87,7 @@ class AudioInputProcessor(
         }
         
         // Detect emotions from voice (simplified example)
-        val emotion = detectEmotionFromVoice(audioData)
+        val emotion = analysis.emotion
         if (emotion.isNotEmpty()) {
             insights.add(
                 InputInsight(
@@ -78,8 +101,7 @@ class AudioInputProcessor(
         }
         
         // Detect non-speech sounds (simplified example)
-        val backgroundSounds = detectBackgroundSounds(audioData)
-        backgroundSounds.forEach { (sound, confidence) ->
+        analysis.backgroundSounds.forEach { (sound, confidence) ->
             insights.add(
                 InputInsight(
                     id = UUID.randomUUID().toString(),
@@ -115,9 +137,44 @@ class AudioInputProcessor(
     }
     
     /**
-     * Perform safety checks on the audio
+     * Running analysis of an audio stream, updated one chunk at a time
+     */
+    private inner class AudioStreamAnalysis {
+        private val transcript = StringBuilder()
+        private val emotionCounts = mutableMapOf<String, Int>()
+        
+        // Strongest confidence seen for each background sound
+        val backgroundSounds = linkedMapOf<String, Float>()
+        
+        val transcription: String
+            get() = transcript.toString()
+        
+        // The emotion heard in the most chunks
+        val emotion: String
+            get() = emotionCounts.maxByOrNull { it.value }?.key ?: ""
+        
+        fun add(chunk: ByteArray) {
+            val segment = transcribeSpeech(chunk, transcript.isEmpty())
+            if (segment.isNotEmpty()) {
+                if (transcript.isNotEmpty()) transcript.append(' ')
+                transcript.append(segment)
+            }
+            
+            val emotion = detectEmotionFromVoice(chunk)
+            if (emotion.isNotEmpty()) {
+                emotionCounts[emotion] = (emotionCounts[emotion] ?: 0) + 1
+            }
+            
+            detectBackgroundSounds(chunk).forEach { (sound, confidence) ->
+                backgroundSounds[sound] = maxOf(confidence, backgroundSounds[sound] ?: 0.0f)
+            }
+        }
+    }
+    
+    /**
+     * Perform safety checks on a chunk of the audio
      */
-    private suspend fun performSafetyCheck(audioData: ByteArray): ValuesSystem.ContentCheck {
+    private suspend fun performSafetyCheck(audioChunk: ByteArray): ValuesSystem.ContentCheck {
         // In a real implementation, this would analyze the audio content
         // for inappropriate language or sounds
         
@@ -127,20 +184,21 @@ class AudioInputProcessor(
     }
     
     /**
-     * Transcribe speech from the audio
+     * Transcribe the speech in the next chunk of audio
      */
-    private fun transcribeSpeech(audioData: ByteArray): String {
-        // In a real implementation, this would use ASR (Automatic Speech Recognition)
+    private fun transcribeSpeech(audioChunk: ByteArray, isFirstChunk: Boolean): String {
+        // In a real implementation, this would feed the chunk to a streaming ASR
+        // (Automatic Speech Recognition) session and return the newly recognized words
         
-        // For demonstration purposes, we'll just return a fake transcription
+        // For demonstration purposes, we'll just return a fake transcription with the first chunk
         // In a real implementation, we'd actually analyze the audio
-        return "Hello, how are you today?"
+        return if (isFirstChunk) "Hello, how are you today?" else ""
     }
     
     /**
-     * Detect emotion from voice in the audio
+     * Detect emotion from voice in a chunk of audio
      */
-    private fun detectEmotionFromVoice(audioData: ByteArray): String {
+    private fun detectEmotionFromVoice(audioChunk: ByteArray): String {
         // In a real implementation, this would use voice emotion recognition models
         
         // For demonstration purposes, we'll just return a fake emotion
@@ -149,9 +207,9 @@ class AudioInputProcessor(
     }
     
     /**
-     * Detect background sounds in the audio
+     * Detect background sounds in a chunk of audio
      */
-    private fun detectBackgroundSounds(audioData: ByteArray): Map<String, Float> {
+    private fun detectBackgroundSounds(audioChunk: ByteArray): Map<String, Float> {
         // In a real implementation, this would use sound event detection models
         
         // For demonstration purposes, we'll just return some fake sounds
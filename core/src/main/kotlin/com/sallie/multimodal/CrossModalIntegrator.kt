@@ -18,237 +18,244 @@ class CrossModalIntegrator {
      * Integrate understandings from different modalities
      */
     fun integrateUnderstandings(understandings: List<InputUnderstanding>): List<InputInsight> {
-        if (understandings.isEmpty()) {
-            return emptyList()
-        }
-        
-        // If there's only one understanding, there's no integration to do
-        if (understandings.size == 1) {
-            return understandings[0].insights
-        }
+        val session = startFusion()
+        understandings.forEach { session.add(it) }
+        return session.integratedInsights()
+    }
+    
+    /**
+     * Start fusing understandings that arrive one at a time
+     */
+    fun startFusion(): FusionSession = FusionSession()
+    
+    /**
+     * Fuses understandings incrementally as each modality completes
+     *
+     * Adding an understanding only folds its own insights into the running state, so
+     * integrated insights can be read after every modality without re-scanning the others.
+     * Adding a set of understandings one by one gives the same result as integrating
+     * them together.
+     */
+    class FusionSession {
+        private val understandings = mutableListOf<InputUnderstanding>()
         
-        val integratedInsights = mutableListOf<InputInsight>()
+        // Reference points that can connect insights across modalities
+        private val referencePoints = mutableMapOf<String, ReferencePoint>()
         
-        // Collect all insights from all understandings
-        val allInsights = understandings.flatMap { it.insights }
+        // Running state for conflict resolution
+        private var intentCount = 0
+        private var primaryIntent: InputInsight? = null
+        private var sentimentCount = 0
+        private var primarySentiment: InputInsight? = null
+        private var audioSentiment: InputInsight? = null
         
-        // Extract reference points from each modality
-        val referencePoints = extractReferencePoints(allInsights)
+        // Running state for cross-modal enhancement
+        private var primaryTextIntent: InputInsight? = null
+        private var primaryVisualObject: InputInsight? = null
+        private var firstTranscription: InputInsight? = null
+        private var firstVisualScene: InputInsight? = null
         
-        // Find cross-modal connections
-        val connections = findCrossModalConnections(allInsights, referencePoints)
-        integratedInsights.addAll(connections)
+        // Integrated insights are rebuilt only when something changed
+        private val cachedInsights = mutableMapOf<String, InputInsight>()
+        private var integrated: List<InputInsight>? = emptyList()
         
-        // Resolve conflicts between modalities
-        val resolvedInsights = resolveModalityConflicts(allInsights)
-        integratedInsights.addAll(resolvedInsights)
+        /**
+         * Number of understandings fused so far
+         */
+        val size: Int
+            get() = synchronized(this) { understandings.size }
         
-        // Enhance insights with additional context
-        val enhancedInsights = enhanceWithCrossModalContext(allInsights)
-        integratedInsights.addAll(enhancedInsights)
+        /**
+         * Fold a newly completed understanding into the fusion
+         */
+        fun add(understanding: InputUnderstanding) = synchronized(this) {
+            understandings.add(understanding)
+            understanding.insights.forEach { addInsight(it) }
+            integrated = null
+        }
         
-        return integratedInsights
-    }
-    
-    /**
-     * Extract reference points that can be used to connect insights across modalities
-     */
-    private fun extractReferencePoints(insights: List<InputInsight>): Map<String, List<InputInsight>> {
-        val referencePoints = mutableMapOf<String, MutableList<InputInsight>>()
+        /**
+         * The integrated insights across every understanding added so far
+         */
+        fun integratedInsights(): List<InputInsight> = synchronized(this) {
+            integrated ?: buildIntegratedInsights().also { integrated = it }
+        }
         
-        // Group by common categories
-        insights.forEach { insight ->
+        private fun addInsight(insight: InputInsight) {
+            // Extract reference points from each modality
+            val reference = when (insight.category) {
+                // Entities can be reference points for cross-modal connections
+                InsightCategory.ENTITY -> normalizeEntityName(insight.content)
+                // Visual objects and topics can be reference points
+                InsightCategory.VISUAL_OBJECT, InsightCategory.TOPIC -> insight.content
+                else -> null
+            }
+            reference?.let { referencePoints.getOrPut(it) { ReferencePoint() }.add(insight) }
+            
+            // Track competing intents and sentiments, keeping the first of equal confidence
             when (insight.category) {
-                InsightCategory.ENTITY -> {
-                    // Entities can be reference points for cross-modal connections
-                    val key = normalizeEntityName(insight.content)
-                    referencePoints.getOrPut(key) { mutableListOf() }.add(insight)
-                }
-                InsightCategory.VISUAL_OBJECT -> {
-                    // Visual objects can be reference points
-                    referencePoints.getOrPut(insight.content) { mutableListOf() }.add(insight)
+                InsightCategory.INTENT -> {
+                    intentCount++
+                    if (insight.confidence > (primaryIntent?.confidence ?: Float.NEGATIVE_INFINITY)) {
+                        primaryIntent = insight
+                    }
                 }
-                InsightCategory.TOPIC -> {
-                    // Topics can be reference points
-                    referencePoints.getOrPut(insight.content) { mutableListOf() }.add(insight)
+                InsightCategory.SENTIMENT -> {
+                    sentimentCount++
+                    if (insight.confidence > (primarySentiment?.confidence ?: Float.NEGATIVE_INFINITY)) {
+                        primarySentiment = insight
+                    }
+                    if (insight.source == InputType.AUDIO && audioSentiment == null) {
+                        audioSentiment = insight
+                    }
                 }
                 else -> {
-                    // Other categories might also be reference points in specific cases
+                    // Other categories don't take part in conflict resolution
+                }
+            }
+            
+            // Track the insights used to enhance one modality with another
+            val isVisual = insight.source == InputType.IMAGE || insight.source == InputType.VIDEO
+            when {
+                insight.source == InputType.TEXT && insight.category == InsightCategory.INTENT -> {
+                    if (insight.confidence > (primaryTextIntent?.confidence ?: Float.NEGATIVE_INFINITY)) {
+                        primaryTextIntent = insight
+                    }
+                }
+                isVisual && insight.category == InsightCategory.VISUAL_OBJECT -> {
+                    if (insight.confidence > (primaryVisualObject?.confidence ?: Float.NEGATIVE_INFINITY)) {
+                        primaryVisualObject = insight
+                    }
+                }
+                isVisual && insight.category == InsightCategory.SCENE_CONTEXT -> {
+                    if (firstVisualScene == null) firstVisualScene = insight
+                }
+                insight.source == InputType.AUDIO && insight.category == InsightCategory.AUDIO_TRANSCRIPTION -> {
+                    if (firstTranscription == null) firstTranscription = insight
                 }
             }
         }
         
-        return referencePoints
-    }
-    
-    /**
-     * Normalize entity names for better matching
-     */
-    private fun normalizeEntityName(entity: String): String {
-        // Extract just the entity name without the type prefix
-        val colonIndex = entity.indexOf(':')
-        return if (colonIndex > 0) {
-            entity.substring(colonIndex + 1).trim()
-        } else {
-            entity.trim()
-        }
-    }
-    
-    /**
-     * Find connections between insights from different modalities
-     */
-    private fun findCrossModalConnections(
-        insights: List<InputInsight>,
-        referencePoints: Map<String, List<InputInsight>>
-    ): List<InputInsight> {
-        val connections = mutableListOf<InputInsight>()
-        
-        // Look for reference points that occur across multiple modalities
-        referencePoints.forEach { (reference, relatedInsights) ->
-            // Check if this reference point appears in multiple modalities
-            val modalities = relatedInsights.map { it.source }.toSet()
-            if (modalities.size > 1) {
-                // Create a cross-reference insight
-                connections.add(
-                    InputInsight(
-                        id = UUID.randomUUID().toString(),
-                        category = InsightCategory.CROSS_REFERENCE,
-                        content = "Cross-modal reference: $reference appears in ${modalities.joinToString(", ")}",
-                        confidence = calculateAverageConfidence(relatedInsights),
-                        source = InputType.MULTIMODAL
+        private fun buildIntegratedInsights(): List<InputInsight> {
+            if (understandings.isEmpty()) {
+                return emptyList()
+            }
+            
+            // If there's only one understanding, there's no integration to do
+            if (understandings.size == 1) {
+                return understandings[0].insights
+            }
+            
+            val integratedInsights = mutableListOf<InputInsight>()
+            
+            // Find cross-modal connections: reference points that occur across multiple modalities
+            referencePoints.forEach { (reference, point) ->
+                if (point.modalities.size > 1) {
+                    integratedInsights.add(
+                        insight(
+                            category = InsightCategory.CROSS_REFERENCE,
+                            content = "Cross-modal reference: $reference appears in ${point.modalities.joinToString(", ")}",
+                            confidence = point.averageConfidence
+                        )
                     )
-                )
+                }
             }
-        }
-        
-        // Look for temporal alignments (e.g., speech mentioning an object while it's visible)
-        // This would require timestamp information in a real implementation
-        
-        // Look for spatial alignments (e.g., pointing at an object while talking about it)
-        // This would require spatial information in a real implementation
-        
-        return connections
-    }
-    
-    /**
-     * Resolve conflicts between insights from different modalities
-     */
-    private fun resolveModalityConflicts(insights: List<InputInsight>): List<InputInsight> {
-        val resolvedInsights = mutableListOf<InputInsight>()
-        
-        // Group insights by category for conflict detection
-        val insightsByCategory = insights.groupBy { it.category }
-        
-        // Look for conflicting intent insights
-        val intentInsights = insightsByCategory[InsightCategory.INTENT] ?: emptyList()
-        if (intentInsights.size > 1) {
+            
+            // Resolve conflicts between modalities
             // In a real implementation, we'd use more sophisticated conflict resolution
-            // For now, just choose the one with highest confidence
-            val primaryIntent = intentInsights.maxByOrNull { it.confidence }
-            if (primaryIntent != null) {
-                resolvedInsights.add(
-                    InputInsight(
-                        id = UUID.randomUUID().toString(),
-                        category = InsightCategory.INTENT,
-                        content = "Resolved intent: ${primaryIntent.content}",
-                        confidence = primaryIntent.confidence,
-                        source = InputType.MULTIMODAL
-                    )
+            // For now, just choose the intent with highest confidence
+            val intent = primaryIntent
+            if (intentCount > 1 && intent != null) {
+                integratedInsights.add(
+                    insight(InsightCategory.INTENT, "Resolved intent: ${intent.content}", intent.confidence)
                 )
             }
-        }
-        
-        // Look for conflicting sentiment insights
-        val sentimentInsights = insightsByCategory[InsightCategory.SENTIMENT] ?: emptyList()
-        if (sentimentInsights.size > 1) {
-            // For demonstration, we'll prioritize audio emotion over text sentiment
-            val audioEmotionInsight = sentimentInsights.find { it.source == InputType.AUDIO }
-            val primarySentiment = audioEmotionInsight ?: sentimentInsights.maxByOrNull { it.confidence }
             
-            if (primarySentiment != null) {
-                resolvedInsights.add(
-                    InputInsight(
-                        id = UUID.randomUUID().toString(),
-                        category = InsightCategory.SENTIMENT,
-                        content = "Resolved sentiment: ${primarySentiment.content}",
-                        confidence = primarySentiment.confidence,
-                        source = InputType.MULTIMODAL
-                    )
+            // For demonstration, we'll prioritize audio emotion over text sentiment
+            val sentiment = audioSentiment ?: primarySentiment
+            if (sentimentCount > 1 && sentiment != null) {
+                integratedInsights.add(
+                    insight(InsightCategory.SENTIMENT, "Resolved sentiment: ${sentiment.content}", sentiment.confidence)
                 )
             }
-        }
-        
-        return resolvedInsights
-    }
-    
-    /**
-     * Enhance insights with additional context from other modalities
-     */
-    private fun enhanceWithCrossModalContext(insights: List<InputInsight>): List<InputInsight> {
-        val enhancedInsights = mutableListOf<InputInsight>()
-        
-        // For demonstration, we'll create a few examples of enhanced insights
-        
-        // Example: Enhance text understanding with visual context
-        val textInsights = insights.filter { it.source == InputType.TEXT }
-        val visualInsights = insights.filter { it.source == InputType.IMAGE || it.source == InputType.VIDEO }
-        
-        if (textInsights.isNotEmpty() && visualInsights.isNotEmpty()) {
-            // Look for intents in text that could be enhanced with visual info
-            val textIntents = textInsights.filter { it.category == InsightCategory.INTENT }
-            val visualObjects = visualInsights.filter { it.category == InsightCategory.VISUAL_OBJECT }
             
-            // For demonstration, we'll create an enhanced insight if there's both an intent and objects
-            if (textIntents.isNotEmpty() && visualObjects.isNotEmpty()) {
-                val primaryIntent = textIntents.maxByOrNull { it.confidence }
-                val primaryObject = visualObjects.maxByOrNull { it.confidence }
-                
-                if (primaryIntent != null && primaryObject != null) {
-                    enhancedInsights.add(
-                        InputInsight(
-                            id = UUID.randomUUID().toString(),
-                            category = InsightCategory.INTENT,
-                            content = "Enhanced intent: ${primaryIntent.content} with visual context of ${primaryObject.content}",
-                            confidence = (primaryIntent.confidence + primaryObject.confidence) / 2,
-                            source = InputType.MULTIMODAL
-                        )
+            // Enhance text understanding with visual context
+            val textIntent = primaryTextIntent
+            val visualObject = primaryVisualObject
+            if (textIntent != null && visualObject != null) {
+                integratedInsights.add(
+                    insight(
+                        category = InsightCategory.INTENT,
+                        content = "Enhanced intent: ${textIntent.content} with visual context of ${visualObject.content}",
+                        confidence = (textIntent.confidence + visualObject.confidence) / 2
                     )
-                }
+                )
             }
-        }
-        
-        // Example: Enhance audio transcription with visual context
-        val audioTranscriptions = insights.filter { 
-            it.source == InputType.AUDIO && it.category == InsightCategory.AUDIO_TRANSCRIPTION 
-        }
-        
-        if (audioTranscriptions.isNotEmpty() && visualInsights.isNotEmpty()) {
-            val transcription = audioTranscriptions.first()
-            val visualScene = visualInsights.find { it.category == InsightCategory.SCENE_CONTEXT }
             
-            if (visualScene != null) {
-                enhancedInsights.add(
-                    InputInsight(
-                        id = UUID.randomUUID().toString(),
+            // Enhance audio transcription with visual context
+            val transcription = firstTranscription
+            val visualScene = firstVisualScene
+            if (transcription != null && visualScene != null) {
+                integratedInsights.add(
+                    insight(
                         category = InsightCategory.CROSS_REFERENCE,
                         content = "Speech in context: Transcription '${transcription.content}' in visual scene '${visualScene.content}'",
-                        confidence = (transcription.confidence + visualScene.confidence) / 2,
-                        source = InputType.MULTIMODAL
+                        confidence = (transcription.confidence + visualScene.confidence) / 2
                     )
                 )
             }
+            
+            return integratedInsights
         }
         
-        return enhancedInsights
+        /**
+         * Create an integrated insight, reusing the earlier one if nothing about it changed
+         */
+        private fun insight(category: InsightCategory, content: String, confidence: Float): InputInsight {
+            val cached = cachedInsights["$category|$content"]
+            if (cached != null && cached.confidence == confidence) {
+                return cached
+            }
+            return InputInsight(
+                id = UUID.randomUUID().toString(),
+                category = category,
+                content = content,
+                confidence = confidence,
+                source = InputType.MULTIMODAL
+            ).also { cachedInsights["$category|$content"] = it }
+        }
     }
     
     /**
-     * Calculate the average confidence across insights
+     * Insights sharing a reference point, with the modalities they came from
      */
-    private fun calculateAverageConfidence(insights: List<InputInsight>): Float {
-        if (insights.isEmpty()) return 0.0f
+    private class ReferencePoint {
+        val modalities = linkedSetOf<InputType>()
+        private var totalConfidence = 0.0
+        private var count = 0
+        
+        val averageConfidence: Float
+            get() = if (count == 0) 0.0f else (totalConfidence / count).toFloat()
         
-        val totalConfidence = insights.sumOf { it.confidence.toDouble() }
-        return (totalConfidence / insights.size).toFloat()
+        fun add(insight: InputInsight) {
+            modalities.add(insight.source)
+            totalConfidence += insight.confidence
+            count++
+        }
+    }
+    
+    private companion object {
+        /**
+         * Normalize entity names for better matching
+         */
+        fun normalizeEntityName(entity: String): String {
+            // Extract just the entity name without the type prefix
+            val colonIndex = entity.indexOf(':')
+            return if (colonIndex > 0) {
+                entity.substring(colonIndex + 1).trim()
+            } else {
+                entity.trim()
+            }
+        }
     }
 }
@@ -8,24 +8,52 @@
 package com.sallie.multimodal
 
 import com.sallie.core.values.ValuesSystem
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.last
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import java.util.UUID
 
+/**
+ * Produces the understanding of one input of a multimodal input
+ */
+internal fun interface InputUnderstander {
+    suspend fun understand(input: MultimodalInput): InputUnderstanding
+}
+
 /**
  * The main multimodal processing system that coordinates different input modalities
  * and provides a unified processing pipeline.
+ *
+ * @param modalityTimeouts How long each modality may take, in milliseconds, when
+ * processed as part of a multimodal input
+ * @param understander Replaces the modality processors for multimodal inputs; null uses them
  */
-class MultimodalProcessingSystem(
-    private val valueSystem: ValuesSystem
+class MultimodalProcessingSystem internal constructor(
+    private val valueSystem: ValuesSystem,
+    private val modalityTimeouts: Map<InputType, Long>,
+    understander: InputUnderstander?
 ) {
+    constructor(
+        valueSystem: ValuesSystem,
+        modalityTimeouts: Map<InputType, Long> = DEFAULT_MODALITY_TIMEOUTS
+    ) : this(valueSystem, modalityTimeouts, null)
+    
     // Individual processors for different modalities
     private val textProcessor = TextInputProcessor()
     private val imageProcessor = ImageInputProcessor(valueSystem)
     private val audioProcessor = AudioInputProcessor(valueSystem)
     private val videoProcessor = VideoInputProcessor(valueSystem)
     
+    private val understander = understander ?: InputUnderstander { understand(it) }
+    
     // Cross-modal integrator for combining insights from different modalities
     private val crossModalIntegrator = CrossModalIntegrator()
     
@@ -42,27 +70,15 @@ class MultimodalProcessingSystem(
     suspend fun processText(text: String): InputUnderstanding {
         _processingStatus.value = ProcessingStatus.Processing(InputType.TEXT)
         
-        // Check if the text content aligns with values
-        val valueCheck = valueSystem.checkUserInput(text)
-        if (!valueCheck.isApproved) {
+        val textUnderstanding = understandText(text)
+        if (textUnderstanding.status == UnderstandingStatus.REJECTED) {
             _processingStatus.value = ProcessingStatus.Rejected(
-                reason = valueCheck.explanation,
+                reason = textUnderstanding.reason ?: "Content rejected",
                 inputType = InputType.TEXT
             )
-            return InputUnderstanding(
-                id = UUID.randomUUID().toString(),
-                inputType = InputType.TEXT,
-                status = UnderstandingStatus.REJECTED,
-                reason = valueCheck.explanation,
-                insights = emptyList(),
-                confidence = 0.0f,
-                timestamp = System.currentTimeMillis()
-            )
+            return textUnderstanding
         }
         
-        // Process the text
-        val textUnderstanding = textProcessor.processText(text)
-        
         // Update context with new understanding
         contextManager.updateContext(textUnderstanding)
         
@@ -99,10 +115,17 @@ class MultimodalProcessingSystem(
      * Process an audio input and return a structured understanding
      */
     suspend fun processAudio(audioData: ByteArray, metadata: Map<String, String>?): InputUnderstanding {
+        return processAudioStream(flowOf(audioData), metadata)
+    }
+    
+    /**
+     * Process an audio input that arrives in chunks and return a structured understanding
+     */
+    suspend fun processAudioStream(audioChunks: Flow<ByteArray>, metadata: Map<String, String>?): InputUnderstanding {
         _processingStatus.value = ProcessingStatus.Processing(InputType.AUDIO)
         
         // Process the audio
-        val audioUnderstanding = audioProcessor.processAudio(audioData, metadata)
+        val audioUnderstanding = audioProcessor.processAudioStream(audioChunks, metadata)
         
         // Check if the content aligns with values
         if (audioUnderstanding.status == UnderstandingStatus.CONTAINS_SENSITIVE_CONTENT) {
@@ -124,10 +147,17 @@ class MultimodalProcessingSystem(
      * Process a video input and return a structured understanding
      */
     suspend fun processVideo(videoData: ByteArray, metadata: Map<String, String>?): InputUnderstanding {
+        return processVideoStream(flowOf(videoData), metadata)
+    }
+    
+    /**
+     * Process a video input that arrives in chunks and return a structured understanding
+     */
+    suspend fun processVideoStream(videoChunks: Flow<ByteArray>, metadata: Map<String, String>?): InputUnderstanding {
         _processingStatus.value = ProcessingStatus.Processing(InputType.VIDEO)
         
         // Process the video
-        val videoUnderstanding = videoProcessor.processVideo(videoData, metadata)
+        val videoUnderstanding = videoProcessor.processVideoStream(videoChunks, metadata)
         
         // Check if the content aligns with values
         if (videoUnderstanding.status == UnderstandingStatus.CONTAINS_SENSITIVE_CONTENT) {
@@ -151,49 +181,100 @@ class MultimodalProcessingSystem(
     suspend fun processMultimodalInput(
         inputs: List<MultimodalInput>
     ): MultimodalUnderstanding {
+        return processMultimodalInputIncrementally(inputs).last()
+    }
+    
+    /**
+     * Process multiple inputs of different modalities together, emitting the fused
+     * understanding so far each time a modality completes
+     *
+     * Every modality is processed concurrently within its own timeout. A modality that
+     * times out or fails is reported as not understood and the rest are still fused;
+     * a rejected input cancels the others. Understandings are fused in input order, so the
+     * result does not depend on which modality finishes first. The last emission is the
+     * final understanding.
+     */
+    fun processMultimodalInputIncrementally(
+        inputs: List<MultimodalInput>
+    ): Flow<MultimodalUnderstanding> = channelFlow {
         _processingStatus.value = ProcessingStatus.Processing(InputType.MULTIMODAL)
         
-        val understandings = mutableListOf<InputUnderstanding>()
+        val id = UUID.randomUUID().toString()
+        val fusion = crossModalIntegrator.startFusion()
+        val results = arrayOfNulls<InputUnderstanding>(inputs.size)
+        var fusedCount = 0
         
-        // Process each input
-        for (input in inputs) {
-            val understanding = when (input) {
-                is MultimodalInput.TextInput -> processText(input.text)
-                is MultimodalInput.ImageInput -> processImage(input.imageData, input.metadata)
-                is MultimodalInput.AudioInput -> processAudio(input.audioData, input.metadata)
-                is MultimodalInput.VideoInput -> processVideo(input.videoData, input.metadata)
+        // Process each input concurrently, collecting results as they complete
+        val completed = Channel<Pair<Int, InputUnderstanding>>(Channel.UNLIMITED)
+        val workers = inputs.mapIndexed { index, input ->
+            launch(Dispatchers.Default) {
+                completed.send(index to understandWithinTimeout(input))
             }
+        }
+        
+        repeat(inputs.size) { count ->
+            val (index, understanding) = completed.receive()
+            results[index] = understanding
             
             // If any input is rejected, the entire multimodal input is rejected
             if (understanding.status == UnderstandingStatus.REJECTED) {
+                workers.forEach { it.cancel() }
                 _processingStatus.value = ProcessingStatus.Rejected(
                     reason = understanding.reason ?: "Content rejected",
                     inputType = InputType.MULTIMODAL
                 )
                 
-                return MultimodalUnderstanding(
-                    id = UUID.randomUUID().toString(),
-                    understandings = understandings + understanding,
-                    status = UnderstandingStatus.REJECTED,
-                    reason = understanding.reason,
-                    integratedInsights = emptyList(),
-                    timestamp = System.currentTimeMillis()
+                send(
+                    MultimodalUnderstanding(
+                        id = id,
+                        understandings = results.filterNotNull(),
+                        status = UnderstandingStatus.REJECTED,
+                        reason = understanding.reason,
+                        integratedInsights = emptyList(),
+                        timestamp = System.currentTimeMillis()
+                    )
                 )
+                return@channelFlow
             }
             
-            understandings.add(understanding)
+            // Fold in the completed prefix of the inputs, in input order
+            while (fusedCount < results.size) {
+                fusion.add(results[fusedCount] ?: break)
+                fusedCount++
+            }
+            
+            if (count < inputs.size - 1) {
+                // Inputs that finished ahead of an earlier one are replayed in input order
+                val insights = if (fusedCount == count + 1) {
+                    fusion.integratedInsights()
+                } else {
+                    crossModalIntegrator.startFusion()
+                        .apply { results.forEach { it?.let(::add) } }
+                        .integratedInsights()
+                }
+                send(
+                    MultimodalUnderstanding(
+                        id = id,
+                        understandings = results.filterNotNull(),
+                        status = UnderstandingStatus.PARTIALLY_UNDERSTOOD,
+                        reason = null,
+                        integratedInsights = insights,
+                        timestamp = System.currentTimeMillis()
+                    )
+                )
+            }
         }
         
-        // Integrate understandings across modalities
-        val integratedInsights = crossModalIntegrator.integrateUnderstandings(understandings)
+        val understandings = results.filterNotNull()
+        val incomplete = understandings.filter { it.status == UnderstandingStatus.NOT_UNDERSTOOD }
         
         // Create the multimodal understanding
         val multimodalUnderstanding = MultimodalUnderstanding(
-            id = UUID.randomUUID().toString(),
+            id = id,
             understandings = understandings,
-            status = UnderstandingStatus.UNDERSTOOD,
-            reason = null,
-            integratedInsights = integratedInsights,
+            status = if (incomplete.isEmpty()) UnderstandingStatus.UNDERSTOOD else UnderstandingStatus.PARTIALLY_UNDERSTOOD,
+            reason = incomplete.mapNotNull { it.reason }.takeIf { it.isNotEmpty() }?.joinToString("; "),
+            integratedInsights = fusion.integratedInsights(),
             timestamp = System.currentTimeMillis()
         )
         
@@ -201,7 +282,7 @@ class MultimodalProcessingSystem(
         contextManager.updateMultimodalContext(multimodalUnderstanding)
         
         _processingStatus.value = ProcessingStatus.Completed(InputType.MULTIMODAL)
-        return multimodalUnderstanding
+        send(multimodalUnderstanding)
     }
     
     /**
@@ -224,6 +305,94 @@ class MultimodalProcessingSystem(
     fun clearContext() {
         contextManager.clearContext()
     }
+    
+    /**
+     * Check a text input against values and extract its understanding
+     */
+    private suspend fun understandText(text: String): InputUnderstanding {
+        // Check if the text content aligns with values
+        val valueCheck = valueSystem.checkUserInput(text)
+        if (!valueCheck.isApproved) {
+            return InputUnderstanding(
+                id = UUID.randomUUID().toString(),
+                inputType = InputType.TEXT,
+                status = UnderstandingStatus.REJECTED,
+                reason = valueCheck.explanation,
+                insights = emptyList(),
+                confidence = 0.0f,
+                timestamp = System.currentTimeMillis()
+            )
+        }
+        
+        // Process the text
+        return textProcessor.processText(text)
+    }
+    
+    /**
+     * Understand one input of a multimodal input within its modality's timeout
+     *
+     * Context and status are left to the multimodal pipeline, which updates them
+     * once for the whole input.
+     */
+    private suspend fun understandWithinTimeout(input: MultimodalInput): InputUnderstanding {
+        val inputType = when (input) {
+            is MultimodalInput.TextInput -> InputType.TEXT
+            is MultimodalInput.ImageInput -> InputType.IMAGE
+            is MultimodalInput.AudioInput, is MultimodalInput.AudioStreamInput -> InputType.AUDIO
+            is MultimodalInput.VideoInput, is MultimodalInput.VideoStreamInput -> InputType.VIDEO
+        }
+        val timeoutMs = modalityTimeouts[inputType] ?: DEFAULT_MODALITY_TIMEOUT_MS
+        
+        return try {
+            withTimeoutOrNull(timeoutMs) { understander.understand(input) }
+                ?: notUnderstood(inputType, "Processing timed out after ${timeoutMs}ms")
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            println("Error processing ${inputType.name.lowercase()} input: ${e.message}")
+            notUnderstood(inputType, e.message ?: "Processing failed")
+        }
+    }
+    
+    /**
+     * Understand one input with the processor for its modality
+     */
+    private suspend fun understand(input: MultimodalInput): InputUnderstanding {
+        return when (input) {
+            is MultimodalInput.TextInput -> understandText(input.text)
+            is MultimodalInput.ImageInput -> imageProcessor.processImage(input.imageData, input.metadata)
+            is MultimodalInput.AudioInput -> audioProcessor.processAudio(input.audioData, input.metadata)
+            is MultimodalInput.AudioStreamInput -> audioProcessor.processAudioStream(input.audioChunks, input.metadata)
+            is MultimodalInput.VideoInput -> videoProcessor.processVideo(input.videoData, input.metadata)
+            is MultimodalInput.VideoStreamInput -> videoProcessor.processVideoStream(input.videoChunks, input.metadata)
+        }
+    }
+    
+    private fun notUnderstood(inputType: InputType, reason: String): InputUnderstanding {
+        return InputUnderstanding(
+            id = UUID.randomUUID().toString(),
+            inputType = inputType,
+            status = UnderstandingStatus.NOT_UNDERSTOOD,
+            reason = reason,
+            insights = emptyList(),
+            confidence = 0.0f,
+            timestamp = System.currentTimeMillis()
+        )
+    }
+    
+    companion object {
+        private const val DEFAULT_MODALITY_TIMEOUT_MS = 10_000L
+        
+        /**
+         * Default per-modality timeouts, in milliseconds
+         */
+        val DEFAULT_MODALITY_TIMEOUTS = mapOf(
+            InputType.TEXT to 2_000L,
+            InputType.IMAGE to 5_000L,
+            InputType.AUDIO to 10_000L,
+            InputType.VIDEO to 20_000L
+        )
+    }
 }
 
 /**
@@ -394,4 +563,14 @@ sealed class MultimodalInput {
             return result
         }
     }
+    
+    /**
+     * Audio delivered in chunks as it is recorded or downloaded
+     */
+    data class AudioStreamInput(val audioChunks: Flow<ByteArray>, val metadata: Map<String, String>?) : MultimodalInput()
+    
+    /**
+     * Video delivered in chunks as it is recorded or downloaded
+     */
+    data class VideoStreamInput(val videoChunks: Flow<ByteArray>, val metadata: Map<String, String>?) : MultimodalInput()
 }
@@ -8,6 +8,16 @@
 package com.sallie.multimodal
 
 import com.sallie.core.values.ValuesSystem
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.flow.takeWhile
+import kotlinx.coroutines.selects.select
 import java.util.UUID
 
 /**
@@ -24,10 +34,57 @@ class VideoInputProcessor(
      * Process video input and extract structured insights
      */
     suspend fun processVideo(videoData: ByteArray, metadata: Map<String, String>?): InputUnderstanding {
-        // First, perform safety checks on the video
-        val safetyCheck = performSafetyCheck(videoData)
+        return processVideoStream(flowOf(videoData), metadata)
+    }
+    
+    /**
+     * Process video as it arrives in chunks and extract structured insights
+     *
+     * Key frames are analyzed concurrently as soon as their chunk arrives, and the
+     * audio track is streamed to the audio processor while the video is still being
+     * read, so analysis overlaps with delivery instead of waiting for the whole file.
+     */
+    suspend fun processVideoStream(videoChunks: Flow<ByteArray>, metadata: Map<String, String>?): InputUnderstanding = coroutineScope {
+        // In a real implementation, this would extract key frames and audio
+        // and analyze them using the image and audio processors
+        
+        val audioTrack = Channel<ByteArray>(AUDIO_BUFFER_CHUNKS)
+        val audioUnderstanding = async { audioProcessor.processAudioStream(audioTrack.receiveAsFlow(), null) }
+        
+        val keyFrames = mutableListOf<ByteArray>()
+        val frameUnderstandings = mutableListOf<Deferred<InputUnderstanding>>()
+        var safetyCheck = ValuesSystem.ContentCheck(true, null)
+        
+        try {
+            videoChunks
+                .takeWhile { chunk ->
+                    // First, perform safety checks on the video
+                    safetyCheck = performSafetyCheck(chunk)
+                    safetyCheck.isApproved
+                }
+                .collect { chunk ->
+                    // Process each new key frame as an image
+                    for (frame in extractKeyFrames(chunk)) {
+                        if (keyFrames.size >= MAX_KEY_FRAMES) break
+                        keyFrames.add(frame)
+                        frameUnderstandings.add(async { imageProcessor.processImage(frame, null) })
+                    }
+                    
+                    // Feed the audio track, unless the audio side has already stopped reading
+                    val audio = extractAudioTrack(chunk)
+                    select<Unit> {
+                        audioTrack.onSend(audio) {}
+                        audioUnderstanding.onAwait {}
+                    }
+                }
+        } finally {
+            audioTrack.close()
+        }
+        
         if (!safetyCheck.isApproved) {
-            return InputUnderstanding(
+            audioUnderstanding.cancel()
+            frameUnderstandings.forEach { it.cancel() }
+            return@coroutineScope InputUnderstanding(
                 id = UUID.randomUUID().toString(),
                 inputType = InputType.VIDEO,
                 status = UnderstandingStatus.CONTAINS_SENSITIVE_CONTENT,
@@ -38,38 +95,22 @@ class VideoInputProcessor(
             )
         }
         
-        // In a real implementation, this would extract key frames and audio
-        // and analyze them using the image and audio processors
-        
         val insights = mutableListOf<InputInsight>()
         
-        // Extract key frames (simplified example)
-        val keyFrames = extractKeyFrames(videoData)
-        
-        // Process each key frame
-        for (frame in keyFrames) {
-            // Process the frame as an image
-            val frameUnderstanding = imageProcessor.processImage(frame, null)
-            
-            // Add all insights from the frame, but mark them as coming from video
+        // Add all insights from the frames, but mark them as coming from video
+        for (frameUnderstanding in frameUnderstandings.awaitAll()) {
             insights.addAll(frameUnderstanding.insights.map {
                 it.copy(source = InputType.VIDEO, id = UUID.randomUUID().toString())
             })
         }
         
-        // Extract audio track (simplified example)
-        val audioTrack = extractAudioTrack(videoData)
-        
-        // Process the audio track
-        val audioUnderstanding = audioProcessor.processAudio(audioTrack, null)
-        
         // Add all insights from the audio, but mark them as coming from video
-        insights.addAll(audioUnderstanding.insights.map {
+        insights.addAll(audioUnderstanding.await().insights.map {
             it.copy(source = InputType.VIDEO, id = UUID.randomUUID().toString())
         })
         
         // Analyze scene changes (simplified example)
-        val sceneChanges = analyzeSceneChanges(videoData)
+        val sceneChanges = analyzeSceneChanges(keyFrames)
         insights.add(
             InputInsight(
                 id = UUID.randomUUID().toString(),
@@ -81,7 +122,7 @@ class VideoInputProcessor(
         )
         
         // Analyze motion (simplified example)
-        val motionAnalysis = analyzeMotion(videoData)
+        val motionAnalysis = analyzeMotion(keyFrames)
         insights.add(
             InputInsight(
                 id = UUID.randomUUID().toString(),
@@ -105,7 +146,7 @@ class VideoInputProcessor(
             )
         }
         
-        return InputUnderstanding(
+        InputUnderstanding(
             id = UUID.randomUUID().toString(),
             inputType = InputType.VIDEO,
             status = UnderstandingStatus.UNDERSTOOD,
@@ -116,9 +157,9 @@ class VideoInputProcessor(
     }
     
     /**
-     * Perform safety checks on the video
+     * Perform safety checks on a chunk of the video
      */
-    private suspend fun performSafetyCheck(videoData: ByteArray): ValuesSystem.ContentCheck {
+    private suspend fun performSafetyCheck(videoChunk: ByteArray): ValuesSystem.ContentCheck {
         // In a real implementation, this would analyze the video content
         // for inappropriate visuals or audio
         
@@ -128,26 +169,23 @@ class VideoInputProcessor(
     }
     
     /**
-     * Extract key frames from the video
+     * Extract the key frames that start in a chunk of the video
      */
-    private fun extractKeyFrames(videoData: ByteArray): List<ByteArray> {
-        // In a real implementation, this would extract representative frames
-        // from the video for analysis
+    private fun extractKeyFrames(videoChunk: ByteArray): List<ByteArray> {
+        // In a real implementation, this would decode the chunk and extract
+        // representative frames for analysis
         
-        // For demonstration purposes, we'll just return some fake frames
+        // For demonstration purposes, we'll just return a fake frame per chunk
         // In a real implementation, we'd actually analyze the video
-        return listOf(
-            ByteArray(100), // Fake frame 1
-            ByteArray(100)  // Fake frame 2
-        )
+        return listOf(ByteArray(100))
     }
     
     /**
-     * Extract the audio track from the video
+     * Extract the part of the audio track carried in a chunk of the video
      */
-    private fun extractAudioTrack(videoData: ByteArray): ByteArray {
-        // In a real implementation, this would separate the audio track
-        // from the video for analysis
+    private fun extractAudioTrack(videoChunk: ByteArray): ByteArray {
+        // In a real implementation, this would demultiplex the audio packets
+        // in the chunk for analysis
         
         // For demonstration purposes, we'll just return a fake audio track
         // In a real implementation, we'd actually extract from the video
@@ -157,9 +195,9 @@ class VideoInputProcessor(
     /**
      * Analyze scene changes in the video
      */
-    private fun analyzeSceneChanges(videoData: ByteArray): String {
-        // In a real implementation, this would detect when the scene changes
-        // in the video
+    private fun analyzeSceneChanges(keyFrames: List<ByteArray>): String {
+        // In a real implementation, this would compare consecutive key frames
+        // to detect when the scene changes
         
         // For demonstration purposes, we'll just return a fake analysis
         // In a real implementation, we'd actually analyze the video
@@ -169,9 +207,9 @@ class VideoInputProcessor(
     /**
      * Analyze motion in the video
      */
-    private fun analyzeMotion(videoData: ByteArray): String {
+    private fun analyzeMotion(keyFrames: List<ByteArray>): String {
         // In a real implementation, this would analyze the movement of objects
-        // in the video
+        // across the key frames
         
         // For demonstration purposes, we'll just return a fake analysis
         // In a real implementation, we'd actually analyze the video
@@ -187,4 +225,12 @@ class VideoInputProcessor(
         val totalConfidence = insights.sumOf { it.confidence.toDouble() }
         return (totalConfidence / insights.size).toFloat()
     }
+    
+    companion object {
+        // Audio chunks buffered ahead of the audio processor
+        private const val AUDIO_BUFFER_CHUNKS = 8
+        
+        // Upper bound on the key frames analyzed per video
+        private const val MAX_KEY_FRAMES = 32
+    }
 }
@@ -19,14 +19,20 @@ package com.sallie.orchestration
 
 import com.sallie.core.PluginRegistry
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.transform
 import java.time.Instant
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
 
 /**
  * Central orchestration controller for managing Sallie's components
@@ -290,6 +296,7 @@ class ExpandedOrchestrationController(
      */
     fun getPerformanceReport(): PerformanceReport {
         return performanceAnalytics.generateReport()
+            .copy(communicationMetrics = communicationBus.getTopicMetrics())
     }
     
     /**
@@ -667,57 +674,108 @@ class ResourceAllocationManager {
 }
 
 /**
- * Communication bus for inter-module messaging
+ * Communication bus for inter-module messaging.
+ *
+ * Every (component, topic) subscription owns a bounded mailbox channel, so publishing is a
+ * direct send with no polling loop. A full mailbox either suspends the publisher, drops its
+ * oldest message or keeps only the latest one, depending on the topic's [MessageOverflowPolicy].
+ * Subscribers drain whatever is queued as one batch per wake-up.
+ *
+ * A mailbox is created when its component registers (or first subscribes) and closed when it
+ * unregisters, so messages sent before the component starts collecting, or between two
+ * collectors, wait in the mailbox under its capacity and overflow policy. Each component may
+ * have a single collector per topic.
  */
-class InterModuleCommunicationBus {
+class InterModuleCommunicationBus(
+    private val mailboxCapacity: Int = 256,
+    private val defaultOverflowPolicy: MessageOverflowPolicy = MessageOverflowPolicy.SUSPEND,
+    private val topicOverflowPolicies: Map<String, MessageOverflowPolicy> = emptyMap(),
+    private val maxBatchSize: Int = 64
+) {
+    /**
+     * Queue of undelivered messages for one subscriber on one topic
+     */
+    private inner class Mailbox(val topic: String) {
+        val depth = AtomicInteger()
+        val collecting = AtomicBoolean()
+        val channel: Channel<InterModuleMessage> = when (topicOverflowPolicies[topic] ?: defaultOverflowPolicy) {
+            MessageOverflowPolicy.SUSPEND -> Channel(mailboxCapacity, BufferOverflow.SUSPEND, ::onDropped)
+            MessageOverflowPolicy.DROP_OLDEST -> Channel(mailboxCapacity, BufferOverflow.DROP_OLDEST, ::onDropped)
+            MessageOverflowPolicy.CONFLATE -> Channel(Channel.CONFLATED, onUndeliveredElement = ::onDropped)
+        }
+        
+        /**
+         * Enqueues without suspending: true when queued, false when the mailbox is closed
+         * and null when a suspending mailbox is full
+         */
+        fun offer(message: InterModuleMessage): Boolean? {
+            depth.incrementAndGet()
+            val result = channel.trySend(message)
+            return when {
+                result.isSuccess -> true
+                // trySend does not hand closed sends to onUndeliveredElement, unlike send
+                result.isClosed -> false.also { onDropped(message) }
+                else -> null
+            }
+        }
+        
+        /**
+         * Waits for space after [offer] returned null; the message is already counted in [depth]
+         */
+        suspend fun send(message: InterModuleMessage): Boolean = try {
+            channel.send(message)
+            true
+        } catch (e: ClosedSendChannelException) {
+            false
+        }
+        
+        private fun onDropped(message: InterModuleMessage) {
+            depth.decrementAndGet()
+            metricsFor(topic).dropped.increment()
+        }
+    }
+    
+    private class TopicCounters {
+        val published = LongAdder()
+        val delivered = LongAdder()
+        val dropped = LongAdder()
+    }
+    
     // Message topics and their subscribers
     private val topics = ConcurrentHashMap<String, MutableSet<String>>()
     
-    // Flow controllers for topics
-    private val topicFlows = ConcurrentHashMap<String, MutableMap<String, MutableStateFlow<List<InterModuleMessage>>>>()
+    // Mailboxes by topic and component
+    private val mailboxes = ConcurrentHashMap<String, ConcurrentHashMap<String, Mailbox>>()
     
     // Component topics
     private val componentTopics = ConcurrentHashMap<String, MutableSet<String>>()
     
-    // Pending messages
-    private val pendingMessages = ConcurrentHashMap<String, MutableList<InterModuleMessage>>()
+    // Per-topic throughput counters
+    private val topicMetrics = ConcurrentHashMap<String, TopicCounters>()
     
-    // Coroutine scope for message processing
-    private val communicationScope = CoroutineScope(
-        SupervisorJob() + Dispatchers.IO + CoroutineName("CommunicationBus")
-    )
+    @Volatile
+    private var startedAt = System.currentTimeMillis()
     
     /**
      * Initializes the communication bus
      */
     suspend fun initialize() {
-        // Start message processing job
-        communicationScope.launch {
-            processPendingMessages()
-        }
+        startedAt = System.currentTimeMillis()
     }
     
     /**
      * Shuts down the communication bus
      */
     suspend fun shutdown() {
-        communicationScope.cancel()
+        mailboxes.values.forEach { byComponent -> byComponent.values.forEach { it.channel.close() } }
+        mailboxes.clear()
     }
     
     /**
-     * Registers a component with its subscribed topics
+     * Registers a component with its subscribed topics, opening a mailbox for each
      */
     fun registerComponent(componentId: String, subscribedTopics: List<String>) {
-        val componentTopicSet = componentTopics.getOrPut(componentId) { mutableSetOf() }
-        
-        subscribedTopics.forEach { topic ->
-            componentTopicSet.add(topic)
-            topics.getOrPut(topic) { mutableSetOf() }.add(componentId)
-            
-            // Initialize flow for component and topic
-            val componentFlows = topicFlows.getOrPut(topic) { mutableMapOf() }
-            componentFlows[componentId] = MutableStateFlow(emptyList())
-        }
+        subscribedTopics.forEach { topic -> mailboxFor(componentId, topic) }
     }
     
     /**
@@ -728,31 +786,33 @@ class InterModuleCommunicationBus {
         
         subscribedTopics.forEach { topic ->
             topics[topic]?.remove(componentId)
-            topicFlows[topic]?.remove(componentId)
+            mailboxes[topic]?.remove(componentId)?.channel?.close()
             
             // Clean up empty topics
             if (topics[topic]?.isEmpty() == true) {
                 topics.remove(topic)
-                topicFlows.remove(topic)
+                mailboxes.computeIfPresent(topic) { _, byComponent -> byComponent.takeIf { it.isNotEmpty() } }
             }
         }
     }
     
     /**
-     * Sends a direct message to a component
+     * Sends a direct message to a component's subscription for the message topic
      */
     suspend fun sendMessage(message: InterModuleMessage): Boolean {
         if (message.recipientId == null) {
             return publishToTopic(message)
         }
         
-        // Add to pending messages for recipient
-        val pendingList = pendingMessages.getOrPut(message.recipientId) { mutableListOf() }
-        synchronized(pendingList) {
-            pendingList.add(message)
-        }
+        val topic = message.topic ?: return false
+        val mailbox = mailboxes[topic]?.get(message.recipientId) ?: return false
         
-        return true
+        metricsFor(topic).published.increment()
+        return when (mailbox.offer(message)) {
+            true -> true
+            false -> false
+            null -> mailbox.send(message)
+        }
     }
     
     /**
@@ -762,70 +822,106 @@ class InterModuleCommunicationBus {
         val topic = message.topic ?: return false
         
         // Get subscribers for this topic
-        val subscribers = topics[topic] ?: return false
+        val subscribers = mailboxes[topic]?.values?.toList()
+        if (subscribers.isNullOrEmpty()) return false
         
-        // Add message to each subscriber's pending messages
-        subscribers.forEach { subscriberId ->
-            val pendingList = pendingMessages.getOrPut(subscriberId) { mutableListOf() }
-            synchronized(pendingList) {
-                pendingList.add(message)
+        metricsFor(topic).published.increment()
+        
+        // Deliver to each subscriber's mailbox; full mailboxes apply their overflow policy
+        var delivered = false
+        val full = ArrayList<Mailbox>()
+        subscribers.forEach { mailbox ->
+            when (mailbox.offer(message)) {
+                true -> delivered = true
+                false -> Unit
+                null -> full.add(mailbox)
             }
         }
         
-        return true
+        // Only suspending mailboxes can be full; wait for them together so one slow
+        // subscriber does not hold up delivery to the others
+        if (full.isNotEmpty()) {
+            val sent = coroutineScope { full.map { mailbox -> async { mailbox.send(message) } }.awaitAll() }
+            if (sent.any { it }) delivered = true
+        }
+        
+        return delivered
     }
     
     /**
      * Subscribes a component to messages of a specific topic
      */
-    fun subscribeToTopic(componentId: String, topic: String): Flow<InterModuleMessage> = flow {
-        // Register component for this topic if not already registered
-        val componentTopicSet = componentTopics.getOrPut(componentId) { mutableSetOf() }
-        componentTopicSet.add(topic)
-        topics.getOrPut(topic) { mutableSetOf() }.add(componentId)
-        
-        // Get or create flow for component and topic
-        val componentFlows = topicFlows.getOrPut(topic) { mutableMapOf() }
-        val messageFlow = componentFlows.getOrPut(componentId) { MutableStateFlow(emptyList()) }
+    fun subscribeToTopic(componentId: String, topic: String): Flow<InterModuleMessage> =
+        subscribeToTopicBatches(componentId, topic).transform { batch -> batch.forEach { emit(it) } }
+    
+    /**
+     * Subscribes a component to a topic, receiving everything queued since the last
+     * wake-up (up to the batch size) as one list.
+     *
+     * Messages queued before collection starts are received first, and messages arriving
+     * after it ends stay queued for the next collector. Collection ends when the component
+     * unregisters. A second concurrent collector for the same component and topic fails
+     * with [IllegalStateException].
+     */
+    fun subscribeToTopicBatches(componentId: String, topic: String): Flow<List<InterModuleMessage>> = flow {
+        val mailbox = mailboxFor(componentId, topic)
+        check(mailbox.collecting.compareAndSet(false, true)) {
+            "Component $componentId is already collecting topic $topic"
+        }
         
-        // Collect and emit messages
-        messageFlow.collect { messages ->
-            messages.forEach { emit(it) }
-            
-            // Clear after emitting
-            if (messages.isNotEmpty()) {
-                messageFlow.value = emptyList()
+        try {
+            while (true) {
+                val first = mailbox.channel.receiveCatching().getOrNull() ?: break
+                val batch = ArrayList<InterModuleMessage>()
+                batch.add(first)
+                while (batch.size < maxBatchSize) {
+                    batch.add(mailbox.channel.tryReceive().getOrNull() ?: break)
+                }
+                
+                mailbox.depth.addAndGet(-batch.size)
+                metricsFor(topic).delivered.add(batch.size.toLong())
+                emit(batch)
             }
+        } finally {
+            mailbox.collecting.set(false)
         }
     }
     
     /**
-     * Processes pending messages
+     * Throughput and queue depth per topic
      */
-    private suspend fun processPendingMessages() {
-        while (true) {
-            pendingMessages.forEach { (componentId, messages) ->
-                if (messages.isNotEmpty()) {
-                    synchronized(messages) {
-                        val processingMessages = messages.toList()
-                        messages.clear()
-                        
-                        // Group by topic for more efficient processing
-                        val byTopic = processingMessages.groupBy { it.topic }
-                        
-                        byTopic.forEach { (topic, topicMessages) ->
-                            if (topic != null) {
-                                // Update the flow for this component and topic
-                                topicFlows[topic]?.get(componentId)?.value = topicMessages
-                            }
-                        }
-                    }
-                }
-            }
+    fun getTopicMetrics(): List<TopicMetrics> {
+        val elapsedSeconds = maxOf(1L, System.currentTimeMillis() - startedAt) / 1000.0
+        
+        return (topicMetrics.keys + mailboxes.keys).distinct().sorted().map { topic ->
+            val counters = metricsFor(topic)
+            val subscribers = mailboxes[topic]?.values ?: emptyList()
+            val published = counters.published.sum()
             
-            delay(10) // Short delay to prevent CPU hogging
+            TopicMetrics(
+                topic = topic,
+                subscriberCount = subscribers.size,
+                publishedMessages = published,
+                deliveredMessages = counters.delivered.sum(),
+                droppedMessages = counters.dropped.sum(),
+                queueDepth = subscribers.sumOf { it.depth.get() },
+                maxQueueDepth = subscribers.maxOfOrNull { it.depth.get() } ?: 0,
+                publishRatePerSecond = published / elapsedSeconds
+            )
         }
     }
+    
+    private fun recordSubscription(componentId: String, topic: String) {
+        componentTopics.getOrPut(componentId) { ConcurrentHashMap.newKeySet() }.add(topic)
+        topics.getOrPut(topic) { ConcurrentHashMap.newKeySet() }.add(componentId)
+    }
+    
+    private fun mailboxFor(componentId: String, topic: String): Mailbox {
+        recordSubscription(componentId, topic)
+        return mailboxes.getOrPut(topic) { ConcurrentHashMap() }.computeIfAbsent(componentId) { Mailbox(topic) }
+    }
+    
+    private fun metricsFor(topic: String): TopicCounters = topicMetrics.getOrPut(topic) { TopicCounters() }
 }
 
 /**
@@ -1361,6 +1457,12 @@ enum class TaskPriority {
     CRITICAL
 }
 
+enum class MessageOverflowPolicy {
+    SUSPEND,      // Publisher waits for space in the subscriber's mailbox
+    DROP_OLDEST,  // Oldest queued message is dropped to make room
+    CONFLATE      // Only the latest message is kept
+}
+
 enum class OptimizationType {
     RESOURCE_ALLOCATION,
     COMPONENT_PRIORITY,
@@ -1470,7 +1572,19 @@ data class PerformanceReport(
     val successRatePercent: Double,
     val averageExecutionTimeMs: Double,
     val componentMetrics: List<ComponentMetrics>,
-    val recentTasks: List<TaskPerformanceRecord>
+    val recentTasks: List<TaskPerformanceRecord>,
+    val communicationMetrics: List<TopicMetrics> = emptyList()
+)
+
+data class TopicMetrics(
+    val topic: String,
+    val subscriberCount: Int,
+    val publishedMessages: Long,
+    val deliveredMessages: Long,
+    val droppedMessages: Long,
+    val queueDepth: Int,
+    val maxQueueDepth: Int,
+    val publishRatePerSecond: Double
 )
 
 data class ComponentPerformanceReport(
@@ -23,6 +23,7 @@ import java.util.Locale
  * This worker is responsible for:
  * - Creating automatic backups on schedule
  * - Managing backup retention (keeping only N most recent backups)
+ * - Pruning chunks no longer used by any incremental backup
  * - Logging backup status and errors
  */
 class AutomaticBackupWorker(
@@ -32,6 +33,7 @@ class AutomaticBackupWorker(
     
     companion object {
         private const val BACKUP_FILENAME_FORMAT = "sallie_backup_%s.sb"
+        private const val INCREMENTAL_FILENAME_FORMAT = "sallie_backup_%s.sbm"
         private const val DATE_FORMAT = "yyyyMMdd_HHmmss"
     }
     
@@ -47,20 +49,31 @@ class AutomaticBackupWorker(
             val destinationPath = inputData.getString("destination") ?: return@withContext Result.failure()
             val keepCount = inputData.getInt("keepCount", 5)
             val password = inputData.getString("password")
+            val incremental = inputData.getBoolean("incremental", false)
             
             val destinationDir = File(destinationPath)
             
             // Generate backup filename with timestamp
             val timestamp = SimpleDateFormat(DATE_FORMAT, Locale.US).format(Date())
-            val backupFile = File(destinationDir, String.format(BACKUP_FILENAME_FORMAT, timestamp))
+            val filenameFormat = if (incremental) INCREMENTAL_FILENAME_FORMAT else BACKUP_FILENAME_FORMAT
+            val backupFile = File(destinationDir, String.format(filenameFormat, timestamp))
             
-            // Create the backup
-            val backupResult = backupService.createBackup(
-                destination = backupFile,
-                password = password,
-                includeFilters = null,  // Include everything
-                excludeFilters = listOf("temp.", "cache.")  // Exclude temp and cache
-            )
+            // Create the backup; incremental backups only store chunks that changed since the last one
+            val backupResult = if (incremental) {
+                backupService.createIncrementalBackup(
+                    destination = backupFile,
+                    password = password,
+                    includeFilters = null,  // Include everything
+                    excludeFilters = listOf("temp.", "cache.")  // Exclude temp and cache
+                ).map { }
+            } else {
+                backupService.createBackup(
+                    destination = backupFile,
+                    password = password,
+                    includeFilters = null,  // Include everything
+                    excludeFilters = listOf("temp.", "cache.")  // Exclude temp and cache
+                )
+            }
             
             if (backupResult.isFailure) {
                 // Log error
@@ -72,6 +85,11 @@ class AutomaticBackupWorker(
             // Clean up old backups if we have more than keepCount
             cleanupOldBackups(destinationDir, keepCount)
             
+            // Drop chunks that only the deleted backups referenced
+            if (incremental) {
+                backupService.pruneChunkStore(destinationDir, password).exceptionOrNull()?.let { logBackupError(it) }
+            }
+            
             // Log successful backup
             logBackupSuccess(backupFile)
             
@@ -84,7 +102,7 @@ class AutomaticBackupWorker(
     
     private fun cleanupOldBackups(backupDir: File, keepCount: Int) {
         val backupFiles = backupDir.listFiles { file ->
-            file.isFile && file.name.startsWith("sallie_backup_") && file.name.endsWith(".sb")
+            file.isFile && file.name.startsWith("sallie_backup_") && (file.name.endsWith(".sb") || file.name.endsWith(".sbm"))
         } ?: return
         
         if (backupFiles.size <= keepCount) {
@@ -23,5 +23,7 @@ data class BackupInfo(
     val isEncrypted: Boolean,
     val appVersion: String,
     val deviceInfo: String,
-    val contentSummary: Map<String, Int> // Category -> Count
+    val contentSummary: Map<String, Int>, // Category -> Count
+    val isIncremental: Boolean = false,
+    val newDataBytes: Long = fileSizeBytes // Bytes this backup added to the chunk store
 )
@@ -0,0 +1,28 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * BackupManifest - Model classes for incremental backup manifests
+ */
+
+package com.sallie.persistence.backup
+
+/**
+ * Contents of an incremental backup
+ *
+ * The manifest is the backup file itself; the data lives in the shared [ChunkStore] next to
+ * it and is referenced by chunk id.
+ */
+data class BackupManifest(
+    val info: BackupInfo,
+    val entries: List<ManifestEntry>
+)
+
+/**
+ * One backed-up storage entry, reassembled by concatenating its chunks in order
+ */
+data class ManifestEntry(
+    val key: String,
+    val size: Long,
+    val chunks: List<String>
+)
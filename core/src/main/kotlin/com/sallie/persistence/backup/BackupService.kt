@@ -33,6 +33,36 @@ interface BackupService {
         excludeFilters: List<String>? = null
     ): Result<Unit>
     
+    /**
+     * Create an incremental backup of all user data
+     * 
+     * Data is split into content-defined chunks kept in a chunk store next to [destination];
+     * chunks already stored by earlier backups are not written again. The backup file itself
+     * is only a manifest listing the chunks of each entry. It can be restored, validated and
+     * inspected like any other backup.
+     * 
+     * @param destination The manifest file to write
+     * @param password Optional password for additional encryption
+     * @param includeFilters Optional filters to include specific data
+     * @param excludeFilters Optional filters to exclude specific data
+     * @return Information about the new backup, including how much new data it stored
+     */
+    suspend fun createIncrementalBackup(
+        destination: File,
+        password: String? = null,
+        includeFilters: List<String>? = null,
+        excludeFilters: List<String>? = null
+    ): Result<BackupInfo>
+    
+    /**
+     * Delete chunks no longer referenced by any incremental backup in a directory
+     * 
+     * @param backupDir Directory holding the backup manifests and their chunk store
+     * @param password Password the manifests were created with, if any
+     * @return Number of chunks deleted
+     */
+    suspend fun pruneChunkStore(backupDir: File, password: String? = null): Result<Int>
+    
     /**
      * Restore from a backup file
      * 
@@ -76,13 +106,15 @@ interface BackupService {
      * @param intervalHours Interval between backups in hours
      * @param keepCount Number of backups to keep
      * @param password Optional password for encryption
+     * @param incremental Whether to create incremental backups that share a chunk store
      * @return Success or failure
      */
     suspend fun scheduleAutomaticBackups(
         destination: File,
         intervalHours: Int,
         keepCount: Int,
-        password: String? = null
+        password: String? = null,
+        incremental: Boolean = false
     ): Result<Unit>
     
     /**
@@ -0,0 +1,135 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * ChunkStore - Content-addressed chunk storage shared by incremental backups
+ */
+
+package com.sallie.persistence.backup
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.StampedLock
+
+/**
+ * Directory of chunks named by their content hash
+ *
+ * A chunk is written once and never modified, so any number of backup manifests can refer to
+ * it. Chunks are spread over subdirectories by the first two hex digits of their id. New chunks
+ * are written to a temp file and renamed into place, so a crash never leaves a partial chunk
+ * under a valid id.
+ *
+ * Backups add chunks inside [whileAdding] and pruning runs exclusively of them, so a prune never
+ * deletes chunks written after it scanned the manifests. The lock is shared by every store
+ * opened on the same directory. It is a [StampedLock], which is not owned by a thread, so a
+ * backup may suspend and resume elsewhere while holding it.
+ */
+class ChunkStore(val directory: File) {
+
+    @PublishedApi
+    internal val lock: StampedLock = locks.computeIfAbsent(directory.absoluteFile.normalize().path) { StampedLock() }
+
+    /**
+     * Run [block], which may add chunks and write the manifest referring to them, without
+     * overlapping a prune; any number of backups may add chunks at once. [block] may suspend.
+     */
+    inline fun <T> whileAdding(block: () -> T): T {
+        val stamp = lock.readLock()
+        try {
+            return block()
+        } finally {
+            lock.unlockRead(stamp)
+        }
+    }
+
+    /**
+     * Whether a chunk with [id] is stored
+     */
+    fun contains(id: String): Boolean = fileFor(id).isFile
+
+    /**
+     * Store [length] bytes of [data] from [offset] as chunk [id], unless it is already present.
+     * [wrap] can layer encryption over the chunk file.
+     *
+     * @return the number of bytes written to disk, or 0 if the chunk already existed
+     */
+    fun put(
+        id: String,
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+        wrap: (OutputStream) -> OutputStream = { it }
+    ): Long {
+        val target = fileFor(id)
+        if (target.isFile) return 0
+
+        target.parentFile?.mkdirs()
+        val temp = File(target.parentFile, "$id.${UUID.randomUUID()}.tmp")
+        try {
+            wrap(BufferedOutputStream(FileOutputStream(temp))).use { it.write(data, offset, length) }
+            if (!temp.renameTo(target) && !target.isFile) {
+                throw IllegalStateException("Unable to store chunk $id")
+            }
+            return target.length()
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * Open chunk [id] for reading; [unwrap] can layer decryption over the chunk file
+     */
+    fun open(id: String, unwrap: (InputStream) -> InputStream = { it }): InputStream {
+        val file = fileFor(id)
+        if (!file.isFile) throw IllegalStateException("Missing chunk $id")
+        return unwrap(BufferedInputStream(FileInputStream(file)))
+    }
+
+    /**
+     * Ids of all stored chunks
+     */
+    fun ids(): Sequence<String> {
+        return directory.walkTopDown()
+            .filter { it.isFile && !it.name.endsWith(".tmp") }
+            .map { it.name }
+    }
+
+    /**
+     * Delete every chunk outside the set returned by [referenced], which is evaluated once no
+     * backup is adding chunks. Temp files may belong to a write in progress and are left alone.
+     *
+     * @return the number of chunks deleted
+     */
+    fun retainOnly(referenced: () -> Set<String>): Int {
+        val stamp = lock.writeLock()
+        try {
+            val keep = referenced()
+            var deleted = 0
+            directory.walkTopDown()
+                .filter { it.isFile && !it.name.endsWith(".tmp") && it.name !in keep }
+                .toList()
+                .forEach { file ->
+                    if (file.delete()) deleted++
+                }
+            return deleted
+        } finally {
+            lock.unlockWrite(stamp)
+        }
+    }
+
+    private fun fileFor(id: String): File {
+        require(id.length > 2 && id.all { it in '0'..'9' || it in 'a'..'f' }) { "Invalid chunk id: $id" }
+        return File(File(directory, id.substring(0, 2)), id)
+    }
+
+    companion object {
+        private val locks = ConcurrentHashMap<String, StampedLock>()
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * ContentDefinedChunker - Splits data into chunks at content-defined boundaries
+ */
+
+package com.sallie.persistence.backup
+
+/**
+ * Content-defined chunking with a Gear rolling hash (FastCDC style)
+ *
+ * Chunk boundaries depend only on the bytes around them, so inserting or removing data only
+ * changes the chunks next to the edit; every other chunk keeps its content and its hash. That
+ * is what lets incremental backups store unchanged data once. Normalized chunking uses a
+ * stricter mask before [averageSize] and a looser one after it, which keeps chunk sizes close
+ * to the average while staying within [minSize]..[maxSize].
+ */
+class ContentDefinedChunker(
+    val minSize: Int = 2 * 1024,
+    val averageSize: Int = 8 * 1024,
+    val maxSize: Int = 64 * 1024
+) {
+
+    private val strictMask: Long
+    private val looseMask: Long
+
+    init {
+        require(minSize in 1..averageSize && averageSize <= maxSize) { "Invalid chunk sizes: $minSize/$averageSize/$maxSize" }
+        require(Integer.bitCount(averageSize) == 1) { "Average chunk size must be a power of two: $averageSize" }
+
+        val bits = Integer.numberOfTrailingZeros(averageSize)
+        strictMask = topBits(bits + 1)
+        looseMask = topBits(bits - 1)
+    }
+
+    /**
+     * Call [onChunk] with the offset and length of each chunk of [data], in order
+     */
+    inline fun forEachChunk(data: ByteArray, onChunk: (offset: Int, length: Int) -> Unit) {
+        var offset = 0
+        while (offset < data.size) {
+            val length = nextChunkLength(data, offset)
+            onChunk(offset, length)
+            offset += length
+        }
+    }
+
+    /**
+     * Length of the chunk that starts at [offset]
+     */
+    fun nextChunkLength(data: ByteArray, offset: Int): Int {
+        val remaining = data.size - offset
+        if (remaining <= minSize) return remaining
+
+        val end = offset + minOf(remaining, maxSize)
+        val normalEnd = offset + minOf(remaining, averageSize)
+        var hash = 0L
+        var i = offset + minSize
+
+        while (i < normalEnd) {
+            hash = (hash shl 1) + GEAR[data[i].toInt() and 0xFF]
+            if (hash and strictMask == 0L) return i - offset + 1
+            i++
+        }
+        while (i < end) {
+            hash = (hash shl 1) + GEAR[data[i].toInt() and 0xFF]
+            if (hash and looseMask == 0L) return i - offset + 1
+            i++
+        }
+        return end - offset
+    }
+
+    // The high bits of a Gear hash depend on the most bytes, so masks select from the top
+    private fun topBits(count: Int): Long = if (count <= 0) 0L else -1L shl (64 - count)
+
+    companion object {
+        // Fixed table from a seeded SplitMix64, so boundaries never change between releases
+        private val GEAR = LongArray(256).also { table ->
+            var state = 0x5A11E5EED5EEDL
+            for (i in table.indices) {
+                state += -0x61c8864680b583ebL
+                var z = state
+                z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+                z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+                table[i] = z xor (z ushr 31)
+            }
+        }
+    }
+}
@@ -17,21 +17,34 @@ import androidx.work.WorkManager
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 import com.google.gson.reflect.TypeToken
+import com.sallie.persistence.crypto.EncryptedStreamException
 import com.sallie.persistence.crypto.EncryptionService
+import com.sallie.persistence.crypto.PasswordKeyParams
 import com.sallie.persistence.storage.StorageService
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.BufferedInputStream
 import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
 import java.io.File
 import java.io.FileInputStream
 import java.io.FileOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.security.MessageDigest
 import java.util.Date
 import java.util.UUID
 import java.util.concurrent.TimeUnit
 import java.util.zip.ZipEntry
 import java.util.zip.ZipInputStream
 import java.util.zip.ZipOutputStream
+import javax.crypto.Mac
 import javax.crypto.SecretKey
 import javax.crypto.spec.SecretKeySpec
 
@@ -52,10 +65,25 @@ class SecureBackupService(
         private const val METADATA_ENTRY = "backup_metadata.json"
         private const val AUTOMATIC_BACKUP_WORK = "sallie_automatic_backup"
         private const val DEFAULT_BUFFER_SIZE = 8192
+        // Only single-payload backups from before chunked encryption use the stored key
+        private const val BACKUP_KEY_ALIAS = "backup_key"
+        
+        // Password-protected archives start with [magic "SBPW"][key derivation parameters]
+        private const val ARCHIVE_KEY_MAGIC = 0x53425057
+        
+        // Incremental backups: manifest header is [magic "SBMF"][version][encrypted flag], then
+        // the key derivation parameters if encrypted
+        private const val MANIFEST_MAGIC = 0x53424d46
+        private const val MANIFEST_VERSION = 2
+        private const val CHUNK_STORE_DIR = "sallie_chunks"
+        // Salt shared by every encrypted backup in a directory, so equal chunks keep equal ids
+        private const val CHUNK_KEY_PARAMS_FILE = "sallie_chunks.key"
+        private val CHUNK_ID_KEY_LABEL = "sallie-chunk-ids".toByteArray(Charsets.UTF_8)
     }
     
     private val gson: Gson = GsonBuilder().setPrettyPrinting().create()
     private val workManager = WorkManager.getInstance(context)
+    private val chunker = ContentDefinedChunker()
     
     override suspend fun createBackup(
         destination: File,
@@ -74,65 +102,149 @@ class SecureBackupService(
                     destination.delete()
                 }
                 
-                // 2. Create temporary directory
-                val tempDir = File(context.cacheDir, "backup_temp_${UUID.randomUUID()}")
-                tempDir.mkdirs()
+                // 2. Stream entries straight into the (optionally encrypted) archive in a temp file
+                val backupDataTemp = File(context.cacheDir, "backup_data_${UUID.randomUUID()}")
                 
                 try {
                     // 3. Create content summary
                     val contentSummary = mutableMapOf<String, Int>()
+                    var totalBytes = 0L
+                    
+                    openBackupOutput(backupDataTemp, password).use { output ->
+                        ZipOutputStream(output).use { zipOut ->
+                            // 4. Copy all data into the archive, one entry at a time
+                            for (key in filteredKeys) {
+                                // Track content type
+                                val category = key.split(".").firstOrNull() ?: "other"
+                                contentSummary[category] = contentSummary.getOrDefault(category, 0) + 1
+                                
+                                // Copy data
+                                val data = storageService.read(key).getOrThrow() ?: continue
+                                zipOut.putNextEntry(ZipEntry(key.replace('\\', '/')))
+                                zipOut.write(data)
+                                zipOut.closeEntry()
+                                totalBytes += data.size
+                            }
+                            
+                            // 5. Create metadata
+                            val metadata = BackupInfo(
+                                creationTime = Date(),
+                                version = BACKUP_VERSION,
+                                entryCount = filteredKeys.size,
+                                fileSizeBytes = totalBytes,
+                                isEncrypted = password != null,
+                                appVersion = context.packageManager.getPackageInfo(context.packageName, 0).versionName,
+                                deviceInfo = android.os.Build.MODEL,
+                                contentSummary = contentSummary
+                            )
+                            
+                            // Write metadata as the last entry
+                            zipOut.putNextEntry(ZipEntry(METADATA_ENTRY))
+                            zipOut.write(gson.toJson(metadata).toByteArray(Charsets.UTF_8))
+                            zipOut.closeEntry()
+                        }
+                    }
                     
-                    // 4. Copy all data to temp directory
+                    // 6. Move the finished archive into place
+                    if (!backupDataTemp.renameTo(destination)) {
+                        backupDataTemp.copyTo(destination, overwrite = true)
+                    }
+                    
+                    Result.success(Unit)
+                } finally {
+                    // 7. Clean up temp files
+                    backupDataTemp.delete()
+                }
+            } catch (e: Exception) {
+                Result.failure(e)
+            }
+        }
+    }
+    
+    override suspend fun createIncrementalBackup(
+        destination: File,
+        password: String?,
+        includeFilters: List<String>?,
+        excludeFilters: List<String>?
+    ): Result<BackupInfo> {
+        return withContext(Dispatchers.IO) {
+            try {
+                val allKeys = storageService.listKeys()
+                val filteredKeys = filterKeys(allKeys, includeFilters, excludeFilters)
+                
+                val keyParams = password?.let { chunkKeyParamsFor(destination) }
+                val passwordKey = keyParams?.let { PasswordKeys(password).forParams(it) }
+                val chunkStore = chunkStoreFor(destination)
+                val chunkId = chunkHasher(passwordKey)
+                
+                val entries = ArrayList<ManifestEntry>(filteredKeys.size)
+                val contentSummary = mutableMapOf<String, Int>()
+                var totalBytes = 0L
+                var newDataBytes = 0L
+                
+                // Chunks are only safe from pruning once the manifest referring to them exists
+                val metadata = chunkStore.whileAdding {
+                    // Only chunks the store has not seen before are written
                     for (key in filteredKeys) {
-                        // Track content type
                         val category = key.split(".").firstOrNull() ?: "other"
                         contentSummary[category] = contentSummary.getOrDefault(category, 0) + 1
                         
-                        // Copy data
                         val data = storageService.read(key).getOrThrow() ?: continue
-                        val tempFile = File(tempDir, key)
-                        tempFile.parentFile?.mkdirs()
-                        tempFile.writeBytes(data)
+                        val chunks = ArrayList<String>(data.size / chunker.averageSize + 1)
+                        chunker.forEachChunk(data) { offset, length ->
+                            val id = chunkId(data, offset, length)
+                            newDataBytes += chunkStore.put(id, data, offset, length) { output ->
+                                if (passwordKey == null) output else encryptBackupStream(output, passwordKey)
+                            }
+                            chunks.add(id)
+                        }
+                        entries.add(ManifestEntry(key, data.size.toLong(), chunks))
+                        totalBytes += data.size
                     }
                     
-                    // 5. Create metadata
-                    val metadata = BackupInfo(
+                    val info = BackupInfo(
                         creationTime = Date(),
                         version = BACKUP_VERSION,
                         entryCount = filteredKeys.size,
-                        fileSizeBytes = tempDir.walkTopDown().filter { it.isFile }.sumOf { it.length() },
+                        fileSizeBytes = totalBytes,
                         isEncrypted = password != null,
                         appVersion = context.packageManager.getPackageInfo(context.packageName, 0).versionName,
                         deviceInfo = android.os.Build.MODEL,
-                        contentSummary = contentSummary
+                        contentSummary = contentSummary,
+                        isIncremental = true,
+                        newDataBytes = newDataBytes
                     )
                     
-                    // Write metadata to temp dir
-                    val metadataFile = File(tempDir, METADATA_ENTRY)
-                    metadataFile.writeText(gson.toJson(metadata))
-                    
-                    // 6. Create zip archive
-                    val backupDataTemp = File(context.cacheDir, "backup_data_${UUID.randomUUID()}")
-                    zipDirectory(tempDir, backupDataTemp)
+                    writeManifest(destination, BackupManifest(info, entries), keyParams, passwordKey)
+                    info
+                }
+                Result.success(metadata)
+            } catch (e: Exception) {
+                Result.failure(e)
+            }
+        }
+    }
+    
+    override suspend fun pruneChunkStore(backupDir: File, password: String?): Result<Int> {
+        return withContext(Dispatchers.IO) {
+            try {
+                val passwordKeys = password?.let { PasswordKeys(it) }
+                
+                // Manifests are scanned under the store's lock so backups finishing meanwhile are seen
+                val deleted = ChunkStore(File(backupDir, CHUNK_STORE_DIR)).retainOnly {
+                    val manifests = backupDir.listFiles { file -> file.isFile && isManifest(file) } ?: emptyArray()
                     
-                    // 7. Encrypt if password provided
-                    if (password != null) {
-                        val passwordKey = deriveKeyFromPassword(password)
-                        val encryptedData = encryptBackup(backupDataTemp.readBytes(), passwordKey)
-                        destination.writeBytes(encryptedData)
-                    } else {
-                        backupDataTemp.copyTo(destination, overwrite = true)
+                    // Any unreadable manifest aborts the prune rather than risk deleting its chunks
+                    val referenced = HashSet<String>()
+                    for (file in manifests) {
+                        val (manifest, _) = readManifest(file, passwordKeys)
+                        manifest.entries.forEach { referenced.addAll(it.chunks) }
                     }
-                    
-                    // 8. Clean up temp files
-                    backupDataTemp.delete()
-                    tempDir.deleteRecursively()
-                    
-                    Result.success(Unit)
-                } catch (e: Exception) {
-                    tempDir.deleteRecursively()
-                    Result.failure(e)
+                    referenced
                 }
+                Result.success(deleted)
+            } catch (e: EncryptedStreamException) {
+                Result.failure(Exception("Invalid password or corrupt backup manifest"))
             } catch (e: Exception) {
                 Result.failure(e)
             }
@@ -152,33 +264,25 @@ class SecureBackupService(
                     return@withContext Result.failure(Exception("Backup file does not exist"))
                 }
                 
+                if (isManifest(source)) {
+                    return@withContext restoreFromManifest(source, password, overwriteExisting, includeFilters, excludeFilters)
+                }
+                
                 // 1. Create temporary directory
                 val tempDir = File(context.cacheDir, "restore_temp_${UUID.randomUUID()}")
                 tempDir.mkdirs()
                 
                 try {
-                    // 2. Decrypt if password provided
-                    val backupData = if (password != null) {
-                        val passwordKey = deriveKeyFromPassword(password)
-                        try {
-                            decryptBackup(source.readBytes(), passwordKey)
-                        } catch (e: Exception) {
-                            return@withContext Result.failure(Exception("Invalid password or corrupt backup"))
+                    // 2. Decrypt if password provided and 3. unzip to temp directory, in one pass
+                    try {
+                        openBackupInput(source, password).use { input ->
+                            unzipStream(input, tempDir)
                         }
-                    } else {
-                        source.readBytes()
+                    } catch (e: EncryptedStreamException) {
+                        tempDir.deleteRecursively()
+                        return@withContext Result.failure(Exception("Invalid password or corrupt backup"))
                     }
                     
-                    // Write decrypted data to temp file
-                    val backupDataTemp = File(context.cacheDir, "backup_data_${UUID.randomUUID()}")
-                    backupDataTemp.writeBytes(backupData)
-                    
-                    // 3. Unzip to temp directory
-                    unzipFile(backupDataTemp, tempDir)
-                    
-                    // Clean up temp file
-                    backupDataTemp.delete()
-                    
                     // 4. Validate metadata
                     val metadataFile = File(tempDir, METADATA_ENTRY)
                     if (!metadataFile.exists()) {
@@ -237,6 +341,13 @@ class SecureBackupService(
                     return@withContext Result.failure(Exception("Backup file does not exist"))
                 }
                 
+                // Incremental backups are valid if their manifest decrypts and every chunk is present
+                if (isManifest(source)) {
+                    val (manifest, _) = readManifest(source, password?.let { PasswordKeys(it) })
+                    val chunkStore = chunkStoreFor(source)
+                    return@withContext Result.success(manifest.entries.all { entry -> entry.chunks.all { chunkStore.contains(it) } })
+                }
+                
                 // Try to get backup info
                 val infoResult = getBackupInfo(source, password)
                 
@@ -259,52 +370,28 @@ class SecureBackupService(
                     return@withContext Result.failure(Exception("Backup file does not exist"))
                 }
                 
-                // 1. Create temporary directory
-                val tempDir = File(context.cacheDir, "backup_info_temp_${UUID.randomUUID()}")
-                tempDir.mkdirs()
-                
-                try {
-                    // 2. Decrypt if password provided
-                    val backupData = if (password != null) {
-                        val passwordKey = deriveKeyFromPassword(password)
-                        try {
-                            decryptBackup(source.readBytes(), passwordKey)
-                        } catch (e: Exception) {
-                            return@withContext Result.failure(Exception("Invalid password or corrupt backup"))
-                        }
-                    } else {
-                        source.readBytes()
-                    }
-                    
-                    // Write decrypted data to temp file
-                    val backupDataTemp = File(context.cacheDir, "backup_data_${UUID.randomUUID()}")
-                    backupDataTemp.writeBytes(backupData)
-                    
-                    // Extract just the metadata file
-                    extractSingleFile(backupDataTemp, METADATA_ENTRY, tempDir)
-                    
-                    // Clean up temp file
-                    backupDataTemp.delete()
-                    
-                    // Read metadata
-                    val metadataFile = File(tempDir, METADATA_ENTRY)
-                    if (!metadataFile.exists()) {
-                        return@withContext Result.failure(Exception("Invalid backup: missing metadata"))
+                // Incremental backups carry their metadata in the manifest
+                if (isManifest(source)) {
+                    return@withContext try {
+                        Result.success(readManifest(source, password?.let { PasswordKeys(it) }).first.info)
+                    } catch (e: EncryptedStreamException) {
+                        Result.failure(Exception("Invalid password or corrupt backup"))
                     }
-                    
-                    val metadata: BackupInfo = gson.fromJson(
-                        metadataFile.readText(),
-                        object : TypeToken<BackupInfo>() {}.type
-                    )
-                    
-                    // Clean up
-                    tempDir.deleteRecursively()
-                    
-                    Result.success(metadata)
-                } catch (e: Exception) {
-                    tempDir.deleteRecursively()
-                    Result.failure(e)
                 }
+                
+                // Decrypt and scan the archive for the metadata entry without unpacking it
+                val metadataJson = try {
+                    openBackupInput(source, password).use { input -> readEntry(input, METADATA_ENTRY) }
+                } catch (e: EncryptedStreamException) {
+                    return@withContext Result.failure(Exception("Invalid password or corrupt backup"))
+                } ?: return@withContext Result.failure(Exception("Invalid backup: missing metadata"))
+                
+                val metadata: BackupInfo = gson.fromJson(
+                    metadataJson,
+                    object : TypeToken<BackupInfo>() {}.type
+                )
+                
+                Result.success(metadata)
             } catch (e: Exception) {
                 Result.failure(e)
             }
@@ -315,7 +402,8 @@ class SecureBackupService(
         destination: File,
         intervalHours: Int,
         keepCount: Int,
-        password: String?
+        password: String?,
+        incremental: Boolean
     ): Result<Unit> {
         return try {
             // Make sure destination directory exists
@@ -333,6 +421,7 @@ class SecureBackupService(
                 .putString("destination", destination.absolutePath)
                 .putInt("keepCount", keepCount)
                 .putString("password", password)
+                .putBoolean("incremental", incremental)
                 .build()
             
             // Create work request
@@ -393,99 +482,335 @@ class SecureBackupService(
         return result
     }
     
-    private fun zipDirectory(directory: File, zipFile: File) {
-        ZipOutputStream(BufferedOutputStream(FileOutputStream(zipFile))).use { zipOut ->
-            directory.walkTopDown().forEach { file ->
-                if (file.isFile) {
-                    val entryPath = file.relativeTo(directory).path.replace('\\', '/')
-                    val entry = ZipEntry(entryPath)
-                    zipOut.putNextEntry(entry)
-                    
-                    file.inputStream().use { input ->
-                        input.copyTo(zipOut)
-                    }
-                    
-                    zipOut.closeEntry()
-                }
+    /**
+     * Open the backup file for writing, encrypting in chunks when a password is given. The key
+     * derivation parameters are written ahead of the ciphertext.
+     */
+    private fun openBackupOutput(file: File, password: String?): OutputStream {
+        val passwordKeys = password?.let { PasswordKeys(it) }
+        val output = BufferedOutputStream(FileOutputStream(file), DEFAULT_BUFFER_SIZE)
+        if (passwordKeys == null) {
+            return output
+        }
+        
+        return try {
+            val keyParams = PasswordKeyParams.generate()
+            val header = DataOutputStream(output)
+            header.writeInt(ARCHIVE_KEY_MAGIC)
+            keyParams.writeTo(header)
+            encryptBackupStream(output, passwordKeys.forParams(keyParams))
+        } catch (e: Exception) {
+            output.close()
+            throw e
+        }
+    }
+    
+    /**
+     * Open a backup file for reading, decrypting it when a password is given. Backups written
+     * before password-derived keys are decrypted as a single payload.
+     */
+    private fun openBackupInput(source: File, password: String?): InputStream {
+        val passwordKeys = password?.let { PasswordKeys(it) }
+        val input = BufferedInputStream(FileInputStream(source), DEFAULT_BUFFER_SIZE)
+        if (passwordKeys == null) {
+            return input
+        }
+        
+        return try {
+            input.mark(Int.SIZE_BYTES)
+            val header = DataInputStream(input)
+            if (header.readInt() == ARCHIVE_KEY_MAGIC) {
+                decryptBackupStream(input, passwordKeys.forParams(PasswordKeyParams.readFrom(header)))
+            } else {
+                input.reset()
+                val legacyData = input.use { it.readBytes() }
+                ByteArrayInputStream(decryptBackup(legacyData))
             }
+        } catch (e: EncryptedStreamException) {
+            input.close()
+            throw e
+        } catch (e: Exception) {
+            input.close()
+            throw EncryptedStreamException("Unable to decrypt backup", e)
         }
     }
     
-    private fun unzipFile(zipFile: File, destDir: File) {
+    private fun unzipStream(input: InputStream, destDir: File) {
         destDir.mkdirs()
         
-        ZipInputStream(BufferedInputStream(FileInputStream(zipFile))).use { zipIn ->
-            var entry: ZipEntry? = zipIn.nextEntry
-            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        val zipIn = ZipInputStream(input)
+        var entry: ZipEntry? = zipIn.nextEntry
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        
+        while (entry != null) {
+            val entryFile = File(destDir, entry.name)
             
-            while (entry != null) {
-                val entryFile = File(destDir, entry.name)
+            if (entry.isDirectory) {
+                entryFile.mkdirs()
+            } else {
+                entryFile.parentFile?.mkdirs()
                 
-                if (entry.isDirectory) {
-                    entryFile.mkdirs()
-                } else {
-                    entryFile.parentFile?.mkdirs()
-                    
-                    FileOutputStream(entryFile).use { output ->
-                        var len: Int
-                        while (zipIn.read(buffer).also { len = it } > 0) {
-                            output.write(buffer, 0, len)
-                        }
+                FileOutputStream(entryFile).use { output ->
+                    var len: Int
+                    while (zipIn.read(buffer).also { len = it } > 0) {
+                        output.write(buffer, 0, len)
                     }
                 }
-                
-                zipIn.closeEntry()
-                entry = zipIn.nextEntry
             }
+            
+            zipIn.closeEntry()
+            entry = zipIn.nextEntry
+        }
+        
+        // Read to the end so the final chunk of an encrypted backup is authenticated too
+        while (input.read(buffer) >= 0) {
+            // Discard the zip central directory
         }
     }
     
-    private fun extractSingleFile(zipFile: File, targetPath: String, destDir: File) {
-        destDir.mkdirs()
+    private fun readEntry(input: InputStream, targetPath: String): String? {
+        val zipIn = ZipInputStream(input)
+        var entry: ZipEntry? = zipIn.nextEntry
         
-        ZipInputStream(BufferedInputStream(FileInputStream(zipFile))).use { zipIn ->
-            var entry: ZipEntry? = zipIn.nextEntry
+        while (entry != null) {
+            if (entry.name == targetPath) {
+                return zipIn.readBytes().toString(Charsets.UTF_8)
+            }
             
-            while (entry != null) {
-                if (entry.name == targetPath) {
-                    val entryFile = File(destDir, entry.name)
-                    entryFile.parentFile?.mkdirs()
-                    
-                    FileOutputStream(entryFile).use { output ->
-                        zipIn.copyTo(output)
+            zipIn.closeEntry()
+            entry = zipIn.nextEntry
+        }
+        
+        return null
+    }
+    
+    private suspend fun restoreFromManifest(
+        source: File,
+        password: String?,
+        overwriteExisting: Boolean,
+        includeFilters: List<String>?,
+        excludeFilters: List<String>?
+    ): Result<Unit> {
+        val (manifest, passwordKey) = try {
+            readManifest(source, password?.let { PasswordKeys(it) })
+        } catch (e: EncryptedStreamException) {
+            return Result.failure(Exception("Invalid password or corrupt backup"))
+        }
+        
+        val filteredKeys = filterKeys(manifest.entries.map { it.key }, includeFilters, excludeFilters).toHashSet()
+        val entries = manifest.entries.filter { it.key in filteredKeys }
+        
+        if (!overwriteExisting) {
+            val existingKeys = entries.filter { storageService.exists(it.key) }
+            
+            if (existingKeys.isNotEmpty()) {
+                return Result.failure(Exception("Data conflict: ${existingKeys.size} keys already exist"))
+            }
+        }
+        
+        // Assemble and verify every entry before touching storage, as archive restores do
+        val chunkStore = chunkStoreFor(source)
+        val chunkId = chunkHasher(passwordKey)
+        val tempDir = File(context.cacheDir, "restore_temp_${UUID.randomUUID()}")
+        tempDir.mkdirs()
+        
+        return try {
+            for (entry in entries) {
+                val file = File(tempDir, entry.key)
+                file.parentFile?.mkdirs()
+                
+                FileOutputStream(file).use { output ->
+                    for (id in entry.chunks) {
+                        val chunk = chunkStore.open(id) { input ->
+                            if (passwordKey == null) input else decryptBackupStream(input, passwordKey)
+                        }.use { it.readBytes() }
+                        
+                        if (chunkId(chunk, 0, chunk.size) != id) {
+                            throw EncryptedStreamException("Chunk $id is corrupt")
+                        }
+                        output.write(chunk)
                     }
-                    
-                    break
                 }
                 
-                zipIn.closeEntry()
-                entry = zipIn.nextEntry
+                if (file.length() != entry.size) {
+                    throw EncryptedStreamException("Entry ${entry.key} is incomplete")
+                }
             }
+            
+            for (entry in entries) {
+                storageService.write(entry.key, File(tempDir, entry.key).readBytes(), false).getOrThrow()
+            }
+            
+            Result.success(Unit)
+        } catch (e: EncryptedStreamException) {
+            Result.failure(Exception("Invalid password or corrupt backup"))
+        } catch (e: Exception) {
+            Result.failure(e)
+        } finally {
+            tempDir.deleteRecursively()
         }
     }
     
-    private fun deriveKeyFromPassword(password: String): SecretKey {
-        // In a real implementation, use PBKDF2 with proper salt and iterations
-        // This is a simplified placeholder
+    private fun chunkStoreFor(backupFile: File): ChunkStore {
+        return ChunkStore(File(backupFile.absoluteFile.parentFile, CHUNK_STORE_DIR))
+    }
+    
+    /**
+     * Key parameters shared by the encrypted backups next to [backupFile], created on first use.
+     * Two backups racing to create them both end up with whichever was stored first.
+     */
+    private fun chunkKeyParamsFor(backupFile: File): PasswordKeyParams {
+        val directory = backupFile.absoluteFile.parentFile
+        val file = File(directory, CHUNK_KEY_PARAMS_FILE)
         
-        val passwordBytes = password.toByteArray(Charsets.UTF_8)
-        val keyBytes = ByteArray(32) // 256 bits
+        if (!file.isFile) {
+            directory.mkdirs()
+            val temp = File(directory, "$CHUNK_KEY_PARAMS_FILE.${UUID.randomUUID()}.tmp")
+            try {
+                DataOutputStream(FileOutputStream(temp)).use { PasswordKeyParams.generate().writeTo(it) }
+                Files.move(temp.toPath(), file.toPath())
+            } catch (e: FileAlreadyExistsException) {
+                // Another backup stored them first
+            } finally {
+                temp.delete()
+            }
+        }
         
-        // Simple key derivation (not secure for production)
-        for (i in keyBytes.indices) {
-            keyBytes[i] = passwordBytes[i % passwordBytes.size]
+        return DataInputStream(FileInputStream(file)).use { PasswordKeyParams.readFrom(it) }
+    }
+    
+    /**
+     * Chunk ids are SHA-256 of the plaintext, or HMAC-SHA256 under a subkey of the password key
+     * for encrypted backups so the ids reveal nothing about the content
+     */
+    private fun chunkHasher(passwordKey: SecretKey?): (ByteArray, Int, Int) -> String {
+        val mac = passwordKey?.let { key ->
+            val idKey = Mac.getInstance("HmacSHA256").run {
+                init(SecretKeySpec(key.encoded, "HmacSHA256"))
+                doFinal(CHUNK_ID_KEY_LABEL)
+            }
+            Mac.getInstance("HmacSHA256").apply { init(SecretKeySpec(idKey, "HmacSHA256")) }
         }
+        val digest = MessageDigest.getInstance("SHA-256")
         
-        return SecretKeySpec(keyBytes, "AES")
+        return { data, offset, length ->
+            val hash = if (mac != null) {
+                mac.update(data, offset, length)
+                mac.doFinal()
+            } else {
+                digest.update(data, offset, length)
+                digest.digest()
+            }
+            hash.joinToString("") { "%02x".format(it) }
+        }
     }
     
-    private fun encryptBackup(backupData: ByteArray, passwordKey: SecretKey): ByteArray {
-        // Use the encryption service
-        return encryptionService.encryptWithKey(backupData, "backup_key").getOrThrow()
+    private fun isManifest(file: File): Boolean {
+        return try {
+            DataInputStream(FileInputStream(file)).use { it.readInt() == MANIFEST_MAGIC }
+        } catch (e: EOFException) {
+            false
+        }
+    }
+    
+    private fun writeManifest(
+        destination: File,
+        manifest: BackupManifest,
+        keyParams: PasswordKeyParams?,
+        passwordKey: SecretKey?
+    ) {
+        destination.absoluteFile.parentFile?.mkdirs()
+        val temp = File(destination.absoluteFile.parentFile, "${destination.name}.${UUID.randomUUID()}.tmp")
+        
+        try {
+            val output = BufferedOutputStream(FileOutputStream(temp), DEFAULT_BUFFER_SIZE)
+            output.write(
+                ByteBuffer.allocate(6)
+                    .putInt(MANIFEST_MAGIC)
+                    .put(MANIFEST_VERSION.toByte())
+                    .put(if (passwordKey != null) 1 else 0)
+                    .array()
+            )
+            keyParams?.writeTo(DataOutputStream(output))
+            
+            val body = if (passwordKey == null) output else encryptBackupStream(output, passwordKey)
+            body.use { it.write(gson.toJson(manifest).toByteArray(Charsets.UTF_8)) }
+            
+            if (destination.exists()) {
+                destination.delete()
+            }
+            if (!temp.renameTo(destination)) {
+                temp.copyTo(destination, overwrite = true)
+            }
+        } finally {
+            temp.delete()
+        }
     }
     
-    private fun decryptBackup(encryptedData: ByteArray, passwordKey: SecretKey): ByteArray {
+    /**
+     * Read a manifest, returning it with the key its chunks are encrypted under, if any
+     */
+    private fun readManifest(source: File, passwordKeys: PasswordKeys?): Pair<BackupManifest, SecretKey?> {
+        val input = DataInputStream(BufferedInputStream(FileInputStream(source), DEFAULT_BUFFER_SIZE))
+        var passwordKey: SecretKey? = null
+        
+        val json = input.use {
+            if (input.readInt() != MANIFEST_MAGIC) {
+                throw IllegalArgumentException("Not an incremental backup")
+            }
+            val version = input.readByte().toInt()
+            if (version !in 1..MANIFEST_VERSION) {
+                throw IllegalArgumentException("Unsupported manifest version: $version")
+            }
+            val encrypted = input.readByte().toInt() == 1
+            if (encrypted && version < MANIFEST_VERSION) {
+                // Version 1 keys were not derived from a salted password and cannot be rebuilt
+                throw IllegalArgumentException("Encrypted manifest version $version is no longer supported")
+            }
+            if (encrypted && passwordKeys == null) {
+                throw IllegalArgumentException("Backup is password protected")
+            }
+            
+            val body = if (encrypted) {
+                val key = passwordKeys!!.forParams(PasswordKeyParams.readFrom(input))
+                passwordKey = key
+                decryptBackupStream(input, key)
+            } else {
+                input
+            }
+            body.readBytes().toString(Charsets.UTF_8)
+        }
+        
+        val manifest: BackupManifest = gson.fromJson(json, object : TypeToken<BackupManifest>() {}.type)
+        return manifest to passwordKey
+    }
+    
+    private fun encryptBackupStream(output: OutputStream, passwordKey: SecretKey): OutputStream {
+        // Encrypt with the password so the backup can be restored on another device
+        return encryptionService.encryptStreamWithKey(output, passwordKey).getOrThrow()
+    }
+    
+    private fun decryptBackupStream(input: InputStream, passwordKey: SecretKey): InputStream {
+        return encryptionService.decryptStreamWithKey(input, passwordKey).getOrThrow()
+    }
+    
+    private fun decryptBackup(encryptedData: ByteArray): ByteArray {
         // Use the encryption service
-        return encryptionService.decryptWithKey(encryptedData, "backup_key").getOrThrow()
+        return encryptionService.decryptWithKey(encryptedData, BACKUP_KEY_ALIAS).getOrThrow()
+    }
+    
+    /**
+     * Keys derived from one password, memoized per parameter set since each derivation is
+     * deliberately slow and a prune may read many manifests sharing the same salt
+     */
+    private inner class PasswordKeys(private val password: String) {
+        private val keys = HashMap<PasswordKeyParams, SecretKey>()
+        
+        init {
+            require(password.isNotEmpty()) { "Password must not be empty" }
+        }
+        
+        fun forParams(params: PasswordKeyParams): SecretKey =
+            keys.getOrPut(params) { encryptionService.derivePasswordKey(password, params).getOrThrow() }
     }
 }
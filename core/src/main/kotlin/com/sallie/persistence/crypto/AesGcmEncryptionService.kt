@@ -9,13 +9,17 @@ package com.sallie.persistence.crypto
 
 import android.security.keystore.KeyGenParameterSpec
 import android.security.keystore.KeyProperties
+import java.io.InputStream
+import java.io.OutputStream
 import java.nio.ByteBuffer
 import java.security.KeyStore
 import java.security.SecureRandom
 import javax.crypto.Cipher
 import javax.crypto.KeyGenerator
 import javax.crypto.SecretKey
+import javax.crypto.SecretKeyFactory
 import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.PBEKeySpec
 import javax.crypto.spec.SecretKeySpec
 import java.util.Base64
 
@@ -34,6 +38,7 @@ class AesGcmEncryptionService : EncryptionService {
         private const val IV_LENGTH = 12 // bytes
         private const val DEFAULT_KEY_ALIAS = "com.sallie.default_encryption_key"
         private const val AES_KEY_SIZE = 256 // bits
+        private const val PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256"
     }
     
     private val secureRandom = SecureRandom()
@@ -120,6 +125,64 @@ class AesGcmEncryptionService : EncryptionService {
         }
     }
     
+    override fun encryptStream(output: OutputStream, keyAlias: String?): Result<OutputStream> {
+        return try {
+            val alias = keyAlias ?: DEFAULT_KEY_ALIAS
+            val secretKey = getKey(alias) ?: return Result.failure(
+                Exception("Key not found: $alias")
+            )
+            
+            Result.success(ChunkedGcmOutputStream(output, secretKey, secureRandom = secureRandom))
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    override fun decryptStream(input: InputStream, keyAlias: String?): Result<InputStream> {
+        return try {
+            val alias = keyAlias ?: DEFAULT_KEY_ALIAS
+            val secretKey = getKey(alias) ?: return Result.failure(
+                Exception("Key not found: $alias")
+            )
+            
+            Result.success(ChunkedGcmInputStream(input, secretKey))
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    override fun encryptStreamWithKey(output: OutputStream, key: SecretKey): Result<OutputStream> {
+        return try {
+            Result.success(ChunkedGcmOutputStream(output, key, secureRandom = secureRandom))
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    override fun decryptStreamWithKey(input: InputStream, key: SecretKey): Result<InputStream> {
+        return try {
+            Result.success(ChunkedGcmInputStream(input, key))
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    override fun derivePasswordKey(password: String, params: PasswordKeyParams): Result<SecretKey> {
+        if (password.isEmpty()) {
+            return Result.failure(IllegalArgumentException("Password must not be empty"))
+        }
+        
+        val spec = PBEKeySpec(password.toCharArray(), params.salt, params.iterations, AES_KEY_SIZE)
+        return try {
+            val keyBytes = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).encoded
+            Result.success(SecretKeySpec(keyBytes, "AES"))
+        } catch (e: Exception) {
+            Result.failure(e)
+        } finally {
+            spec.clearPassword()
+        }
+    }
+    
     override fun encryptString(plainText: String): Result<String> {
         val encryptResult = encrypt(plainText.toByteArray(Charsets.UTF_8))
         
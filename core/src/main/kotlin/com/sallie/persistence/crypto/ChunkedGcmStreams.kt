@@ -0,0 +1,267 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * ChunkedGcmStreams - Streaming authenticated encryption in fixed-size AES-GCM chunks
+ */
+
+package com.sallie.persistence.crypto
+
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.FilterOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.security.SecureRandom
+import javax.crypto.Cipher
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+
+/**
+ * Layout of the chunked AES-GCM stream format
+ *
+ * Header: `[magic "SGCM"][version][chunkSize][streamId (16 bytes)]`
+ * Chunk:  `[final flag][ciphertext length][IV (12 bytes)][ciphertext + tag]`
+ *
+ * Every chunk has its own random IV and tag. The header, the chunk index and the final flag
+ * are authenticated as associated data, so chunks cannot be reordered, dropped, moved between
+ * streams or truncated without decryption failing. Only one chunk is held in memory at a time.
+ */
+object ChunkedGcmFormat {
+    const val DEFAULT_CHUNK_SIZE = 64 * 1024
+    const val MAX_CHUNK_SIZE = 16 * 1024 * 1024
+
+    internal const val MAGIC = 0x5347434d // "SGCM"
+    internal const val VERSION: Byte = 1
+    internal const val HEADER_LENGTH = 4 + 1 + 4 + 16
+    internal const val TRANSFORMATION = "AES/GCM/NoPadding"
+    internal const val IV_LENGTH = 12
+    internal const val TAG_LENGTH = 16
+
+    /**
+     * Whether [input] starts with a chunked stream header. Requires mark support, and leaves
+     * the stream position unchanged.
+     */
+    fun isChunkedStream(input: InputStream): Boolean {
+        require(input.markSupported()) { "Stream must support mark/reset" }
+        input.mark(4)
+        try {
+            val magic = ByteArray(4)
+            var read = 0
+            while (read < magic.size) {
+                val count = input.read(magic, read, magic.size - read)
+                if (count < 0) return false
+                read += count
+            }
+            return ByteBuffer.wrap(magic).int == MAGIC
+        } finally {
+            input.reset()
+        }
+    }
+
+    internal fun associatedData(header: ByteArray, chunkIndex: Long, isFinal: Boolean): ByteArray {
+        return ByteBuffer.allocate(header.size + 9)
+            .put(header)
+            .putLong(chunkIndex)
+            .put(if (isFinal) 1 else 0)
+            .array()
+    }
+}
+
+/**
+ * Thrown when a chunked stream is malformed, truncated or fails authentication
+ */
+class EncryptedStreamException(message: String, cause: Throwable? = null) : IOException(message, cause)
+
+/**
+ * Encrypts everything written to it into [output] using the chunked AES-GCM format.
+ * [close] writes the final chunk; a stream that is not closed cannot be decrypted.
+ */
+class ChunkedGcmOutputStream(
+    output: OutputStream,
+    private val key: SecretKey,
+    private val chunkSize: Int = ChunkedGcmFormat.DEFAULT_CHUNK_SIZE,
+    secureRandom: SecureRandom = SecureRandom()
+) : FilterOutputStream(output) {
+
+    private val header: ByteArray
+    private val buffer: ByteArray
+    private var buffered = 0
+    private var chunkIndex = 0L
+    private var closed = false
+
+    init {
+        require(chunkSize in 1..ChunkedGcmFormat.MAX_CHUNK_SIZE) { "Invalid chunk size: $chunkSize" }
+        buffer = ByteArray(chunkSize)
+
+        val streamId = ByteArray(16)
+        secureRandom.nextBytes(streamId)
+        header = ByteBuffer.allocate(ChunkedGcmFormat.HEADER_LENGTH)
+            .putInt(ChunkedGcmFormat.MAGIC)
+            .put(ChunkedGcmFormat.VERSION)
+            .putInt(chunkSize)
+            .put(streamId)
+            .array()
+        out.write(header)
+    }
+
+    override fun write(b: Int) {
+        ensureOpen()
+        if (buffered == chunkSize) writeChunk(isFinal = false)
+        buffer[buffered++] = b.toByte()
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        ensureOpen()
+        var offset = off
+        var remaining = len
+        while (remaining > 0) {
+            // A full buffer is only flushed once more data arrives, so the last chunk is always final
+            if (buffered == chunkSize) writeChunk(isFinal = false)
+            val count = minOf(remaining, chunkSize - buffered)
+            System.arraycopy(b, offset, buffer, buffered, count)
+            buffered += count
+            offset += count
+            remaining -= count
+        }
+    }
+
+    override fun close() {
+        if (closed) return
+        closed = true
+        try {
+            writeChunk(isFinal = true)
+            out.flush()
+        } finally {
+            out.close()
+        }
+    }
+
+    private fun writeChunk(isFinal: Boolean) {
+        // Let the provider choose the IV; Android KeyStore keys reject caller-supplied IVs
+        val cipher = Cipher.getInstance(ChunkedGcmFormat.TRANSFORMATION)
+        cipher.init(Cipher.ENCRYPT_MODE, key)
+        cipher.updateAAD(ChunkedGcmFormat.associatedData(header, chunkIndex, isFinal))
+        val ciphertext = cipher.doFinal(buffer, 0, buffered)
+        val iv = cipher.iv
+        check(iv.size == ChunkedGcmFormat.IV_LENGTH) { "Unexpected IV length: ${iv.size}" }
+
+        out.write(
+            ByteBuffer.allocate(5 + iv.size)
+                .put(if (isFinal) 1 else 0)
+                .putInt(ciphertext.size)
+                .put(iv)
+                .array()
+        )
+        out.write(ciphertext)
+
+        buffered = 0
+        chunkIndex++
+    }
+
+    private fun ensureOpen() {
+        if (closed) throw IOException("Stream closed")
+    }
+}
+
+/**
+ * Decrypts a stream written by [ChunkedGcmOutputStream], verifying each chunk before any of
+ * its plaintext is returned
+ */
+class ChunkedGcmInputStream(
+    input: InputStream,
+    private val key: SecretKey
+) : InputStream() {
+
+    private val source = DataInputStream(input)
+    private val header = ByteArray(ChunkedGcmFormat.HEADER_LENGTH)
+    private val chunkSize: Int
+    private var plaintext = ByteArray(0)
+    private var position = 0
+    private var chunkIndex = 0L
+    private var finished = false
+
+    init {
+        try {
+            source.readFully(header)
+        } catch (e: EOFException) {
+            throw EncryptedStreamException("Missing stream header", e)
+        }
+        val buffer = ByteBuffer.wrap(header)
+        if (buffer.int != ChunkedGcmFormat.MAGIC) throw EncryptedStreamException("Not a chunked encrypted stream")
+        val version = buffer.get()
+        if (version != ChunkedGcmFormat.VERSION) throw EncryptedStreamException("Unsupported stream version: $version")
+        chunkSize = buffer.int
+        if (chunkSize !in 1..ChunkedGcmFormat.MAX_CHUNK_SIZE) throw EncryptedStreamException("Invalid chunk size: $chunkSize")
+    }
+
+    override fun read(): Int {
+        if (!fill()) return -1
+        return plaintext[position++].toInt() and 0xFF
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        if (!fill()) return -1
+        val count = minOf(len, plaintext.size - position)
+        System.arraycopy(plaintext, position, b, off, count)
+        position += count
+        return count
+    }
+
+    override fun available(): Int = plaintext.size - position
+
+    override fun close() {
+        source.close()
+    }
+
+    /**
+     * Make sure decrypted bytes are available; false at the authenticated end of the stream
+     */
+    private fun fill(): Boolean {
+        while (position == plaintext.size) {
+            if (finished) return false
+            readChunk()
+        }
+        return true
+    }
+
+    private fun readChunk() {
+        val isFinal: Boolean
+        val iv = ByteArray(ChunkedGcmFormat.IV_LENGTH)
+        val ciphertext: ByteArray
+        try {
+            val flag = source.readByte().toInt()
+            if (flag != 0 && flag != 1) throw EncryptedStreamException("Corrupt chunk $chunkIndex")
+            isFinal = flag == 1
+
+            val length = source.readInt()
+            if (length < ChunkedGcmFormat.TAG_LENGTH || length > chunkSize + ChunkedGcmFormat.TAG_LENGTH) {
+                throw EncryptedStreamException("Corrupt chunk $chunkIndex length: $length")
+            }
+            source.readFully(iv)
+            ciphertext = ByteArray(length)
+            source.readFully(ciphertext)
+        } catch (e: EOFException) {
+            throw EncryptedStreamException("Stream truncated at chunk $chunkIndex", e)
+        }
+
+        plaintext = try {
+            val cipher = Cipher.getInstance(ChunkedGcmFormat.TRANSFORMATION)
+            cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(ChunkedGcmFormat.TAG_LENGTH * 8, iv))
+            cipher.updateAAD(ChunkedGcmFormat.associatedData(header, chunkIndex, isFinal))
+            cipher.doFinal(ciphertext)
+        } catch (e: Exception) {
+            throw EncryptedStreamException("Authentication failed for chunk $chunkIndex", e)
+        }
+        // Nothing may follow the final chunk
+        if (isFinal && source.read() != -1) {
+            throw EncryptedStreamException("Unexpected data after final chunk $chunkIndex")
+        }
+        position = 0
+        chunkIndex++
+        finished = isFinal
+    }
+}
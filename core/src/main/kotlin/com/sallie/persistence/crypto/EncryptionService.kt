@@ -7,6 +7,8 @@
 
 package com.sallie.persistence.crypto
 
+import java.io.InputStream
+import java.io.OutputStream
 import java.security.KeyStore
 import java.security.SecureRandom
 import javax.crypto.Cipher
@@ -58,6 +60,53 @@ interface EncryptionService {
      */
     fun decryptWithKey(encryptedData: ByteArray, keyAlias: String): Result<ByteArray>
     
+    /**
+     * Wrap an output stream so everything written to it is encrypted in fixed-size chunks
+     * (see [ChunkedGcmFormat]). Closing the returned stream finishes the ciphertext.
+     * 
+     * @param output Stream that receives the ciphertext
+     * @param keyAlias Alias of the key to use, or null for the default key
+     * @return Encrypting stream
+     */
+    fun encryptStream(output: OutputStream, keyAlias: String? = null): Result<OutputStream>
+    
+    /**
+     * Wrap an input stream holding chunked ciphertext so reads return verified plaintext
+     * 
+     * @param input Stream holding the ciphertext
+     * @param keyAlias Alias of the key to use, or null for the default key
+     * @return Decrypting stream
+     */
+    fun decryptStream(input: InputStream, keyAlias: String? = null): Result<InputStream>
+    
+    /**
+     * Wrap an output stream so everything written to it is encrypted in chunks under [key],
+     * such as one from [derivePasswordKey]
+     * 
+     * @param output Stream that receives the ciphertext
+     * @param key Key to encrypt with
+     * @return Encrypting stream
+     */
+    fun encryptStreamWithKey(output: OutputStream, key: SecretKey): Result<OutputStream>
+    
+    /**
+     * Wrap an input stream holding chunked ciphertext written under [key]
+     * 
+     * @param input Stream holding the ciphertext
+     * @param key Key the ciphertext was written with
+     * @return Decrypting stream
+     */
+    fun decryptStreamWithKey(input: InputStream, key: SecretKey): Result<InputStream>
+    
+    /**
+     * Derive an AES key from a password with PBKDF2-HMAC-SHA256
+     * 
+     * @param password Password to derive from; must not be empty
+     * @param params Salt and iteration count, stored alongside the protected data
+     * @return Derived key
+     */
+    fun derivePasswordKey(password: String, params: PasswordKeyParams): Result<SecretKey>
+    
     /**
      * Encrypt a string with the default key
      * 
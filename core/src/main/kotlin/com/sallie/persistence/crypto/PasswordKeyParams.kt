@@ -0,0 +1,76 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * PasswordKeyParams - Salt and work factor for password-derived keys
+ */
+
+package com.sallie.persistence.crypto
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.security.SecureRandom
+
+/**
+ * PBKDF2-HMAC-SHA256 parameters for deriving an AES key from a password
+ *
+ * The parameters are not secret and are stored next to the data they protect as
+ * `[iterations][salt length][salt]`. Values read back are bounds-checked, so a tampered file
+ * can neither weaken the derivation nor make it run for hours.
+ */
+class PasswordKeyParams(val salt: ByteArray, val iterations: Int) {
+
+    init {
+        require(salt.size in MIN_SALT_LENGTH..MAX_SALT_LENGTH) { "Invalid salt length: ${salt.size}" }
+        require(iterations in MIN_ITERATIONS..MAX_ITERATIONS) { "Invalid iteration count: $iterations" }
+    }
+
+    fun writeTo(output: DataOutputStream) {
+        output.writeInt(iterations)
+        output.writeByte(salt.size)
+        output.write(salt)
+    }
+
+    override fun equals(other: Any?): Boolean =
+        other is PasswordKeyParams && iterations == other.iterations && salt.contentEquals(other.salt)
+
+    override fun hashCode(): Int = 31 * iterations + salt.contentHashCode()
+
+    companion object {
+        const val DEFAULT_ITERATIONS = 310_000
+        const val SALT_LENGTH = 16
+
+        private const val MIN_ITERATIONS = 100_000
+        private const val MAX_ITERATIONS = 10_000_000
+        private const val MIN_SALT_LENGTH = 16
+        private const val MAX_SALT_LENGTH = 64
+
+        /**
+         * Fresh parameters with a random salt
+         */
+        fun generate(secureRandom: SecureRandom = SecureRandom()): PasswordKeyParams {
+            val salt = ByteArray(SALT_LENGTH)
+            secureRandom.nextBytes(salt)
+            return PasswordKeyParams(salt, DEFAULT_ITERATIONS)
+        }
+
+        /**
+         * Read parameters written by [writeTo]
+         *
+         * @throws EncryptedStreamException if they are malformed or out of bounds
+         */
+        fun readFrom(input: DataInputStream): PasswordKeyParams {
+            return try {
+                val iterations = input.readInt()
+                val salt = ByteArray(input.readUnsignedByte())
+                input.readFully(salt)
+                PasswordKeyParams(salt, iterations)
+            } catch (e: IllegalArgumentException) {
+                throw EncryptedStreamException("Invalid key derivation parameters", e)
+            } catch (e: EOFException) {
+                throw EncryptedStreamException("Missing key derivation parameters", e)
+            }
+        }
+    }
+}
@@ -13,28 +13,63 @@ import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.edit
 import androidx.datastore.preferences.core.stringPreferencesKey
 import androidx.datastore.preferences.preferencesDataStore
+import com.sallie.core.memory.MemoryLruCache
+import com.sallie.persistence.crypto.ChunkedGcmFormat
 import com.sallie.persistence.crypto.EncryptionService
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.map
 import java.io.File
 import java.util.Base64
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
 
 /**
  * Implementation of StorageService using DataStore with encryption
  * 
- * Provides secure storage with automatic encryption and DataStore persistence
+ * Provides secure storage with automatic encryption and DataStore persistence.
+ * Values are stored as `e:` or `p:` followed by Base64, so reads know whether to decrypt
+ * without trying; unflagged values from older versions are flagged on their first read.
+ * Decrypted values of hot keys are kept in a bounded plaintext cache, checked against the
+ * stored value on every hit and invalidated on write.
  */
 class SecureStorageService(
     private val context: Context,
-    private val encryptionService: EncryptionService
+    private val encryptionService: EncryptionService,
+    plaintextCacheBytes: Long = DEFAULT_PLAINTEXT_CACHE_BYTES
 ) : StorageService {
     
     companion object {
         private const val DATA_STORE_NAME = "sallie_secure_storage"
         private const val FILE_DIRECTORY = "sallie_secure_files"
         private const val CLEAR_CONFIRMATION = "DELETE_ALL_STORAGE"
+        private const val FILE_BUFFER_SIZE = 64 * 1024
+        
+        // Stored value format flags; Base64 never contains ':', so unflagged values are legacy
+        private const val ENCRYPTED_PREFIX = "e:"
+        private const val PLAIN_PREFIX = "p:"
+        
+        const val DEFAULT_PLAINTEXT_CACHE_BYTES = 1024L * 1024L
+    }
+    
+    /**
+     * Plaintext of an encrypted value, valid only while the stored value is still [stored]
+     */
+    private class CachedPlaintext(val stored: String, val plaintext: ByteArray)
+    
+    // Weighed in bytes, counting two per string char; object headers are not included
+    private val plaintextCache = MemoryLruCache<String, CachedPlaintext>(plaintextCacheBytes) { key, value ->
+        (key.length + value.stored.length) * 2 + value.plaintext.size
     }
     
+    private val decryptCount = LongAdder()
+    private val decryptFailures = LongAdder()
+    private val decryptNanos = LongAdder()
+    private val maxDecryptNanos = AtomicLong()
+    private val legacyReads = LongAdder()
+    private val cacheHits = LongAdder()
+    private val cacheMisses = LongAdder()
+    
     // Create the DataStore
     private val Context.dataStore: DataStore<Preferences> by preferencesDataStore(name = DATA_STORE_NAME)
     
@@ -55,13 +90,15 @@ class SecureStorageService(
                 data
             }
             
-            // Convert to base64 for text storage
+            // Convert to base64 for text storage, flagged with whether it is encrypted
             val base64Data = Base64.getEncoder().encodeToString(finalData)
+            val storedValue = (if (encrypted) ENCRYPTED_PREFIX else PLAIN_PREFIX) + base64Data
             val prefKey = stringPreferencesKey(key)
             
             context.dataStore.edit { preferences ->
-                preferences[prefKey] = base64Data
+                preferences[prefKey] = storedValue
             }
+            plaintextCache.remove(key)
             
             Result.success(Unit)
         } catch (e: Exception) {
@@ -72,20 +109,11 @@ class SecureStorageService(
     override suspend fun read(key: String): Result<ByteArray?> {
         return try {
             val prefKey = stringPreferencesKey(key)
-            val base64Data = context.dataStore.data.map { preferences ->
+            val storedValue = context.dataStore.data.map { preferences ->
                 preferences[prefKey]
             }.firstOrNull() ?: return Result.success(null)
             
-            val data = Base64.getDecoder().decode(base64Data)
-            
-            // Try to decrypt - if it fails, assume data was not encrypted
-            val decryptResult = encryptionService.decrypt(data)
-            
-            if (decryptResult.isSuccess) {
-                Result.success(decryptResult.getOrThrow())
-            } else {
-                Result.success(data)
-            }
+            Result.success(decodeValue(key, storedValue))
         } catch (e: Exception) {
             Result.failure(e)
         }
@@ -98,6 +126,7 @@ class SecureStorageService(
             context.dataStore.edit { preferences ->
                 preferences.remove(prefKey)
             }
+            plaintextCache.remove(key)
             
             // Also delete any file with this key
             val file = File(fileDirectory, key)
@@ -150,19 +179,101 @@ class SecureStorageService(
     override fun observe(key: String): Flow<ByteArray?> {
         val prefKey = stringPreferencesKey(key)
         
-        return context.dataStore.data.map { preferences ->
-            val base64Data = preferences[prefKey] ?: return@map null
-            val data = Base64.getDecoder().decode(base64Data)
-            
-            // Try to decrypt - if it fails, assume data was not encrypted
-            val decryptResult = encryptionService.decrypt(data)
-            
-            if (decryptResult.isSuccess) {
-                decryptResult.getOrThrow()
-            } else {
-                data
+        // Changes to other preferences leave the stored value unchanged and are dropped before decoding
+        return context.dataStore.data
+            .map { preferences -> preferences[prefKey] }
+            .distinctUntilChanged()
+            .map { storedValue ->
+                if (storedValue == null) return@map null
+                try {
+                    decodeValue(key, storedValue)
+                } catch (e: Exception) {
+                    println("SecureStorageService: unable to decode observed value for $key: ${e.message}")
+                    null
+                }
             }
+    }
+    
+    /**
+     * Decryption and plaintext cache metrics since this service was created
+     */
+    fun getMetrics(): StorageMetrics {
+        val count = decryptCount.sum()
+        val cacheStats = plaintextCache.getStats()
+        return StorageMetrics(
+            decryptCount = count,
+            decryptFailures = decryptFailures.sum(),
+            averageDecryptMicros = if (count == 0L) 0.0 else decryptNanos.sum() / count / 1000.0,
+            maxDecryptMicros = maxDecryptNanos.get() / 1000,
+            legacyReads = legacyReads.sum(),
+            cacheHits = cacheHits.sum(),
+            cacheMisses = cacheMisses.sum(),
+            cacheEntries = plaintextCache.size,
+            cacheBytes = cacheStats["weight"] as Long
+        )
+    }
+    
+    /**
+     * Decode a stored value, decrypting only values flagged as encrypted. Encrypted values
+     * are served from the plaintext cache while the stored value is unchanged.
+     */
+    private suspend fun decodeValue(key: String, storedValue: String): ByteArray {
+        if (storedValue.startsWith(PLAIN_PREFIX)) {
+            return Base64.getDecoder().decode(storedValue.substring(PLAIN_PREFIX.length))
+        }
+        
+        val cached = plaintextCache.get(key)
+        if (cached != null && cached.stored == storedValue) {
+            cacheHits.increment()
+            return cached.plaintext.copyOf()
+        }
+        cacheMisses.increment()
+        
+        if (!storedValue.startsWith(ENCRYPTED_PREFIX)) {
+            return decodeLegacyValue(key, storedValue)
+        }
+        
+        val data = Base64.getDecoder().decode(storedValue.substring(ENCRYPTED_PREFIX.length))
+        val plaintext = timedDecrypt(data).getOrThrow()
+        plaintextCache.put(key, CachedPlaintext(storedValue, plaintext))
+        return plaintext.copyOf()
+    }
+    
+    /**
+     * Decode a value written before the format flag: try to decrypt, otherwise assume plain,
+     * then store it again with the flag so later reads need no trial decryption
+     */
+    private suspend fun decodeLegacyValue(key: String, storedValue: String): ByteArray {
+        legacyReads.increment()
+        val data = Base64.getDecoder().decode(storedValue)
+        val decrypted = timedDecrypt(data, countFailure = false).getOrNull()
+        val flaggedValue = (if (decrypted != null) ENCRYPTED_PREFIX else PLAIN_PREFIX) + storedValue
+        
+        try {
+            val prefKey = stringPreferencesKey(key)
+            context.dataStore.edit { preferences ->
+                // Leave it alone if it was overwritten in the meantime
+                if (preferences[prefKey] == storedValue) preferences[prefKey] = flaggedValue
+            }
+        } catch (e: Exception) {
+            println("SecureStorageService: unable to flag legacy value for $key: ${e.message}")
         }
+        
+        val plaintext = decrypted ?: return data
+        plaintextCache.put(key, CachedPlaintext(flaggedValue, plaintext))
+        return plaintext.copyOf()
+    }
+    
+    private fun timedDecrypt(data: ByteArray, countFailure: Boolean = true): Result<ByteArray> {
+        val start = System.nanoTime()
+        val result = encryptionService.decrypt(data)
+        val elapsed = System.nanoTime() - start
+        
+        decryptCount.increment()
+        decryptNanos.add(elapsed)
+        maxDecryptNanos.accumulateAndGet(elapsed) { current, sample -> maxOf(current, sample) }
+        if (result.isFailure && countFailure) decryptFailures.increment()
+        return result
     }
     
     override suspend fun copyFile(key: String, file: File, encrypted: Boolean): Result<Unit> {
@@ -171,14 +282,14 @@ class SecureStorageService(
                 return Result.failure(Exception("Source file does not exist"))
             }
             
-            val data = file.readBytes()
-            
             if (encrypted) {
-                // For large files, stream encryption would be better
-                // This is simplified for demonstration
-                val encryptedData = encryptionService.encrypt(data).getOrThrow()
+                // Stream through chunked encryption so memory use does not grow with file size
                 val targetFile = File(fileDirectory, key)
-                targetFile.writeBytes(encryptedData)
+                file.inputStream().use { input ->
+                    encryptionService.encryptStream(targetFile.outputStream().buffered()).getOrThrow().use { output ->
+                        input.copyTo(output, FILE_BUFFER_SIZE)
+                    }
+                }
             } else {
                 val targetFile = File(fileDirectory, key)
                 file.copyTo(targetFile, overwrite = true)
@@ -198,6 +309,24 @@ class SecureStorageService(
                 return Result.failure(Exception("File not found: $key"))
             }
             
+            val isChunked = sourceFile.inputStream().buffered().use { ChunkedGcmFormat.isChunkedStream(it) }
+            
+            if (isChunked) {
+                try {
+                    sourceFile.inputStream().buffered().use { input ->
+                        encryptionService.decryptStream(input).getOrThrow().use { plaintext ->
+                            destination.outputStream().use { output -> plaintext.copyTo(output, FILE_BUFFER_SIZE) }
+                        }
+                    }
+                } catch (e: Exception) {
+                    // Never leave partially decrypted output behind
+                    destination.delete()
+                    throw e
+                }
+                return Result.success(Unit)
+            }
+            
+            // Files written before chunked encryption were encrypted as one payload
             val data = sourceFile.readBytes()
             
             // Try to decrypt - if it fails, assume data was not encrypted
@@ -225,6 +354,7 @@ class SecureStorageService(
             context.dataStore.edit { preferences ->
                 preferences.clear()
             }
+            plaintextCache.clear()
             
             // Clear file directory
             fileDirectory.listFiles()?.forEach { it.delete() }
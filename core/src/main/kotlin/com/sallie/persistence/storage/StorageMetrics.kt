@@ -0,0 +1,26 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * StorageMetrics - Model class for storage read path metrics
+ */
+
+package com.sallie.persistence.storage
+
+/**
+ * Decryption and plaintext cache metrics for a storage service
+ */
+data class StorageMetrics(
+    val decryptCount: Long,
+    val decryptFailures: Long,
+    val averageDecryptMicros: Double,
+    val maxDecryptMicros: Long,
+    val legacyReads: Long, // Values without a format flag that needed trial decryption
+    val cacheHits: Long,
+    val cacheMisses: Long,
+    val cacheEntries: Int,
+    val cacheBytes: Long
+) {
+    val cacheHitRate: Double
+        get() = if (cacheHits + cacheMisses == 0L) 0.0 else cacheHits.toDouble() / (cacheHits + cacheMisses)
+}
@@ -8,6 +8,7 @@
  * Features:
  * - Secure direct device transfer protocol
  * - Compressed data packaging for efficient transfers
+ * - Parallel, resumable chunked streaming of packages
  * - Complete or selective transfer options
  * - Local verification and integrity checking
  * 
@@ -25,6 +26,7 @@ import kotlinx.coroutines.flow.flow
 import java.io.File
 import java.security.MessageDigest
 import java.util.*
+import javax.crypto.SecretKey
 
 /**
  * Central manager for device transfer capabilities
@@ -33,10 +35,13 @@ class DeviceTransferSystem(
     private val memorySystem: HierarchicalMemorySystem,
     private val valueSystem: ValueSystem,
     private val personalityProfile: PersonalityProfile,
-    private val userPreferences: UserPreferenceModel
+    private val userPreferences: UserPreferenceModel,
+    private val transferProtocol: SecureDeviceTransferProtocol = SecureDeviceTransferProtocol(),
+    checkpointStore: TransferCheckpointStore = InMemoryCheckpointStore(),
+    engineConfig: TransferEngineConfig = TransferEngineConfig()
 ) {
-    private val transferProtocol = SecureDeviceTransferProtocol()
-    private val dataCompressor = DataCompressionSystem()
+    private val transferEngine = ChunkedTransferEngine(transferProtocol, checkpointStore, engineConfig)
+    private val dataCompressor = DataCompressionSystem(engineConfig.codecs)
     private val integrityVerifier = DataIntegrityVerifier()
     private val deviceAuthenticator = DeviceAuthenticator()
     private val transferLogger = TransferLogger()
@@ -118,60 +123,44 @@ class DeviceTransferSystem(
             message = "Transfer started"
         ))
         
-        // Process each data package
+        // Stream all packages as parallel chunks; chunks delivered before an interruption are skipped
         val totalPackages = session.dataPackages.size
         var processedPackages = 0
         
-        for (dataPackage in session.dataPackages) {
-            // Compress data package
-            val compressedPackage = dataCompressor.compressPackage(dataPackage)
-            
-            // Calculate data integrity hash
-            val integrityHash = integrityVerifier.calculateHash(compressedPackage)
-            compressedPackage.integrityHash = integrityHash
-            
-            // Transfer package to target device
-            val transferResult = transferProtocol.transferPackage(
-                session.targetDevice,
-                compressedPackage
-            )
-            
-            if (!transferResult.success) {
-                session.status = TransferStatus.FAILED
-                session.errorMessage = "Transfer failed: ${transferResult.message}"
+        try {
+            transferEngine.transfer(session.sessionId, session.targetDevice, session.dataPackages).collect { delivered ->
+                // Update progress
+                processedPackages++
+                session.progress = processedPackages.toFloat() / totalPackages
                 
                 emit(TransferProgress(
                     sessionId = session.sessionId,
                     status = session.status,
                     progress = session.progress,
-                    currentPackage = dataPackage,
-                    message = session.errorMessage ?: "Transfer failed"
+                    currentPackage = delivered.dataPackage,
+                    message = "Transferred package: ${delivered.dataPackage.type}"
                 ))
-                
-                // Log transfer failure
-                transferLogger.logTransferFailure(
-                    session = session,
-                    failureReason = transferResult.message ?: "Unknown error",
-                    timestamp = System.currentTimeMillis()
-                )
-                
-                return@flow
             }
-            
-            // Update progress
-            processedPackages++
-            session.progress = processedPackages.toFloat() / totalPackages
+        } catch (e: ChunkTransferException) {
+            session.status = TransferStatus.FAILED
+            session.errorMessage = "Transfer failed: ${e.message}"
             
             emit(TransferProgress(
                 sessionId = session.sessionId,
                 status = session.status,
                 progress = session.progress,
-                currentPackage = dataPackage,
-                message = "Transferred package: ${dataPackage.type}"
+                currentPackage = null,
+                message = session.errorMessage ?: "Transfer failed"
             ))
             
-            // Simulate processing time
-            kotlinx.coroutines.delay(500)
+            // Log transfer failure
+            transferLogger.logTransferFailure(
+                session = session,
+                failureReason = e.message ?: "Unknown error",
+                timestamp = System.currentTimeMillis()
+            )
+            
+            return@flow
         }
         
         // Verify all packages were transferred successfully
@@ -194,6 +183,7 @@ class DeviceTransferSystem(
                 session = session,
                 timestamp = System.currentTimeMillis()
             )
+            transferEngine.completeSession(session.sessionId)
         } else {
             session.status = TransferStatus.VERIFICATION_FAILED
             session.errorMessage = "Transfer verification failed: ${verificationResult.message}"
@@ -215,6 +205,18 @@ class DeviceTransferSystem(
         }
     }
     
+    /**
+     * Resumes a failed transfer session, sending only the chunks that were not yet delivered
+     */
+    suspend fun resumeTransfer(session: TransferSession): Flow<TransferProgress> {
+        if (session.status == TransferStatus.FAILED) {
+            session.status = TransferStatus.READY
+            session.errorMessage = null
+            session.progress = 0f
+        }
+        return executeTransfer(session)
+    }
+    
     /**
      * Prepares data packages based on transfer configuration
      */
@@ -637,11 +639,44 @@ class DeviceTransferSystem(
 /**
  * Protocol for secure device-to-device transfers
  */
-class SecureDeviceTransferProtocol {
+open class SecureDeviceTransferProtocol {
+    /**
+     * Prepares the target device to receive chunks for a session
+     */
+    open suspend fun openSession(
+        targetDevice: DeviceInfo,
+        sessionId: String,
+        sessionKey: SecretKey
+    ): OperationResult {
+        // In a real implementation, the session key would be agreed during device authentication
+        return OperationResult(success = true)
+    }
+    
+    /**
+     * Transfers one chunk of a data package to a target device
+     */
+    open suspend fun transferChunk(
+        targetDevice: DeviceInfo,
+        chunk: TransferChunk
+    ): OperationResult {
+        // Implementation of secure chunk transfer
+        // In a real implementation, this would use secure P2P communication
+        
+        // Simulate transfer success for most chunks
+        val random = Random()
+        val success = random.nextFloat() > 0.05f // 95% success rate for simulation
+        
+        return if (success) {
+            OperationResult(success = true)
+        } else {
+            OperationResult(success = false, message = "Network error during transfer")
+        }
+    }
+    
     /**
      * Transfers a data package to a target device
      */
-    suspend fun transferPackage(
+    open suspend fun transferPackage(
         targetDevice: DeviceInfo,
         dataPackage: CompressedDataPackage
     ): OperationResult {
@@ -662,7 +697,7 @@ class SecureDeviceTransferProtocol {
     /**
      * Requests a package from a source device
      */
-    suspend fun requestPackage(
+    open suspend fun requestPackage(
         sourceDevice: DeviceInfo,
         request: PackageRequest
     ): PackageResult {
@@ -676,8 +711,8 @@ class SecureDeviceTransferProtocol {
             originalPackageId = UUID.randomUUID().toString(),
             type = request.packageType,
             compressedData = dummyData,
-            originalSize = dummyData.size.toLong() * 2, // Simulate compression
-            compressionRatio = 0.5f,
+            originalSize = dummyData.size.toLong(),
+            compressionRatio = 1f,
             integrityHash = "dummy-hash",
             compressionTimestamp = System.currentTimeMillis()
         )
@@ -689,30 +724,30 @@ class SecureDeviceTransferProtocol {
 /**
  * System for compressing and decompressing data packages
  */
-class DataCompressionSystem {
+class DataCompressionSystem(
+    private val codecs: Map<PackageType, CompressionCodec> = CompressionCodec.DEFAULT_SELECTION
+) {
     /**
-     * Compresses a data package
+     * Compresses a data package with the codec chosen for its type
      */
     fun compressPackage(dataPackage: DataPackage): CompressedDataPackage {
-        // Implementation of data compression
-        // In a real implementation, this would use actual compression algorithms
-        
-        // Simulate compression (in reality, we'd use GZIP or similar)
         val originalSize = dataPackage.data.size.toLong()
-        val compressionRatio = 0.6f // Simulate 40% size reduction
-        val compressedSize = (originalSize * compressionRatio).toLong()
+        val preferredCodec = codecs[dataPackage.type] ?: CompressionCodec.DEFLATE
+        val compressed = preferredCodec.compress(dataPackage.data)
         
-        // In a real implementation, we'd actually compress the data
-        val compressedData = dataPackage.data
+        // Keep incompressible data as-is rather than let the codec grow it
+        val codec = if (compressed.size < dataPackage.data.size) preferredCodec else CompressionCodec.NONE
+        val compressedData = if (codec == CompressionCodec.NONE) dataPackage.data else compressed
         
         return CompressedDataPackage(
             originalPackageId = dataPackage.id,
             type = dataPackage.type,
             compressedData = compressedData,
             originalSize = originalSize,
-            compressionRatio = compressionRatio,
+            compressionRatio = if (originalSize == 0L) 1f else compressedData.size.toFloat() / originalSize,
             integrityHash = null, // Will be set later
-            compressionTimestamp = System.currentTimeMillis()
+            compressionTimestamp = System.currentTimeMillis(),
+            codec = codec
         )
     }
     
@@ -720,12 +755,10 @@ class DataCompressionSystem {
      * Decompresses a compressed data package
      */
     fun decompressPackage(compressedPackage: CompressedDataPackage): DataPackage {
-        // Implementation of data decompression
-        // In a real implementation, this would use actual decompression algorithms
-        
-        // Simulate decompression (in reality, we'd use GZIP or similar)
-        // For now, we just pass through the compressed data
-        val decompressedData = compressedPackage.compressedData
+        val decompressedData = compressedPackage.codec.decompress(
+            compressedPackage.compressedData,
+            compressedPackage.originalSize.toInt()
+        )
         
         return DataPackage(
             id = compressedPackage.originalPackageId,
@@ -1050,7 +1083,8 @@ data class CompressedDataPackage(
     val originalSize: Long,
     val compressionRatio: Float,
     var integrityHash: String?,
-    val compressionTimestamp: Long
+    val compressionTimestamp: Long,
+    val codec: CompressionCodec = CompressionCodec.NONE
 ) {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -1064,7 +1098,8 @@ data class CompressedDataPackage(
         if (originalSize != other.originalSize) return false
         if (compressionRatio != other.compressionRatio) return false
         if (integrityHash != other.integrityHash) return false
-        return compressionTimestamp == other.compressionTimestamp
+        if (compressionTimestamp != other.compressionTimestamp) return false
+        return codec == other.codec
     }
 
     override fun hashCode(): Int {
@@ -1075,6 +1110,7 @@ data class CompressedDataPackage(
         result = 31 * result + compressionRatio.hashCode()
         result = 31 * result + (integrityHash?.hashCode() ?: 0)
         result = 31 * result + compressionTimestamp.hashCode()
+        result = 31 * result + codec.hashCode()
         return result
     }
 }
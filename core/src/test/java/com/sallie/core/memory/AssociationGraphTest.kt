@@ -0,0 +1,133 @@
+package com.sallie.core.memory
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Unit tests for the compact association graph and its traversals
+ */
+class AssociationGraphTest {
+
+    private fun undirected(graph: AssociationGraph<String>, a: String, b: String, weight: Float) {
+        graph.putEdge(a, b, weight)
+        graph.putEdge(b, a, weight)
+    }
+
+    @Test
+    fun `test edges are added, replaced and removed`() {
+        val graph = AssociationGraph<String>(minCompactionEdges = 4)
+
+        graph.putEdge("a", "b", 0.5f, label = 1)
+        graph.putEdge("a", "c", 0.7f, label = 2)
+        graph.putEdge("a", "b", 0.9f, label = 3)
+        assertEquals(2, graph.edgeCount)
+
+        val edges = mutableMapOf<String, Pair<Float, Int>>()
+        graph.forEachEdge("a") { target, weight, label -> edges[target] = weight to label }
+        assertEquals(mapOf("b" to (0.9f to 3), "c" to (0.7f to 2)), edges)
+
+        assertTrue(graph.removeEdge("a", "b"))
+        assertFalse(graph.removeEdge("a", "b"))
+        assertEquals(1, graph.edgeCount)
+
+        // Enough writes to trigger compaction keep every live edge
+        for (i in 0 until 20) graph.putEdge("a", "n$i", 0.1f)
+        graph.compact()
+        var count = 0
+        graph.forEachEdge("a") { _, _, _ -> count++ }
+        assertEquals(21, count)
+        assertEquals(21, graph.edgeCount)
+    }
+
+    @Test
+    fun `test spreading activation respects depth and weights`() {
+        val graph = AssociationGraph<String>()
+        undirected(graph, "coffee", "cafe", 0.9f)
+        undirected(graph, "cafe", "friend", 0.8f)
+        undirected(graph, "friend", "birthday", 0.8f)
+        undirected(graph, "coffee", "tea", 0.3f)
+
+        val oneHop = graph.spreadingActivation(mapOf("coffee" to 1f), maxDepth = 1, decay = 1f)
+        assertEquals(listOf("cafe", "tea"), oneHop.map { it.key })
+        assertEquals(0.9f, oneHop[0].score, 1e-6f)
+
+        val twoHops = graph.spreadingActivation(mapOf("coffee" to 1f), maxDepth = 2, decay = 1f)
+        assertTrue(twoHops.any { it.key == "friend" })
+        assertFalse(twoHops.any { it.key == "birthday" })
+        assertFalse("Seeds are not returned", twoHops.any { it.key == "coffee" })
+
+        val limited = graph.spreadingActivation(mapOf("coffee" to 1f), maxDepth = 3, decay = 1f, limit = 2)
+        assertEquals(2, limited.size)
+        assertTrue(limited[0].score >= limited[1].score)
+    }
+
+    @Test
+    fun `test personalized pagerank favors memories shared by seeds`() {
+        val graph = AssociationGraph<String>()
+        // "garden" links both seeds; the others link only one
+        undirected(graph, "mom", "garden", 0.5f)
+        undirected(graph, "spring", "garden", 0.5f)
+        undirected(graph, "mom", "phone", 0.5f)
+        undirected(graph, "spring", "rain", 0.5f)
+
+        val ranked = graph.personalizedPageRank(mapOf("mom" to 1f, "spring" to 1f), limit = 3)
+
+        assertEquals("garden", ranked.first().key)
+        assertEquals(3, ranked.size)
+        assertFalse(ranked.any { it.key == "mom" || it.key == "spring" })
+    }
+
+    @Test
+    fun `test traversals agree before and after compaction`() {
+        val random = Random(3)
+        val uncompacted = AssociationGraph<Int>(minCompactionEdges = Int.MAX_VALUE)
+        val compacted = AssociationGraph<Int>(minCompactionEdges = 16)
+
+        repeat(2_000) {
+            val a = random.nextInt(300)
+            val b = random.nextInt(300)
+            val weight = 0.05f + random.nextFloat()
+            uncompacted.putEdge(a, b, weight)
+            compacted.putEdge(a, b, weight)
+        }
+        compacted.compact()
+
+        assertEquals(uncompacted.edgeCount, compacted.edgeCount)
+        for (seed in listOf(0, 17, 123)) {
+            assertEquals(
+                uncompacted.spreadingActivation(mapOf(seed to 1f), maxDepth = 3).map { it.key }.toSet(),
+                compacted.spreadingActivation(mapOf(seed to 1f), maxDepth = 3).map { it.key }.toSet()
+            )
+            assertEquals(
+                uncompacted.personalizedPageRank(mapOf(seed to 1f)).map { it.key }.toSet(),
+                compacted.personalizedPageRank(mapOf(seed to 1f)).map { it.key }.toSet()
+            )
+        }
+    }
+
+    @Test
+    fun `test removed nodes lose incoming edges and free their slot`() {
+        val graph = AssociationGraph<String>(minCompactionEdges = 4)
+        undirected(graph, "a", "b", 0.5f)
+        // One-way edges into "b" are not reachable from its own edges
+        graph.putEdge("c", "b", 0.4f, label = 7)
+        graph.putEdge("d", "b", 0.3f)
+        assertEquals(7, graph.edgeLabel("c", "b"))
+        assertNull(graph.edgeLabel("b", "c"))
+
+        graph.removeNode("b")
+        assertEquals(0, graph.edgeCount)
+        assertEquals(3, graph.nodeCount)
+        assertNull(graph.edgeLabel("c", "b"))
+        assertTrue(graph.spreadingActivation(mapOf("c" to 1f)).isEmpty())
+
+        // The next new node takes the freed slot and starts without edges
+        graph.putEdge("e", "a", 0.6f)
+        assertEquals(4, graph.nodeCount)
+        val edges = mutableListOf<String>()
+        graph.forEachEdge("e") { target, _, _ -> edges.add(target) }
+        assertEquals(listOf("a"), edges)
+        assertEquals(listOf("a"), graph.spreadingActivation(mapOf("e" to 1f), maxDepth = 3).map { it.key })
+    }
+}
@@ -0,0 +1,153 @@
+package com.sallie.core.memory
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.math.exp
+
+/**
+ * Unit tests for lazy memory decay and expiry-driven pruning
+ */
+class MemoryDecaySystemTest {
+
+    private lateinit var episodicMemoryStore: EpisodicMemoryStore
+    private lateinit var semanticMemoryStore: SemanticMemoryStore
+    private lateinit var emotionalMemoryStore: EmotionalMemoryStore
+    private lateinit var memoryDecaySystem: MemoryDecaySystem
+
+    private val now = System.currentTimeMillis()
+
+    @Before
+    fun setup() {
+        episodicMemoryStore = EpisodicMemoryStore()
+        semanticMemoryStore = SemanticMemoryStore()
+        emotionalMemoryStore = EmotionalMemoryStore()
+        memoryDecaySystem = MemoryDecaySystem()
+        memoryDecaySystem.setMemoryStores(episodicMemoryStore, semanticMemoryStore, emotionalMemoryStore)
+    }
+
+    private fun episodic(
+        id: String,
+        strength: Float,
+        daysAgo: Long,
+        importance: Float = 0.5f,
+        valence: EmotionalValence = EmotionalValence.NEUTRAL
+    ): EpisodicMemory {
+        val timestamp = now - TimeUnit.DAYS.toMillis(daysAgo)
+        val memory = EpisodicMemory(
+            id = id,
+            title = id,
+            description = "",
+            creationTimestamp = timestamp,
+            lastAccessTimestamp = timestamp,
+            importance = importance,
+            emotionalValence = valence,
+            accessCount = 0,
+            strengthFactor = strength,
+            tags = mutableListOf(),
+            relatedEntities = mutableListOf()
+        )
+        episodicMemoryStore.addMemory(memory)
+        memoryDecaySystem.trackMemory(memory)
+        return memory
+    }
+
+    @Test
+    fun `test strength is evaluated analytically on read`() {
+        val memory = episodic("older", strength = 0.8f, daysAgo = 30)
+
+        // Neutral, never accessed: rate is 0.05 * (1 - 0.8 * 0.5) per day
+        val expected = (0.8 * exp(-0.03 * 30)).toFloat()
+        assertEquals(expected, memoryDecaySystem.getEffectiveStrength("older", now)!!, 1e-4f)
+        assertEquals("Reading does not modify the memory", 0.8f, memory.strengthFactor, 0f)
+
+        // Folding the decay in restarts the curve without changing where it goes
+        assertEquals(expected, memoryDecaySystem.refreshStrength("older", now)!!, 1e-4f)
+        assertEquals(expected, memory.strengthFactor, 1e-4f)
+        val later = now + TimeUnit.DAYS.toMillis(10)
+        assertEquals(
+            (0.8 * exp(-0.03 * 40)).toFloat(),
+            memoryDecaySystem.getEffectiveStrength("older", later)!!,
+            1e-4f
+        )
+    }
+
+    @Test
+    fun `test pruning only removes memories that have expired`() {
+        episodic("weak", strength = 0.06f, daysAgo = 0)
+        episodic("strong", strength = 0.9f, daysAgo = 0)
+        episodic("significant", strength = 0.06f, daysAgo = 0, importance = 0.9f, valence = EmotionalValence.POSITIVE)
+
+        val expiry = memoryDecaySystem.nextExpiryTime()!!
+        assertTrue("Weak memory expires within days", expiry < now + TimeUnit.DAYS.toMillis(10))
+        assertEquals(0.05f, memoryDecaySystem.getEffectiveStrength("weak", expiry)!!, 1e-4f)
+
+        assertEquals(0, memoryDecaySystem.pruneWeakMemories(expiry - 1))
+        assertEquals(1, memoryDecaySystem.pruneWeakMemories(expiry))
+        assertNull(episodicMemoryStore.getMemory("weak"))
+        assertNull(memoryDecaySystem.getEffectiveStrength("weak"))
+
+        // Emotionally significant memories are never pruned and keep a minimum strength
+        val farFuture = now + TimeUnit.DAYS.toMillis(10_000)
+        assertEquals(1, memoryDecaySystem.pruneWeakMemories(farFuture))
+        assertNull(episodicMemoryStore.getMemory("strong"))
+        assertNotNull(episodicMemoryStore.getMemory("significant"))
+        assertEquals(0.06f, memoryDecaySystem.getEffectiveStrength("significant", farFuture)!!, 1e-6f)
+        assertNull(memoryDecaySystem.nextExpiryTime())
+    }
+
+    @Test
+    fun `test accessed memories are rescheduled instead of pruned`() {
+        val memory = episodic("accessed", strength = 0.06f, daysAgo = 0)
+        val expiry = memoryDecaySystem.nextExpiryTime()!!
+
+        // Reinforced elsewhere without telling the decay system
+        memory.accessCount++
+        memory.lastAccessTimestamp = expiry - 1
+        memory.strengthFactor = 0.5f
+
+        assertEquals(0, memoryDecaySystem.pruneWeakMemories(expiry))
+        assertNotNull(episodicMemoryStore.getMemory("accessed"))
+        assertTrue(memoryDecaySystem.nextExpiryTime()!! > expiry + TimeUnit.DAYS.toMillis(30))
+
+        // Tracked accesses move the expiry too
+        memoryDecaySystem.refreshStrength("accessed", expiry)
+        memory.strengthFactor = 0.05f
+        memoryDecaySystem.trackMemory(memory)
+        assertEquals(1, memoryDecaySystem.pruneWeakMemories(System.currentTimeMillis()))
+    }
+
+    @Test
+    fun `test readers see decayed strength`() {
+        val old = episodic("old", strength = 0.8f, daysAgo = 30)
+        episodic("fresh", strength = 0.8f, daysAgo = 0)
+
+        // Filtering goes through the decay system, not the stored strength factor
+        assertEquals(listOf("fresh"), episodicMemoryStore.getMemoriesByMinimumStrength(0.5f).map { it.id })
+        assertEquals(0.8f, old.strengthFactor, 0f)
+
+        // A memory touched without being re-tracked decays from that touch
+        old.accessCount++
+        old.lastAccessTimestamp = now
+        assertEquals(0.8f, memoryDecaySystem.getEffectiveStrength(old, now), 1e-4f)
+
+        memoryDecaySystem.forgetMemory("fresh")
+        assertNull(memoryDecaySystem.getEffectiveStrength("fresh"))
+    }
+
+    @Test
+    fun `test pruned memories go through the memory remover`() {
+        val removed = mutableListOf<String>()
+        memoryDecaySystem.setMemoryRemover { memory ->
+            removed.add(memory.id)
+            episodicMemoryStore.removeMemory(memory.id)
+        }
+        episodic("weak", strength = 0.06f, daysAgo = 0)
+
+        assertEquals(1, memoryDecaySystem.pruneWeakMemories(memoryDecaySystem.nextExpiryTime()!!))
+        assertEquals(listOf("weak"), removed)
+        assertNull(episodicMemoryStore.getMemory("weak"))
+        assertNull(memoryDecaySystem.getEffectiveStrength("weak"))
+    }
+}
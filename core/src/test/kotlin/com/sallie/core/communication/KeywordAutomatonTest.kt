@@ -0,0 +1,74 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the keyword automaton and single-pass lexer
+ */
+package com.sallie.core.communication
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.regex.Pattern
+
+class KeywordAutomatonTest {
+
+    @Test
+    fun findsOverlappingAndNestedKeywords() {
+        val automaton = KeywordAutomaton(listOf("he", "she", "his", "hers", "you", "see you"))
+
+        assertEquals(setOf("he", "she", "hers"), automaton.matchesIn("ushers"))
+        assertEquals(setOf("you", "see you"), automaton.matchesIn("see you soon"))
+        assertTrue(automaton.matchesIn("nothing here").contains("he"))
+        assertTrue(automaton.matchesIn("").isEmpty())
+    }
+
+    @Test
+    fun reportsEveryOccurrenceWithItsEndOffset() {
+        val automaton = KeywordAutomaton(listOf("a", "aa"))
+        val matches = mutableListOf<Pair<String, Int>>()
+        automaton.scan("aaa") { index, end -> matches.add(Pair(automaton.keywords[index], end)) }
+
+        assertEquals(
+            setOf(Pair("a", 1), Pair("a", 2), Pair("aa", 2), Pair("a", 3), Pair("aa", 3)),
+            matches.toSet()
+        )
+        assertEquals(5, matches.size)
+    }
+
+    @Test
+    fun agreesWithContainsForEveryKeyword() {
+        val keywords = listOf("who", "what", "time", "can you", "bye", "goodbye", "me", "you", "about yourself")
+        val automaton = KeywordAutomaton(keywords)
+        val texts = listOf(
+            "what time is it?",
+            "goodbye, see you tomorrow",
+            "can you tell me about yourself",
+            "whowhatwhen",
+            "nothing to see"
+        )
+
+        for (text in texts) {
+            assertEquals(text, keywords.filter { text.contains(it) }.toSet(), automaton.matchesIn(text))
+        }
+    }
+
+    @Test
+    fun lexerMatchesRegexTokenizer() {
+        val pattern = Pattern.compile("\\w+|[^\\w\\s]+")
+        val texts = listOf(
+            "Hello, world!! How are you?",
+            "It's 12:30pm... really?!",
+            "snake_case and tabs\tand\nnewlines",
+            "café über naïve — “quoted”",
+            "   ",
+            ""
+        )
+
+        for (text in texts) {
+            val expected = mutableListOf<String>()
+            val matcher = pattern.matcher(text)
+            while (matcher.find()) expected.add(matcher.group())
+
+            assertEquals(text, expected, TextLexer.tokenize(text))
+        }
+    }
+}
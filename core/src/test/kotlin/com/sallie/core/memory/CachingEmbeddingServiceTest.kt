@@ -0,0 +1,58 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the cached batch embedding service
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class CachingEmbeddingServiceTest {
+
+    private class CountingEmbeddingService : VectorMemoryIndexer.EmbeddingService {
+        val calls = AtomicInteger()
+
+        override suspend fun generateEmbedding(text: String): FloatArray? {
+            calls.incrementAndGet()
+            if (text.isBlank()) return null
+            return floatArrayOf(text.length.toFloat(), text.first().code.toFloat())
+        }
+    }
+
+    @Test
+    fun batchPreservesOrderAndEmbedsDuplicatesOnce() = runBlocking {
+        val delegate = CountingEmbeddingService()
+        val service = CachingEmbeddingService(delegate, parallelism = 4)
+
+        val texts = listOf("alpha", "beta", "alpha", "", "gamma", "beta")
+        val embeddings = service.generateEmbeddings(texts)
+
+        assertEquals(texts.size, embeddings.size)
+        assertEquals(4, delegate.calls.get())
+        assertArrayEquals(floatArrayOf(5f, 'a'.code.toFloat()), embeddings[0], 0f)
+        assertSame(embeddings[0], embeddings[2])
+        assertNull(embeddings[3])
+        assertArrayEquals(floatArrayOf(4f, 'b'.code.toFloat()), embeddings[5], 0f)
+    }
+
+    @Test
+    fun cachedTextsAreNotRecomputed() = runBlocking {
+        val delegate = CountingEmbeddingService()
+        val service = CachingEmbeddingService(delegate, maxCachedEmbeddings = 2)
+
+        service.generateEmbedding("first")
+        service.generateEmbeddings(listOf("first", "second"))
+        assertEquals(2, delegate.calls.get())
+
+        // "third" evicts "first"
+        service.generateEmbedding("third")
+        service.generateEmbedding("first")
+        assertEquals(4, delegate.calls.get())
+        assertEquals(2L, service.getCacheStats()["evictions"])
+    }
+}
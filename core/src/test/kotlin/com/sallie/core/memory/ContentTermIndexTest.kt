@@ -0,0 +1,44 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the content term index
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ContentTermIndexTest {
+
+    @Test
+    fun testFragmentsOfAnyLengthMatchTerms() {
+        val index = ContentTermIndex()
+        index.add("a", "Gardening every weekend")
+        index.add("b", "the garden gate")
+        index.add("c", "my cat sat")
+
+        assertEquals(setOf("a", "b"), index.idsContaining("garden"))
+        assertEquals(setOf("a", "b"), index.idsContaining("gar"))
+        assertEquals(setOf("c"), index.idsContaining("ca"))
+        assertEquals(setOf("a", "b", "c"), index.idsContaining("a"))
+        assertTrue(index.idsContaining("gardens").isEmpty())
+    }
+
+    @Test
+    fun testReindexAndRemoveDropUnusedTerms() {
+        val index = ContentTermIndex()
+        index.add("a", "pasta dinner")
+        index.add("b", "pasta lunch")
+        assertEquals(3, index.vocabularySize)
+
+        index.add("a", "salad")
+        assertEquals(setOf("b"), index.idsContaining("pasta"))
+        assertTrue(index.idsContaining("dinner").isEmpty())
+        assertEquals(3, index.vocabularySize)
+
+        index.remove("b")
+        assertTrue(index.idsContaining("pas").isEmpty())
+        assertEquals(setOf("a"), index.idsContaining("sal"))
+        assertEquals(1, index.vocabularySize)
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the contiguous embedding store
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.file.Files
+
+class EmbeddingStoreTest {
+
+    @Test
+    fun testPutGetAndRowReuse() {
+        val store = EmbeddingStore.inMemory(dimensions = 4, initialCapacity = 2)
+
+        val first = store.put("a", floatArrayOf(1f, 0f, 0f, 0f), EmbeddingStore.contentDigest("a"))
+        store.put("b", floatArrayOf(0f, 1f, 0f, 0f), EmbeddingStore.contentDigest("b"))
+        store.put("c", floatArrayOf(1f, 1f, 0f, 0f), EmbeddingStore.contentDigest("c")) // forces growth
+
+        assertEquals(3, store.size)
+        assertArrayEquals(floatArrayOf(1f, 1f, 0f, 0f), store.get("c")!!, 0f)
+        assertNull(store.getIfCurrent("a", EmbeddingStore.contentDigest("changed")))
+        assertNotNull(store.getIfCurrent("a", EmbeddingStore.contentDigest("a")))
+
+        assertTrue(store.remove("a"))
+        assertFalse(store.contains("a"))
+        assertEquals(first, store.put("d", floatArrayOf(0f, 0f, 1f, 0f)))
+
+        // Strings with equal hash codes still have different digests
+        assertEquals("Aa".hashCode(), "BB".hashCode())
+        store.put("e", floatArrayOf(0f, 0f, 0f, 1f), EmbeddingStore.contentDigest("Aa"))
+        assertNotNull(store.getIfCurrent("e", EmbeddingStore.contentDigest("Aa")))
+        assertNull(store.getIfCurrent("e", EmbeddingStore.contentDigest("BB")))
+    }
+
+    @Test
+    fun testCosineKernels() {
+        val store = EmbeddingStore.inMemory(dimensions = 5)
+        val rowA = store.put("a", floatArrayOf(1f, 2f, 3f, 4f, 5f))
+        val rowB = store.put("b", floatArrayOf(2f, 4f, 6f, 8f, 10f))
+        val rowC = store.put("c", floatArrayOf(-1f, -2f, -3f, -4f, -5f))
+
+        assertEquals(1.0, store.cosineSimilarity(rowA, rowB), 1e-6)
+        assertEquals(-1.0, store.cosineSimilarity(rowA, rowC), 1e-6)
+
+        val query = floatArrayOf(1f, 2f, 3f, 4f, 5f)
+        assertEquals(1.0, store.cosineSimilarity(query, EmbeddingKernels.norm(query), rowB), 1e-6)
+        assertEquals(55.0, EmbeddingKernels.dot(query, query), 1e-6)
+    }
+
+    @Test
+    fun testFlushAndReopen() {
+        val dir = Files.createTempDirectory("embedding_store").toFile()
+        val file = dir.resolve("embeddings.vec")
+        try {
+            val store = EmbeddingStore.open(file, dimensions = 3)
+            store.put("kept", floatArrayOf(0.5f, 0.25f, 0.125f), EmbeddingStore.contentDigest("kept"))
+            store.put("dropped", floatArrayOf(1f, 1f, 1f), EmbeddingStore.contentDigest("dropped"))
+            store.remove("dropped")
+            store.close()
+
+            val reopened = EmbeddingStore.open(file, dimensions = 3)
+            assertEquals(1, reopened.size)
+            assertArrayEquals(floatArrayOf(0.5f, 0.25f, 0.125f), reopened.getIfCurrent("kept", EmbeddingStore.contentDigest("kept"))!!, 0f)
+            assertFalse(reopened.contains("dropped"))
+            reopened.close()
+        } finally {
+            dir.deleteRecursively()
+        }
+    }
+}
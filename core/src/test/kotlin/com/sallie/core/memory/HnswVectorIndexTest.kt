@@ -0,0 +1,115 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests and recall-vs-latency benchmark for the HNSW vector index
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class HnswVectorIndexTest {
+
+    private val dimensions = 32
+
+    private fun randomVectors(count: Int, seed: Int): List<FloatArray> {
+        val random = Random(seed)
+        return List(count) { FloatArray(dimensions) { random.nextFloat() * 2 - 1 } }
+    }
+
+    @Test
+    fun testExactMatchIsTopResult() {
+        val index = HnswVectorIndex()
+        val vectors = randomVectors(500, 1)
+        vectors.forEachIndexed { i, vector -> index.add("memory_$i", vector) }
+
+        val results = index.search(vectors[42], 5)
+
+        assertEquals("memory_42", results.first().first)
+        assertEquals(1.0, results.first().second, 1e-5)
+        assertTrue(results.zipWithNext().all { (a, b) -> a.second >= b.second })
+    }
+
+    @Test
+    fun testRemoveAndExclude() {
+        val index = HnswVectorIndex(compactionRatio = 0.5)
+        val vectors = randomVectors(200, 2)
+        vectors.forEachIndexed { i, vector -> index.add("memory_$i", vector) }
+
+        assertTrue(index.remove("memory_7"))
+        assertFalse(index.remove("memory_7"))
+        assertFalse(index.contains("memory_7"))
+        assertEquals(199, index.size)
+        assertTrue(index.search(vectors[7], 10).none { it.first == "memory_7" })
+
+        val excluded = index.search(vectors[8], 10, excludeId = "memory_8")
+        assertTrue(excluded.none { it.first == "memory_8" })
+
+        // Enough deletions to trigger compaction; survivors must remain searchable
+        for (i in 0 until 120) index.remove("memory_$i")
+        assertEquals(80, index.size)
+        assertEquals("memory_150", index.search(vectors[150], 1).first().first)
+    }
+
+    @Test
+    fun testSharedStoreVectorsAreReadByRow() {
+        val store = EmbeddingStore.inMemory(dimensions)
+        val index = HnswVectorIndex(store)
+        val vectors = randomVectors(300, 5)
+        vectors.forEachIndexed { i, vector ->
+            store.put("memory_$i", vector)
+            index.add("memory_$i", vector)
+        }
+
+        // Overwriting a row in the store is what the index sees
+        store.put("memory_3", vectors[200])
+        index.add("memory_3", vectors[200])
+        val results = index.search(vectors[200], 2).map { it.first }.toSet()
+        assertEquals(setOf("memory_3", "memory_200"), results)
+
+        assertThrows(IllegalArgumentException::class.java) { index.add("unstored", vectors[0]) }
+        index.clear()
+        assertEquals(300, store.size)
+    }
+
+    @Test
+    fun testRecallAgainstBruteForce() {
+        val count = 5000
+        val queries = 200
+        val k = 10
+        val vectors = randomVectors(count, 3)
+        val queryVectors = randomVectors(queries, 4)
+
+        val exact = BruteForceVectorIndex()
+        val approximate = HnswVectorIndex(efSearch = 100)
+        vectors.forEachIndexed { i, vector ->
+            exact.add("memory_$i", vector)
+            approximate.add("memory_$i", vector)
+        }
+
+        var hits = 0
+        var exactNanos = 0L
+        var approximateNanos = 0L
+        for (query in queryVectors) {
+            var start = System.nanoTime()
+            val expected = exact.search(query, k).map { it.first }.toSet()
+            exactNanos += System.nanoTime() - start
+
+            start = System.nanoTime()
+            val actual = approximate.search(query, k).map { it.first }
+            approximateNanos += System.nanoTime() - start
+
+            hits += actual.count { it in expected }
+        }
+
+        val recall = hits.toDouble() / (queries * k)
+        println(
+            "HNSW recall@$k=${"%.3f".format(recall)} " +
+                "brute=${exactNanos / queries / 1000}us/query hnsw=${approximateNanos / queries / 1000}us/query"
+        )
+        assertTrue("recall too low: $recall", recall >= 0.9)
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for incremental memory clustering
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class IncrementalClusterIndexTest {
+
+    private val vectors = mutableMapOf<String, FloatArray>()
+
+    private fun newIndex() = IncrementalClusterIndex(
+        similarityThreshold = 0.9,
+        refineEvery = Int.MAX_VALUE,
+        vectorLookup = { vectors[it] }
+    )
+
+    private fun add(index: IncrementalClusterIndex, id: String, vararg values: Float) {
+        vectors[id] = values
+        index.assign(id, values)
+    }
+
+    @Test
+    fun testSimilarMemoriesShareCluster() {
+        val index = newIndex()
+        add(index, "sun_1", 1f, 0.05f, 0f)
+        add(index, "sun_2", 0.95f, 0.1f, 0f)
+        add(index, "rain_1", 0f, 0f, 1f)
+        add(index, "rain_2", 0.05f, 0f, 0.97f)
+        add(index, "lonely", 0f, 1f, 0f)
+
+        assertEquals(index.clusterOf("sun_1"), index.clusterOf("sun_2"))
+        assertEquals(index.clusterOf("rain_1"), index.clusterOf("rain_2"))
+        assertTrue(index.clusterOf("sun_1") != index.clusterOf("rain_1"))
+
+        // Singletons are not reported as clusters
+        val clusters = index.getClusters(maxClusters = 10)
+        assertEquals(2, clusters.size)
+        assertTrue(clusters.values.all { it.size == 2 })
+        index.close()
+    }
+
+    @Test
+    fun testRemoveAndRefine() {
+        val index = newIndex()
+        add(index, "a", 1f, 0f)
+        add(index, "b", 0.99f, 0.05f)
+        add(index, "c", 0f, 1f)
+
+        index.remove("c")
+        assertNull(index.clusterOf("c"))
+        assertEquals(1, index.size)
+
+        index.refine()
+        assertEquals(index.clusterOf("a"), index.clusterOf("b"))
+        assertEquals(1L, index.getStats()["refinementPasses"])
+        index.close()
+    }
+
+    @Test
+    fun testReassignSubtractsPreviousVector() {
+        val index = newIndex()
+        add(index, "a", 1f, 0f)
+        add(index, "c", 0f, 1f)
+        add(index, "b", 0.3f, 0.954f)
+        val cluster = index.clusterOf("c")
+        assertEquals(cluster, index.clusterOf("b"))
+
+        // Re-assigning "b" onto "c"'s axis must take its old direction out of the centroid
+        add(index, "b", 0f, 1f)
+        assertEquals(cluster, index.clusterOf("b"))
+
+        val centroid = index.centroidOf(cluster!!)!!
+        assertEquals(0f, centroid[0], 1e-6f)
+        assertEquals(1f, centroid[1], 1e-6f)
+        index.close()
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the inverted keyword index
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class InvertedIndexTest {
+
+    private fun tokens(text: String) = text.lowercase().split(" ").filter { it.length > 2 }
+
+    @Test
+    fun testBm25PrefersFocusedDocuments() {
+        val index = InvertedIndex()
+        index.add("pasta", tokens("pasta pasta dinner with fresh pasta"))
+        index.add("dinner", tokens("dinner plans with friends after work and a long walk home"))
+        index.add("garden", tokens("planted tomatoes in the garden"))
+
+        val results = index.search(listOf("pasta"), 10)
+        assertEquals("pasta", results.first().first)
+        assertEquals(1, results.size)
+
+        val dinner = index.search(listOf("dinner"), 10).map { it.first }
+        assertEquals(listOf("pasta", "dinner"), dinner)
+    }
+
+    @Test
+    fun testSubstringMatchesUseTrigrams() {
+        val index = InvertedIndex()
+        index.add("a", tokens("gardening every weekend"))
+        index.add("b", tokens("the garden gate"))
+        index.add("c", tokens("nothing relevant here"))
+
+        val occurrences = index.occurrences("garden")
+        assertEquals(setOf("a", "b"), occurrences.keys)
+
+        val results = index.search(listOf("garden"), 10)
+        assertEquals("b", results.first().first) // exact term outranks partial coverage
+    }
+
+    @Test
+    fun testRemoveAndReplace() {
+        val index = InvertedIndex()
+        repeat(10) { index.add("memory_$it", tokens("shared word number$it")) }
+
+        assertTrue(index.remove("memory_3"))
+        assertFalse(index.remove("memory_3"))
+        for (i in 0 until 8) index.remove("memory_$i") // triggers postings compaction
+
+        assertEquals(setOf("memory_8", "memory_9"), index.search(listOf("shared"), 10).map { it.first }.toSet())
+
+        index.add("memory_9", tokens("replaced content entirely"))
+        assertEquals(listOf("memory_8"), index.search(listOf("shared"), 10).map { it.first })
+        assertEquals(listOf("memory_9"), index.search(listOf("replaced"), 10).map { it.first })
+        assertEquals(2, index.documentCount)
+    }
+
+    @Test
+    fun testShortKeywordsMatchAsSubstrings() {
+        val index = InvertedIndex()
+        index.add("a", tokens("gardening every weekend"))
+        index.add("b", tokens("the garden gate"))
+
+        assertEquals(mapOf("a" to 1, "b" to 2), index.occurrences("ga"))
+        assertEquals(setOf("a"), index.occurrences("y").keys)
+    }
+
+    @Test
+    fun testRemovalReleasesTermsAndDocumentSlots() {
+        val index = InvertedIndex()
+        repeat(200) { index.add("memory_$it", tokens("shared word unique$it")) }
+        repeat(150) { index.remove("memory_$it") }
+
+        // Terms of removed documents leave the vocabulary and their trigrams go with them
+        assertEquals(2 + 50, index.vocabularySize)
+        assertTrue(index.occurrences("unique1").keys.all { it.removePrefix("memory_").toInt() >= 150 })
+        assertTrue((index.getStats()["documentSlots"] as Int) < 200)
+
+        // Renumbered documents still rank and replace correctly
+        assertEquals(listOf("memory_199"), index.search(listOf("unique199"), 10).map { it.first })
+        index.add("memory_199", tokens("different text"))
+        assertTrue(index.search(listOf("unique199"), 10).isEmpty())
+        assertEquals(49, index.search(listOf("shared"), 100).size)
+
+        repeat(50) { index.remove("memory_${150 + it}") }
+        assertEquals(0, index.vocabularySize)
+        assertEquals(0, index.getStats()["trigrams"])
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the reference-counted per-memory flows
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MemoryItemFlowsTest {
+
+    private fun item(id: String, content: String) =
+        HierarchicalMemorySystem.MemoryItem(id, HierarchicalMemorySystem.MemoryType.SEMANTIC, content)
+
+    @Test
+    fun testCollectorSeesUpdatesAndEntryIsDroppedAfterIt() = runBlocking {
+        val flows = MemoryItemFlows()
+        val updates = Channel<HierarchicalMemorySystem.MemoryItem?>(Channel.UNLIMITED)
+
+        val collector = launch {
+            flows.observe("m1") { item("m1", "first") }.collect { updates.send(it) }
+        }
+        assertEquals("first", updates.receive()?.content)
+        assertEquals(1, flows.size)
+
+        flows.update("m1", item("m1", "second"))
+        assertEquals("second", updates.receive()?.content)
+
+        flows.update("m1", null)
+        assertNull(updates.receive())
+
+        collector.cancelAndJoin()
+        assertEquals(0, flows.size)
+    }
+
+    @Test
+    fun testUpdatesWithoutCollectorsAreNotRetained() = runBlocking {
+        val flows = MemoryItemFlows()
+
+        flows.update("m1", item("m1", "ignored"))
+        assertEquals(0, flows.size)
+
+        assertEquals("stored", flows.observe("m1") { item("m1", "stored") }.first()?.content)
+        assertEquals(0, flows.size)
+    }
+}
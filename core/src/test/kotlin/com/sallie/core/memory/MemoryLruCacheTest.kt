@@ -0,0 +1,76 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the weight-bounded memory LRU cache
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MemoryLruCacheTest {
+
+    @Test
+    fun evictsLeastRecentlyUsedEntry() {
+        val cache = MemoryLruCache<String, String>(maxWeight = 2)
+        cache.put("a", "1")
+        cache.put("b", "2")
+
+        // Touch "a" so "b" becomes the eldest
+        assertNotNull(cache.get("a"))
+        cache.put("c", "3")
+
+        assertNull(cache.get("b"))
+        assertEquals("1", cache.get("a"))
+        assertEquals("3", cache.get("c"))
+        assertEquals(1L, cache.getStats()["evictions"])
+    }
+
+    @Test
+    fun respectsEntryWeights() {
+        val cache = MemoryLruCache<String, String>(maxWeight = 10) { _, value -> value.length }
+        cache.put("a", "12345")
+        cache.put("b", "12345")
+        cache.put("c", "123")
+
+        assertEquals(2, cache.size)
+        assertEquals(8L, cache.getStats()["weight"])
+
+        cache.put("b", "1")
+        assertEquals(4L, cache.getStats()["weight"])
+    }
+
+    @Test
+    fun tracksHitsAndMisses() {
+        val cache = MemoryLruCache<String, Int>(maxWeight = 4)
+        cache.put("a", 1)
+        cache.get("a")
+        cache.get("missing")
+
+        val stats = cache.getStats()
+        assertEquals(1L, stats["hits"])
+        assertEquals(1L, stats["misses"])
+        assertEquals(0.5, stats["hitRate"] as Double, 1e-9)
+    }
+
+    @Test
+    fun expiresEntriesAfterWrite() {
+        var now = 1_000L
+        val cache = MemoryLruCache<String, Int>(maxWeight = 4, expireAfterWriteMs = 100, clock = { now })
+        cache.put("a", 1)
+        now += 60
+        cache.put("b", 2)
+
+        now += 50
+        assertNull(cache.get("a"))
+        assertEquals(2, cache.get("b"))
+
+        // Expired entries at the eldest end are dropped on the next write
+        now += 60
+        cache.put("c", 3)
+        assertEquals(1, cache.size)
+        assertEquals(2L, cache.getStats()["expirations"])
+        assertEquals(0L, cache.getStats()["evictions"])
+    }
+}
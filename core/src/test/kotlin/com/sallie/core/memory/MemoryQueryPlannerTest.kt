@@ -0,0 +1,147 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for index-driven memory query planning
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentSkipListMap
+import kotlin.random.Random
+
+class MemoryQueryPlannerTest {
+
+    private val contentIndex = ContentTermIndex()
+    private val tagIndex = HashMap<String, MutableSet<String>>()
+    private val timeIndex = ConcurrentSkipListMap<Long, MutableSet<String>>()
+    private val emotionIndex = HashMap<String, MutableSet<String>>()
+    private val entityIndex = HashMap<String, MutableSet<String>>()
+    private val planner = MemoryQueryPlanner(contentIndex, tagIndex, timeIndex, emotionIndex, entityIndex)
+    private val memories = mutableListOf<HierarchicalMemorySystem.MemoryItem>()
+
+    // Index the way HierarchicalMemorySystem.updateIndices does
+    private fun store(item: HierarchicalMemorySystem.MemoryItem) {
+        memories.add(item)
+        contentIndex.add(item.id, item.content)
+        item.metadata["tags"]?.split(",")?.map { it.trim() }?.filter { it.isNotEmpty() }?.forEach {
+            tagIndex.getOrPut(it) { HashSet() }.add(item.id)
+        }
+        timeIndex.getOrPut(MemoryQueryPlanner.dayOf(item.created)) { HashSet() }.add(item.id)
+        val valence = when {
+            item.emotionalValence > 0.7 -> "very_positive"
+            item.emotionalValence > 0.3 -> "positive"
+            item.emotionalValence > -0.3 -> "neutral"
+            item.emotionalValence > -0.7 -> "negative"
+            else -> "very_negative"
+        }
+        emotionIndex.getOrPut(valence) { HashSet() }.add(item.id)
+        item.context.associatedEntities.forEach { entityIndex.getOrPut(it) { HashSet() }.add(item.id) }
+    }
+
+    private fun memory(
+        id: String,
+        content: String,
+        tags: String? = null,
+        created: Long = DAY,
+        valence: Double = 0.0,
+        entities: Set<String> = emptySet()
+    ) = HierarchicalMemorySystem.MemoryItem(
+        id = id,
+        type = HierarchicalMemorySystem.MemoryType.EPISODIC,
+        content = content,
+        metadata = tags?.let { mutableMapOf("tags" to it) } ?: mutableMapOf(),
+        created = created,
+        emotionalValence = valence,
+        context = HierarchicalMemorySystem.MemoryContext(associatedEntities = entities.toMutableSet())
+    )
+
+    private fun evaluatedIds(query: HierarchicalMemorySystem.MemoryQuery, from: Collection<HierarchicalMemorySystem.MemoryItem>) =
+        MemoryQueryEvaluator.evaluate(from, query.copy(limit = Int.MAX_VALUE)).map { it.id }.toSet()
+
+    @Test
+    fun testPlansNeverLoseEvaluatorMatches() {
+        val random = Random(7)
+        val words = listOf("cat", "garden", "pasta", "walk", "rain", "music", "a", "gardening", "Dinner")
+        val tags = listOf("home", "work", "family", "travel")
+        val entities = listOf("alex", "sam", "kim")
+
+        repeat(400) { i ->
+            store(
+                memory(
+                    id = "m$i",
+                    content = List(random.nextInt(1, 6)) { words.random(random) }.joinToString(" "),
+                    tags = List(random.nextInt(0, 3)) { tags.random(random) }.joinToString(",").ifEmpty { null },
+                    created = DAY * random.nextInt(1, 30) + random.nextLong(DAY),
+                    valence = random.nextDouble(-1.0, 1.0),
+                    entities = entities.filter { random.nextInt(3) == 0 }.toSet()
+                )
+            )
+        }
+
+        var indexedPlans = 0
+        repeat(300) {
+            val from = DAY * random.nextInt(1, 30)
+            val low = random.nextDouble(-1.0, 1.0)
+            val query = HierarchicalMemorySystem.MemoryQuery(
+                searchText = if (random.nextBoolean()) words.random(random).take(random.nextInt(1, 6)) else "",
+                contextTags = if (random.nextInt(3) == 0) setOf(tags.random(random)) else emptySet(),
+                temporalFilter = if (random.nextInt(3) == 0) from to from + DAY * random.nextInt(0, 5) else null,
+                emotionalFilter = if (random.nextInt(3) == 0) low to low + random.nextDouble(0.0, 0.8) else null,
+                associatedEntityFilter = if (random.nextInt(4) == 0) setOf(entities.random(random)) else emptySet(),
+                minCertainty = if (random.nextInt(4) == 0) 0.5 else 0.0
+            )
+
+            val plan = planner.plan(query, memories.size)
+            val expected = evaluatedIds(query, memories)
+            val candidateIds = plan.candidateIds ?: return@repeat
+            indexedPlans++
+
+            assertTrue("Plan for $query lost ${expected - candidateIds}", candidateIds.containsAll(expected))
+            assertEquals(expected, evaluatedIds(query, memories.filter { it.id in candidateIds }))
+            assertEquals(candidateIds.size, plan.stats.candidatesExamined)
+        }
+        assertTrue(indexedPlans > 200)
+    }
+
+    @Test
+    fun testMostSelectivePredicateDrivesThePlan() {
+        repeat(50) { store(memory("common$it", "walk in the park", tags = "outdoors")) }
+        store(memory("rare", "walk with alex", tags = "outdoors", entities = setOf("alex")))
+
+        val plan = planner.plan(
+            HierarchicalMemorySystem.MemoryQuery(
+                searchText = "walk",
+                contextTags = setOf("outdoors"),
+                associatedEntityFilter = setOf("alex")
+            ),
+            memories.size
+        )
+
+        assertEquals(setOf("rare"), plan.candidateIds)
+        assertEquals("index", plan.stats.accessPath)
+        assertEquals(listOf("entity", "content", "tag"), plan.stats.indexesUsed)
+        assertEquals(1, plan.stats.postingSizes["entity"])
+    }
+
+    @Test
+    fun testShortAndUnindexableSearchTerms() {
+        store(memory("cat", "my cat sat"))
+        store(memory("dog", "the dog ran"))
+
+        assertEquals(setOf("cat"), planner.plan(HierarchicalMemorySystem.MemoryQuery(searchText = "cat"), 2).candidateIds)
+
+        // An empty term (double space) matches every memory, so the text cannot narrow the plan
+        val plan = planner.plan(HierarchicalMemorySystem.MemoryQuery(searchText = "cat  dog"), 2)
+        assertNull(plan.candidateIds)
+        assertEquals("scan", plan.stats.accessPath)
+
+        assertNotNull(planner.plan(HierarchicalMemorySystem.MemoryQuery(searchText = "cat dog"), 2).candidateIds)
+    }
+
+    companion object {
+        private const val DAY = 24 * 60 * 60 * 1000L
+    }
+}
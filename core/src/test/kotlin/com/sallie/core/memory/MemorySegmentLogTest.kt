@@ -0,0 +1,156 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the append-only memory segment log
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class MemorySegmentLogTest {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setup() {
+        directory = Files.createTempDirectory("segment_log").toFile()
+    }
+
+    @After
+    fun cleanup() {
+        directory.deleteRecursively()
+    }
+
+    private fun entry(key: String, value: String?, tag: Int = 0) =
+        MemorySegmentLog.Entry(key, tag, value?.toByteArray())
+
+    private fun MemorySegmentLog.readString(key: String) = read(key)?.toString(Charsets.UTF_8)
+
+    @Test
+    fun testConcurrentWritesAreGroupCommitted() = runBlocking {
+        val log = MemorySegmentLog(directory, maxSegmentBytes = 2048)
+        coroutineScope {
+            repeat(200) { i ->
+                launch(Dispatchers.IO) { log.write(listOf(entry("key_${i % 50}", "value_$i", tag = i % 4))) }
+            }
+        }
+
+        assertEquals(50, log.size)
+        val stats = log.getStats()
+        assertEquals(200L, stats["committedEntries"])
+        assertTrue((stats["committedBatches"] as Long) <= 200L)
+        log.close()
+    }
+
+    @Test
+    fun testCompactionAndReopenPreserveLatestValues() = runBlocking {
+        var log = MemorySegmentLog(directory, maxSegmentBytes = 512)
+        for (round in 0 until 5) {
+            log.write((0 until 20).map { entry("key_$it", "round_${round}_$it", tag = it % 2) })
+        }
+        log.write(listOf(entry("key_3", null)))
+        val expected = (0 until 20).associate { "key_$it" to log.readString("key_$it") }
+
+        log.compact()
+        assertEquals(expected, (0 until 20).associate { "key_$it" to log.readString("key_$it") })
+        log.close()
+
+        log = MemorySegmentLog(directory, maxSegmentBytes = 512)
+        assertEquals(expected, (0 until 20).associate { "key_$it" to log.readString("key_$it") })
+        assertNull(log.readString("key_3"))
+        assertEquals(9, log.keys(tag = 1).size)
+        log.close()
+    }
+
+    @Test
+    fun testTornTailIsTruncatedOnOpen() = runBlocking {
+        var log = MemorySegmentLog(directory)
+        log.write(listOf(entry("a", "first"), entry("b", "second")))
+        log.close()
+
+        val segment = directory.listFiles()!!.filter { it.name.endsWith(".log") }.maxByOrNull { it.name }!!
+        segment.appendBytes(byteArrayOf(0, 0, 0, 64, 1, 2, 3))
+
+        log = MemorySegmentLog(directory)
+        assertEquals("first", log.readString("a"))
+        assertEquals("second", log.readString("b"))
+        log.write(listOf(entry("c", "third")))
+        assertEquals("third", log.readString("c"))
+        log.close()
+    }
+
+    @Test
+    fun testReadsDuringCompactionSeeLiveValues() = runBlocking {
+        val log = MemorySegmentLog(directory, maxSegmentBytes = 512)
+        log.write((0 until 20).map { entry("key_$it", "value_$it") })
+
+        coroutineScope {
+            val reader = launch(Dispatchers.IO) {
+                while (isActive) {
+                    for (i in 0 until 20) {
+                        assertEquals("value_$i", log.readString("key_$i"))
+                    }
+                }
+            }
+            repeat(50) {
+                log.write((0 until 5).map { entry("filler_$it", "x".repeat(100)) })
+                log.compact()
+            }
+            reader.cancel()
+        }
+        log.close()
+    }
+
+    @Test
+    fun testCloseCommitsQueuedWrites() = runBlocking {
+        var log = MemorySegmentLog(directory)
+        val writers = (0 until 100).map { i ->
+            async(Dispatchers.IO) { runCatching { log.write(listOf(entry("key_$i", "value_$i"))) }.isSuccess }
+        }
+        while (log.getStats()["committedEntries"] == 0L) Thread.yield()
+        log.close()
+
+        // Writers queued before close finish normally and later ones are refused; none hang
+        val accepted = withTimeout(5000) { writers.awaitAll() }
+        assertTrue(accepted.any { it })
+        log = MemorySegmentLog(directory)
+        accepted.forEachIndexed { i, ok ->
+            if (ok) assertEquals("value_$i", log.readString("key_$i"))
+        }
+        log.close()
+    }
+
+    @Test
+    fun testClearIsOrderedWithQueuedWrites() = runBlocking {
+        val log = MemorySegmentLog(directory)
+        log.write(listOf(entry("before", "old")))
+
+        coroutineScope {
+            launch(Dispatchers.IO) { log.clear() }
+        }
+        log.write(listOf(entry("after", "new")))
+
+        assertNull(log.readString("before"))
+        assertEquals("new", log.readString("after"))
+        assertEquals(1, log.size)
+        log.close()
+
+        val reopened = MemorySegmentLog(directory)
+        assertEquals(listOf("after"), reopened.keys())
+        reopened.close()
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the per-type memory change notifications
+ */
+package com.sallie.core.memory
+
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CopyOnWriteArrayList
+
+class MemoryTypeFlowsTest {
+
+    private val semantic = HierarchicalMemorySystem.MemoryType.SEMANTIC
+
+    private fun item(id: String) = HierarchicalMemorySystem.MemoryItem(id, semantic, id)
+
+    @Test
+    fun testChangesReloadObservedType() = runBlocking {
+        val flows = MemoryTypeFlows()
+        val stored = CopyOnWriteArrayList(listOf(item("a")))
+        val updates = Channel<List<String>>(Channel.UNLIMITED)
+
+        val collector = launch {
+            flows.observe(semantic) { stored.toList() }.collect { list -> updates.send(list.map { it.id }) }
+        }
+        assertEquals(listOf("a"), updates.receive())
+
+        stored.add(item("b"))
+        flows.changed(semantic)
+        assertEquals(listOf("a", "b"), updates.receive())
+
+        collector.cancelAndJoin()
+    }
+
+    @Test
+    fun testTypesAreOnlyLoadedWhenCollected() = runBlocking {
+        val flows = MemoryTypeFlows()
+        var loads = 0
+
+        flows.changed(semantic)
+        flows.changed(semantic)
+        assertEquals(0, loads)
+
+        flows.observe(semantic) { loads++; emptyList() }.first()
+        assertEquals(1, loads)
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Sallie 2.0 Module
+ * Function: Tests for the time-decayed salience index
+ */
+package com.sallie.core.memory
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SalienceIndexTest {
+
+    private val now = 1_700_000_000_000L
+    private val hour = 60 * 60 * 1000L
+
+    private fun memory(id: String, priority: Int, lastAccessed: Long) = HierarchicalMemorySystem.MemoryItem(
+        id = id,
+        type = HierarchicalMemorySystem.MemoryType.EPISODIC,
+        content = "memory $id",
+        priority = priority,
+        lastAccessed = lastAccessed
+    )
+
+    @Test
+    fun ordersByDecayedSalience() {
+        val index = SalienceIndex()
+        index.update(memory("fresh", 50, now))
+        index.update(memory("stale", 80, now - 500 * hour))
+        index.update(memory("important", 90, now))
+
+        val ranked = index.mostSalient(3, now).map { it.first }
+        assertEquals(listOf("important", "fresh", "stale"), ranked)
+    }
+
+    @Test
+    fun matchesItemSalienceOnWholeHours() {
+        val index = SalienceIndex()
+        val item = memory("a", 70, now - 48 * hour)
+        index.update(item)
+
+        assertEquals(item.calculateSalience(now), index.salienceOf("a", now)!!, 1e-9)
+    }
+
+    @Test
+    fun prunesBelowThresholdLeastSalientFirst() {
+        val index = SalienceIndex()
+        index.update(memory("low", 10, now))
+        index.update(memory("lower", 5, now))
+        index.update(memory("high", 90, now))
+
+        assertEquals(listOf("lower", "low"), index.below(0.5, now))
+        assertEquals(listOf("lower"), index.below(0.5, now, limit = 1))
+        assertEquals(listOf("high"), index.above(0.5, now))
+    }
+
+    @Test
+    fun rekeysOnUpdateAndForgetsRemoved() {
+        val index = SalienceIndex()
+        index.update(memory("a", 50, now - 1000 * hour))
+        index.update(memory("b", 50, now))
+        index.update(memory("a", 50, now))
+        index.remove("b")
+
+        assertEquals(1, index.size)
+        assertNull(index.salienceOf("b", now))
+        assertTrue(index.salienceOf("a", now)!! > 0.4)
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Tests for the automation engine's rule, scene and history storage
+ *
+ * Created with love. 💛
+ */
+
+package com.sallie.device
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class AutomationStorageTest {
+
+    private lateinit var tempDir: File
+
+    @Before
+    fun setUp() {
+        tempDir = Files.createTempDirectory("automation-storage").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    private fun event(index: Int, message: String? = null) = RuleExecutionEvent(
+        id = "event-$index",
+        ruleId = "rule-${index % 3}",
+        ruleName = "Rule ${index % 3}",
+        triggerType = TriggerType.DEVICE_STATE_CHANGE,
+        timestamp = 1_700_000_000_000L + index,
+        successful = index % 2 == 0,
+        message = message
+    )
+
+    @Test
+    fun snapshotStore_concurrentPublishersLeaveLatestSnapshot() {
+        val store = SnapshotStore<Scene> { it.id }
+        val flow = MutableStateFlow<List<Scene>>(emptyList())
+
+        val threads = List(8) { t ->
+            thread {
+                repeat(200) { i ->
+                    store.put(Scene(id = "scene-$t-$i", name = "S", deviceStates = emptyMap()))
+                    store.publishTo(flow)
+                }
+            }
+        }
+        threads.forEach { it.join() }
+
+        assertSame(store.snapshot(), flow.value)
+        assertEquals(1600, flow.value.size)
+    }
+
+    @Test
+    fun snapshotStore_keepsOrderAndReusesSnapshots() {
+        val store = SnapshotStore<Scene> { it.id }
+        store.put(Scene(id = "a", name = "A", deviceStates = emptyMap()))
+        store.put(Scene(id = "b", name = "B", deviceStates = emptyMap()))
+
+        val first = store.snapshot()
+        assertSame(first, store.snapshot())
+
+        // Replacing keeps the position, and earlier snapshots are unaffected
+        store.update("a") { it.copy(name = "A2") }
+        assertEquals(listOf("A2", "B"), store.snapshot().map { it.name })
+        assertEquals(listOf("A", "B"), first.map { it.name })
+
+        assertNull(store.update("missing") { it })
+        store.remove("a")
+        assertEquals(listOf("b"), store.snapshot().map { it.id })
+    }
+
+    @Test
+    fun ringBuffer_keepsMostRecentNewestFirst() {
+        val buffer = RingBuffer<Int>(3)
+        assertTrue(buffer.snapshot().isEmpty())
+
+        (1..5).forEach { buffer.add(it) }
+
+        assertEquals(3, buffer.size)
+        assertEquals(listOf(5, 4, 3), buffer.snapshot())
+    }
+
+    @Test
+    fun historyLog_roundTripsEvents() {
+        val log = ExecutionHistoryLog(File(tempDir, "history.log"))
+        val events = listOf(
+            event(1),
+            event(2, "line one\nline two\twith tab \\ and backslash"),
+            event(3, "")
+        )
+
+        log.append(events.take(2))
+        log.append(events.drop(2))
+
+        assertEquals(events, log.readAll())
+        log.close()
+
+        // A fresh instance appends to the same file
+        val reopened = ExecutionHistoryLog(File(tempDir, "history.log"))
+        reopened.append(listOf(event(4)))
+        assertEquals(4, reopened.readAll().size)
+        reopened.close()
+    }
+
+    @Test
+    fun historyLog_rotatesWhenFull() {
+        val file = File(tempDir, "history.log")
+        val log = ExecutionHistoryLog(file, maxBytes = 1_000)
+
+        (0 until 100).forEach { log.append(listOf(event(it))) }
+        log.close()
+
+        assertTrue(File(tempDir, "history.log.1").exists())
+        assertTrue(file.length() < 1_000)
+
+        // Only the newest events survive, still in order
+        val remaining = log.readAll()
+        assertEquals(event(99), remaining.last())
+        assertEquals(remaining.sortedBy { it.timestamp }, remaining)
+    }
+
+    @Test
+    fun historyLog_rotatesOnEncodedSize() {
+        val file = File(tempDir, "history.log")
+        val log = ExecutionHistoryLog(file, maxBytes = 1_000)
+
+        // Each heart is two chars but four bytes on disk
+        (0 until 100).forEach { log.append(listOf(event(it, "💜".repeat(20)))) }
+        log.close()
+
+        assertTrue(file.length() < 1_000)
+        assertTrue(File(tempDir, "history.log.1").length() < 1_000 + 200)
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Tests for Sallie's compiled automation rule network
+ *
+ * Covers indexed trigger dispatch, shared condition nodes and cron schedules,
+ * plus a dispatch throughput benchmark at 10k rules.
+ *
+ * Created with love. 💛
+ */
+
+package com.sallie.device
+
+import org.junit.Test
+import java.time.ZoneId
+import java.time.ZonedDateTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class RuleNetworkTest {
+
+    private val evaluator = ConditionEvaluator()
+    private val zone = ZoneId.of("UTC")
+
+    private fun network(rules: List<AutomationRule>) = RuleNetwork(rules, evaluator, { null })
+
+    private fun stateRule(
+        id: String,
+        deviceId: String,
+        property: String? = null,
+        value: Any? = null,
+        conditions: List<RuleCondition> = emptyList()
+    ) = AutomationRule(
+        id = id,
+        name = id,
+        triggers = listOf(
+            RuleTrigger(type = TriggerType.DEVICE_STATE_CHANGE, deviceId = deviceId, property = property, value = value)
+        ),
+        conditions = conditions,
+        actions = emptyList()
+    )
+
+    private fun update(deviceId: String, property: String, value: Any) =
+        DeviceStateUpdate(deviceId = deviceId, property = property, value = value, previousValue = null)
+
+    private fun at(text: String) = ZonedDateTime.of(java.time.LocalDateTime.parse(text), zone)
+
+    @Test
+    fun dispatch_matchesByDevicePropertyAndValue() {
+        val rules = listOf(
+            stateRule("any-change", "light-1"),
+            stateRule("power-change", "light-1", "power"),
+            stateRule("power-on", "light-1", "power", true),
+            stateRule("brightness-50", "light-1", "brightness", 50),
+            stateRule("other-device", "light-2", "power", true),
+            stateRule("disabled", "light-1", "power", true).copy(enabled = false)
+        )
+        val network = network(rules)
+
+        assertEquals(
+            listOf("any-change", "power-change", "power-on"),
+            network.dispatch(update("light-1", "power", true)).map { it.id }
+        )
+        assertEquals(
+            listOf("any-change", "power-change"),
+            network.dispatch(update("light-1", "power", false)).map { it.id }
+        )
+        // Numbers match by value, whatever their type
+        assertEquals(
+            listOf("any-change", "brightness-50"),
+            network.dispatch(update("light-1", "brightness", 50.0)).map { it.id }
+        )
+        assertTrue(network.dispatch(update("thermostat", "power", true)).isEmpty())
+    }
+
+    @Test
+    fun conditions_areSharedAndTrackUpdates() {
+        val darkOutside = RuleCondition(
+            deviceId = "sensor",
+            property = "lux",
+            operator = ConditionOperator.LESS_THAN,
+            value = 10
+        )
+        val first = stateRule("first", "door", "open", true, listOf(darkOutside))
+        val second = stateRule("second", "motion", "detected", true, listOf(darkOutside))
+        val network = network(listOf(first, second))
+
+        val stats = network.getStats()
+        assertEquals(1, stats.conditionNodes)
+        assertEquals(2, stats.conditionReferences)
+
+        // No sensor state yet and the device lookup finds nothing
+        assertFalse(network.conditionsMet(first))
+
+        network.dispatch(update("sensor", "lux", 3))
+        assertTrue(network.conditionsMet(first))
+        assertTrue(network.conditionsMet(second))
+
+        network.dispatch(update("sensor", "lux", 300))
+        assertFalse(network.conditionsMet(second))
+
+        // Recompiling keeps what the old network learned
+        network.dispatch(update("sensor", "lux", 3))
+        val recompiled = RuleNetwork(listOf(first, second), evaluator, { null }, network)
+        assertTrue(recompiled.conditionsMet(first))
+    }
+
+    @Test
+    fun timeTriggers_compileToCronSchedules() {
+        val rule = AutomationRule(
+            name = "timers",
+            triggers = listOf(
+                RuleTrigger(type = TriggerType.SCHEDULE, schedule = "*/15 8-18 * * MON-FRI"),
+                RuleTrigger(type = TriggerType.TIME_OF_DAY, timeOfDay = kotlinx.datetime.LocalDateTime(2022, 1, 1, 22, 30)),
+                RuleTrigger(type = TriggerType.SCHEDULE, schedule = "not a cron")
+            ),
+            actions = emptyList()
+        )
+
+        val timed = network(listOf(rule)).timedTriggers
+
+        assertEquals(2, timed.size)
+        assertEquals(at("2024-03-01T22:30"), timed[1].schedule.nextAfter(at("2024-03-01T12:00")))
+    }
+
+    @Test
+    fun cron_findsNextFiringTime() {
+        val weekdays = CronExpression.parse("*/15 8-18 * * MON-FRI")
+        // Friday evening rolls over to Monday morning
+        assertEquals(at("2024-03-04T08:00"), weekdays.nextAfter(at("2024-03-01T18:50")))
+        assertEquals(at("2024-03-01T09:15"), weekdays.nextAfter(at("2024-03-01T09:00")))
+
+        assertEquals(at("2025-01-01T00:00"), CronExpression.parse("@yearly").nextAfter(at("2024-06-15T10:00")))
+        assertEquals(at("2028-02-29T12:00"), CronExpression.parse("0 12 29 2 *").nextAfter(at("2024-03-01T00:00")))
+
+        // Day of month and day of week combine with OR, as in cron; Sunday is also 7
+        val firstOrSunday = CronExpression.parse("0 0 1 * 7")
+        assertEquals(at("2024-03-03T00:00"), firstOrSunday.nextAfter(at("2024-03-01T00:00")))
+        assertTrue(firstOrSunday.matches(java.time.LocalDateTime.parse("2024-04-01T00:00")))
+
+        // A day field that covers every day does not widen the other one
+        val monday = java.time.LocalDateTime.parse("2024-03-04T00:00")
+        for (anyDay in listOf("*/1", "?", "1-31")) {
+            assertFalse(CronExpression.parse("0 0 $anyDay * SUN").matches(monday), anyDay)
+        }
+        assertFalse(CronExpression.parse("0 0 1 * 0-7").matches(monday))
+
+        assertNull(CronExpression.parse("0 0 31 2 *").nextAfter(at("2024-01-01T00:00")))
+        assertFailsWith<IllegalArgumentException> { CronExpression.parse("60 * * * *") }
+        assertFailsWith<IllegalArgumentException> { CronExpression.parse("* * *") }
+    }
+
+    @Test
+    fun benchmark_dispatchAt10kRules() {
+        val deviceCount = 1_000
+        val properties = listOf("power", "brightness", "temperature")
+        val sharedConditions = List(50) { i ->
+            RuleCondition(deviceId = "device-$i", property = "power", operator = ConditionOperator.EQUALS, value = true)
+        }
+        val rules = List(10_000) { i ->
+            val property = properties[i % properties.size]
+            stateRule(
+                id = "rule-$i",
+                deviceId = "device-${i % deviceCount}",
+                property = property,
+                value = if (i % 2 == 0) null else (i % 5),
+                conditions = listOf(sharedConditions[i % sharedConditions.size])
+            )
+        }
+        val updates = List(200_000) { i ->
+            val property = properties[i % properties.size]
+            update("device-${(i * 7919) % deviceCount}", property, if (property == "power") i % 4 != 0 else i % 5)
+        }
+
+        val network = network(rules)
+        assertEquals(50, network.getStats().conditionNodes)
+
+        // The linear scan the engine used before, for comparison
+        fun scan(update: DeviceStateUpdate) = rules.filter { rule ->
+            rule.enabled && rule.triggers.any { trigger ->
+                trigger.deviceId == update.deviceId &&
+                    (trigger.property == null ||
+                        (trigger.property == update.property && (trigger.value == null || trigger.value == update.value)))
+            }
+        }
+
+        for (update in updates.take(2_000)) {
+            assertEquals(scan(update).map { it.id }, network.dispatch(update).map { it.id })
+        }
+
+        var indexedMatches = 0L
+        val indexedStart = System.nanoTime()
+        for (update in updates) {
+            for (rule in network.dispatch(update)) {
+                if (network.conditionsMet(rule)) indexedMatches++
+            }
+        }
+        val indexedSeconds = (System.nanoTime() - indexedStart) / 1e9
+
+        val scanUpdates = updates.take(2_000)
+        val scanStart = System.nanoTime()
+        var scanMatches = 0L
+        for (update in scanUpdates) scanMatches += scan(update).size
+        val scanSeconds = (System.nanoTime() - scanStart) / 1e9
+
+        println(
+            "Rule dispatch at 10k rules: indexed %.0f updates/s (%d firings), linear scan %.0f updates/s (%d matches)".format(
+                updates.size / indexedSeconds, indexedMatches, scanUpdates.size / scanSeconds, scanMatches
+            )
+        )
+        assertTrue(indexedMatches > 0)
+    }
+}
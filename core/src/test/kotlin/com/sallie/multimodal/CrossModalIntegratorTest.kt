@@ -0,0 +1,102 @@
+/**
+ * Tests for Sallie's cross-modal integration of multimodal understandings
+ *
+ * Created with love. 💛
+ */
+
+package com.sallie.multimodal
+
+import org.junit.Test
+import java.util.UUID
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CrossModalIntegratorTest {
+
+    private val integrator = CrossModalIntegrator()
+
+    private fun insight(category: InsightCategory, content: String, confidence: Float, source: InputType) =
+        InputInsight(
+            id = UUID.randomUUID().toString(),
+            category = category,
+            content = content,
+            confidence = confidence,
+            source = source
+        )
+
+    private fun understanding(inputType: InputType, vararg insights: InputInsight) = InputUnderstanding(
+        id = UUID.randomUUID().toString(),
+        inputType = inputType,
+        status = UnderstandingStatus.UNDERSTOOD,
+        insights = insights.toList(),
+        confidence = 0.8f,
+        timestamp = System.currentTimeMillis()
+    )
+
+    private val text = understanding(
+        InputType.TEXT,
+        insight(InsightCategory.INTENT, "SHOW_ME", 0.85f, InputType.TEXT),
+        insight(InsightCategory.ENTITY, "PET: dog", 0.9f, InputType.TEXT),
+        insight(InsightCategory.SENTIMENT, "POSITIVE", 0.6f, InputType.TEXT)
+    )
+    private val image = understanding(
+        InputType.IMAGE,
+        insight(InsightCategory.VISUAL_OBJECT, "dog", 0.7f, InputType.IMAGE),
+        insight(InsightCategory.SCENE_CONTEXT, "park", 0.8f, InputType.IMAGE)
+    )
+    private val audio = understanding(
+        InputType.AUDIO,
+        insight(InsightCategory.AUDIO_TRANSCRIPTION, "look at him run", 0.85f, InputType.AUDIO),
+        insight(InsightCategory.INTENT, "SHARE", 0.7f, InputType.AUDIO),
+        insight(InsightCategory.SENTIMENT, "EXCITED", 0.5f, InputType.AUDIO)
+    )
+
+    private fun summary(insights: List<InputInsight>) =
+        insights.map { Triple(it.category, it.content, it.confidence) }
+
+    @Test
+    fun fusion_matchesBatchIntegration() {
+        val batch = integrator.integrateUnderstandings(listOf(text, image, audio))
+
+        val session = integrator.startFusion()
+        listOf(text, image, audio).forEach { session.add(it) }
+
+        assertEquals(summary(batch), summary(session.integratedInsights()))
+        assertEquals(
+            listOf(
+                "Cross-modal reference: dog appears in TEXT, IMAGE",
+                "Resolved intent: SHOW_ME",
+                "Resolved sentiment: EXCITED",
+                "Enhanced intent: SHOW_ME with visual context of dog",
+                "Speech in context: Transcription 'look at him run' in visual scene 'park'"
+            ),
+            batch.map { it.content }
+        )
+    }
+
+    @Test
+    fun fusion_updatesAsEachModalityCompletes() {
+        val session = integrator.startFusion()
+        assertTrue(session.integratedInsights().isEmpty())
+
+        // A single modality passes its own insights through
+        session.add(image)
+        assertEquals(image.insights, session.integratedInsights())
+
+        session.add(audio)
+        val afterAudio = session.integratedInsights()
+        assertEquals(
+            listOf("Speech in context: Transcription 'look at him run' in visual scene 'park'"),
+            afterAudio.map { it.content }
+        )
+
+        // Reading again without changes returns the same insights, and unchanged ones keep their ids
+        assertSame(afterAudio, session.integratedInsights())
+        session.add(text)
+        val afterText = session.integratedInsights()
+        assertEquals(5, afterText.size)
+        assertEquals(afterAudio[0].id, afterText.first { it.content.startsWith("Speech in context") }.id)
+        assertEquals(3, session.size)
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Tests for Sallie's concurrent multimodal processing pipeline
+ *
+ * Created with love. 💛
+ */
+
+package com.sallie.multimodal
+
+import com.sallie.core.memory.EnhancedMemoryManager
+import com.sallie.core.values.ValuesSystem
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Test
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.system.measureTimeMillis
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class MultimodalProcessingSystemTest {
+
+    private val valuesSystem = ValuesSystem(EnhancedMemoryManager())
+
+    private val text = MultimodalInput.TextInput("Is my dog in this photo?")
+    private val image = MultimodalInput.ImageInput(ByteArray(4), null)
+    private val audio = MultimodalInput.AudioInput(ByteArray(4), null)
+
+    private fun typeOf(input: MultimodalInput) = when (input) {
+        is MultimodalInput.TextInput -> InputType.TEXT
+        is MultimodalInput.ImageInput -> InputType.IMAGE
+        is MultimodalInput.AudioInput, is MultimodalInput.AudioStreamInput -> InputType.AUDIO
+        is MultimodalInput.VideoInput, is MultimodalInput.VideoStreamInput -> InputType.VIDEO
+    }
+
+    private fun understood(inputType: InputType, status: UnderstandingStatus = UnderstandingStatus.UNDERSTOOD) =
+        InputUnderstanding(
+            id = UUID.randomUUID().toString(),
+            inputType = inputType,
+            status = status,
+            reason = if (status == UnderstandingStatus.REJECTED) "Not something I'll look at" else null,
+            // Intents of equal confidence resolve to the first one fused
+            insights = listOf(
+                InputInsight(UUID.randomUUID().toString(), InsightCategory.INTENT, "${inputType.name} intent", 0.8f, inputType),
+                InputInsight(UUID.randomUUID().toString(), InsightCategory.TOPIC, "dog", 0.8f, inputType)
+            ),
+            confidence = 0.8f,
+            timestamp = System.currentTimeMillis()
+        )
+
+    private fun system(
+        timeouts: Map<InputType, Long> = MultimodalProcessingSystem.DEFAULT_MODALITY_TIMEOUTS,
+        understander: InputUnderstander
+    ) = MultimodalProcessingSystem(valuesSystem, timeouts, understander)
+
+    @Test
+    fun `modalities are processed in parallel`() = runBlocking {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val processing = system { input ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            delay(300)
+            running.decrementAndGet()
+            understood(typeOf(input))
+        }
+
+        lateinit var result: MultimodalUnderstanding
+        val elapsed = measureTimeMillis { result = processing.processMultimodalInput(listOf(text, image, audio)) }
+
+        assertEquals(UnderstandingStatus.UNDERSTOOD, result.status)
+        assertEquals(3, maxRunning.get())
+        assertTrue(elapsed < 800, "Three 300ms modalities took ${elapsed}ms")
+    }
+
+    @Test
+    fun `slow and failing modalities are not understood and the rest are fused`() = runBlocking {
+        val processing = system(
+            timeouts = mapOf(InputType.TEXT to 1_000L, InputType.IMAGE to 100L, InputType.AUDIO to 1_000L)
+        ) { input ->
+            when (input) {
+                is MultimodalInput.ImageInput -> delay(5_000)
+                is MultimodalInput.AudioInput -> throw IllegalStateException("Decoder unavailable")
+                else -> Unit
+            }
+            understood(typeOf(input))
+        }
+
+        val result = withTimeout(2_000) { processing.processMultimodalInput(listOf(text, image, audio)) }
+
+        assertEquals(UnderstandingStatus.PARTIALLY_UNDERSTOOD, result.status)
+        assertEquals(
+            listOf(UnderstandingStatus.UNDERSTOOD, UnderstandingStatus.NOT_UNDERSTOOD, UnderstandingStatus.NOT_UNDERSTOOD),
+            result.understandings.map { it.status }
+        )
+        assertTrue(result.reason!!.contains("timed out after 100ms"))
+        assertTrue(result.reason!!.contains("Decoder unavailable"))
+    }
+
+    @Test
+    fun `a rejected input cancels the other modalities`() = runBlocking {
+        val audioStarted = CompletableDeferred<Unit>()
+        val audioCancelled = CompletableDeferred<Boolean>()
+        val processing = system { input ->
+            when (input) {
+                is MultimodalInput.TextInput -> {
+                    audioStarted.await()
+                    understood(InputType.TEXT, UnderstandingStatus.REJECTED)
+                }
+                else -> try {
+                    audioStarted.complete(Unit)
+                    delay(10_000)
+                    understood(typeOf(input))
+                } catch (e: CancellationException) {
+                    audioCancelled.complete(true)
+                    throw e
+                }
+            }
+        }
+
+        val result = withTimeout(2_000) { processing.processMultimodalInput(listOf(audio, text)) }
+
+        assertEquals(UnderstandingStatus.REJECTED, result.status)
+        assertEquals(listOf(InputType.TEXT), result.understandings.map { it.inputType })
+        assertTrue(withTimeout(1_000) { audioCancelled.await() })
+        assertEquals(ProcessingStatus.Rejected("Not something I'll look at", InputType.MULTIMODAL), processing.processingStatus.value)
+    }
+
+    @Test
+    fun `fusion follows input order rather than completion order`() = runBlocking {
+        val processing = system { input ->
+            // The first input finishes last
+            if (input is MultimodalInput.TextInput) delay(200)
+            understood(typeOf(input))
+        }
+
+        val emissions = processing.processMultimodalInputIncrementally(listOf(text, image)).toList()
+        val final = emissions.last()
+
+        assertEquals(2, emissions.size)
+        assertEquals(listOf(InputType.IMAGE), emissions.first().understandings.map { it.inputType })
+        assertEquals(listOf(InputType.TEXT, InputType.IMAGE), final.understandings.map { it.inputType })
+
+        assertTrue(final.integratedInsights.any { it.content == "Resolved intent: TEXT intent" })
+        val batch = CrossModalIntegrator().integrateUnderstandings(final.understandings)
+        assertEquals(
+            batch.map { it.category to it.content },
+            final.integratedInsights.map { it.category to it.content }
+        )
+    }
+}
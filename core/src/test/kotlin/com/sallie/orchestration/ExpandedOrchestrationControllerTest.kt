@@ -366,16 +366,34 @@ class ExpandedOrchestrationControllerTest {
             recentTasks = emptyList()
         )
         
+        val topicMetrics = listOf(
+            TopicMetrics(
+                topic = "topic1",
+                subscriberCount = 1,
+                publishedMessages = 5,
+                deliveredMessages = 4,
+                droppedMessages = 0,
+                queueDepth = 1,
+                maxQueueDepth = 1,
+                publishRatePerSecond = 2.5
+            )
+        )
+        
         every { 
             anyConstructed<PerformanceAnalyticsEngine>()
             .generateReport() 
         } returns performanceReport
         
+        every { 
+            anyConstructed<InterModuleCommunicationBus>()
+            .getTopicMetrics() 
+        } returns topicMetrics
+        
         // Act
         val result = controller.getPerformanceReport()
         
         // Assert
-        assertEquals(performanceReport, result)
+        assertEquals(performanceReport.copy(communicationMetrics = topicMetrics), result)
         
         verify(exactly = 1) { 
             anyConstructed<PerformanceAnalyticsEngine>()
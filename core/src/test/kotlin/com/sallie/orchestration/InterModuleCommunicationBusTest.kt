@@ -0,0 +1,163 @@
+package com.sallie.orchestration
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class InterModuleCommunicationBusTest {
+
+    private fun message(topic: String, index: Int, recipientId: String? = null) = InterModuleMessage(
+        senderId = "sender",
+        recipientId = recipientId,
+        topic = topic,
+        payload = mapOf("index" to index)
+    )
+
+    @Test
+    fun `suspend policy delivers every message in order`() = runBlocking {
+        val bus = InterModuleCommunicationBus(mailboxCapacity = 2)
+        bus.registerComponent("receiver", listOf("events"))
+
+        val received = launch(start = CoroutineStart.UNDISPATCHED) {
+            val messages = bus.subscribeToTopic("receiver", "events").take(10).toList()
+            assertEquals((0 until 10).toList(), messages.map { it.payload["index"] })
+        }
+        repeat(10) { bus.publishToTopic(message("events", it)) }
+        received.join()
+
+        val metrics = bus.getTopicMetrics().single()
+        assertEquals(10L, metrics.publishedMessages)
+        assertEquals(10L, metrics.deliveredMessages)
+        assertEquals(0, metrics.queueDepth)
+        bus.shutdown()
+    }
+
+    @Test
+    fun `drop oldest keeps the newest messages and counts drops`() = runBlocking {
+        val bus = InterModuleCommunicationBus(
+            mailboxCapacity = 3,
+            defaultOverflowPolicy = MessageOverflowPolicy.DROP_OLDEST
+        )
+        bus.registerComponent("receiver", listOf("telemetry"))
+        val batch = CompletableDeferred<List<InterModuleMessage>>()
+        launch(start = CoroutineStart.UNDISPATCHED) {
+            batch.complete(bus.subscribeToTopicBatches("receiver", "telemetry").first())
+        }
+
+        // The waiting collector takes the first message; the rest overflow its mailbox
+        repeat(8) { bus.publishToTopic(message("telemetry", it)) }
+        assertEquals(4, bus.getTopicMetrics().single().queueDepth)
+
+        assertEquals(listOf(0, 5, 6, 7), batch.await().map { it.payload["index"] })
+        assertEquals(4L, bus.getTopicMetrics().single().droppedMessages)
+        assertEquals(0, bus.getTopicMetrics().single().queueDepth)
+        bus.shutdown()
+    }
+
+    @Test
+    fun `conflated topics keep only the latest message`() = runBlocking {
+        val bus = InterModuleCommunicationBus(
+            topicOverflowPolicies = mapOf("state" to MessageOverflowPolicy.CONFLATE)
+        )
+        bus.registerComponent("receiver", listOf("state"))
+        val batch = CompletableDeferred<List<InterModuleMessage>>()
+        launch(start = CoroutineStart.UNDISPATCHED) {
+            batch.complete(bus.subscribeToTopicBatches("receiver", "state").first())
+        }
+
+        // The waiting collector takes the first message; later ones replace each other
+        repeat(5) { bus.sendMessage(message("state", it, recipientId = "receiver")) }
+
+        assertEquals(listOf(0, 4), batch.await().map { it.payload["index"] })
+        assertEquals(3L, bus.getTopicMetrics().single().droppedMessages)
+        bus.shutdown()
+    }
+
+    @Test
+    fun `messages without subscribers are not accepted`() = runBlocking {
+        val bus = InterModuleCommunicationBus()
+        assertFalse(bus.publishToTopic(message("nobody", 0)))
+        assertFalse(bus.sendMessage(message("nobody", 0, recipientId = "missing")))
+    }
+
+    @Test
+    fun `registered components receive messages sent before they collect`() = runBlocking {
+        val bus = InterModuleCommunicationBus(mailboxCapacity = 4)
+        bus.registerComponent("receiver", listOf("events"))
+
+        repeat(3) { assertTrue(bus.publishToTopic(message("events", it))) }
+        assertTrue(bus.sendMessage(message("events", 3, recipientId = "receiver")))
+        assertEquals(4, bus.getTopicMetrics().single().queueDepth)
+
+        val batch = withTimeout(1000) { bus.subscribeToTopicBatches("receiver", "events").first() }
+        assertEquals(listOf(0, 1, 2, 3), batch.map { it.payload["index"] })
+
+        // Messages keep queueing between collectors until the component unregisters
+        assertTrue(bus.publishToTopic(message("events", 4)))
+        assertEquals(4, bus.subscribeToTopic("receiver", "events").first().payload["index"])
+
+        bus.unregisterComponent("receiver")
+        assertFalse(bus.publishToTopic(message("events", 5)))
+        assertFalse(bus.sendMessage(message("events", 6, recipientId = "receiver")))
+        bus.shutdown()
+    }
+
+    @Test
+    fun `a full subscriber does not delay delivery to the others`() = runBlocking {
+        val bus = InterModuleCommunicationBus(mailboxCapacity = 1)
+        val fastReceived = CompletableDeferred<Unit>()
+        val releaseSlow = CompletableDeferred<Unit>()
+
+        val slow = launch(start = CoroutineStart.UNDISPATCHED) {
+            bus.subscribeToTopic("slow", "events").collect { releaseSlow.await() }
+        }
+        val fast = launch(start = CoroutineStart.UNDISPATCHED) {
+            bus.subscribeToTopic("fast", "events").take(3).collect { }
+            fastReceived.complete(Unit)
+        }
+
+        val publisher = launch { repeat(10) { bus.publishToTopic(message("events", it)) } }
+        withTimeout(1000) { fastReceived.await() }
+        assertTrue(publisher.isActive, "Publisher still waits for the slow subscriber")
+
+        // The fast component stopped collecting; its mailbox stays open until it unregisters
+        bus.unregisterComponent("fast")
+        releaseSlow.complete(Unit)
+        publisher.join()
+        fast.join()
+        slow.cancel()
+        bus.shutdown()
+    }
+
+    @Test
+    fun `a component has a single collector per topic`() = runBlocking {
+        val bus = InterModuleCommunicationBus()
+        val first = launch(start = CoroutineStart.UNDISPATCHED) {
+            bus.subscribeToTopic("receiver", "events").collect { }
+        }
+
+        assertFailsWith<IllegalStateException> {
+            bus.subscribeToTopic("receiver", "events").first()
+        }
+
+        // Once the first collector leaves, the component can subscribe again
+        first.cancel()
+        first.join()
+        launch(start = CoroutineStart.UNDISPATCHED) {
+            assertEquals(7, bus.subscribeToTopic("receiver", "events").first().payload["index"])
+        }
+        assertTrue(bus.publishToTopic(message("events", 7)))
+        bus.shutdown()
+    }
+}
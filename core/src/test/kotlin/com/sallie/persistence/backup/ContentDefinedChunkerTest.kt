@@ -0,0 +1,134 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * ContentDefinedChunkerTest - Tests for content-defined chunking and the chunk store
+ */
+
+package com.sallie.persistence.backup
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import java.io.File
+import java.nio.file.Files
+
+class ContentDefinedChunkerTest {
+
+    private val chunker = ContentDefinedChunker(minSize = 256, averageSize = 1024, maxSize = 4096)
+
+    private fun chunksOf(data: ByteArray): List<ByteArray> {
+        val chunks = mutableListOf<ByteArray>()
+        chunker.forEachChunk(data) { offset, length -> chunks.add(data.copyOfRange(offset, offset + length)) }
+        return chunks
+    }
+
+    @Test
+    fun testChunksCoverDataWithinSizeBounds() {
+        val data = Random(1).nextBytes(200_000)
+        val chunks = chunksOf(data)
+
+        assertContentEquals(data, chunks.fold(ByteArray(0)) { acc, chunk -> acc + chunk })
+        chunks.dropLast(1).forEach { assertTrue(it.size in 256..4096, "Chunk size ${it.size} out of bounds") }
+
+        val average = data.size / chunks.size
+        assertTrue(average in 512..2048, "Average chunk size $average far from target")
+    }
+
+    @Test
+    fun testSmallAndEmptyInputs() {
+        assertTrue(chunksOf(ByteArray(0)).isEmpty())
+        assertEquals(1, chunksOf(ByteArray(100)).size)
+    }
+
+    @Test
+    fun testUniformDataIsCutAtMaxSize() {
+        val chunks = chunksOf(ByteArray(10_000))
+
+        assertEquals(listOf(4096, 4096, 1808), chunks.map { it.size })
+    }
+
+    @Test
+    fun testInsertionOnlyChangesNearbyChunks() {
+        val original = Random(2).nextBytes(100_000)
+        val edited = original.copyOfRange(0, 50_000) + "inserted text".toByteArray() + original.copyOfRange(50_000, original.size)
+
+        val before = chunksOf(original).map { it.toList() }
+        val after = chunksOf(edited).map { it.toList() }
+        val shared = after.count { it in before.toSet() }
+
+        // Boundaries resynchronize right after the edit, so nearly every chunk is reused
+        assertTrue(shared >= before.size - 3, "Only $shared of ${before.size} chunks reused")
+    }
+
+    @Test
+    fun testChunkStoreWritesEachChunkOnce() {
+        val directory = Files.createTempDirectory("chunks").toFile()
+        try {
+            val store = ChunkStore(directory)
+            val data = "chunk contents".toByteArray()
+
+            assertTrue(store.put("ab12", data, 0, data.size) > 0)
+            assertEquals(0L, store.put("ab12", data, 0, data.size))
+            assertTrue(store.contains("ab12"))
+            assertContentEquals(data, store.open("ab12").use { it.readBytes() })
+
+            store.put("cd34", data, 0, 5)
+            assertEquals(setOf("ab12", "cd34"), store.ids().toSet())
+
+            // Temp files may belong to a write in progress, so pruning leaves them alone
+            val inFlight = File(File(directory, "ef"), "ef56.pending.tmp").apply { parentFile.mkdirs(); writeText("partial") }
+
+            assertEquals(1, store.retainOnly { setOf("cd34") })
+            assertFalse(store.contains("ab12"))
+            assertTrue(store.contains("cd34"))
+            assertTrue(inFlight.isFile)
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testPruneWaitsForBackupThatSuspends() = runBlocking {
+        val directory = Files.createTempDirectory("chunks").toFile()
+        try {
+            val store = ChunkStore(directory)
+            val data = "chunk contents".toByteArray()
+            val added = CompletableDeferred<Unit>()
+            val release = CompletableDeferred<Unit>()
+            var manifestWritten = false
+
+            // The backup suspends between adding its chunk and writing the manifest
+            val backup = launch(Dispatchers.IO) {
+                store.whileAdding {
+                    store.put("ab12", data, 0, data.size)
+                    added.complete(Unit)
+                    release.await()
+                    withContext(Dispatchers.Default) { manifestWritten = true }
+                }
+            }
+            added.await()
+
+            val prune = async(Dispatchers.IO) { store.retainOnly { if (manifestWritten) setOf("ab12") else emptySet() } }
+            delay(100)
+            assertFalse(prune.isCompleted)
+
+            release.complete(Unit)
+            backup.join()
+            assertEquals(0, prune.await())
+            assertTrue(store.contains("ab12"))
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * 💜 Sallie: Your personal companion AI with both modern capabilities and traditional values
+ * Loyal, protective, empathetic, adaptable, and growing with your guidance
+ *
+ * ChunkedGcmStreamsTest - Tests for streaming chunked encryption
+ */
+
+package com.sallie.persistence.crypto
+
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+
+class ChunkedGcmStreamsTest {
+
+    private val key: SecretKey = KeyGenerator.getInstance("AES").apply { init(256) }.generateKey()
+    private val chunkSize = 1024
+
+    private fun encrypt(data: ByteArray, secretKey: SecretKey = key): ByteArray {
+        val buffer = ByteArrayOutputStream()
+        ChunkedGcmOutputStream(buffer, secretKey, chunkSize).use { it.write(data) }
+        return buffer.toByteArray()
+    }
+
+    private fun decrypt(data: ByteArray, secretKey: SecretKey = key): ByteArray {
+        return ChunkedGcmInputStream(ByteArrayInputStream(data), secretKey).use { it.readBytes() }
+    }
+
+    @Test
+    fun testRoundTripAcrossChunkBoundaries() {
+        for (size in listOf(0, 1, chunkSize - 1, chunkSize, chunkSize + 1, chunkSize * 5 + 17)) {
+            val original = Random(size).nextBytes(size)
+
+            assertContentEquals(original, decrypt(encrypt(original)), "Round trip failed for $size bytes")
+        }
+    }
+
+    @Test
+    fun testSingleByteWritesAndReads() {
+        val original = Random(1).nextBytes(chunkSize * 2 + 3)
+        val buffer = ByteArrayOutputStream()
+        ChunkedGcmOutputStream(buffer, key, chunkSize).use { output -> original.forEach { output.write(it.toInt()) } }
+
+        val decrypted = ByteArrayOutputStream()
+        ChunkedGcmInputStream(ByteArrayInputStream(buffer.toByteArray()), key).use { input ->
+            var value = input.read()
+            while (value >= 0) {
+                decrypted.write(value)
+                value = input.read()
+            }
+        }
+
+        assertContentEquals(original, decrypted.toByteArray())
+    }
+
+    @Test
+    fun testTamperedChunkIsRejected() {
+        val encrypted = encrypt(Random(2).nextBytes(chunkSize * 3))
+        encrypted[encrypted.size / 2] = (encrypted[encrypted.size / 2].toInt() xor 1).toByte()
+
+        assertFailsWith<EncryptedStreamException> { decrypt(encrypted) }
+    }
+
+    @Test
+    fun testTruncatedStreamIsRejected() {
+        val encrypted = encrypt(Random(3).nextBytes(chunkSize * 3))
+
+        // Drop the final chunk, leaving only complete, individually valid chunks
+        val recordLength = 1 + 4 + 12 + chunkSize + 16
+        val truncated = encrypted.copyOf(25 + recordLength * 2)
+
+        assertFailsWith<EncryptedStreamException> { decrypt(truncated) }
+    }
+
+    @Test
+    fun testTrailingDataIsRejected() {
+        val encrypted = encrypt(Random(5).nextBytes(chunkSize + 10))
+
+        assertFailsWith<EncryptedStreamException> { decrypt(encrypted + encrypted.copyOfRange(25, 60)) }
+    }
+
+    @Test
+    fun testReorderedChunksAreRejected() {
+        val encrypted = encrypt(Random(4).nextBytes(chunkSize * 2 + 10))
+        val recordLength = 1 + 4 + 12 + chunkSize + 16
+        val swapped = encrypted.copyOf()
+        System.arraycopy(encrypted, 25, swapped, 25 + recordLength, recordLength)
+        System.arraycopy(encrypted, 25 + recordLength, swapped, 25, recordLength)
+
+        assertFailsWith<EncryptedStreamException> { decrypt(swapped) }
+    }
+
+    @Test
+    fun testWrongKeyIsRejected() {
+        val otherKey = KeyGenerator.getInstance("AES").apply { init(256) }.generateKey()
+        val encrypted = encrypt("secret".toByteArray())
+
+        assertFailsWith<EncryptedStreamException> { decrypt(encrypted, otherKey) }
+    }
+
+    @Test
+    fun testFormatDetection() {
+        val encrypted = ByteArrayInputStream(encrypt("data".toByteArray()))
+        val plain = ByteArrayInputStream("plain data".toByteArray())
+
+        assertTrue(ChunkedGcmFormat.isChunkedStream(encrypted))
+        assertFalse(ChunkedGcmFormat.isChunkedStream(plain))
+
+        // Detection must not consume the stream
+        assertContentEquals("data".toByteArray(), ChunkedGcmInputStream(encrypted, key).readBytes())
+    }
+}
@@ -17,6 +17,8 @@ import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertTrue
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 import java.security.SecureRandom
 import javax.crypto.spec.SecretKeySpec
 
@@ -157,4 +159,35 @@ class EncryptionServiceTest {
         assertFalse(encrypted1.contentEquals(encrypted2), 
             "Same data encrypted with different keys should produce different results")
     }
+    
+    @Test
+    fun testPasswordKeyDerivation() = runBlocking {
+        // Arrange
+        val params = PasswordKeyParams.generate()
+        val original = ByteArray(100_000) { (it % 251).toByte() }
+        
+        // Act
+        val key = encryptionService.derivePasswordKey("correct horse", params).getOrThrow()
+        val sameKey = encryptionService.derivePasswordKey("correct horse", params).getOrThrow()
+        val otherSalt = encryptionService.derivePasswordKey("correct horse", PasswordKeyParams.generate()).getOrThrow()
+        
+        val buffer = ByteArrayOutputStream()
+        encryptionService.encryptStreamWithKey(buffer, key).getOrThrow().use { it.write(original) }
+        val decrypted = encryptionService.decryptStreamWithKey(ByteArrayInputStream(buffer.toByteArray()), sameKey)
+            .getOrThrow()
+            .use { it.readBytes() }
+        
+        // Assert
+        assertContentEquals(original, decrypted, "The same password and parameters should derive the same key")
+        assertFalse(key.encoded.contentEquals(otherSalt.encoded), "A different salt should derive a different key")
+    }
+    
+    @Test
+    fun testEmptyPasswordIsRejected() = runBlocking {
+        // Act
+        val result = encryptionService.derivePasswordKey("", PasswordKeyParams.generate())
+        
+        // Assert
+        assertTrue(result.isFailure, "An empty password should not derive a key")
+    }
 }
@@ -1,41 +1,287 @@
 package org.sallie.core.engine;
 
-import org.gradle.tooling.model.HierarchicalElement;
-import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
+/**
+ * Concurrent hierarchical key-value store with snapshot persistence.
+ *
+ * Each hierarchy level is a lock-free concurrent map. {@link #persist()} writes every level to a
+ * temporary snapshot file, forces it to disk, atomically renames it over the previous one and then
+ * forces the directory, so a crash leaves either the old or the new snapshot. {@link #load()}
+ * memory-maps the snapshot and reads only keys; values are decoded and checksum-verified on first
+ * access.
+ *
+ * Snapshot layout: header {@code [magic][version][recordCount]}, then per record
+ * {@code [headerCrc][valueCrc][levelLen][keyLen][valueLen][level][key][value]}.
+ */
 public class HierarchicalMemoryManager {
-    private final Map<String, MemoryNode> rootNodes = new HashMap<>();
+    private static final int MAGIC = 0x53484d4d; // "SHMM"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 12;
+    private static final int RECORD_HEADER_BYTES = 20;
+
+    private final Map<String, MemoryNode> rootNodes = new ConcurrentHashMap<>();
+    private final Path snapshotFile;
+    private final Object persistLock = new Object();
+
+    public HierarchicalMemoryManager() {
+        this(Paths.get("hierarchical_memory.snapshot"));
+    }
+
+    public HierarchicalMemoryManager(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
 
     public void addMemory(String key, String value, String hierarchyLevel) {
-        rootNodes.computeIfAbsent(hierarchyLevel, k -> new MemoryNode(k)).addChild(new MemoryNode(key, value));
+        rootNodes.computeIfAbsent(hierarchyLevel, MemoryNode::new).addChild(new MemoryNode(key, value));
     }
 
     public String retrieveMemory(String key, String hierarchyLevel) {
         MemoryNode node = rootNodes.get(hierarchyLevel);
         if (node != null) {
             MemoryNode child = node.getChild(key);
-            return child != null ? child.value : null;
+            return child != null ? child.getValue() : null;
         }
         return null;
     }
 
+    public boolean removeMemory(String key, String hierarchyLevel) {
+        MemoryNode node = rootNodes.get(hierarchyLevel);
+        return node != null && node.children.remove(key) != null;
+    }
+
+    public int size() {
+        int total = 0;
+        for (MemoryNode level : rootNodes.values()) total += level.children.size();
+        return total;
+    }
+
+    /**
+     * Write all levels to the snapshot file. Concurrent writers may or may not be included;
+     * the file on disk is always a complete snapshot.
+     */
     public void persist() {
-        // Implement persistence logic to disk or database
+        synchronized (persistLock) {
+            Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try {
+                Path parent = snapshotFile.toAbsolutePath().getParent();
+                if (parent != null) Files.createDirectories(parent);
+
+                try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+                    channel.write(header); // Patched once the record count is known
+                    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                    int recordCount = 0;
+
+                    for (MemoryNode level : rootNodes.values()) {
+                        byte[] levelBytes = level.key.getBytes(StandardCharsets.UTF_8);
+                        for (MemoryNode child : level.children.values()) {
+                            buffer = writeRecord(channel, buffer, levelBytes, child);
+                            recordCount++;
+                        }
+                    }
+                    flush(channel, buffer);
+
+                    header.clear();
+                    header.putInt(MAGIC).putInt(VERSION).putInt(recordCount).flip();
+                    channel.write(header, 0);
+                    channel.force(true);
+                }
+                Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (parent != null) forceDirectory(parent);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to persist memory snapshot " + snapshotFile, e);
+            }
+        }
     }
 
+    /**
+     * Replace the in-memory contents with the snapshot file, if one exists. Only keys are read
+     * eagerly; values stay in the mapped file until retrieved.
+     */
     public void load() {
-        // Implement loading logic from disk or database
+        synchronized (persistLock) {
+            if (!Files.exists(snapshotFile)) return;
+            try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot larger than 2 GB cannot be mapped: " + snapshotFile);
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mapped.remaining() < FILE_HEADER_BYTES || mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                    throw new IOException("Not a memory snapshot: " + snapshotFile);
+                }
+                int recordCount = mapped.getInt();
+
+                Map<String, MemoryNode> loaded = new ConcurrentHashMap<>();
+                for (int i = 0; i < recordCount; i++) {
+                    int recordStart = mapped.position();
+                    if (mapped.remaining() < RECORD_HEADER_BYTES) {
+                        throw new IOException("Truncated record " + i + " at offset " + recordStart);
+                    }
+                    int headerCrc = mapped.getInt();
+                    int valueCrc = mapped.getInt();
+                    int levelLength = mapped.getInt();
+                    int keyLength = mapped.getInt();
+                    int valueLength = mapped.getInt();
+                    if (levelLength < 0 || keyLength < 0 || valueLength < -1
+                            || (long) levelLength + keyLength + Math.max(valueLength, 0) > mapped.remaining()) {
+                        throw new IOException("Corrupt record " + i + " at offset " + recordStart);
+                    }
+
+                    byte[] levelBytes = new byte[levelLength];
+                    byte[] keyBytes = new byte[keyLength];
+                    mapped.get(levelBytes).get(keyBytes);
+                    if (headerChecksum(levelBytes, keyBytes, valueLength) != headerCrc) {
+                        throw new IOException("Checksum mismatch in record " + i + " at offset " + recordStart);
+                    }
+
+                    String level = new String(levelBytes, StandardCharsets.UTF_8);
+                    String key = new String(keyBytes, StandardCharsets.UTF_8);
+                    MemoryNode node = valueLength < 0
+                            ? new MemoryNode(key, null)
+                            : new MemoryNode(key, mapped, mapped.position(), valueLength, valueCrc);
+                    loaded.computeIfAbsent(level, MemoryNode::new).addChild(node);
+                    mapped.position(mapped.position() + Math.max(valueLength, 0));
+                }
+
+                rootNodes.clear();
+                rootNodes.putAll(loaded);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load memory snapshot " + snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Make a rename inside {@code directory} durable. Platforms that cannot open a directory
+     * as a channel do not need this to persist the rename, so that failure is ignored.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException | UnsupportedOperationException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer writeRecord(FileChannel channel, ByteBuffer buffer, byte[] levelBytes, MemoryNode node)
+            throws IOException {
+        byte[] keyBytes = node.key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer value = node.rawValue();
+        int valueLength = value == null ? -1 : value.remaining();
+        int valueCrc = value == null ? 0 : checksum(value.duplicate());
+
+        int recordLength = RECORD_HEADER_BYTES + levelBytes.length + keyBytes.length + Math.max(valueLength, 0);
+        if (buffer.remaining() < recordLength) {
+            flush(channel, buffer);
+            if (buffer.capacity() < recordLength) buffer = ByteBuffer.allocate(recordLength);
+        }
+        buffer.putInt(headerChecksum(levelBytes, keyBytes, valueLength))
+                .putInt(valueCrc)
+                .putInt(levelBytes.length)
+                .putInt(keyBytes.length)
+                .putInt(valueLength)
+                .put(levelBytes)
+                .put(keyBytes);
+        if (value != null) buffer.put(value);
+        return buffer;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static int headerChecksum(byte[] levelBytes, byte[] keyBytes, int valueLength) {
+        CRC32 crc = new CRC32();
+        crc.update(levelBytes);
+        crc.update(keyBytes);
+        crc.update(ByteBuffer.allocate(4).putInt(valueLength).array());
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
     }
 
     private static class MemoryNode {
-        String key;
-        String value;
-        Map<String, MemoryNode> children = new HashMap<>();
+        final String key;
+        final Map<String, MemoryNode> children = new ConcurrentHashMap<>();
+
+        // Either a decoded value or a region of a mapped snapshot that is decoded on first access
+        private final boolean lazy;
+        private volatile String value;
+        private ByteBuffer mapped;
+        private int offset;
+        private int length;
+        private int expectedCrc;
 
-        MemoryNode(String key) { this.key = key; }
-        MemoryNode(String key, String value) { this.key = key; this.value = value; }
+        MemoryNode(String key) { this(key, null); }
+        MemoryNode(String key, String value) { this.key = key; this.value = value; this.lazy = false; }
+
+        MemoryNode(String key, ByteBuffer mapped, int offset, int length, int expectedCrc) {
+            this.key = key;
+            this.lazy = true;
+            this.mapped = mapped;
+            this.offset = offset;
+            this.length = length;
+            this.expectedCrc = expectedCrc;
+        }
 
         void addChild(MemoryNode node) { children.put(node.key, node); }
         MemoryNode getChild(String key) { return children.get(key); }
+
+        String getValue() {
+            String current = value;
+            if (current != null || !lazy) return current;
+            synchronized (this) {
+                if (value == null) {
+                    ByteBuffer bytes = region();
+                    if (checksum(bytes.duplicate()) != expectedCrc) {
+                        throw new IllegalStateException("Checksum mismatch in snapshot value for key " + key);
+                    }
+                    value = StandardCharsets.UTF_8.decode(bytes).toString();
+                    mapped = null;
+                }
+                return value;
+            }
+        }
+
+        /**
+         * Encoded value, copied straight from the mapped snapshot when it was never decoded
+         */
+        synchronized ByteBuffer rawValue() {
+            if (value == null && mapped != null) return region();
+            return value == null ? null : ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private ByteBuffer region() {
+            ByteBuffer region = mapped.duplicate();
+            region.position(offset).limit(offset + length);
+            return region.slice();
+        }
     }
-}
\ No newline at end of file
+}
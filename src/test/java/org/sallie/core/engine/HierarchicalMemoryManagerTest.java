@@ -0,0 +1,141 @@
+package org.sallie.core.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HierarchicalMemoryManagerTest {
+    private Path directory;
+    private Path snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hierarchical_memory");
+        snapshot = directory.resolve("memory.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void snapshotRoundTripsAllLevels() {
+        HierarchicalMemoryManager manager = new HierarchicalMemoryManager(snapshot);
+        manager.addMemory("greeting", "hello", "short_term");
+        manager.addMemory("unicode", "café 💜", "long_term");
+        manager.addMemory("empty", "", "long_term");
+        manager.addMemory("missing", null, "long_term");
+        manager.persist();
+
+        HierarchicalMemoryManager reloaded = new HierarchicalMemoryManager(snapshot);
+        reloaded.load();
+        assertEquals(4, reloaded.size());
+        assertEquals("hello", reloaded.retrieveMemory("greeting", "short_term"));
+        assertEquals("café 💜", reloaded.retrieveMemory("unicode", "long_term"));
+        assertEquals("", reloaded.retrieveMemory("empty", "long_term"));
+        assertNull(reloaded.retrieveMemory("missing", "long_term"));
+        assertNull(reloaded.retrieveMemory("greeting", "long_term"));
+
+        // Values that were never decoded are copied through a second persist unchanged
+        reloaded.addMemory("added", "later", "short_term");
+        reloaded.persist();
+        HierarchicalMemoryManager again = new HierarchicalMemoryManager(snapshot);
+        again.load();
+        assertEquals(5, again.size());
+        assertEquals("café 💜", again.retrieveMemory("unicode", "long_term"));
+        assertEquals("later", again.retrieveMemory("added", "short_term"));
+        assertTrue(Files.notExists(directory.resolve("memory.snapshot.tmp")));
+    }
+
+    @Test
+    public void corruptSnapshotIsRejected() throws IOException {
+        HierarchicalMemoryManager manager = new HierarchicalMemoryManager(snapshot);
+        manager.addMemory("key", "value", "level");
+        manager.persist();
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 8] ^= 0x7f; // Inside the record's key
+        Files.write(snapshot, bytes);
+
+        try {
+            new HierarchicalMemoryManager(snapshot).load();
+            fail("Expected a checksum failure");
+        } catch (UncheckedIOException expected) {
+            // Header checksum covers level and key
+        }
+    }
+
+    @Test
+    public void concurrentWritersAndPersistsLeaveCompleteSnapshots() throws Exception {
+        HierarchicalMemoryManager manager = new HierarchicalMemoryManager(snapshot);
+        int writers = 4;
+        int perWriter = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                String level = "level_" + w;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        manager.addMemory("key_" + i, "value_" + i, level);
+                        assertEquals("value_" + i, manager.retrieveMemory("key_" + i, level));
+                    }
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    manager.persist();
+                    // Every intermediate snapshot must be readable
+                    HierarchicalMemoryManager reader = new HierarchicalMemoryManager(snapshot);
+                    reader.load();
+                    assertTrue(reader.size() <= writers * perWriter);
+                }
+            }));
+            for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        manager.persist();
+        HierarchicalMemoryManager reloaded = new HierarchicalMemoryManager(snapshot);
+        reloaded.load();
+        assertEquals(writers * perWriter, reloaded.size());
+
+        // Lazy values are decoded safely from several threads at once
+        ExecutorService readers = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                futures.add(readers.submit(() -> {
+                    for (int level = 0; level < writers; level++) {
+                        for (int i = 0; i < perWriter; i++) {
+                            assertEquals("value_" + i, reloaded.retrieveMemory("key_" + i, "level_" + level));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+}